@@ -0,0 +1,65 @@
+package com.aws.iot;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+
+/**
+ * Jeux de données partagés par les benchmarks : résumés et partitions
+ * construits à partir d'un CSV de flux synthétique.
+ */
+final class BenchmarkData {
+
+    private BenchmarkData() {
+    }
+
+    /** Résume rows lignes générées (fichier temporaire supprimé ensuite). */
+    static PairDayTable summarize(FlowCsvGenerator generator, long rows) throws IOException {
+        Path csv = Files.createTempFile("bench_flows_", ".csv");
+        try {
+            generator.write(csv, rows);
+            return SummarizeWorker.summarizeCsv(csv, 1);
+        } finally {
+            Files.deleteIfExists(csv);
+        }
+    }
+
+    /**
+     * Contenu d'un résumé (summary == null) ou d'une partition (colonne Summary),
+     * au format binaire ou CSV, trié comme l'écrivent les workers.
+     */
+    static byte[] encode(PairDayTable table, boolean csv, String summary) throws IOException {
+
+        if (!csv) {
+            SummaryCodec.Builder builder = new SummaryCodec.Builder(summary != null);
+            for (int slot : table.sortedSlots()) {
+                builder.add(table.day(slot),
+                        table.ipText(table.src(slot)),
+                        table.ipText(table.dst(slot)),
+                        table.flowDuration(slot),
+                        table.fwdPkts(slot),
+                        summary);
+            }
+            return builder.toByteArray();
+        }
+
+        StringBuilder out = new StringBuilder();
+        out.append(summary != null ? PairPartitions.HEADER : "Date,SrcIP,DstIP,TotalFlowDuration,TotalFwdPkts")
+                .append('\n');
+
+        for (int slot : table.sortedSlots()) {
+            out.append(LocalDate.ofEpochDay(table.day(slot))).append(',')
+                    .append(table.ipText(table.src(slot))).append(',')
+                    .append(table.ipText(table.dst(slot))).append(',')
+                    .append(table.flowDuration(slot)).append(',')
+                    .append(table.fwdPkts(slot));
+            if (summary != null) {
+                out.append(',').append(summary);
+            }
+            out.append('\n');
+        }
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
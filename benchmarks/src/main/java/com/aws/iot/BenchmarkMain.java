@@ -0,0 +1,26 @@
+package com.aws.iot;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Point d'entrée du jar de benchmarks : mêmes options que org.openjdk.jmh.Main,
+ * avec le profileur GC toujours actif pour rapporter l'allocation par
+ * opération (gc.alloc.rate.norm, en octets/op).
+ *
+ * Ex. : java -jar benchmarks.jar Summarize -p pairs=1000,100000 -p skew=0,1.1
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+
+        new Runner(new OptionsBuilder()
+                .parent(cmd)
+                .addProfiler(GCProfiler.class)
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,94 @@
+package com.aws.iot;
+
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import software.amazon.awssdk.regions.Region;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Démarrage à froid des workers Lambda : chaque mesure est la première
+ * opération d'une JVM neuve (un fork par mesure), chargement des classes
+ * compris.
+ *
+ * *Init : constructeur et création des clients S3/SQS (Backend.warmUp), ce
+ * que fait l'init Lambda, sans requête réseau.
+ * summarizeFirstMessage : premier message traité par le Summarize Worker sur
+ * le backend local (petit CSV), soit le coût de la première invocation.
+ *
+ * Les options JVM de Lambda se testent avec -jvmArgsAppend, ex.
+ * -jvmArgsAppend "-XX:TieredStopAtLevel=1".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(10)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+public class ColdStartBenchmark {
+
+    private static final String BUCKET = "bench";
+
+    private Path dir;
+
+    // Fichier écrit sans les classes du pipeline, pour ne pas les charger avant la mesure
+    @Setup(Level.Trial)
+    public void writeInput() throws IOException {
+        dir = Files.createTempDirectory("coldstart_");
+
+        StringBuilder csv = new StringBuilder(
+                "Flow ID,Src IP,Src Port,Dst IP,Dst Port,Protocol,Timestamp,Flow Duration,Tot Fwd Pkts\n");
+        for (int i = 0; i < 100; i++) {
+            csv.append("f").append(i).append(",192.168.0.").append(i % 10 + 1).append(",50000,10.0.0.1,80,6,")
+                    .append(String.format("%02d/01/2022 10:00:00 AM", i % 28 + 1)).append(",1000,10\n");
+        }
+        Files.createDirectories(dir.resolve(BUCKET));
+        Files.writeString(dir.resolve(BUCKET).resolve("flows.csv"), csv);
+    }
+
+    @Benchmark
+    public Object summarizeInit() {
+        AwsBackend backend = new AwsBackend(Region.US_EAST_1);
+        SummarizeWorker worker = new SummarizeWorker(backend);
+        backend.warmUp();
+        return worker;
+    }
+
+    @Benchmark
+    public Object consolidatorInit() {
+        AwsBackend backend = new AwsBackend(Region.US_EAST_1);
+        ConsolidatorWorker worker = new ConsolidatorWorker(backend);
+        backend.warmUp();
+        return worker;
+    }
+
+    @Benchmark
+    public SQSBatchResponse summarizeFirstMessage() {
+        SQSEvent.SQSMessage message = new SQSEvent.SQSMessage();
+        message.setMessageId("1");
+        message.setBody("{\"bucket\": \"" + BUCKET + "\", \"key\": \"flows.csv\"}");
+
+        SQSEvent event = new SQSEvent();
+        event.setRecords(List.of(message));
+
+        SummarizeWorker worker = new SummarizeWorker(new LocalBackend(dir));
+        return worker.handleRequest(event, new LocalContext("summarize-worker", false));
+    }
+}
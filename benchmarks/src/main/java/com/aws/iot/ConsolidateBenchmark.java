@@ -0,0 +1,132 @@
+package com.aws.iot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consolidator Worker : lecture d'un résumé, intégration Welford
+ * (ConsolidatorWorker.integrateSummary) et écriture des shards : snapshot
+ * binaire (StatsSnapshot.write) et vue CSV (ConsolidatorWorker.writeConsolidated).
+ * Une opération = un résumé entier, ou tous les shards pour l'écriture.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ConsolidateBenchmark {
+
+    @Param("200000")
+    public long rows;
+
+    @Param({ "1000", "100000" })
+    public int pairs;
+
+    @Param("1.1")
+    public double skew;
+
+    @Param({ "1", "30" })
+    public int days;
+
+    @Param({ "bin", "csv" })
+    public String format;
+
+    private byte[] summary;
+    private List<ConsolidatorWorker.SummaryRow> summaryRows;
+    private Map<Integer, Map<String, ConsolidatorWorker.Stats>> shards;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        PairDayTable table = BenchmarkData.summarize(new FlowCsvGenerator(pairs, skew, days, 42), rows);
+        summary = BenchmarkData.encode(table, format.equals("csv"), null);
+        summaryRows = ConsolidatorWorker.readRows(summary, "bench_summary", null);
+
+        // État consolidé déjà rempli une fois : les intégrations suivantes mettent à jour
+        shards = new TreeMap<>();
+        for (int i = 0; i < ConsolidatedShards.COUNT; i++) {
+            shards.put(i, new HashMap<>());
+        }
+        ConsolidatorWorker.integrateSummary(summaryRows, shards);
+    }
+
+    @Benchmark
+    public List<ConsolidatorWorker.SummaryRow> readSummary(Throughput t) throws IOException {
+        List<ConsolidatorWorker.SummaryRow> read = ConsolidatorWorker.readRows(summary, "bench_summary", null);
+        t.add(read.size(), summary.length);
+        return read;
+    }
+
+    @Benchmark
+    public Map<Integer, Map<String, ConsolidatorWorker.Stats>> integrateSummary(Throughput t) {
+        ConsolidatorWorker.integrateSummary(summaryRows, shards);
+        t.add(summaryRows.size(), summary.length);
+        return shards;
+    }
+
+    @Benchmark
+    public long writeConsolidated(Throughput t) throws IOException {
+        CountingWriter writer = new CountingWriter();
+        long pairsWritten = 0;
+        for (Map<String, ConsolidatorWorker.Stats> shard : shards.values()) {
+            ConsolidatorWorker.writeConsolidated(ConsolidatorWorker.snapshotEntries(shard), writer);
+            pairsWritten += shard.size();
+        }
+        t.add(pairsWritten, writer.chars);
+        return writer.chars;
+    }
+
+    @Benchmark
+    public long writeSnapshot(Throughput t) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long pairsWritten = 0;
+        long bytes = 0;
+        for (Map<String, ConsolidatorWorker.Stats> shard : shards.values()) {
+            out.reset();
+            StatsSnapshot.write(ConsolidatorWorker.snapshotEntries(shard), null, out);
+            pairsWritten += shard.size();
+            bytes += out.size();
+        }
+        t.add(pairsWritten, bytes);
+        return bytes;
+    }
+
+    // Writer sans destination : mesure le formatage, pas le disque
+    private static final class CountingWriter extends Writer {
+        long chars;
+
+        @Override
+        public void write(char[] buffer, int off, int len) {
+            chars += len;
+        }
+
+        @Override
+        public void write(String s) {
+            chars += s.length();
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
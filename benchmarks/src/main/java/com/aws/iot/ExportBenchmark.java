@@ -0,0 +1,79 @@
+package com.aws.iot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Export Client : filtrage d'un couple dans une partition (ExportClient.collectPair).
+ * Une opération = une partition entière. pair : "hot" (couple le plus fréquent)
+ * ou "absent" (couple hors du fichier, le cas le plus courant lors d'un
+ * parcours de --scan-summaries).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ExportBenchmark {
+
+    @Param("200000")
+    public long rows;
+
+    @Param({ "1000", "100000" })
+    public int pairs;
+
+    @Param("1.1")
+    public double skew;
+
+    @Param("30")
+    public int days;
+
+    @Param({ "bin", "csv" })
+    public String format;
+
+    @Param({ "hot", "absent" })
+    public String pair;
+
+    private byte[] partition;
+    private long partitionRows;
+    private String src;
+    private String dst;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        FlowCsvGenerator generator = new FlowCsvGenerator(pairs, skew, days, 42);
+        PairDayTable table = BenchmarkData.summarize(generator, rows);
+
+        partition = BenchmarkData.encode(table, format.equals("csv"), "bench_summary");
+        partitionRows = table.size();
+
+        if (pair.equals("hot")) {
+            src = generator.src(0);
+            dst = generator.dst(0);
+        } else {
+            src = "172.16.0.1";
+            dst = "172.16.0.2";
+        }
+    }
+
+    @Benchmark
+    public List<ExportClient.DailyRecord> collectPair(Throughput t) throws IOException {
+        List<ExportClient.DailyRecord> records = new ArrayList<>();
+        ExportClient.collectPair(partition, src, dst, records);
+        t.add(partitionRows, partition.length);
+        return records;
+    }
+}
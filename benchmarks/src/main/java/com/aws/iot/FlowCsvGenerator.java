@@ -0,0 +1,148 @@
+package com.aws.iot;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * Générateur de CSV de flux synthétiques au format CICFlowMeter (84 colonnes).
+ *
+ * pairs : nombre de couples (SrcIP, DstIP) distincts.
+ * skew : exposant de Zipf du tirage des couples (0 = uniforme, 1.1 = quelques
+ * couples très bavards, comme sur un vrai réseau).
+ * days : nombre de jours couverts par les Timestamp, à partir du 01/01/2022.
+ *
+ * Le contenu ne dépend que des paramètres et de la graine.
+ */
+final class FlowCsvGenerator {
+
+    static final String HEADER = String.join(",",
+            "Flow ID", "Src IP", "Src Port", "Dst IP", "Dst Port", "Protocol", "Timestamp",
+            "Flow Duration", "Tot Fwd Pkts", "Tot Bwd Pkts", "TotLen Fwd Pkts", "TotLen Bwd Pkts",
+            "Fwd Pkt Len Max", "Fwd Pkt Len Min", "Fwd Pkt Len Mean", "Fwd Pkt Len Std",
+            "Bwd Pkt Len Max", "Bwd Pkt Len Min", "Bwd Pkt Len Mean", "Bwd Pkt Len Std",
+            "Flow Byts/s", "Flow Pkts/s", "Flow IAT Mean", "Flow IAT Std", "Flow IAT Max", "Flow IAT Min",
+            "Fwd IAT Tot", "Fwd IAT Mean", "Fwd IAT Std", "Fwd IAT Max", "Fwd IAT Min",
+            "Bwd IAT Tot", "Bwd IAT Mean", "Bwd IAT Std", "Bwd IAT Max", "Bwd IAT Min",
+            "Fwd PSH Flags", "Bwd PSH Flags", "Fwd URG Flags", "Bwd URG Flags",
+            "Fwd Header Len", "Bwd Header Len", "Fwd Pkts/s", "Bwd Pkts/s",
+            "Pkt Len Min", "Pkt Len Max", "Pkt Len Mean", "Pkt Len Std", "Pkt Len Var",
+            "FIN Flag Cnt", "SYN Flag Cnt", "RST Flag Cnt", "PSH Flag Cnt", "ACK Flag Cnt", "URG Flag Cnt",
+            "CWE Flag Count", "ECE Flag Cnt", "Down/Up Ratio", "Pkt Size Avg",
+            "Fwd Seg Size Avg", "Bwd Seg Size Avg", "Fwd Byts/b Avg", "Fwd Pkts/b Avg", "Fwd Blk Rate Avg",
+            "Bwd Byts/b Avg", "Bwd Pkts/b Avg", "Bwd Blk Rate Avg",
+            "Subflow Fwd Pkts", "Subflow Fwd Byts", "Subflow Bwd Pkts", "Subflow Bwd Byts",
+            "Init Fwd Win Byts", "Init Bwd Win Byts", "Fwd Act Data Pkts", "Fwd Seg Size Min",
+            "Active Mean", "Active Std", "Active Max", "Active Min",
+            "Idle Mean", "Idle Std", "Idle Max", "Idle Min", "Label");
+
+    // Colonnes après Tot Fwd Pkts, hors Label, remplies de valeurs sans importance
+    private static final int FILLER_COLUMNS = 84 - 10;
+
+    private static final DateTimeFormatter TIMESTAMP =
+            DateTimeFormatter.ofPattern("dd/MM/yyyy hh:mm:ss a", Locale.ENGLISH);
+
+    private static final LocalDateTime START = LocalDateTime.of(2022, 1, 1, 0, 0);
+
+    private final String[] srcs;
+    private final String[] dsts;
+    private final double[] cumulative; // probabilités cumulées de Zipf
+    private final int days;
+    private final long seed;
+
+    FlowCsvGenerator(int pairs, double skew, int days, long seed) {
+        this.days = days;
+        this.seed = seed;
+
+        SplittableRandom random = new SplittableRandom(seed);
+        srcs = new String[pairs];
+        dsts = new String[pairs];
+        for (int i = 0; i < pairs; i++) {
+            srcs[i] = "192.168." + random.nextInt(256) + "." + random.nextInt(1, 255);
+            dsts[i] = "10." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(1, 255);
+        }
+
+        cumulative = new double[pairs];
+        double total = 0;
+        for (int i = 0; i < pairs; i++) {
+            total += 1 / Math.pow(i + 1, skew);
+            cumulative[i] = total;
+        }
+        for (int i = 0; i < pairs; i++) {
+            cumulative[i] /= total;
+        }
+    }
+
+    /** Couple de rang rank (0 = le plus fréquent). */
+    String src(int rank) {
+        return srcs[rank];
+    }
+
+    String dst(int rank) {
+        return dsts[rank];
+    }
+
+    /** Écrit rows lignes de flux et renvoie la taille du fichier en octets. */
+    long write(Path file, long rows) throws IOException {
+        SplittableRandom random = new SplittableRandom(seed + 1);
+        long secondsSpan = days * 86_400L;
+
+        StringBuilder line = new StringBuilder(512);
+
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            writer.write(HEADER);
+            writer.write('\n');
+
+            for (long r = 0; r < rows; r++) {
+                int pair = pick(random.nextDouble());
+                int srcPort = random.nextInt(1024, 65536);
+                int dstPort = random.nextInt(10) == 0 ? 443 : 80;
+                int protocol = random.nextInt(4) == 0 ? 17 : 6;
+
+                line.setLength(0);
+                line.append(srcs[pair]).append('-').append(dsts[pair]).append('-')
+                        .append(srcPort).append('-').append(dstPort).append('-').append(protocol).append(',')
+                        .append(srcs[pair]).append(',').append(srcPort).append(',')
+                        .append(dsts[pair]).append(',').append(dstPort).append(',').append(protocol).append(',')
+                        .append(START.plusSeconds(random.nextLong(secondsSpan)).format(TIMESTAMP)).append(',')
+                        .append(random.nextInt(120_000_000)).append(',')
+                        .append(random.nextInt(1, 200));
+
+                for (int c = 0; c < FILLER_COLUMNS; c++) {
+                    line.append(',').append(random.nextInt(1000));
+                }
+                line.append(",Benign\n");
+
+                writer.append(line);
+            }
+        }
+
+        return Files.size(file);
+    }
+
+    private int pick(double u) {
+        int i = Arrays.binarySearch(cumulative, u);
+        return Math.min(i >= 0 ? i : -i - 1, cumulative.length - 1);
+    }
+
+    // Usage : FlowCsvGenerator <fichier> <lignes> <couples> <skew> <jours>
+    public static void main(String[] args) throws IOException {
+        if (args.length != 5) {
+            System.out.println("Usage: FlowCsvGenerator <file> <rows> <pairs> <skew> <days>");
+            return;
+        }
+
+        FlowCsvGenerator generator = new FlowCsvGenerator(
+                Integer.parseInt(args[2]), Double.parseDouble(args[3]), Integer.parseInt(args[4]), 42);
+        long size = generator.write(Paths.get(args[0]), Long.parseLong(args[1]));
+
+        System.out.println(args[0] + " : " + size + " octets");
+    }
+}
@@ -0,0 +1,66 @@
+package com.aws.iot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Summarize Worker : agrégation d'un CSV de flux local (SummarizeWorker.summarizeCsv).
+ * Une opération = un fichier entier.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SummarizeBenchmark {
+
+    @Param("200000")
+    public long rows;
+
+    @Param({ "1000", "100000" })
+    public int pairs;
+
+    @Param({ "0", "1.1" })
+    public double skew;
+
+    @Param({ "1", "30" })
+    public int days;
+
+    @Param({ "1", "4" })
+    public int parallelism;
+
+    private Path csv;
+    private long size;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        csv = Files.createTempFile("bench_flows_", ".csv");
+        size = new FlowCsvGenerator(pairs, skew, days, 42).write(csv, rows);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        Files.deleteIfExists(csv);
+    }
+
+    @Benchmark
+    public PairDayTable summarizeCsv(Throughput t) throws IOException {
+        PairDayTable table = SummarizeWorker.summarizeCsv(csv, parallelism);
+        t.add(rows, size);
+        return table;
+    }
+}
@@ -0,0 +1,30 @@
+package com.aws.iot;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compteurs secondaires JMH : lignes et octets traités, rapportés par JMH en
+ * rows/s et bytes/s à côté du nombre d'opérations par seconde.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Throughput {
+
+    public long rows;
+    public long bytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        rows = 0;
+        bytes = 0;
+    }
+
+    void add(long rows, long bytes) {
+        this.rows += rows;
+        this.bytes += bytes;
+    }
+}
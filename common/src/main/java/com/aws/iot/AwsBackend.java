@@ -0,0 +1,119 @@
+package com.aws.iot;
+
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.ContainerCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.EnvironmentVariableCredentialsProvider;
+import software.amazon.awssdk.awscore.client.builder.AwsClientBuilder;
+import software.amazon.awssdk.awscore.client.builder.AwsSyncClientBuilder;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.multipart.MultipartConfiguration;
+import software.amazon.awssdk.services.sqs.SqsClient;
+
+/**
+ * S3 et SQS. Les clients sont créés au premier usage : un worker qui
+ * n'envoie pas de message ne paie pas la création du client SQS.
+ *
+ * Les clients synchrones utilisent le client HTTP de java.net
+ * (url-connection-client), bien plus rapide à charger que le client Apache.
+ * La région vient d'AWS_REGION si elle n'est pas donnée ; dans Lambda, les
+ * identifiants sont lus directement (environnement, ou endpoint du conteneur
+ * avec SnapStart) au lieu de parcourir la chaîne de fournisseurs par défaut.
+ */
+public final class AwsBackend implements Backend {
+
+    // Au-delà de cette taille, les uploads asynchrones passent en multipart
+    private static final long MULTIPART_THRESHOLD = 16L << 20;
+    private static final long PART_SIZE = 8L << 20;
+
+    private static final boolean IN_LAMBDA = System.getenv("AWS_LAMBDA_FUNCTION_NAME") != null;
+
+    private final Region region;
+
+    private S3Client s3;
+    private S3AsyncClient s3Async;
+    private SqsClient sqs;
+
+    public AwsBackend(Region region) {
+        String envRegion = System.getenv("AWS_REGION");
+        this.region = region != null || envRegion == null ? region : Region.of(envRegion);
+    }
+
+    @Override
+    public ObjectStore bucket(String name) {
+        return new S3ObjectStore(this, name);
+    }
+
+    @Override
+    public MessageQueue queue(String url) {
+        return new SqsMessageQueue(this, url);
+    }
+
+    synchronized S3Client s3() {
+        if (s3 == null) {
+            s3 = configure(S3Client.builder()).build();
+        }
+        return s3;
+    }
+
+    synchronized S3AsyncClient s3Async() {
+        if (s3Async == null) {
+            var builder = S3AsyncClient.builder()
+                    .multipartEnabled(true)
+                    .multipartConfiguration(MultipartConfiguration.builder()
+                            .thresholdInBytes(MULTIPART_THRESHOLD)
+                            .minimumPartSizeInBytes(PART_SIZE)
+                            .build());
+            s3Async = region != null ? builder.region(region).build() : builder.build();
+        }
+        return s3Async;
+    }
+
+    synchronized SqsClient sqs() {
+        if (sqs == null) {
+            sqs = configure(SqsClient.builder()).build();
+        }
+        return sqs;
+    }
+
+    // Client HTTP, région et identifiants explicites : rien à découvrir au démarrage
+    private <B extends AwsClientBuilder<B, ?> & AwsSyncClientBuilder<B, ?>> B configure(B builder) {
+        builder.httpClientBuilder(UrlConnectionHttpClient.builder());
+        if (region != null) {
+            builder.region(region);
+        }
+        if (IN_LAMBDA) {
+            builder.credentialsProvider(lambdaCredentials());
+        }
+        return builder;
+    }
+
+    // SnapStart ne fournit pas les identifiants par l'environnement mais par le endpoint du conteneur
+    private static AwsCredentialsProvider lambdaCredentials() {
+        return System.getenv("AWS_ACCESS_KEY_ID") != null
+                ? EnvironmentVariableCredentialsProvider.create()
+                : ContainerCredentialsProvider.builder().build();
+    }
+
+    /** Crée les clients synchrones à l'avance (init Lambda, avant un snapshot). */
+    @Override
+    public void warmUp() {
+        s3();
+        sqs();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (s3 != null) {
+            s3.close();
+        }
+        if (s3Async != null) {
+            s3Async.close();
+        }
+        if (sqs != null) {
+            sqs.close();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.aws.iot;
+
+import software.amazon.awssdk.regions.Region;
+
+import java.nio.file.Paths;
+
+/**
+ * Fabrique des buckets et des queues utilisés par les composants.
+ *
+ * IOT_BACKEND=local remplace S3 et SQS par le répertoire IOT_LOCAL_DIR
+ * (défaut : local-data) et des queues en mémoire : les queues locales ne
+ * relient que des composants lancés dans la même JVM (voir pipeline-driver).
+ */
+public interface Backend extends AutoCloseable {
+
+    ObjectStore bucket(String name);
+
+    MessageQueue queue(String url);
+
+    /** Prépare les connexions ou clients avant la première requête ; rien à faire par défaut. */
+    default void warmUp() {
+    }
+
+    @Override
+    void close();
+
+    static Backend fromEnv() {
+        return fromEnv(null);
+    }
+
+    /** region : région des clients AWS, ou null pour la chaîne par défaut du SDK. */
+    static Backend fromEnv(Region region) {
+        if ("local".equalsIgnoreCase(System.getenv("IOT_BACKEND"))) {
+            String dir = System.getenv("IOT_LOCAL_DIR");
+            return new LocalBackend(Paths.get(dir != null ? dir : "local-data"));
+        }
+        return new AwsBackend(region);
+    }
+}
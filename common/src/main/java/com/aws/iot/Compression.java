@@ -0,0 +1,169 @@
+package com.aws.iot;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compression des objets du bucket : aucune, gzip ou zstd.
+ *
+ * À la lecture, rien n'est configuré : la compression d'un objet se déduit du
+ * suffixe de sa clé (.gz, .zst), sinon de son Content-Encoding S3, sinon des
+ * premiers octets (nombre magique gzip ou zstd). Les objets à clé fixe (shards
+ * consolidés, partitions, agrégats) n'ont pas de suffixe : ils sont reconnus
+ * à leur contenu, un bucket peut donc mélanger objets compressés ou non.
+ *
+ * À l'écriture, chaque écrivain choisit la sienne (variables *_COMPRESSION).
+ */
+public enum Compression {
+
+    NONE("", null),
+    GZIP(".gz", "gzip"),
+    ZSTD(".zst", "zstd");
+
+    /** Suffixe ajouté à la clé (vide pour NONE). */
+    public final String suffix;
+
+    /** Valeur de l'en-tête Content-Encoding (null pour NONE). */
+    public final String contentEncoding;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Niveau zstd : 3 (défaut de la bibliothèque), bon compromis pour des CSV
+    private static final int ZSTD_LEVEL = 3;
+
+    Compression(String suffix, String contentEncoding) {
+        this.suffix = suffix;
+        this.contentEncoding = contentEncoding;
+    }
+
+    /** Compression choisie par la variable d'environnement variable : none (défaut), gzip ou zstd. */
+    public static Compression fromEnv(String variable) {
+        String value = System.getenv(variable);
+        if (value == null || value.isBlank()) {
+            return NONE;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(variable + " doit valoir none, gzip ou zstd : " + value);
+        }
+    }
+
+    public static Compression ofKey(String key) {
+        if (key.endsWith(GZIP.suffix)) {
+            return GZIP;
+        }
+        if (key.endsWith(ZSTD.suffix)) {
+            return ZSTD;
+        }
+        return NONE;
+    }
+
+    public static Compression ofEncoding(String contentEncoding) {
+        if (contentEncoding == null) {
+            return NONE;
+        }
+        switch (contentEncoding.trim().toLowerCase()) {
+            case "gzip":
+            case "x-gzip":
+                return GZIP;
+            case "zstd":
+                return ZSTD;
+            default:
+                return NONE;
+        }
+    }
+
+    /** Compression reconnue aux premiers octets : 1f 8b (gzip), 28 b5 2f fd (trame zstd). */
+    public static Compression ofContent(byte[] head, int length) {
+        if (length >= 2 && (head[0] & 0xFF) == 0x1F && (head[1] & 0xFF) == 0x8B) {
+            return GZIP;
+        }
+        if (length >= 4 && (head[0] & 0xFF) == 0x28 && (head[1] & 0xFF) == 0xB5
+                && (head[2] & 0xFF) == 0x2F && (head[3] & 0xFF) == 0xFD) {
+            return ZSTD;
+        }
+        return NONE;
+    }
+
+    /** Clé sans suffixe de compression : xxx.csv.gz → xxx.csv */
+    public static String baseKey(String key) {
+        Compression c = ofKey(key);
+        return key.substring(0, key.length() - c.suffix.length());
+    }
+
+    /** Clé avec le suffixe de cette compression. */
+    public String key(String key) {
+        return key + suffix;
+    }
+
+    // ------------------------------------------------------------------------
+    // Flux
+    // ------------------------------------------------------------------------
+
+    public InputStream decompress(InputStream in) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new GZIPInputStream(in, BUFFER_SIZE);
+            case ZSTD:
+                return new BufferedInputStream(new ZstdInputStream(in), BUFFER_SIZE);
+            default:
+                return in;
+        }
+    }
+
+    /** Flux compressé écrit dans out ; le fermer termine la compression et ferme out. */
+    public OutputStream compress(OutputStream out) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new GZIPOutputStream(out, BUFFER_SIZE);
+            case ZSTD:
+                return new ZstdOutputStream(out, ZSTD_LEVEL);
+            default:
+                return out;
+        }
+    }
+
+    /**
+     * Flux décompressé d'un objet : compression de la clé, sinon Content-Encoding
+     * (flux ouvert par ObjectStore.open), sinon premiers octets.
+     */
+    public static InputStream decoding(String key, InputStream in) throws IOException {
+        Compression c = ofKey(key);
+        if (c == NONE && in instanceof ObjectStream) {
+            c = ofEncoding(((ObjectStream) in).contentEncoding());
+        }
+        if (c == NONE) {
+            if (!in.markSupported()) {
+                in = new BufferedInputStream(in, BUFFER_SIZE);
+            }
+            in.mark(4);
+            byte[] head = in.readNBytes(4);
+            in.reset();
+            c = ofContent(head, head.length);
+        }
+        return c.decompress(in);
+    }
+
+    /** Contenu décompressé d'un objet lu en entier (compression de la clé, sinon du contenu). */
+    public static byte[] decode(String key, byte[] data) throws IOException {
+        Compression c = ofKey(key);
+        if (c == NONE) {
+            c = ofContent(data, data.length);
+        }
+        if (c == NONE) {
+            return data;
+        }
+        try (InputStream in = c.decompress(new ByteArrayInputStream(data))) {
+            return in.readAllBytes();
+        }
+    }
+}
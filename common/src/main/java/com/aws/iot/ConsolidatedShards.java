@@ -0,0 +1,55 @@
+package com.aws.iot;
+
+/**
+ * Découpage de l'état consolidé en fichiers (shards) par hash de (SrcIP, DstIP).
+ *
+ * Le Consolidator Worker ne relit et ne réécrit que les shards touchés par un
+ * résumé, et l'Export Client ne télécharge que le shard du couple demandé.
+ * L'état de chaque shard est un snapshot binaire trié (SNAPSHOT_PREFIX, voir
+ * StatsSnapshot), avec le registre des résumés déjà intégrés. Le CSV du shard
+ * (PREFIX), au format de l'ancien traffic_stats.csv, en est une vue dérivée
+ * réécrite après chaque snapshot ; les shards écrits avant les snapshots se
+ * terminent par une ligne de commentaire (COMMENT_MARKER), le registre, que
+ * les lecteurs ignorent.
+ *
+ * Le nombre de shards fait partie du format stocké : le changer impose de
+ * redistribuer les fichiers existants.
+ */
+public final class ConsolidatedShards {
+
+    public static final int COUNT = 32;
+
+    public static final String PREFIX = "consolidated/traffic_stats/";
+
+    public static final String SNAPSHOT_PREFIX = "consolidated/snapshots/";
+
+    // Ancien fichier unique, migré vers les shards par le Consolidator Worker
+    public static final String LEGACY_KEY = "consolidated/traffic_stats.csv";
+
+    // Début des lignes à ignorer à la lecture d'un shard (CSVFormat.setCommentMarker)
+    public static final char COMMENT_MARKER = '#';
+
+    private ConsolidatedShards() {
+    }
+
+    /** Shard d'un couple ; ne dépend que de String.hashCode, stable d'une JVM à l'autre. */
+    public static int shardOf(String srcIP, String dstIP) {
+        int h = srcIP.hashCode() * 31 + dstIP.hashCode();
+        h ^= h >>> 16;
+        return Math.floorMod(h, COUNT);
+    }
+
+    /** Clé S3 d'un shard, ex. consolidated/traffic_stats/part-007.csv */
+    public static String key(int shard) {
+        return PREFIX + String.format("part-%03d.csv", shard);
+    }
+
+    public static String keyFor(String srcIP, String dstIP) {
+        return key(shardOf(srcIP, dstIP));
+    }
+
+    /** Clé du snapshot d'un shard, ex. consolidated/snapshots/part-007.bin */
+    public static String snapshotKey(int shard) {
+        return SNAPSHOT_PREFIX + String.format("part-%03d.bin", shard);
+    }
+}
@@ -0,0 +1,109 @@
+package com.aws.iot;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Métriques au format CloudWatch Embedded Metric Format : une ligne JSON par
+ * invocation sur la sortie standard, transformée en métriques par CloudWatch
+ * Logs sans appel PutMetricData. Dimension : Function (nom du worker).
+ *
+ * Une distribution de plus de 100 valeurs (limite EMF) est répartie sur
+ * plusieurs documents.
+ */
+public final class EmfMetricsSink implements MetricsSink {
+
+    private static final int MAX_VALUES = 100;
+
+    private final String namespace;
+    private final PrintStream out;
+
+    public EmfMetricsSink(String namespace) {
+        this(namespace, System.out);
+    }
+
+    EmfMetricsSink(String namespace, PrintStream out) {
+        this.namespace = namespace;
+        this.out = out;
+    }
+
+    @Override
+    public void emit(Metrics metrics) {
+        Map<String, Metrics.Metric> snapshot = metrics.snapshot();
+        if (snapshot.isEmpty()) {
+            return;
+        }
+
+        int documents = 1;
+        for (Metrics.Metric m : snapshot.values()) {
+            documents = Math.max(documents, (m.values().size() + MAX_VALUES - 1) / MAX_VALUES);
+        }
+
+        long timestamp = System.currentTimeMillis();
+        for (int d = 0; d < documents; d++) {
+            String line = document(metrics.function(), snapshot, d, timestamp);
+            if (line != null) {
+                out.println(line);
+            }
+        }
+    }
+
+    // Document n° d : les compteurs dans le premier, la tranche d de chaque distribution
+    private String document(String function, Map<String, Metrics.Metric> snapshot, int d, long timestamp) {
+        StringBuilder definitions = new StringBuilder();
+        StringBuilder values = new StringBuilder();
+
+        for (Map.Entry<String, Metrics.Metric> en : snapshot.entrySet()) {
+            Metrics.Metric m = en.getValue();
+            String value;
+
+            if (m.counter) {
+                if (d > 0) {
+                    continue;
+                }
+                value = Long.toString(m.value());
+            } else {
+                List<Double> all = m.values();
+                int from = d * MAX_VALUES;
+                if (from >= all.size()) {
+                    continue;
+                }
+                value = array(all.subList(from, Math.min(all.size(), from + MAX_VALUES)));
+            }
+
+            if (definitions.length() > 0) {
+                definitions.append(',');
+            }
+            definitions.append("{\"Name\":").append(quote(en.getKey()))
+                    .append(",\"Unit\":").append(quote(m.unit.cloudWatchName)).append('}');
+            values.append(',').append(quote(en.getKey())).append(':').append(value);
+        }
+
+        if (definitions.length() == 0) {
+            return null;
+        }
+
+        return "{\"_aws\":{\"Timestamp\":" + timestamp
+                + ",\"CloudWatchMetrics\":[{\"Namespace\":" + quote(namespace)
+                + ",\"Dimensions\":[[\"Function\"]],\"Metrics\":[" + definitions + "]}]}"
+                + ",\"Function\":" + quote(function)
+                + values + "}";
+    }
+
+    private static String array(List<Double> values) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            double v = values.get(i);
+            sb.append(v == Math.rint(v) ? Long.toString((long) v) : Double.toString(v));
+        }
+        return sb.append(']').toString();
+    }
+
+    private static String quote(String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
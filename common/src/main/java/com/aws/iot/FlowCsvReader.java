@@ -0,0 +1,432 @@
+package com.aws.iot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Lecteur CSV en streaming qui ne décode que les colonnes utilisées par le
+ * résumé (Src IP, Dst IP, Flow Duration, Tot Fwd Pkts, Timestamp).
+ *
+ * Les octets sont lus directement depuis le flux (S3 ou fichier local), les
+ * lignes sont découpées dans un tampon réutilisé et seules les cinq colonnes
+ * projetées sont converties : aucun CSVRecord ni String par cellule.
+ *
+ * Un lecteur peut aussi ne couvrir qu'une plage d'octets du fichier (voir
+ * FlowSummarizer) : il lit alors les lignes qui commencent dans la plage.
+ * Le découpage suppose qu'aucun champ entre guillemets ne contient de saut
+ * de ligne, ce qui est le cas des exports de flux CIC.
+ */
+final class FlowCsvReader implements Closeable {
+
+    // Colonnes projetées, dans l'ordre des slots
+    static final String[] COLUMNS = { "Src IP", "Dst IP", "Flow Duration", "Tot Fwd Pkts", "Timestamp" };
+
+    private static final int SRC = 0;
+    private static final int DST = 1;
+    private static final int FLOW_DURATION = 2;
+    private static final int FWD_PKTS = 3;
+    private static final int TIMESTAMP = 4;
+
+    // Format d'origine, utilisé seulement si le chemin rapide échoue
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy hh:mm:ss a");
+
+    private final InputStream in;
+
+    // Tampon de lecture : les données valides sont dans [pos, lim)
+    private byte[] buf = new byte[1 << 16];
+    private int pos;
+    private int lim;
+    private boolean eof;
+
+    // Position dans le fichier de buf[0], et fin de plage (lignes commençant avant limit)
+    private long base;
+    private long limit = Long.MAX_VALUE;
+
+    // Index de colonne -> slot projeté (-1 si colonne ignorée)
+    private final int[] slotOf;
+    private final int width;
+
+    // Bornes de la ligne courante et des champs projetés
+    private int lineStart;
+    private int lineEnd;
+    private final int[] fieldStart = new int[COLUMNS.length];
+    private final int[] fieldEnd = new int[COLUMNS.length];
+    private final boolean[] fieldEscaped = new boolean[COLUMNS.length];
+
+    FlowCsvReader(InputStream in) throws IOException {
+        this.in = in;
+
+        if (!nextLine()) {
+            throw new IllegalArgumentException("Fichier CSV vide : en-tête absent");
+        }
+
+        List<String> header = splitHeader();
+
+        int[] index = new int[COLUMNS.length];
+        int max = -1;
+        for (int slot = 0; slot < COLUMNS.length; slot++) {
+            index[slot] = header.indexOf(COLUMNS[slot]);
+            if (index[slot] < 0) {
+                throw new IllegalArgumentException("Colonne absente de l'en-tête : " + COLUMNS[slot]);
+            }
+            max = Math.max(max, index[slot]);
+        }
+
+        this.width = max + 1;
+        this.slotOf = new int[width];
+        Arrays.fill(slotOf, -1);
+        for (int slot = 0; slot < COLUMNS.length; slot++) {
+            slotOf[index[slot]] = slot;
+        }
+    }
+
+    /**
+     * Lecteur d'une plage [start, end) du même fichier, avec les colonnes de
+     * l'en-tête déjà lu par layout. Le flux doit être positionné sur l'octet
+     * start - 1 : la ligne en cours à cet endroit appartient à la plage
+     * précédente et est sautée.
+     */
+    FlowCsvReader(FlowCsvReader layout, InputStream in, long start, long end) throws IOException {
+        this.in = in;
+        this.slotOf = layout.slotOf;
+        this.width = layout.width;
+        this.base = start - 1;
+        this.limit = end;
+
+        nextLine();
+    }
+
+    /** Position dans le fichier juste après la dernière ligne lue (après l'en-tête à la construction). */
+    long position() {
+        return base + pos;
+    }
+
+    /** Arrête la lecture aux lignes qui commencent à partir de end. */
+    void limit(long end) {
+        this.limit = end;
+    }
+
+    // ------------------------------------------------------------------------
+    // Parcours des lignes
+    // ------------------------------------------------------------------------
+
+    /** Passe à la ligne suivante non vide ; false en fin de flux. */
+    boolean next() throws IOException {
+        while (nextLine()) {
+            if (base + lineStart >= limit) {
+                return false;
+            }
+            if (lineEnd > lineStart) {
+                splitFields();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Cherche la prochaine fin de ligne (hors guillemets), en rechargeant le tampon si besoin
+    private boolean nextLine() throws IOException {
+        int scan = pos;
+        boolean quoted = false;
+
+        while (true) {
+            for (; scan < lim; scan++) {
+                byte b = buf[scan];
+                if (b == '"') {
+                    quoted = !quoted;
+                } else if (b == '\n' && !quoted) {
+                    setLine(pos, scan);
+                    pos = scan + 1;
+                    return true;
+                }
+            }
+
+            if (eof) {
+                if (pos == lim) {
+                    return false;
+                }
+                setLine(pos, lim);
+                pos = lim;
+                return true;
+            }
+
+            scan -= pos;
+            fill();
+        }
+    }
+
+    private void setLine(int start, int end) {
+        if (end > start && buf[end - 1] == '\r') {
+            end--;
+        }
+        lineStart = start;
+        lineEnd = end;
+    }
+
+    // Compacte le tampon (ou l'agrandit si une ligne le remplit) puis lit la suite du flux
+    private void fill() throws IOException {
+        int remaining = lim - pos;
+        if (remaining == buf.length) {
+            buf = Arrays.copyOf(buf, buf.length * 2);
+        } else if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, remaining);
+        }
+        base += pos;
+        pos = 0;
+        lim = remaining;
+
+        int n = in.read(buf, lim, buf.length - lim);
+        if (n < 0) {
+            eof = true;
+        } else {
+            lim += n;
+        }
+    }
+
+    // Repère les champs projetés de la ligne courante ; s'arrête après la dernière colonne utile
+    private void splitFields() {
+        int p = lineStart;
+        int column = 0;
+
+        while (column < width) {
+            int start;
+            int end;
+            boolean escaped = false;
+
+            if (p < lineEnd && buf[p] == '"') {
+                start = p + 1;
+                p = start;
+                while (true) {
+                    if (p >= lineEnd) {
+                        end = lineEnd;
+                        break;
+                    }
+                    if (buf[p] == '"') {
+                        if (p + 1 < lineEnd && buf[p + 1] == '"') {
+                            escaped = true;
+                            p += 2;
+                            continue;
+                        }
+                        end = p;
+                        p++;
+                        break;
+                    }
+                    p++;
+                }
+                while (p < lineEnd && buf[p] != ',') {
+                    p++;
+                }
+            } else {
+                start = p;
+                while (p < lineEnd && buf[p] != ',') {
+                    p++;
+                }
+                end = p;
+            }
+
+            int slot = slotOf[column];
+            if (slot >= 0) {
+                fieldStart[slot] = start;
+                fieldEnd[slot] = end;
+                fieldEscaped[slot] = escaped;
+            }
+
+            column++;
+            if (p >= lineEnd) {
+                break;
+            }
+            p++; // virgule
+        }
+
+        if (column < width) {
+            throw new IllegalArgumentException(
+                    "Ligne incomplète : " + column + " colonnes au lieu d'au moins " + width);
+        }
+    }
+
+    // Découpe complète de la ligne d'en-tête
+    private List<String> splitHeader() {
+        List<String> names = new ArrayList<>();
+        int p = lineStart;
+        int start = p;
+        boolean quoted = false;
+
+        for (; p <= lineEnd; p++) {
+            if (p < lineEnd && buf[p] == '"') {
+                quoted = !quoted;
+            } else if (p == lineEnd || (buf[p] == ',' && !quoted)) {
+                names.add(unquote(new String(buf, start, p - start, StandardCharsets.UTF_8)));
+                start = p + 1;
+            }
+        }
+
+        // BOM UTF-8 éventuel sur la première colonne
+        if (!names.isEmpty() && names.get(0).startsWith("\uFEFF")) {
+            names.set(0, names.get(0).substring(1));
+        }
+        return names;
+    }
+
+    private static String unquote(String s) {
+        if (s.length() >= 2 && s.charAt(0) == '"' && s.charAt(s.length() - 1) == '"') {
+            return s.substring(1, s.length() - 1).replace("\"\"", "\"");
+        }
+        return s;
+    }
+
+    // ------------------------------------------------------------------------
+    // Accès aux colonnes projetées de la ligne courante
+    // ------------------------------------------------------------------------
+
+    String src() {
+        return text(SRC);
+    }
+
+    String dst() {
+        return text(DST);
+    }
+
+    /** Src IP empaquetée (voir PairDayTable.packIpv4), -1 si ce n'est pas une IPv4 canonique. */
+    long srcIpv4() {
+        return ipv4(SRC);
+    }
+
+    /** Dst IP empaquetée, -1 si ce n'est pas une IPv4 canonique. */
+    long dstIpv4() {
+        return ipv4(DST);
+    }
+
+    long flowDuration() {
+        return parseLong(FLOW_DURATION);
+    }
+
+    long fwdPkts() {
+        return parseLong(FWD_PKTS);
+    }
+
+    /**
+     * Jour (epoch day) du Timestamp "dd/MM/yyyy hh:mm:ss a".
+     *
+     * Chemin rapide sans allocation : le champ doit avoir exactement la forme
+     * du format (heure 00-12, minutes et secondes 00-59, AM ou PM), sans quoi
+     * il repasse par LocalDateTime.parse, qui rejette les lignes malformées.
+     * L'heure est contrôlée mais n'influe pas sur le jour. Comme le résolveur
+     * SMART de DateTimeFormatter, l'heure 00 est acceptée et un jour trop
+     * grand pour le mois est ramené au dernier jour valide.
+     */
+    int epochDay() {
+        int s = fieldStart[TIMESTAMP];
+        int e = fieldEnd[TIMESTAMP];
+
+        if (!fieldEscaped[TIMESTAMP] && e - s == 22
+                && buf[s + 2] == '/' && buf[s + 5] == '/' && buf[s + 10] == ' '
+                && buf[s + 13] == ':' && buf[s + 16] == ':' && buf[s + 19] == ' '
+                && (buf[s + 20] == 'A' || buf[s + 20] == 'P') && buf[s + 21] == 'M') {
+
+            int day = digits(s, 2);
+            int month = digits(s + 3, 2);
+            int year = digits(s + 6, 4);
+            int hour = digits(s + 11, 2);
+            int minute = digits(s + 14, 2);
+            int second = digits(s + 17, 2);
+
+            if (day >= 1 && day <= 31 && month >= 1 && month <= 12 && year >= 0
+                    && hour >= 0 && hour <= 12 && minute >= 0 && minute <= 59 && second >= 0 && second <= 59) {
+                return (int) epochDay(year, month, Math.min(day, monthLength(year, month)));
+            }
+        }
+
+        return (int) LocalDateTime.parse(text(TIMESTAMP), TIMESTAMP_FORMAT).toLocalDate().toEpochDay();
+    }
+
+    private long ipv4(int slot) {
+        return fieldEscaped[slot] ? -1 : PairDayTable.packIpv4(buf, fieldStart[slot], fieldEnd[slot]);
+    }
+
+    private String text(int slot) {
+        String s = new String(buf, fieldStart[slot], fieldEnd[slot] - fieldStart[slot], StandardCharsets.UTF_8);
+        return fieldEscaped[slot] ? s.replace("\"\"", "\"") : s;
+    }
+
+    // Équivalent de Long.parseLong sur les octets du champ (repli sur parseLong si douteux)
+    private long parseLong(int slot) {
+        int p = fieldStart[slot];
+        int e = fieldEnd[slot];
+        boolean negative = false;
+
+        if (p < e && (buf[p] == '-' || buf[p] == '+')) {
+            negative = buf[p] == '-';
+            p++;
+        }
+        if (p == e || e - p > 18 || fieldEscaped[slot]) {
+            return Long.parseLong(text(slot));
+        }
+
+        long v = 0;
+        for (; p < e; p++) {
+            int d = buf[p] - '0';
+            if (d < 0 || d > 9) {
+                throw new NumberFormatException("For input string: \"" + text(slot) + "\"");
+            }
+            v = v * 10 + d;
+        }
+        return negative ? -v : v;
+    }
+
+    // Lit n chiffres ASCII ; -1 si un caractère n'est pas un chiffre
+    private int digits(int p, int n) {
+        int v = 0;
+        for (int i = 0; i < n; i++) {
+            int d = buf[p + i] - '0';
+            if (d < 0 || d > 9) {
+                return -1;
+            }
+            v = v * 10 + d;
+        }
+        return v;
+    }
+
+    private static int monthLength(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean leap = (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0);
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    // Nombre de jours depuis 1970-01-01 (même calcul que LocalDate.toEpochDay)
+    private static long epochDay(int year, int month, int day) {
+        long y = year;
+        long total = 365 * y;
+        total += (y + 3) / 4 - (y + 99) / 100 + (y + 399) / 400;
+        total += (367 * month - 362) / 12;
+        total += day - 1;
+        if (month > 2) {
+            total--;
+            boolean leap = (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0);
+            if (!leap) {
+                total--;
+            }
+        }
+        return total - 719528;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,241 @@
+package com.aws.iot;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Agrégation d'un CSV de flux en totaux journaliers par (SrcIP, DstIP).
+ *
+ * En mode parallèle, les données après l'en-tête sont coupées en plages
+ * d'octets alignées sur les lignes ; chaque plage est agrégée dans sa propre
+ * PairDayTable puis les tables partielles sont fusionnées. Les sommes sont
+ * exactes et la sortie est triée, le résultat est donc identique au mode série.
+ *
+ * Avec un seuil maxGroups, chaque table est déversée sur disque quand elle
+ * l'atteint (voir SpillingAggregation) : la mémoire ne dépend plus du nombre
+ * de groupes du fichier. En parallèle, le seuil est partagé entre les plages.
+ */
+public final class FlowSummarizer {
+
+    // En dessous de cette taille par plage, le découpage ne vaut pas le coût des ouvertures
+    static final long MIN_CHUNK_BYTES = 16L << 20;
+
+    // Lignes entre deux tests d'interruption (arrêt des plages après l'échec d'une autre)
+    private static final int INTERRUPT_CHECK_ROWS = 1 << 14;
+
+    /** Ouvre un flux sur le fichier à partir d'une position (fichier local ou GET S3 "Range"). */
+    public interface RangeSource {
+        InputStream open(long from) throws IOException;
+    }
+
+    private FlowSummarizer() {
+    }
+
+    // ------------------------------------------------------------------------
+    // Mode série
+    // ------------------------------------------------------------------------
+
+    public static PairDayTable summarize(InputStream in) throws IOException {
+        return summarize(in, 0).table();
+    }
+
+    public static SpillingAggregation summarize(InputStream in, int maxGroups) throws IOException {
+        return aggregate(new FlowCsvReader(in), maxGroups);
+    }
+
+    // Agrège toutes les lignes de rows puis le ferme ; en cas d'échec, les runs déjà déversés sont supprimés
+    private static SpillingAggregation aggregate(FlowCsvReader rows, int maxGroups) throws IOException {
+        SpillingAggregation aggregation = new SpillingAggregation(maxGroups);
+        try (rows) {
+            aggregate(rows, aggregation);
+        } catch (IOException | RuntimeException e) {
+            aggregation.close();
+            throw e;
+        }
+        return aggregation;
+    }
+
+    private static void aggregate(FlowCsvReader rows, SpillingAggregation aggregation) throws IOException {
+        PairDayTable table = aggregation.table();
+        long n = 0;
+        while (rows.next()) {
+            n++;
+
+            if (n % INTERRUPT_CHECK_ROWS == 0 && Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Résumé de la plage interrompu");
+            }
+
+            // IPv4 empaquetées sans String ; IPv6 et autres valeurs via le dictionnaire
+            long src = rows.srcIpv4();
+            if (src < 0) {
+                src = table.dictionaryKey(rows.src());
+            }
+            long dst = rows.dstIpv4();
+            if (dst < 0) {
+                dst = table.dictionaryKey(rows.dst());
+            }
+
+            table.add(rows.epochDay(), src, dst, rows.flowDuration(), rows.fwdPkts());
+
+            if (aggregation.full()) {
+                table.countRows(n);
+                n = 0;
+                aggregation.spill();
+                table = aggregation.table();
+            }
+        }
+        table.countRows(n);
+    }
+
+    // ------------------------------------------------------------------------
+    // Mode parallèle
+    // ------------------------------------------------------------------------
+
+    /**
+     * Résume un fichier de size octets sur parallelism threads.
+     *
+     * first est un flux ouvert au début du fichier : il sert à lire l'en-tête
+     * puis à agréger la première plage. Les autres plages sont ouvertes via
+     * source. Si le fichier est trop petit pour être découpé, tout est lu
+     * en série sur first. Tous les flux ouverts sont refermés, y compris en
+     * cas d'échec.
+     */
+    public static PairDayTable summarize(InputStream first, long size, RangeSource source, int parallelism)
+            throws IOException {
+        return summarize(first, size, source, parallelism, 0).table();
+    }
+
+    /** Comme ci-dessus, avec au plus maxGroups groupes en mémoire (0 : sans limite). */
+    public static SpillingAggregation summarize(InputStream first, long size, RangeSource source,
+            int parallelism, int maxGroups) throws IOException {
+
+        FlowCsvReader head;
+        try {
+            head = new FlowCsvReader(first);
+        } catch (IOException | RuntimeException e) {
+            first.close();
+            throw e;
+        }
+        long dataStart = head.position();
+
+        int chunks = (int) Math.min(parallelism, (size - dataStart) / MIN_CHUNK_BYTES);
+        if (chunks <= 1) {
+            return aggregate(head, maxGroups);
+        }
+
+        long chunkSize = (size - dataStart + chunks - 1) / chunks;
+        int chunkGroups = maxGroups > 0 ? Math.max(1, maxGroups / chunks) : 0;
+        ExecutorService pool = Executors.newFixedThreadPool(chunks);
+        List<Future<SpillingAggregation>> partials = new ArrayList<>();
+
+        try {
+            head.limit(dataStart + chunkSize);
+            partials.add(pool.submit(() -> aggregate(head, chunkGroups)));
+
+            for (int i = 1; i < chunks; i++) {
+                long start = dataStart + i * chunkSize;
+                long end = Math.min(size, start + chunkSize);
+
+                partials.add(pool.submit(() -> aggregate(rangeReader(head, source, start, end), chunkGroups)));
+            }
+
+            // Fusion dans l'ordre des plages
+            SpillingAggregation total = partials.get(0).get();
+            for (int i = 1; i < partials.size(); i++) {
+                total.merge(partials.get(i).get(), maxGroups);
+            }
+            partials.clear();
+            return total;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Résumé parallèle interrompu", e);
+
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+
+        } finally {
+            pool.shutdownNow();
+            if (!partials.isEmpty()) {
+                // En cas d'échec : les plages encore en cours sont interrompues et
+                // attendues, puis les runs de toutes les plages sont supprimés
+                awaitTermination(pool);
+                for (Future<SpillingAggregation> partial : partials) {
+                    if (partial.isDone() && !partial.isCancelled()) {
+                        try {
+                            partial.get().close();
+                        } catch (InterruptedException | ExecutionException ignored) {
+                            // plage en échec : son flux et ses runs sont déjà libérés par aggregate
+                        }
+                    }
+                }
+                // Première plage jamais démarrée : le flux d'en-tête reste ouvert
+                head.close();
+            }
+        }
+    }
+
+    // Lecteur d'une plage ; le flux est refermé si sa première ligne ne peut pas être lue
+    private static FlowCsvReader rangeReader(FlowCsvReader head, RangeSource source, long start, long end)
+            throws IOException {
+        InputStream in = source.open(start - 1);
+        try {
+            return new FlowCsvReader(head, in, start, end);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    // Attend l'arrêt des tâches interrompues : au plus INTERRUPT_CHECK_ROWS lignes, ou
+    // l'expiration du délai de lecture si une plage S3 est bloquée sur le réseau
+    private static void awaitTermination(ExecutorService pool) {
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Fichier local, par plages si le fichier est gros ; meter mesure la lecture
+     * (Summarize Worker en mode "file", Upload Client en mode "summary").
+     */
+    public static SpillingAggregation summarize(Path csvFile, int parallelism, StreamMeter meter, int maxGroups)
+            throws IOException {
+        return summarize(
+                meter.wrap(Files.newInputStream(csvFile)),
+                Files.size(csvFile),
+                from -> {
+                    SeekableByteChannel channel = Files.newByteChannel(csvFile);
+                    try {
+                        channel.position(from);
+                    } catch (IOException e) {
+                        channel.close();
+                        throw e;
+                    }
+                    return meter.wrap(Channels.newInputStream(channel));
+                },
+                parallelism,
+                maxGroups);
+    }
+}
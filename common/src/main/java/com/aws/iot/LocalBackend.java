@@ -0,0 +1,37 @@
+package com.aws.iot;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Backend local : un sous-répertoire de root par bucket et une LocalQueue en
+ * mémoire par URL de queue. Permet de faire tourner tout le pipeline sur une
+ * seule machine (voir pipeline-driver).
+ */
+public final class LocalBackend implements Backend {
+
+    private final Path root;
+    private final Map<String, LocalObjectStore> buckets = new ConcurrentHashMap<>();
+    private final Map<String, LocalQueue> queues = new ConcurrentHashMap<>();
+
+    public LocalBackend(Path root) {
+        this.root = root;
+    }
+
+    @Override
+    public LocalObjectStore bucket(String name) {
+        return buckets.computeIfAbsent(name, n -> new LocalObjectStore(root.resolve(n), root.resolve(".tmp")));
+    }
+
+    // Deux URL désignent la même queue si elles finissent par le même nom
+    @Override
+    public LocalQueue queue(String url) {
+        String name = url.substring(url.lastIndexOf('/') + 1);
+        return queues.computeIfAbsent(name, LocalQueue::new);
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,257 @@
+package com.aws.iot;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Bucket local : la clé a/b.csv est le fichier dir/a/b.csv.
+ *
+ * Une écriture passe par un fichier temporaire puis un renommage atomique :
+ * comme avec S3, un lecteur voit l'ancien ou le nouveau contenu, jamais un
+ * objet à moitié écrit.
+ *
+ * Les écritures conditionnelles (putIfMatch) sont atomiques entre les threads
+ * d'une même JVM (pipeline-driver), pas entre plusieurs processus.
+ */
+public final class LocalObjectStore implements ObjectStore {
+
+    // Vérification de l'ETag et renommage d'une écriture conditionnelle
+    private static final Object CONDITIONAL_LOCK = new Object();
+
+    private final Path dir;
+    private final Path tmpDir;
+
+    LocalObjectStore(Path dir, Path tmpDir) {
+        this.dir = dir;
+        this.tmpDir = tmpDir;
+    }
+
+    private Path file(String key) {
+        return dir.resolve(key);
+    }
+
+    @Override
+    public ObjectStream open(String key, long from) throws IOException {
+        try {
+            SeekableByteChannel channel = Files.newByteChannel(file(key));
+            channel.position(from);
+            return new ObjectStream(Channels.newInputStream(channel), Math.max(0, channel.size() - from));
+        } catch (NoSuchFileException e) {
+            throw new ObjectNotFoundException(key, e);
+        }
+    }
+
+    // ETag lu avant l'ouverture : si le fichier est remplacé entre les deux, il est
+    // périmé et ne correspondra pas à celui d'une autre lecture de la même version
+    @Override
+    public ObjectStream open(String key, long from, long length) throws IOException {
+        if (length <= 0) {
+            throw new IllegalArgumentException("Plage vide : " + key + " à " + from);
+        }
+        try {
+            String etag = etag(key);
+            SeekableByteChannel channel = Files.newByteChannel(file(key));
+            try {
+                channel.position(from);
+                long n = Math.max(0, Math.min(length, channel.size() - from));
+                return new ObjectStream(new Range(Channels.newInputStream(channel), n), n, null, etag);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (NoSuchFileException e) {
+            throw new ObjectNotFoundException(key, e);
+        }
+    }
+
+    // Flux limité aux octets d'une plage
+    private static final class Range extends FilterInputStream {
+
+        private long remaining;
+
+        Range(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        try {
+            return Files.readAllBytes(file(key));
+        } catch (NoSuchFileException e) {
+            throw new ObjectNotFoundException(key, e);
+        }
+    }
+
+    // ETag local : taille, date de modification et fichier (inode), qui change à
+    // chaque écriture puisqu'elle renomme un nouveau fichier. Lus avant le contenu :
+    // si le fichier est remplacé entre les deux, l'ETag est périmé et le prochain
+    // appel relit (ou l'écriture conditionnelle échoue).
+    private String etag(String key) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file(key), BasicFileAttributes.class);
+        Object fileKey = attributes.fileKey();
+        return "\"" + Long.toHexString(attributes.size()) + "-"
+                + Long.toHexString(attributes.lastModifiedTime().to(TimeUnit.MICROSECONDS))
+                + (fileKey != null ? "-" + Integer.toHexString(fileKey.hashCode()) : "") + "\"";
+    }
+
+    @Override
+    public Versioned getIfNoneMatch(String key, String etag) throws IOException {
+        try {
+            String current = etag(key);
+
+            if (current.equals(etag)) {
+                return new Versioned(null, etag);
+            }
+            return new Versioned(Files.readAllBytes(file(key)), current);
+        } catch (NoSuchFileException e) {
+            throw new ObjectNotFoundException(key, e);
+        }
+    }
+
+    @Override
+    public void put(String key, Path file) throws IOException {
+        Path tmp = tmpFile();
+        Files.copy(file, tmp, StandardCopyOption.REPLACE_EXISTING);
+        publish(tmp, key);
+    }
+
+    @Override
+    public void put(String key, byte[] data) throws IOException {
+        Path tmp = tmpFile();
+        Files.write(tmp, data);
+        publish(tmp, key);
+    }
+
+    @Override
+    public boolean putIfMatch(String key, Path file, String etag) throws IOException {
+        Path tmp = tmpFile();
+        Files.copy(file, tmp, StandardCopyOption.REPLACE_EXISTING);
+
+        synchronized (CONDITIONAL_LOCK) {
+            String current;
+            try {
+                current = etag(key);
+            } catch (NoSuchFileException e) {
+                current = null;
+            }
+
+            if (!Objects.equals(current, etag)) {
+                Files.deleteIfExists(tmp);
+                return false;
+            }
+            publish(tmp, key);
+            return true;
+        }
+    }
+
+    private Path tmpFile() throws IOException {
+        Files.createDirectories(tmpDir);
+        return Files.createTempFile(tmpDir, "put_", ".tmp");
+    }
+
+    private void publish(Path tmp, String key) throws IOException {
+        Path target = file(key);
+        Files.createDirectories(target.getParent());
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Files.deleteIfExists(file(key));
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return Files.isRegularFile(file(key));
+    }
+
+    @Override
+    public List<String> list(String prefix) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return new ArrayList<>();
+        }
+
+        List<String> keys = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.filter(Files::isRegularFile).forEach(f -> {
+                String key = dir.relativize(f).toString().replace(f.getFileSystem().getSeparator(), "/");
+                if (key.startsWith(prefix)) {
+                    keys.add(key);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            // Fichier supprimé pendant le parcours
+            throw e.getCause();
+        }
+
+        keys.sort(null);
+        return keys;
+    }
+
+    @Override
+    public Map<String, String> listEtags(String prefix) throws IOException {
+        Map<String, String> etags = new LinkedHashMap<>();
+        for (String key : list(prefix)) {
+            try {
+                etags.put(key, etag(key));
+            } catch (NoSuchFileException e) {
+                // Supprimé depuis la liste
+            }
+        }
+        return etags;
+    }
+}
@@ -0,0 +1,127 @@
+package com.aws.iot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queue en mémoire qui remplace SQS dans une même JVM.
+ *
+ * Un message reçu n'est plus dans la queue ; le consommateur le remet avec
+ * release() en cas d'échec, comme SQS après l'expiration de la visibilité.
+ */
+public final class LocalQueue implements MessageQueue {
+
+    /** Message reçu ; les dates sont en System.nanoTime(). */
+    public static final class Message {
+        private final String id;
+        private final String body;
+        private final long sentNanos;
+        private long receivedNanos;
+        private int receiveCount;
+
+        Message(String id, String body) {
+            this.id = id;
+            this.body = body;
+            this.sentNanos = System.nanoTime();
+        }
+
+        public String id() {
+            return id;
+        }
+
+        public String body() {
+            return body;
+        }
+
+        public long sentNanos() {
+            return sentNanos;
+        }
+
+        public long receivedNanos() {
+            return receivedNanos;
+        }
+
+        public int receiveCount() {
+            return receiveCount;
+        }
+    }
+
+    private final String name;
+    private final LinkedBlockingQueue<Message> messages = new LinkedBlockingQueue<>();
+    private final AtomicLong ids = new AtomicLong();
+
+    LocalQueue(String name) {
+        this.name = name;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public void send(String body) {
+        messages.add(new Message(name + "-" + ids.incrementAndGet(), body));
+    }
+
+    @Override
+    public List<Integer> sendBatch(List<String> bodies) {
+        for (String body : bodies) {
+            send(body);
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Attend au plus waitMillis un premier message, puis jusqu'à windowMillis
+     * de plus pour remplir un lot de max messages (batch window des event
+     * source mappings). Renvoie une liste vide si la queue est restée vide.
+     */
+    public List<Message> receive(int max, long waitMillis, long windowMillis) throws InterruptedException {
+        List<Message> batch = new ArrayList<>();
+
+        Message first = messages.poll(waitMillis, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return batch;
+        }
+        batch.add(first);
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        while (batch.size() < max) {
+            messages.drainTo(batch, max - batch.size());
+            long left = deadline - System.nanoTime();
+            if (batch.size() >= max || left <= 0) {
+                break;
+            }
+            Message next = messages.poll(left, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+        }
+
+        long now = System.nanoTime();
+        for (Message m : batch) {
+            m.receivedNanos = now;
+            m.receiveCount++;
+        }
+        return batch;
+    }
+
+    /** Remet un message reçu dans la queue (traitement en échec). */
+    public void release(Message message) {
+        messages.add(message);
+    }
+
+    /** Messages en attente (hors messages reçus en cours de traitement). */
+    public int size() {
+        return messages.size();
+    }
+
+    /** Nombre de messages envoyés depuis la création (sans les remises de release()). */
+    public long sent() {
+        return ids.get();
+    }
+}
@@ -0,0 +1,14 @@
+package com.aws.iot;
+
+import java.util.List;
+
+/** Envoi de messages vers une queue : SQS en production, LocalQueue en local. */
+public interface MessageQueue {
+
+    int MAX_BATCH = 10;
+
+    void send(String body);
+
+    /** Envoie au plus MAX_BATCH messages, renvoie les index des messages refusés. */
+    List<Integer> sendBatch(List<String> bodies);
+}
@@ -0,0 +1,97 @@
+package com.aws.iot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Métriques d'une invocation d'un worker, envoyées à un MetricsSink à la fin
+ * du handler.
+ *
+ * Compteurs : une valeur additionnée sur l'invocation (ex. lignes lues).
+ * Distributions : une valeur par mesure (ex. durée de chaque téléchargement),
+ * d'où les percentiles côté CloudWatch ou dans le tableau local.
+ *
+ * Les noms sont ceux des métriques CloudWatch ; l'ordre d'insertion est
+ * conservé pour l'affichage. Les méthodes sont thread-safe mais prévues pour
+ * quelques appels par fichier, pas par ligne.
+ */
+public final class Metrics {
+
+    public enum Unit {
+        COUNT("Count"),
+        BYTES("Bytes"),
+        MILLISECONDS("Milliseconds"),
+        COUNT_PER_SECOND("Count/Second");
+
+        public final String cloudWatchName;
+
+        Unit(String cloudWatchName) {
+            this.cloudWatchName = cloudWatchName;
+        }
+    }
+
+    /** Compteur (value) ou distribution (values) ; unit commune. */
+    public static final class Metric {
+        public final Unit unit;
+        public final boolean counter;
+        long value;
+        final List<Double> values = new ArrayList<>();
+
+        Metric(Unit unit, boolean counter) {
+            this.unit = unit;
+            this.counter = counter;
+        }
+
+        public long value() {
+            return value;
+        }
+
+        public List<Double> values() {
+            return Collections.unmodifiableList(values);
+        }
+    }
+
+    private final String function;
+    private final Map<String, Metric> metrics = new LinkedHashMap<>();
+
+    public Metrics(String function) {
+        this.function = function;
+    }
+
+    public String function() {
+        return function;
+    }
+
+    public void count(String name, long delta) {
+        add(name, Unit.COUNT, delta);
+    }
+
+    public void countBytes(String name, long bytes) {
+        add(name, Unit.BYTES, bytes);
+    }
+
+    private synchronized void add(String name, Unit unit, long delta) {
+        metrics.computeIfAbsent(name, k -> new Metric(unit, true)).value += delta;
+    }
+
+    public synchronized void record(String name, double value, Unit unit) {
+        metrics.computeIfAbsent(name, k -> new Metric(unit, false)).values.add(value);
+    }
+
+    /** Durée en millisecondes depuis startNanos (System.nanoTime()). */
+    public void timeSince(String name, long startNanos) {
+        recordNanos(name, System.nanoTime() - startNanos);
+    }
+
+    public void recordNanos(String name, long nanos) {
+        record(name, nanos / 1e6, Unit.MILLISECONDS);
+    }
+
+    /** Copie des métriques, dans l'ordre de création. */
+    public synchronized Map<String, Metric> snapshot() {
+        return new LinkedHashMap<>(metrics);
+    }
+}
@@ -0,0 +1,29 @@
+package com.aws.iot;
+
+/**
+ * Destination des métriques des workers.
+ *
+ * METRICS_SINK=emf : JSON au format CloudWatch Embedded Metric Format sur la
+ * sortie standard (défaut dans Lambda) ; none : métriques ignorées (défaut
+ * hors de Lambda). Un lancement local peut passer un SummaryMetricsSink aux
+ * workers pour afficher un tableau récapitulatif.
+ */
+public interface MetricsSink {
+
+    MetricsSink NONE = metrics -> {
+    };
+
+    void emit(Metrics metrics);
+
+    static MetricsSink fromEnv() {
+        String sink = System.getenv("METRICS_SINK");
+        if (sink == null) {
+            sink = System.getenv("AWS_LAMBDA_FUNCTION_NAME") != null ? "emf" : "none";
+        }
+        return switch (sink.toLowerCase()) {
+            case "emf" -> new EmfMetricsSink(System.getenv().getOrDefault("METRICS_NAMESPACE", "IotPipeline"));
+            case "none" -> NONE;
+            default -> throw new IllegalArgumentException("METRICS_SINK inconnu : " + sink);
+        };
+    }
+}
@@ -0,0 +1,11 @@
+package com.aws.iot;
+
+import java.io.IOException;
+
+/** Objet absent du stockage (NoSuchKey pour S3, fichier absent en local). */
+public class ObjectNotFoundException extends IOException {
+
+    public ObjectNotFoundException(String key, Throwable cause) {
+        super("Objet introuvable : " + key, cause);
+    }
+}
@@ -0,0 +1,90 @@
+package com.aws.iot;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Stockage d'objets d'un bucket : S3 en production (S3ObjectStore), un
+ * répertoire local pour les tests de charge (LocalObjectStore).
+ *
+ * Les clés utilisent '/' comme séparateur, comme dans S3. Un objet absent
+ * lève ObjectNotFoundException.
+ *
+ * Lecture-modification-écriture concurrente : lire l'objet et son ETag avec
+ * getIfNoneMatch(key, null), puis l'écrire avec putIfMatch ; en cas de
+ * conflit, relire et recommencer.
+ */
+public interface ObjectStore {
+
+    /** Contenu d'un objet et son ETag ; data est null si l'objet n'a pas changé. */
+    final class Versioned {
+        public final byte[] data;
+        public final String etag;
+
+        public Versioned(byte[] data, String etag) {
+            this.data = data;
+            this.etag = etag;
+        }
+
+        public boolean notModified() {
+            return data == null;
+        }
+    }
+
+    /** Flux de l'objet à partir de l'octet from (0 = début). */
+    ObjectStream open(String key, long from) throws IOException;
+
+    /**
+     * Flux d'au plus length octets (length > 0) à partir de l'octet from, moins
+     * si l'objet se termine avant : seuls ces octets sont transférés. Lu
+     * directement dans le stockage, jamais dans un cache ; le flux porte l'ETag
+     * de l'objet (voir ObjectStream.etag).
+     */
+    ObjectStream open(String key, long from, long length) throws IOException;
+
+    byte[] get(String key) throws IOException;
+
+    /**
+     * GET conditionnel (If-None-Match) : l'objet et son ETag, ou notModified()
+     * si etag est toujours celui de l'objet. etag null : lecture simple.
+     */
+    Versioned getIfNoneMatch(String key, String etag) throws IOException;
+
+    void put(String key, Path file) throws IOException;
+
+    void put(String key, byte[] data) throws IOException;
+
+    /**
+     * PUT conditionnel : écrit l'objet seulement si son ETag est toujours etag
+     * (If-Match), ou seulement s'il n'existe pas quand etag est null
+     * (If-None-Match: *). Renvoie false, sans rien écrire, si un autre
+     * écrivain est passé entre-temps.
+     */
+    boolean putIfMatch(String key, Path file, String etag) throws IOException;
+
+    /** Upload sans bloquer l'appelant ; synchrone par défaut. */
+    default CompletableFuture<Void> putAsync(String key, Path file) {
+        try {
+            put(key, file);
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    void delete(String key) throws IOException;
+
+    boolean exists(String key) throws IOException;
+
+    /** Toutes les clés commençant par prefix, dans l'ordre lexicographique. */
+    List<String> list(String prefix) throws IOException;
+
+    /**
+     * Comme list, avec l'ETag de chaque objet (celui que renvoie une lecture) :
+     * repérer les objets réécrits sans les relire.
+     */
+    Map<String, String> listEtags(String prefix) throws IOException;
+}
@@ -0,0 +1,42 @@
+package com.aws.iot;
+
+import java.io.FilterInputStream;
+import java.io.InputStream;
+
+/** Flux d'un objet ouvert par ObjectStore.open, avec le nombre d'octets à lire. */
+public class ObjectStream extends FilterInputStream {
+
+    private final long length;
+    private final String contentEncoding;
+    private final String etag;
+
+    public ObjectStream(InputStream in, long length) {
+        this(in, length, null);
+    }
+
+    public ObjectStream(InputStream in, long length, String contentEncoding) {
+        this(in, length, contentEncoding, null);
+    }
+
+    public ObjectStream(InputStream in, long length, String contentEncoding, String etag) {
+        super(in);
+        this.length = length;
+        this.contentEncoding = contentEncoding;
+        this.etag = etag;
+    }
+
+    /** Octets disponibles dans ce flux (taille de l'objet moins la position de départ). */
+    public long length() {
+        return length;
+    }
+
+    /** En-tête Content-Encoding de l'objet (S3), null s'il n'en a pas (voir Compression). */
+    public String contentEncoding() {
+        return contentEncoding;
+    }
+
+    /** ETag de l'objet lu, null s'il n'est pas connu : deux lectures par plage de même ETag lisent la même version. */
+    public String etag() {
+        return etag;
+    }
+}
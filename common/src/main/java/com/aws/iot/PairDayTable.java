@@ -0,0 +1,312 @@
+package com.aws.iot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Table d'agrégation (jour, SrcIP, DstIP) → totaux, à adressage ouvert.
+ *
+ * Les clés sont des primitives : une IPv4 canonique est empaquetée dans les
+ * 32 bits bas d'un long, toute autre valeur (IPv6, nom, IPv4 non canonique)
+ * passe par un dictionnaire et reçoit une clé >= DICTIONARY_BASE. Les totaux
+ * sont gardés dans des tableaux parallèles : aucun objet par ligne agrégée.
+ */
+public final class PairDayTable {
+
+    // Les clés de dictionnaire commencent après l'espace IPv4
+    static final long DICTIONARY_BASE = 1L << 32;
+
+    private static final long EMPTY = -1;
+    private static final int INITIAL_CAPACITY = 1 << 12;
+
+    // Slots (vides si srcs[i] == EMPTY)
+    private long[] srcs;
+    private long[] dsts;
+    private int[] days;
+    private long[] flowDurations;
+    private long[] fwdPkts;
+
+    private int size;
+    private int mask;
+
+    // Lignes CSV agrégées (métriques)
+    private long rows;
+
+    // Valeurs non IPv4 : texte <-> index
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    PairDayTable() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        srcs = new long[capacity];
+        dsts = new long[capacity];
+        days = new int[capacity];
+        flowDurations = new long[capacity];
+        fwdPkts = new long[capacity];
+        Arrays.fill(srcs, EMPTY);
+        mask = capacity - 1;
+    }
+
+    // ------------------------------------------------------------------------
+    // Encodage des adresses
+    // ------------------------------------------------------------------------
+
+    /**
+     * IPv4 canonique ("a.b.c.d", octets 0..255 sans zéro initial) empaquetée
+     * sur 32 bits, ou -1 si la valeur doit passer par le dictionnaire. Le
+     * format canonique garantit que ipText() restitue exactement le texte lu.
+     */
+    static long packIpv4(byte[] b, int from, int to) {
+        long packed = 0;
+        int p = from;
+
+        for (int octet = 0; octet < 4; octet++) {
+            if (octet > 0) {
+                if (p >= to || b[p] != '.') {
+                    return -1;
+                }
+                p++;
+            }
+
+            int start = p;
+            int v = 0;
+            while (p < to && b[p] >= '0' && b[p] <= '9' && p - start < 3) {
+                v = v * 10 + (b[p] - '0');
+                p++;
+            }
+
+            int len = p - start;
+            if (len == 0 || v > 255 || (len > 1 && b[start] == '0')) {
+                return -1;
+            }
+            packed = (packed << 8) | v;
+        }
+
+        return p == to ? packed : -1;
+    }
+
+    /** Clé d'une valeur non IPv4 (IPv6, nom d'hôte...). */
+    long dictionaryKey(String value) {
+        Integer id = dictionary.get(value);
+        if (id == null) {
+            id = names.size();
+            dictionary.put(value, id);
+            names.add(value);
+        }
+        return DICTIONARY_BASE + id;
+    }
+
+    /** Texte d'origine d'une clé d'adresse. */
+    String ipText(long key) {
+        if (key >= DICTIONARY_BASE) {
+            return names.get((int) (key - DICTIONARY_BASE));
+        }
+        return ipv4Text(key);
+    }
+
+    /** Texte d'une IPv4 empaquetée par packIpv4. */
+    static String ipv4Text(long packed) {
+        return (packed >>> 24) + "." + ((packed >>> 16) & 0xFF) + "." + ((packed >>> 8) & 0xFF) + "." + (packed & 0xFF);
+    }
+
+    // ------------------------------------------------------------------------
+    // Agrégation
+    // ------------------------------------------------------------------------
+
+    void add(int day, long src, long dst, long flowDuration, long fwdPkt) {
+        int i = hash(day, src, dst) & mask;
+
+        while (true) {
+            long s = srcs[i];
+            if (s == EMPTY) {
+                srcs[i] = src;
+                dsts[i] = dst;
+                days[i] = day;
+                flowDurations[i] = flowDuration;
+                fwdPkts[i] = fwdPkt;
+                if (++size * 3 > srcs.length * 2) {
+                    grow();
+                }
+                return;
+            }
+            if (s == src && dsts[i] == dst && days[i] == day) {
+                flowDurations[i] += flowDuration;
+                fwdPkts[i] += fwdPkt;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    void countRows(long n) {
+        rows += n;
+    }
+
+    /** Ajoute les totaux d'une autre table (les clés de dictionnaire sont retraduites). */
+    void merge(PairDayTable other) {
+        rows += other.rows;
+        for (int i = 0; i < other.srcs.length; i++) {
+            long src = other.srcs[i];
+            if (src == EMPTY) {
+                continue;
+            }
+            long dst = other.dsts[i];
+            if (src >= DICTIONARY_BASE) {
+                src = dictionaryKey(other.ipText(src));
+            }
+            if (dst >= DICTIONARY_BASE) {
+                dst = dictionaryKey(other.ipText(dst));
+            }
+            add(other.days[i], src, dst, other.flowDurations[i], other.fwdPkts[i]);
+        }
+    }
+
+    private void grow() {
+        long[] oldSrcs = srcs;
+        long[] oldDsts = dsts;
+        int[] oldDays = days;
+        long[] oldFlowDurations = flowDurations;
+        long[] oldFwdPkts = fwdPkts;
+
+        allocate(oldSrcs.length * 2);
+
+        for (int j = 0; j < oldSrcs.length; j++) {
+            if (oldSrcs[j] == EMPTY) {
+                continue;
+            }
+            int i = hash(oldDays[j], oldSrcs[j], oldDsts[j]) & mask;
+            while (srcs[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            srcs[i] = oldSrcs[j];
+            dsts[i] = oldDsts[j];
+            days[i] = oldDays[j];
+            flowDurations[i] = oldFlowDurations[j];
+            fwdPkts[i] = oldFwdPkts[j];
+        }
+    }
+
+    // Mélange type murmur3 (fmix64) des trois composantes de la clé
+    private static int hash(int day, long src, long dst) {
+        long h = src * 0x9E3779B97F4A7C15L + dst;
+        h = h * 0xC2B2AE3D27D4EB4FL + day;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    // ------------------------------------------------------------------------
+    // Lecture des groupes
+    // ------------------------------------------------------------------------
+
+    public int size() {
+        return size;
+    }
+
+    public long rows() {
+        return rows;
+    }
+
+    /** Nombre de couples (SrcIP, DstIP) distincts, tous jours confondus. */
+    public int distinctPairs() {
+        long[] packed = new long[size];
+        Set<String> others = new HashSet<>();
+        int n = 0;
+
+        for (int i = 0; i < srcs.length; i++) {
+            long src = srcs[i];
+            if (src == EMPTY) {
+                continue;
+            }
+            if (src < DICTIONARY_BASE && dsts[i] < DICTIONARY_BASE) {
+                packed[n++] = src << 32 | dsts[i];
+            } else {
+                others.add(src + " " + dsts[i]);
+            }
+        }
+
+        Arrays.sort(packed, 0, n);
+        int distinct = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || packed[i] != packed[i - 1]) {
+                distinct++;
+            }
+        }
+        return distinct + others.size();
+    }
+
+    int day(int slot) {
+        return days[slot];
+    }
+
+    long src(int slot) {
+        return srcs[slot];
+    }
+
+    long dst(int slot) {
+        return dsts[slot];
+    }
+
+    long flowDuration(int slot) {
+        return flowDurations[slot];
+    }
+
+    long fwdPkts(int slot) {
+        return fwdPkts[slot];
+    }
+
+    /**
+     * Slots occupés triés par (jour, SrcIP, DstIP) : IPv4 dans l'ordre
+     * numérique, puis les autres valeurs dans l'ordre du texte. L'ordre ne
+     * dépend que du contenu, pas de l'ordre d'insertion.
+     */
+    int[] sortedSlots() {
+        Integer[] slots = new Integer[size];
+        int n = 0;
+        for (int i = 0; i < srcs.length; i++) {
+            if (srcs[i] != EMPTY) {
+                slots[n++] = i;
+            }
+        }
+
+        Arrays.sort(slots, (a, b) -> {
+            int c = Integer.compare(days[a], days[b]);
+            if (c == 0) {
+                c = compareIp(srcs[a], srcs[b]);
+            }
+            if (c == 0) {
+                c = compareIp(dsts[a], dsts[b]);
+            }
+            return c;
+        });
+
+        int[] sorted = new int[n];
+        for (int i = 0; i < n; i++) {
+            sorted[i] = slots[i];
+        }
+        return sorted;
+    }
+
+    private int compareIp(long a, long b) {
+        boolean textA = a >= DICTIONARY_BASE;
+        boolean textB = b >= DICTIONARY_BASE;
+        if (textA && textB) {
+            return ipText(a).compareTo(ipText(b));
+        }
+        if (textA != textB) {
+            return textA ? 1 : -1;
+        }
+        return Long.compare(a, b);
+    }
+}
@@ -0,0 +1,80 @@
+package com.aws.iot;
+
+import java.io.IOException;
+
+/**
+ * Copie des lignes de résumés journaliers partitionnée par couple.
+ *
+ * Le Consolidator Worker range chaque ligne de résumé dans le fichier
+ * summaries-by-pair/part-NNN/yyyy-MM.bin (ou .csv), où NNN est le shard du couple
+ * (même découpage que ConsolidatedShards) et yyyy-MM le mois de la ligne.
+ * L'Export Client ne lit ainsi que les partitions du shard du couple demandé,
+ * au lieu de télécharger tous les résumés.
+ *
+ * La colonne Summary garde le résumé d'origine : réintégrer un résumé remplace
+ * ses lignes au lieu de les dupliquer.
+ *
+ * Les résumés consolidés avant l'existence des partitions n'y figurent pas.
+ * Un marqueur par shard (COMPLETE_PREFIX) indique que ses partitions
+ * contiennent tout l'historique : posé par le Consolidator Worker quand il
+ * crée le shard, ou par PartitionBackfill pour un bucket plus ancien. Sans
+ * marqueur, les lecteurs relisent summaries/.
+ */
+public final class PairPartitions {
+
+    public static final String PREFIX = "summaries-by-pair/";
+
+    public static final String HEADER = "Date,SrcIP,DstIP,TotalFlowDuration,TotalFwdPkts,Summary";
+
+    // Marqueurs de complétude, hors des préfixes de shard (non listés avec les partitions)
+    public static final String COMPLETE_PREFIX = PREFIX + "complete/";
+
+    // Préfixes calculés une fois : key() est appelé pour chaque ligne intégrée
+    private static final String[] SHARD_PREFIXES = new String[ConsolidatedShards.COUNT];
+
+    static {
+        for (int i = 0; i < SHARD_PREFIXES.length; i++) {
+            SHARD_PREFIXES[i] = PREFIX + String.format("part-%03d/", i);
+        }
+    }
+
+    private PairPartitions() {
+    }
+
+    /** Préfixe S3 des partitions d'un shard, ex. summaries-by-pair/part-007/ */
+    public static String shardPrefix(int shard) {
+        return SHARD_PREFIXES[shard];
+    }
+
+    /**
+     * Partition d'une ligne datée yyyy-MM-dd, ex. summaries-by-pair/part-007/2022-12.bin.
+     * extension : SummaryCodec.EXTENSION ou ".csv" selon le format écrit.
+     */
+    public static String key(String srcIP, String dstIP, String date, String extension) {
+        return shardPrefix(ConsolidatedShards.shardOf(srcIP, dstIP)) + date.substring(0, 7) + extension;
+    }
+
+    /** Marqueur de complétude d'un shard, ex. summaries-by-pair/complete/part-007 */
+    public static String completeKey(int shard) {
+        return COMPLETE_PREFIX + String.format("part-%03d", shard);
+    }
+
+    /** Marque les partitions d'un shard comme contenant tout son historique. */
+    public static void markComplete(ObjectStore store, int shard) throws IOException {
+        store.put(completeKey(shard), new byte[0]);
+    }
+
+    /** Shards marqués complets, indexés par numéro de shard (une seule requête LIST). */
+    public static boolean[] completeShards(ObjectStore store) throws IOException {
+        boolean[] complete = new boolean[ConsolidatedShards.COUNT];
+        for (String key : store.list(COMPLETE_PREFIX)) {
+            complete[Integer.parseInt(key.substring(key.lastIndexOf('-') + 1))] = true;
+        }
+        return complete;
+    }
+
+    /** Mois yyyy-MM d'une clé de partition, lu dans son nom sans ouvrir l'objet. */
+    public static String month(String key) {
+        return key.substring(key.lastIndexOf('/') + 1, key.lastIndexOf('/') + 8);
+    }
+}
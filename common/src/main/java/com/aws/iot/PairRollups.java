@@ -0,0 +1,115 @@
+package com.aws.iot;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.IsoFields;
+import java.time.temporal.TemporalAdjusters;
+
+/**
+ * Agrégats par couple et par période, tenus à jour par le Consolidator Worker
+ * et lus par l'Export Client pour les requêtes par fenêtre (--window).
+ *
+ * Un fichier par shard (même découpage que ConsolidatedShards) :
+ * consolidated/rollups/part-NNN.csv. Une ligne par (couple, période) ; la
+ * période est un mois (2022-01) ou une semaine ISO (2022-W03). Les mois sont
+ * gardés sans limite, les semaines sur une durée glissante (voir le worker).
+ * Les lignes commençant par ConsolidatedShards.COMMENT_MARKER (registre des
+ * résumés intégrés) sont ignorées.
+ */
+public final class PairRollups {
+
+    public static final String PREFIX = "consolidated/rollups/";
+
+    public static final String HEADER = "SrcIP,DstIP,Period,Count,AvgFlowDuration,M2FlowDuration,"
+            + "AvgFwdPkts,M2FwdPkts,FlowDurationSketch,FwdPktsSketch";
+
+    private static final DateTimeFormatter MONTH = DateTimeFormatter.ofPattern("yyyy-MM");
+
+    /** Ligne lue : couple, période et agrégat. */
+    public static final class Entry {
+        public final String src;
+        public final String dst;
+        public final String period;
+        public final Rollup rollup;
+
+        Entry(String src, String dst, String period, Rollup rollup) {
+            this.src = src;
+            this.dst = dst;
+            this.period = period;
+            this.rollup = rollup;
+        }
+    }
+
+    private PairRollups() {
+    }
+
+    /** Clé S3 des agrégats d'un shard, ex. consolidated/rollups/part-007.csv */
+    public static String key(int shard) {
+        return PREFIX + String.format("part-%03d.csv", shard);
+    }
+
+    // ------------------------------------------------------------------------
+    // Périodes
+    // ------------------------------------------------------------------------
+
+    public static String month(LocalDate day) {
+        return day.format(MONTH);
+    }
+
+    /** Semaine ISO (lundi → dimanche) : année de la semaine, pas du jour. */
+    public static String week(LocalDate day) {
+        return String.format("%d-W%02d", day.get(IsoFields.WEEK_BASED_YEAR), day.get(IsoFields.WEEK_OF_WEEK_BASED_YEAR));
+    }
+
+    public static boolean isWeek(String period) {
+        return period.contains("-W");
+    }
+
+    /** Premier jour d'une période (lundi pour une semaine). */
+    public static LocalDate start(String period) {
+        if (isWeek(period)) {
+            int year = Integer.parseInt(period.substring(0, period.indexOf('-')));
+            int week = Integer.parseInt(period.substring(period.indexOf('W') + 1));
+            return LocalDate.of(year, 1, 4)
+                    .with(IsoFields.WEEK_OF_WEEK_BASED_YEAR, week)
+                    .with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+        }
+        return YearMonth.parse(period, MONTH).atDay(1);
+    }
+
+    // ------------------------------------------------------------------------
+    // Lignes
+    // ------------------------------------------------------------------------
+
+    public static void write(Writer writer, String src, String dst, String period, Rollup r) throws IOException {
+        writer.write(src + "," + dst + "," + period + "," + r.count + ","
+                + r.meanFD + "," + r.m2FD + "," + r.meanFP + "," + r.m2FP + ","
+                + r.flowDuration.encode() + "," + r.fwdPkts.encode() + "\n");
+    }
+
+    /** Ligne de données, ou null pour l'en-tête, une ligne vide ou un commentaire. */
+    public static Entry parse(String line) {
+        if (line.isEmpty() || line.charAt(0) == ConsolidatedShards.COMMENT_MARKER || line.startsWith("SrcIP,")) {
+            return null;
+        }
+
+        String[] f = line.split(",");
+        if (f.length != 10) {
+            throw new IllegalArgumentException("Ligne d'agrégats invalide : " + line);
+        }
+
+        Rollup r = new Rollup();
+        r.count = Long.parseLong(f[3]);
+        r.meanFD = Double.parseDouble(f[4]);
+        r.m2FD = Double.parseDouble(f[5]);
+        r.meanFP = Double.parseDouble(f[6]);
+        r.m2FP = Double.parseDouble(f[7]);
+        r.flowDuration = QuantileSketch.decode(f[8]);
+        r.fwdPkts = QuantileSketch.decode(f[9]);
+        return new Entry(f[0], f[1], f[2], r);
+    }
+}
@@ -0,0 +1,29 @@
+package com.aws.iot;
+
+/**
+ * Noms du bucket et des queues partagés par tous les composants.
+ *
+ * Les valeurs par défaut sont celles du déploiement (voir infra/README.md) ;
+ * chacune peut être remplacée par une variable d'environnement (IOT_BUCKET,
+ * SUMMARIZE_QUEUE_URL, CONSOLIDATOR_QUEUE_URL).
+ */
+public final class PipelineConfig {
+
+    public static final String BUCKET = env("IOT_BUCKET", "ilies411-iot-traffic-input");
+
+    // Queue de l'Upload Client vers le Summarize Worker
+    public static final String SUMMARIZE_QUEUE_URL = env("SUMMARIZE_QUEUE_URL",
+            "https://sqs.us-east-1.amazonaws.com/196036494548/iot-queue-1");
+
+    // Queue du Summarize Worker vers le Consolidator Worker
+    public static final String CONSOLIDATOR_QUEUE_URL = env("CONSOLIDATOR_QUEUE_URL",
+            "https://sqs.us-east-1.amazonaws.com/196036494548/iot-queue-2");
+
+    private PipelineConfig() {
+    }
+
+    private static String env(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value != null && !value.isEmpty() ? value : defaultValue;
+    }
+}
@@ -0,0 +1,71 @@
+package com.aws.iot;
+
+import org.crac.Context;
+import org.crac.Core;
+import org.crac.Resource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Préchauffage d'un worker Lambda : charge les classes et crée les clients
+ * du chemin de traitement avant la première invocation.
+ *
+ * Le préchauffage est lancé avant le snapshot (beforeCheckpoint) quand la
+ * fonction utilise SnapStart ou une JVM CRaC : chaque démarrage restauré en
+ * profite sans le refaire. Avec PRIME_ON_INIT=true, il est aussi lancé
+ * pendant l'init, dont le CPU n'est pas limité par la mémoire de la fonction.
+ *
+ * Sans support CRaC dans la JVM, l'enregistrement ne fait rien.
+ */
+public final class Priming implements Resource {
+
+    /** Travail de préchauffage ; ne doit ni lire ni écrire de vraies données. */
+    public interface WarmUp {
+        void run() throws Exception;
+    }
+
+    private static final boolean ON_INIT = Boolean.parseBoolean(System.getenv("PRIME_ON_INIT"));
+
+    // Le contexte CRaC ne garde que des références faibles
+    private static final List<Priming> REGISTERED = new ArrayList<>();
+
+    private final String name;
+    private final WarmUp warmUp;
+
+    private Priming(String name, WarmUp warmUp) {
+        this.name = name;
+        this.warmUp = warmUp;
+    }
+
+    public static synchronized void register(String name, WarmUp warmUp) {
+        Priming priming = new Priming(name, warmUp);
+        REGISTERED.add(priming);
+        Core.getGlobalContext().register(priming);
+
+        if (ON_INIT) {
+            priming.run();
+        }
+    }
+
+    @Override
+    public void beforeCheckpoint(Context<? extends Resource> context) {
+        run();
+    }
+
+    @Override
+    public void afterRestore(Context<? extends Resource> context) {
+        System.out.println("Restauré depuis le snapshot : " + name);
+    }
+
+    // Un échec du préchauffage ne doit pas empêcher le démarrage
+    private void run() {
+        long start = System.nanoTime();
+        try {
+            warmUp.run();
+            System.out.println("Préchauffage " + name + " : " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } catch (Exception e) {
+            System.out.println("Préchauffage " + name + " en échec : " + e);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.aws.iot;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Esquisse de quantiles fusionnable, de type DDSketch.
+ *
+ * Une valeur v > 0 est comptée dans le panier i = ceil(log_γ(v)), avec
+ * γ = (1 + α) / (1 - α) ; le quantile restitué est le milieu du panier, à α
+ * près en relatif (α = 1 %). Les valeurs négatives ont leurs paniers miroirs,
+ * zéro un compteur à part. Fusionner deux esquisses additionne les paniers :
+ * le résultat est exactement l'esquisse de l'union des valeurs, ce qui permet
+ * de composer des semaines ou des mois en n'importe quelle fenêtre.
+ *
+ * Le nombre de paniers est borné par l'étendue des valeurs (environ 1 700 de
+ * 1 à 10^15), pas par leur nombre.
+ */
+public final class QuantileSketch {
+
+    public static final double RELATIVE_ACCURACY = 0.01;
+
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+
+    private final TreeMap<Integer, Long> positive = new TreeMap<>();
+    private final TreeMap<Integer, Long> negative = new TreeMap<>();
+    private long zeros;
+    private long count;
+
+    public void add(double value) {
+        if (value > 0) {
+            positive.merge(index(value), 1L, Long::sum);
+        } else if (value < 0) {
+            negative.merge(index(-value), 1L, Long::sum);
+        } else {
+            zeros++;
+        }
+        count++;
+    }
+
+    public void merge(QuantileSketch other) {
+        other.positive.forEach((i, c) -> positive.merge(i, c, Long::sum));
+        other.negative.forEach((i, c) -> negative.merge(i, c, Long::sum));
+        zeros += other.zeros;
+        count += other.count;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    /** Quantile q (0..1), NaN si l'esquisse est vide. */
+    public double quantile(double q) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        long rank = (long) Math.floor(q * (count - 1));
+        long seen = 0;
+
+        // Des plus petites valeurs (négatives de plus grand module) aux plus grandes
+        for (Map.Entry<Integer, Long> bin : negative.descendingMap().entrySet()) {
+            seen += bin.getValue();
+            if (seen > rank) {
+                return -value(bin.getKey());
+            }
+        }
+        seen += zeros;
+        if (seen > rank) {
+            return 0;
+        }
+        for (Map.Entry<Integer, Long> bin : positive.entrySet()) {
+            seen += bin.getValue();
+            if (seen > rank) {
+                return value(bin.getKey());
+            }
+        }
+        return value(positive.lastKey());
+    }
+
+    private static int index(double value) {
+        return (int) Math.ceil(Math.log(value) / LOG_GAMMA);
+    }
+
+    private static double value(int index) {
+        return 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+    }
+
+    // ------------------------------------------------------------------------
+    // Forme texte (sans virgule, pour un champ CSV) : zéros|positifs|négatifs,
+    // chaque liste de paniers "index:nombre" séparés par ';', l'index en écart
+    // avec le panier précédent. Ex. 0|812:3;1:5;4:1|
+    // ------------------------------------------------------------------------
+
+    public String encode() {
+        StringBuilder sb = new StringBuilder().append(zeros).append('|');
+        encodeBins(sb, positive);
+        sb.append('|');
+        encodeBins(sb, negative);
+        return sb.toString();
+    }
+
+    private static void encodeBins(StringBuilder sb, NavigableMap<Integer, Long> bins) {
+        int previous = 0;
+        boolean first = true;
+        for (Map.Entry<Integer, Long> bin : bins.entrySet()) {
+            if (!first) {
+                sb.append(';');
+            }
+            sb.append(bin.getKey() - previous).append(':').append(bin.getValue());
+            previous = bin.getKey();
+            first = false;
+        }
+    }
+
+    public static QuantileSketch decode(String text) {
+        String[] parts = text.split("\\|", -1);
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Esquisse invalide : " + text);
+        }
+
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.zeros = Long.parseLong(parts[0]);
+        sketch.count = sketch.zeros + decodeBins(parts[1], sketch.positive) + decodeBins(parts[2], sketch.negative);
+        return sketch;
+    }
+
+    private static long decodeBins(String text, TreeMap<Integer, Long> bins) {
+        if (text.isEmpty()) {
+            return 0;
+        }
+        long total = 0;
+        int index = 0;
+        for (String bin : text.split(";")) {
+            int colon = bin.indexOf(':');
+            index += Integer.parseInt(bin.substring(0, colon));
+            long c = Long.parseLong(bin.substring(colon + 1));
+            bins.put(index, c);
+            total += c;
+        }
+        return total;
+    }
+}
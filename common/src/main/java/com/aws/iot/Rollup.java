@@ -0,0 +1,85 @@
+package com.aws.iot;
+
+/**
+ * Agrégat fusionnable des totaux journaliers d'un couple sur une période
+ * (semaine ou mois, voir PairRollups) : nombre de jours, moyenne et M2
+ * (Welford) de Flow Duration et de Forward Packets, et une QuantileSketch
+ * de chacun.
+ *
+ * merge() combine deux périodes disjointes (formule de Chan) : une fenêtre
+ * de plusieurs semaines ou mois se calcule sans relire les résumés.
+ */
+public final class Rollup {
+
+    long count;
+    double meanFD;
+    double m2FD;
+    double meanFP;
+    double m2FP;
+    QuantileSketch flowDuration = new QuantileSketch();
+    QuantileSketch fwdPkts = new QuantileSketch();
+
+    /** Ajoute les totaux d'un jour. */
+    public void add(long totalFlowDuration, long totalFwdPkts) {
+        count++;
+
+        double deltaFD = totalFlowDuration - meanFD;
+        meanFD += deltaFD / count;
+        m2FD += deltaFD * (totalFlowDuration - meanFD);
+
+        double deltaFP = totalFwdPkts - meanFP;
+        meanFP += deltaFP / count;
+        m2FP += deltaFP * (totalFwdPkts - meanFP);
+
+        flowDuration.add(totalFlowDuration);
+        fwdPkts.add(totalFwdPkts);
+    }
+
+    public void merge(Rollup other) {
+        if (other.count == 0) {
+            return;
+        }
+        long n = count + other.count;
+
+        double deltaFD = other.meanFD - meanFD;
+        m2FD += other.m2FD + deltaFD * deltaFD * count * other.count / n;
+        meanFD += deltaFD * other.count / n;
+
+        double deltaFP = other.meanFP - meanFP;
+        m2FP += other.m2FP + deltaFP * deltaFP * count * other.count / n;
+        meanFP += deltaFP * other.count / n;
+
+        count = n;
+        flowDuration.merge(other.flowDuration);
+        fwdPkts.merge(other.fwdPkts);
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public double avgFlowDuration() {
+        return meanFD;
+    }
+
+    // Écart type de l'échantillon, 0 pour un seul jour (comme les shards consolidés)
+    public double stdFlowDuration() {
+        return count > 1 ? Math.sqrt(m2FD / (count - 1)) : 0;
+    }
+
+    public double avgFwdPkts() {
+        return meanFP;
+    }
+
+    public double stdFwdPkts() {
+        return count > 1 ? Math.sqrt(m2FP / (count - 1)) : 0;
+    }
+
+    public QuantileSketch flowDurationSketch() {
+        return flowDuration;
+    }
+
+    public QuantileSketch fwdPktsSketch() {
+        return fwdPkts;
+    }
+}
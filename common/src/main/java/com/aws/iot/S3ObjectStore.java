@@ -0,0 +1,265 @@
+package com.aws.iot;
+
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/** Bucket S3 (voir AwsBackend). */
+final class S3ObjectStore implements ObjectStore {
+
+    private final AwsBackend aws;
+    private final String bucket;
+
+    S3ObjectStore(AwsBackend aws, String bucket) {
+        this.aws = aws;
+        this.bucket = bucket;
+    }
+
+    // GET "Range" à partir de from ; sans Range pour l'objet entier
+    @Override
+    public ObjectStream open(String key, long from) throws IOException {
+        GetObjectRequest.Builder request = GetObjectRequest.builder()
+                .bucket(bucket)
+                .key(key);
+        if (from > 0) {
+            request.range("bytes=" + from + "-");
+        }
+
+        try {
+            return new S3Stream(aws.s3().getObject(request.build()));
+        } catch (NoSuchKeyException e) {
+            throw new ObjectNotFoundException(key, e);
+        }
+    }
+
+    // GET "Range: bytes=from-(from+length-1)" : S3 renvoie moins si l'objet est plus court
+    @Override
+    public ObjectStream open(String key, long from, long length) throws IOException {
+        if (length <= 0) {
+            throw new IllegalArgumentException("Plage vide : " + key + " à " + from);
+        }
+        GetObjectRequest request = GetObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .range("bytes=" + from + "-" + (from + length - 1))
+                .build();
+
+        try {
+            return new S3Stream(aws.s3().getObject(request));
+        } catch (NoSuchKeyException e) {
+            throw new ObjectNotFoundException(key, e);
+        }
+    }
+
+    // Flux S3 qui coupe la connexion s'il est fermé avant la fin (plage lue partiellement)
+    // au lieu de télécharger le reste de l'objet pour rien
+    private static class S3Stream extends ObjectStream {
+
+        private final ResponseInputStream<GetObjectResponse> response;
+        private boolean eof;
+
+        S3Stream(ResponseInputStream<GetObjectResponse> response) {
+            super(response, response.response().contentLength(), response.response().contentEncoding(),
+                    response.response().eTag());
+            this.response = response;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            eof |= b < 0;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            eof |= n < 0;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!eof) {
+                response.abort();
+            }
+            super.close();
+        }
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        try {
+            return aws.s3().getObjectAsBytes(GetObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .build())
+                    .asByteArray();
+        } catch (NoSuchKeyException e) {
+            throw new ObjectNotFoundException(key, e);
+        }
+    }
+
+    // 304 Not Modified : aucun octet transféré
+    @Override
+    public Versioned getIfNoneMatch(String key, String etag) throws IOException {
+        try {
+            ResponseBytes<GetObjectResponse> object = aws.s3().getObjectAsBytes(GetObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .ifNoneMatch(etag)
+                    .build());
+            return new Versioned(object.asByteArray(), object.response().eTag());
+        } catch (NoSuchKeyException e) {
+            throw new ObjectNotFoundException(key, e);
+        } catch (S3Exception e) {
+            if (e.statusCode() == 304) {
+                return new Versioned(null, etag);
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void put(String key, Path file) throws IOException {
+        aws.s3().putObject(putRequest(key, contentEncoding(key, file)), file);
+    }
+
+    @Override
+    public void put(String key, byte[] data) {
+        aws.s3().putObject(putRequest(key, contentEncoding(key, data, data.length)), RequestBody.fromBytes(data));
+    }
+
+    // Écriture conditionnelle S3 (en-têtes If-Match / If-None-Match de PutObject) ;
+    // 412 : l'ETag a changé, 409 : écriture concurrente en cours, 404 : objet supprimé
+    @Override
+    public boolean putIfMatch(String key, Path file, String etag) throws IOException {
+        PutObjectRequest request = PutObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .contentEncoding(contentEncoding(key, file))
+                .overrideConfiguration(o -> o.putHeader(
+                        etag == null ? "If-None-Match" : "If-Match",
+                        etag == null ? "*" : etag))
+                .build();
+
+        try {
+            aws.s3().putObject(request, file);
+            return true;
+        } catch (S3Exception e) {
+            if (e.statusCode() == 412 || e.statusCode() == 409 || e.statusCode() == 404) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    // Client asynchrone : multipart au-delà de 16 Mo, parties envoyées en parallèle
+    @Override
+    public CompletableFuture<Void> putAsync(String key, Path file) {
+        PutObjectRequest request;
+        try {
+            request = putRequest(key, contentEncoding(key, file));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return aws.s3Async()
+                .putObject(request, AsyncRequestBody.fromFile(file))
+                .thenApply(response -> null);
+    }
+
+    private PutObjectRequest putRequest(String key, String contentEncoding) {
+        return PutObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .contentEncoding(contentEncoding)
+                .build();
+    }
+
+    // Content-Encoding d'un objet compressé (voir Compression) : d'après sa clé, sinon
+    // d'après ses premiers octets (objets à clé fixe écrits compressés) ; null sinon
+    private static String contentEncoding(String key, Path file) throws IOException {
+        if (Compression.ofKey(key) != Compression.NONE) {
+            return Compression.ofKey(key).contentEncoding;
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] head = in.readNBytes(4);
+            return contentEncoding(key, head, head.length);
+        }
+    }
+
+    private static String contentEncoding(String key, byte[] head, int length) {
+        Compression c = Compression.ofKey(key);
+        return (c != Compression.NONE ? c : Compression.ofContent(head, length)).contentEncoding;
+    }
+
+    @Override
+    public void delete(String key) {
+        aws.s3().deleteObject(DeleteObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .build());
+    }
+
+    @Override
+    public boolean exists(String key) {
+        try {
+            aws.s3().headObject(HeadObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .build());
+            return true;
+        } catch (NoSuchKeyException e) {
+            return false;
+        }
+    }
+
+    // Pagination au-delà de 1000 objets
+    @Override
+    public List<String> list(String prefix) {
+        ListObjectsV2Request request = ListObjectsV2Request.builder()
+                .bucket(bucket)
+                .prefix(prefix)
+                .build();
+
+        List<String> keys = new ArrayList<>();
+        for (S3Object obj : aws.s3().listObjectsV2Paginator(request).contents()) {
+            keys.add(obj.key());
+        }
+        return keys;
+    }
+
+    @Override
+    public Map<String, String> listEtags(String prefix) {
+        ListObjectsV2Request request = ListObjectsV2Request.builder()
+                .bucket(bucket)
+                .prefix(prefix)
+                .build();
+
+        Map<String, String> etags = new LinkedHashMap<>();
+        for (S3Object obj : aws.s3().listObjectsV2Paginator(request).contents()) {
+            etags.put(obj.key(), obj.eTag());
+        }
+        return etags;
+    }
+}
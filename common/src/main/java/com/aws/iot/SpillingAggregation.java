@@ -0,0 +1,290 @@
+package com.aws.iot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Agrégation à mémoire bornée : une PairDayTable qui, au-delà de maxGroups
+ * groupes, est déversée dans un fichier temporaire (run) trié puis remplacée
+ * par une table vide.
+ *
+ * À la lecture (forEachSorted), les runs sont fusionnés (k-way merge) dans
+ * l'ordre de sortie (jour, SrcIP, DstIP) et les totaux d'un même groupe
+ * présent dans plusieurs runs sont additionnés : la sortie est identique à
+ * celle de l'agrégation en mémoire. Sans déversement, la table est parcourue
+ * directement, sans aucune écriture disque.
+ *
+ * Un run contient son nombre de groupes puis, par groupe : jour, SrcIP et
+ * DstIP (IPv4 empaquetée, ou -1 suivi du texte), et les deux totaux.
+ */
+public final class SpillingAggregation implements Closeable {
+
+    /**
+     * Seuil par défaut (SUMMARIZE_MAX_GROUPS, 0 = jamais de déversement) : une
+     * table occupe 36 octets par slot, soit ~110 octets par groupe après un
+     * agrandissement et ~160 pendant celui-ci (anciens et nouveaux tableaux), le
+     * tri de sortie ~25 de plus. L'encodeur du résumé écrit en flux (un bloc de
+     * lignes et le dictionnaire des IP) ; le reste du tas est laissé au parseur
+     * et aux autres fichiers du lot.
+     */
+    public static final int MAX_GROUPS = System.getenv("SUMMARIZE_MAX_GROUPS") != null
+            ? Integer.parseInt(System.getenv("SUMMARIZE_MAX_GROUPS"))
+            : (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 512);
+
+    /** Reçoit les groupes dans l'ordre de sortie. */
+    public interface GroupConsumer {
+        void accept(int day, String src, String dst, long flowDuration, long fwdPkts) throws IOException;
+    }
+
+    private final int maxGroups;
+    private PairDayTable table = new PairDayTable();
+
+    // Runs déversés, et lignes CSV / groupes qu'ils contiennent (métriques)
+    private final List<Path> runs = new ArrayList<>();
+    private long spilledRows;
+    private long spilledGroups;
+
+    // Groupes distincts trouvés par la dernière fusion des runs
+    private long mergedGroups;
+
+    /** maxGroups : groupes en mémoire avant déversement (0 : jamais). */
+    public SpillingAggregation(int maxGroups) {
+        this.maxGroups = maxGroups;
+    }
+
+    /** Table en cours ; elle change après chaque déversement. */
+    public PairDayTable table() {
+        return table;
+    }
+
+    /** Vrai si la table en cours a atteint le seuil et doit être déversée. */
+    boolean full() {
+        return maxGroups > 0 && table.size() >= maxGroups;
+    }
+
+    /** Déverse la table en cours dans un run trié, puis repart d'une table vide. */
+    void spill() throws IOException {
+        if (table.size() == 0) {
+            return;
+        }
+
+        Path run = Files.createTempFile("spill_", ".run");
+        runs.add(run);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))) {
+
+            out.writeLong(table.size());
+            for (int slot : table.sortedSlots()) {
+                out.writeInt(table.day(slot));
+                writeIp(out, table, table.src(slot));
+                writeIp(out, table, table.dst(slot));
+                out.writeLong(table.flowDuration(slot));
+                out.writeLong(table.fwdPkts(slot));
+            }
+        }
+
+        spilledRows += table.rows();
+        spilledGroups += table.size();
+        table = new PairDayTable();
+    }
+
+    private static void writeIp(DataOutputStream out, PairDayTable table, long key) throws IOException {
+        if (key < PairDayTable.DICTIONARY_BASE) {
+            out.writeLong(key);
+        } else {
+            out.writeLong(-1);
+            out.writeUTF(table.ipText(key));
+        }
+    }
+
+    /**
+     * Ajoute les groupes d'une autre agrégation (plage d'un résumé parallèle) :
+     * fusion des tables si le total reste sous maxGroups, sinon par ses runs.
+     */
+    void merge(SpillingAggregation other, int maxGroups) throws IOException {
+        boolean inMemory = maxGroups <= 0
+                || (runs.isEmpty() && other.runs.isEmpty()
+                        && (long) table.size() + other.table.size() <= maxGroups);
+
+        if (inMemory) {
+            table.merge(other.table);
+        } else {
+            other.spill();
+        }
+        runs.addAll(other.runs);
+        spilledRows += other.spilledRows;
+        spilledGroups += other.spilledGroups;
+        other.runs.clear();
+    }
+
+    public boolean spilled() {
+        return !runs.isEmpty();
+    }
+
+    public int runs() {
+        return runs.size();
+    }
+
+    public long spilledGroups() {
+        return spilledGroups;
+    }
+
+    /** Lignes CSV agrégées, déversées ou non. */
+    public long rows() {
+        return spilledRows + table.rows();
+    }
+
+    /** Groupes distincts ; après déversement, connus seulement une fois forEachSorted passé. */
+    public long size() {
+        return runs.isEmpty() ? table.size() : mergedGroups;
+    }
+
+    // ------------------------------------------------------------------------
+    // Lecture triée
+    // ------------------------------------------------------------------------
+
+    /** Passe chaque groupe à consumer dans l'ordre de sortie ; renvoie le nombre de groupes. */
+    public long forEachSorted(GroupConsumer consumer) throws IOException {
+
+        if (runs.isEmpty()) {
+            for (int slot : table.sortedSlots()) {
+                consumer.accept(table.day(slot), table.ipText(table.src(slot)), table.ipText(table.dst(slot)),
+                        table.flowDuration(slot), table.fwdPkts(slot));
+            }
+            return table.size();
+        }
+
+        // La table restante devient un run comme les autres
+        spill();
+
+        PriorityQueue<Run> heads = new PriorityQueue<>(runs.size(), Run::compareTo);
+        List<Run> open = new ArrayList<>();
+        try {
+            for (Path path : runs) {
+                Run run = new Run(path);
+                open.add(run);
+                if (run.next()) {
+                    heads.add(run);
+                }
+            }
+
+            long groups = 0;
+            while (!heads.isEmpty()) {
+                Run first = heads.poll();
+                int day = first.day;
+                long src = first.src;
+                String srcText = first.srcText;
+                long dst = first.dst;
+                String dstText = first.dstText;
+                long flowDuration = first.flowDuration;
+                long fwdPkts = first.fwdPkts;
+
+                // Même groupe en tête d'autres runs : totaux additionnés
+                while (!heads.isEmpty() && heads.peek().sameGroup(first)) {
+                    Run same = heads.poll();
+                    flowDuration += same.flowDuration;
+                    fwdPkts += same.fwdPkts;
+                    if (same.next()) {
+                        heads.add(same);
+                    }
+                }
+                if (first.next()) {
+                    heads.add(first);
+                }
+
+                consumer.accept(day, text(src, srcText), text(dst, dstText), flowDuration, fwdPkts);
+                groups++;
+            }
+            mergedGroups = groups;
+            return groups;
+
+        } finally {
+            for (Run run : open) {
+                run.in.close();
+            }
+        }
+    }
+
+    private static String text(long packed, String text) {
+        return packed >= 0 ? PairDayTable.ipv4Text(packed) : text;
+    }
+
+    /** Supprime les runs. */
+    @Override
+    public void close() throws IOException {
+        for (Path run : runs) {
+            Files.deleteIfExists(run);
+        }
+        runs.clear();
+    }
+
+    // Un run ouvert, positionné sur son groupe courant
+    private static final class Run implements Comparable<Run> {
+        final DataInputStream in;
+        long remaining;
+
+        int day;
+        long src;       // IPv4 empaquetée, ou -1 : srcText
+        String srcText;
+        long dst;
+        String dstText;
+        long flowDuration;
+        long fwdPkts;
+
+        Run(Path path) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16));
+            remaining = in.readLong();
+        }
+
+        boolean next() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            day = in.readInt();
+            src = in.readLong();
+            srcText = src < 0 ? in.readUTF() : null;
+            dst = in.readLong();
+            dstText = dst < 0 ? in.readUTF() : null;
+            flowDuration = in.readLong();
+            fwdPkts = in.readLong();
+            return true;
+        }
+
+        boolean sameGroup(Run other) {
+            return compareTo(other) == 0;
+        }
+
+        // Ordre de PairDayTable.sortedSlots : jour, puis IPv4 (numérique) avant texte
+        @Override
+        public int compareTo(Run other) {
+            int c = Integer.compare(day, other.day);
+            if (c == 0) {
+                c = compareIp(src, srcText, other.src, other.srcText);
+            }
+            if (c == 0) {
+                c = compareIp(dst, dstText, other.dst, other.dstText);
+            }
+            return c;
+        }
+
+        private static int compareIp(long a, String textA, long b, String textB) {
+            if (a >= 0 && b >= 0) {
+                return Long.compare(a, b);
+            }
+            if (a >= 0 || b >= 0) {
+                return a >= 0 ? -1 : 1;
+            }
+            return textA.compareTo(textB);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.aws.iot;
+
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Queue SQS (voir AwsBackend). */
+final class SqsMessageQueue implements MessageQueue {
+
+    private final AwsBackend aws;
+    private final String url;
+
+    SqsMessageQueue(AwsBackend aws, String url) {
+        this.aws = aws;
+        this.url = url;
+    }
+
+    @Override
+    public void send(String body) {
+        aws.sqs().sendMessage(SendMessageRequest.builder()
+                .queueUrl(url)
+                .messageBody(body)
+                .build());
+    }
+
+    // L'id d'une entrée est son index dans le lot
+    @Override
+    public List<Integer> sendBatch(List<String> bodies) {
+        List<SendMessageBatchRequestEntry> entries = new ArrayList<>();
+        for (int i = 0; i < bodies.size(); i++) {
+            entries.add(SendMessageBatchRequestEntry.builder()
+                    .id(Integer.toString(i))
+                    .messageBody(bodies.get(i))
+                    .build());
+        }
+
+        SendMessageBatchResponse response = aws.sqs().sendMessageBatch(SendMessageBatchRequest.builder()
+                .queueUrl(url)
+                .entries(entries)
+                .build());
+
+        List<Integer> refused = new ArrayList<>();
+        for (BatchResultErrorEntry e : response.failed()) {
+            refused.add(Integer.parseInt(e.id()));
+        }
+        return refused;
+    }
+}
@@ -0,0 +1,379 @@
+package com.aws.iot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Format binaire de l'état consolidé d'un shard (consolidated/snapshots/),
+ * trié par couple.
+ *
+ * Chaque couple garde l'état brut de l'algorithme de Welford (count, moyenne,
+ * M2) : relire puis réécrire le shard ne perd aucune précision, contrairement
+ * à la reconstruction de M2 depuis l'écart type arrondi du CSV. Le CSV du shard
+ * (consolidated/traffic_stats/) n'en est plus qu'une vue dérivée.
+ *
+ * Disposition (entiers fixes gros-boutistes, chaînes : longueur sur 2 octets
+ * puis UTF-8) :
+ * <pre>
+ *   "IOSS" | version (1) | longueur de l'en-tête (4)
+ *   nombre de couples (8) | longueur des enregistrements (8) | nombre de blocs (4)
+ *   index : pour chaque bloc, premier SrcIP, premier DstIP, position (8)
+ *   enregistrements, triés par SrcIP puis DstIP :
+ *       SrcIP, DstIP, count (8), moyenne et M2 de FlowDuration puis de FwdPkts (4 × 8)
+ *   registre : longueur (4) | UTF-8 (opaque, voir AppliedLedger)
+ * </pre>
+ * Les positions de l'index partent du début des enregistrements, qui suivent
+ * l'en-tête. Un couple se trouve par recherche dichotomique dans l'index puis
+ * parcours d'un seul bloc de BLOCK couples : dans un fichier projeté en
+ * mémoire (View.map), ou dans S3 en deux lectures par plage, l'en-tête puis
+ * le bloc (lookup). Le fichier n'est jamais compressé, pour que les positions
+ * restent celles de l'objet.
+ */
+public final class StatsSnapshot {
+
+    private static final byte[] MAGIC = { 'I', 'O', 'S', 'S' };
+    private static final int VERSION = 1;
+
+    // Magic, version et longueur de l'en-tête
+    private static final int PREAMBLE = MAGIC.length + 1 + 4;
+
+    // Couples par bloc : taille d'une lecture par plage (~8 Ko) contre taille de l'index
+    static final int BLOCK = 128;
+
+    // Première lecture de l'en-tête : tout l'index jusqu'à ~1 500 blocs (~200 000 couples)
+    static final int HEADER_READ = 64 * 1024;
+
+    // Recherches reprises si le snapshot est réécrit entre la lecture de l'en-tête et du bloc
+    private static final int LOOKUP_ATTEMPTS = 3;
+
+    // Taille fixe d'un enregistrement, hors chaînes
+    private static final int NUMBERS = 8 + 4 * 8;
+
+    /** Ordre des enregistrements : SrcIP puis DstIP, ordre du texte. */
+    public static final Comparator<Entry> ORDER = (a, b) -> SummaryCodec.comparePair(a.src, a.dst, b.src, b.dst);
+
+    private StatsSnapshot() {
+    }
+
+    /** Vrai si les octets commencent par l'en-tête du format (sinon : CSV). */
+    public static boolean isSnapshot(byte[] data) {
+        return data.length >= PREAMBLE
+                && data[0] == MAGIC[0] && data[1] == MAGIC[1] && data[2] == MAGIC[2] && data[3] == MAGIC[3];
+    }
+
+    /** État consolidé d'un couple. */
+    public static final class Entry {
+        public final String src;
+        public final String dst;
+        public final long count;
+        public final double meanFlowDuration;
+        public final double m2FlowDuration;
+        public final double meanFwdPkts;
+        public final double m2FwdPkts;
+
+        public Entry(String src, String dst, long count,
+                double meanFlowDuration, double m2FlowDuration, double meanFwdPkts, double m2FwdPkts) {
+            this.src = src;
+            this.dst = dst;
+            this.count = count;
+            this.meanFlowDuration = meanFlowDuration;
+            this.m2FlowDuration = m2FlowDuration;
+            this.meanFwdPkts = meanFwdPkts;
+            this.m2FwdPkts = m2FwdPkts;
+        }
+
+        /** Écart type de l'échantillon (0 pour un seul jour), comme dans le CSV. */
+        public double stdFlowDuration() {
+            return count > 1 ? Math.sqrt(m2FlowDuration / (count - 1)) : 0;
+        }
+
+        public double stdFwdPkts() {
+            return count > 1 ? Math.sqrt(m2FwdPkts / (count - 1)) : 0;
+        }
+    }
+
+    /** Reçoit les couples d'un snapshot, dans l'ordre. */
+    public interface EntryConsumer {
+        void accept(Entry entry) throws IOException;
+    }
+
+    // ------------------------------------------------------------------------
+    // Écriture
+    // ------------------------------------------------------------------------
+
+    /** Écrit les couples (triés ici, la liste est réordonnée) et le registre du shard. */
+    public static void write(List<Entry> entries, String ledger, OutputStream out) throws IOException {
+        entries.sort(ORDER);
+
+        ByteArrayOutputStream records = new ByteArrayOutputStream(Math.max(1024, entries.size() * 64));
+        DataOutputStream r = new DataOutputStream(records);
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        DataOutputStream i = new DataOutputStream(index);
+
+        int blocks = 0;
+        for (int n = 0; n < entries.size(); n++) {
+            Entry e = entries.get(n);
+            if (n % BLOCK == 0) {
+                string(i, e.src);
+                string(i, e.dst);
+                i.writeLong(r.size());
+                blocks++;
+            }
+            string(r, e.src);
+            string(r, e.dst);
+            r.writeLong(e.count);
+            r.writeDouble(e.meanFlowDuration);
+            r.writeDouble(e.m2FlowDuration);
+            r.writeDouble(e.meanFwdPkts);
+            r.writeDouble(e.m2FwdPkts);
+        }
+
+        DataOutputStream o = new DataOutputStream(out);
+        o.write(MAGIC);
+        o.writeByte(VERSION);
+        o.writeInt(PREAMBLE + 8 + 8 + 4 + index.size());
+        o.writeLong(entries.size());
+        o.writeLong(records.size());
+        o.writeInt(blocks);
+        index.writeTo(o);
+        records.writeTo(o);
+
+        byte[] l = ledger == null ? new byte[0] : ledger.getBytes(StandardCharsets.UTF_8);
+        o.writeInt(l.length);
+        o.write(l);
+        o.flush();
+    }
+
+    private static void string(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(b.length);
+        out.write(b);
+    }
+
+    // ------------------------------------------------------------------------
+    // Lecture
+    // ------------------------------------------------------------------------
+
+    // En-tête décodé : positions absolues des blocs et premier couple de chacun
+    private static final class Header {
+        final long pairs;
+        final long recordsStart;
+        final long recordsEnd;
+        final String[] firstSrc;
+        final String[] firstDst;
+        final long[] blockStart;
+
+        // buffer : au moins l'en-tête, depuis le début de l'objet
+        Header(ByteBuffer buffer) {
+            if (buffer.limit() < PREAMBLE || buffer.get(0) != MAGIC[0] || buffer.get(1) != MAGIC[1]
+                    || buffer.get(2) != MAGIC[2] || buffer.get(3) != MAGIC[3]) {
+                throw new IllegalArgumentException("Snapshot consolidé invalide");
+            }
+            if (buffer.get(4) != VERSION) {
+                throw new IllegalArgumentException("Version de snapshot inconnue : " + buffer.get(4));
+            }
+
+            ByteBuffer in = buffer.duplicate().position(MAGIC.length + 1);
+            recordsStart = in.getInt();
+            pairs = in.getLong();
+            recordsEnd = recordsStart + in.getLong();
+
+            int blocks = in.getInt();
+            firstSrc = new String[blocks];
+            firstDst = new String[blocks];
+            blockStart = new long[blocks];
+            for (int b = 0; b < blocks; b++) {
+                firstSrc[b] = string(in);
+                firstDst[b] = string(in);
+                blockStart[b] = recordsStart + in.getLong();
+            }
+        }
+
+        // Dernier bloc dont le premier couple est <= (src, dst), ou -1
+        int block(String src, String dst) {
+            int lo = 0;
+            int hi = firstSrc.length - 1;
+            int found = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (SummaryCodec.comparePair(firstSrc[mid], firstDst[mid], src, dst) <= 0) {
+                    found = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return found;
+        }
+
+        long blockEnd(int b) {
+            return b + 1 < blockStart.length ? blockStart[b + 1] : recordsEnd;
+        }
+    }
+
+    /**
+     * Snapshot entier en mémoire ou projeté (mmap). Lecture seule ; plusieurs
+     * threads peuvent l'interroger en même temps.
+     */
+    public static final class View {
+        private final ByteBuffer buffer;
+        private final Header header;
+
+        private View(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.header = new Header(buffer);
+        }
+
+        public static View wrap(byte[] data) {
+            return new View(ByteBuffer.wrap(data));
+        }
+
+        /** Projection du fichier en mémoire (moins de 2 Go) : seules les pages lues sont chargées. */
+        public static View map(Path file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                return new View(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+
+        public long size() {
+            return header.pairs;
+        }
+
+        /** État du couple, ou null s'il n'est pas dans le snapshot. */
+        public Entry find(String src, String dst) {
+            int b = header.block(src, dst);
+            if (b < 0) {
+                return null;
+            }
+            ByteBuffer in = buffer.duplicate()
+                    .limit((int) header.blockEnd(b))
+                    .position((int) header.blockStart[b]);
+            return scan(in, src, dst);
+        }
+
+        /** Tous les couples, dans l'ordre. */
+        public void forEach(EntryConsumer consumer) throws IOException {
+            ByteBuffer in = buffer.duplicate()
+                    .limit((int) header.recordsEnd)
+                    .position((int) header.recordsStart);
+            while (in.hasRemaining()) {
+                consumer.accept(entry(in));
+            }
+        }
+
+        /** Registre du shard, tel qu'écrit. */
+        public String ledger() {
+            ByteBuffer in = buffer.duplicate().position((int) header.recordsEnd);
+            byte[] b = new byte[in.getInt()];
+            in.get(b);
+            return new String(b, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Recherche d'un couple par lectures par plage bornées : l'en-tête, puis le
+     * seul bloc qui peut le contenir. Null si le couple est absent ;
+     * ObjectNotFoundException si le snapshot n'existe pas.
+     *
+     * Les lectures ne passent par aucun cache (ObjectStore.open borné). Si
+     * l'objet a été réécrit entre l'en-tête et le bloc (ETag différent), les
+     * positions lues ne valent plus : la recherche est reprise.
+     */
+    public static Entry lookup(ObjectStore store, String key, String src, String dst) throws IOException {
+
+        for (int attempt = 1; ; attempt++) {
+            String etag;
+            byte[] data;
+            try (ObjectStream in = store.open(key, 0, HEADER_READ)) {
+                etag = in.etag();
+                data = in.readAllBytes();
+            }
+
+            // Index plus long que la première lecture : le reste de l'en-tête
+            int headerLength = data.length >= PREAMBLE
+                    ? ByteBuffer.wrap(data, MAGIC.length + 1, 4).getInt()
+                    : PREAMBLE;
+            boolean sameVersion = true;
+            if (headerLength > data.length) {
+                try (ObjectStream in = store.open(key, data.length, headerLength - data.length)) {
+                    sameVersion = Objects.equals(etag, in.etag());
+                    if (sameVersion) {
+                        byte[] rest = in.readAllBytes();
+                        int read = data.length;
+                        data = Arrays.copyOf(data, read + rest.length);
+                        System.arraycopy(rest, 0, data, read, rest.length);
+                    }
+                }
+            }
+
+            if (sameVersion) {
+                Header header = header(data);
+                int b = header.block(src, dst);
+                if (b < 0) {
+                    return null;
+                }
+
+                long start = header.blockStart[b];
+                try (ObjectStream in = store.open(key, start, header.blockEnd(b) - start)) {
+                    if (Objects.equals(etag, in.etag())) {
+                        return scan(ByteBuffer.wrap(in.readAllBytes()), src, dst);
+                    }
+                }
+            }
+            if (attempt == LOOKUP_ATTEMPTS) {
+                throw new IOException("Snapshot " + key + " réécrit pendant chacune des " + attempt + " recherches");
+            }
+        }
+    }
+
+    // En-tête lu par plage ; un objet tronqué ne doit pas lever d'erreur de tampon
+    private static Header header(byte[] data) {
+        try {
+            return new Header(ByteBuffer.wrap(data));
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("En-tête de snapshot tronqué ou invalide", e);
+        }
+    }
+
+    // Parcours d'un bloc trié jusqu'au couple cherché
+    private static Entry scan(ByteBuffer in, String src, String dst) {
+        while (in.hasRemaining()) {
+            Entry e = entry(in);
+            int c = SummaryCodec.comparePair(e.src, e.dst, src, dst);
+            if (c == 0) {
+                return e;
+            }
+            if (c > 0) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static Entry entry(ByteBuffer in) {
+        String src = string(in);
+        String dst = string(in);
+        if (in.remaining() < NUMBERS) {
+            throw new IllegalArgumentException("Enregistrement de snapshot tronqué");
+        }
+        return new Entry(src, dst, in.getLong(), in.getDouble(), in.getDouble(), in.getDouble(), in.getDouble());
+    }
+
+    private static String string(ByteBuffer in) {
+        byte[] b = new byte[in.getShort() & 0xFFFF];
+        in.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,82 @@
+package com.aws.iot;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sépare, pour des flux lus puis analysés (éventuellement en parallèle), le
+ * temps passé à attendre les octets (réseau S3 ou disque) du temps passé à
+ * les traiter.
+ *
+ * Pour chaque flux passé par wrap() : readNanos cumule la durée des appels
+ * read(), processNanos le reste de la durée de vie du flux (de wrap() à
+ * close()). Les deux sont additionnés sur tous les flux : avec plusieurs
+ * plages en parallèle, ce sont des temps cumulés, pas des durées murales.
+ */
+public final class StreamMeter {
+
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong readNanos = new AtomicLong();
+    private final AtomicLong processNanos = new AtomicLong();
+
+    public InputStream wrap(InputStream in) {
+        return new Metered(in);
+    }
+
+    public long bytes() {
+        return bytes.get();
+    }
+
+    public long readNanos() {
+        return readNanos.get();
+    }
+
+    public long processNanos() {
+        return processNanos.get();
+    }
+
+    private final class Metered extends FilterInputStream {
+
+        private final long opened = System.nanoTime();
+        private long reading;
+        private boolean closed;
+
+        Metered(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = super.read();
+            reading += System.nanoTime() - start;
+            if (b >= 0) {
+                bytes.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            int n = super.read(b, off, len);
+            reading += System.nanoTime() - start;
+            if (n > 0) {
+                bytes.addAndGet(n);
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                readNanos.addAndGet(reading);
+                processNanos.addAndGet(System.nanoTime() - opened - reading);
+            }
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,570 @@
+package com.aws.iot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Format binaire en colonnes des résumés journaliers (summaries/*_summary.bin
+ * et partitions summaries-by-pair/).
+ *
+ * Disposition (version 2) :
+ * <pre>
+ *   "IOTS" | version | flags
+ *   blocs de colonnes, chacun : nombre de lignes (jamais 0), puis
+ *     colonne Date              : delta zigzag du jour (epoch day) précédent
+ *     colonnes SrcIP, DstIP     : index dans le dictionnaire
+ *     colonnes des deux totaux  : varint zigzag
+ *     colonne Summary           : index dans le dictionnaire (si flags & 1)
+ *   0 (fin des blocs)
+ *   dictionnaire : n, puis n chaînes (IP et noms de résumés)
+ *   position du dictionnaire (8 octets)
+ *   pied : couple min, couple max (chaînes), nombre de lignes (8 octets)
+ *   longueur du pied (4 octets) | "IOTS"
+ * </pre>
+ * Tous les entiers sans taille indiquée sont des varints (LEB128). Le pied se
+ * lit depuis la fin de l'objet sans décoder les colonnes.
+ *
+ * Le dictionnaire suit les colonnes : l'écriture (Writer) envoie chaque bloc
+ * dès qu'il est plein et ne garde que les valeurs distinctes, pas les lignes.
+ * La version 1, dictionnaire en tête puis une colonne entière par champ, est
+ * encore lue.
+ */
+public final class SummaryCodec {
+
+    public static final String EXTENSION = ".bin";
+
+    private static final byte[] MAGIC = { 'I', 'O', 'T', 'S' };
+    private static final int VERSION = 2;
+    private static final int VERSION_DICTIONARY_FIRST = 1;
+    private static final int FLAG_SUMMARY = 1;
+
+    // Lignes d'un bloc de colonnes : avec le dictionnaire, seule mémoire de l'écriture
+    static final int BLOCK_ROWS = 4096;
+
+    private SummaryCodec() {
+    }
+
+    /** Vrai si les octets commencent par l'en-tête du format binaire (sinon : CSV). */
+    public static boolean isBinary(byte[] data) {
+        return data.length >= MAGIC.length + 2
+                && data[0] == MAGIC[0] && data[1] == MAGIC[1] && data[2] == MAGIC[2] && data[3] == MAGIC[3];
+    }
+
+    // ------------------------------------------------------------------------
+    // Écriture
+    // ------------------------------------------------------------------------
+
+    /**
+     * Écrit les lignes au fil de l'eau dans un flux : colonnes par blocs de
+     * BLOCK_ROWS lignes, puis dictionnaire et pied à finish(). Le flux n'est
+     * pas fermé.
+     */
+    public static final class Writer {
+
+        private final OutputStream out;
+        private final Encoder encoder;
+
+        public Writer(OutputStream out, boolean withSummary) {
+            this.out = out;
+            this.encoder = new Encoder(withSummary);
+        }
+
+        public void add(int epochDay, String src, String dst, long totalFlowDuration, long totalFwdPkts,
+                String summary) throws IOException {
+            if (encoder.add(epochDay, src, dst, totalFlowDuration, totalFwdPkts, summary)) {
+                encoder.drainTo(out);
+            }
+        }
+
+        public void add(String date, String src, String dst, long totalFlowDuration, long totalFwdPkts,
+                String summary) throws IOException {
+            add((int) LocalDate.parse(date).toEpochDay(), src, dst, totalFlowDuration, totalFwdPkts, summary);
+        }
+
+        public long rows() {
+            return encoder.rows;
+        }
+
+        /** Écrit le dernier bloc, le dictionnaire et le pied. */
+        public void finish() throws IOException {
+            encoder.finish();
+            encoder.drainTo(out);
+        }
+    }
+
+    /** Accumule des lignes (déjà encodées, voir Writer) puis les restitue en un seul objet. */
+    public static final class Builder {
+
+        private final Encoder encoder;
+
+        /** withSummary : ajoute la colonne Summary (partitions par couple). */
+        public Builder(boolean withSummary) {
+            this.encoder = new Encoder(withSummary);
+        }
+
+        public Builder add(int epochDay, String src, String dst, long totalFlowDuration, long totalFwdPkts,
+                String summary) {
+            encoder.add(epochDay, src, dst, totalFlowDuration, totalFwdPkts, summary);
+            return this;
+        }
+
+        public Builder add(String date, String src, String dst, long totalFlowDuration, long totalFwdPkts,
+                String summary) {
+            return add((int) LocalDate.parse(date).toEpochDay(), src, dst, totalFlowDuration, totalFwdPkts,
+                    summary);
+        }
+
+        public int size() {
+            return (int) encoder.rows;
+        }
+
+        /** Termine l'objet au premier appel ; plus aucune ligne ne peut être ajoutée ensuite. */
+        public void writeTo(OutputStream out) throws IOException {
+            if (!encoder.finished) {
+                encoder.finish();
+            }
+            encoder.buffer.writeTo(out);
+        }
+
+        public byte[] toByteArray() throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writeTo(out);
+            return out.toByteArray();
+        }
+    }
+
+    // Encodage commun : bloc en cours, dictionnaire et bornes. Les octets encodés
+    // s'accumulent dans buffer, que Writer vide dans son flux après chaque bloc.
+    private static final class Encoder {
+
+        private final boolean withSummary;
+        final Output buffer = new Output();
+        private long drained; // octets déjà sortis de buffer
+        long rows;
+        boolean finished;
+
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> dictionary = new ArrayList<>();
+
+        private int size;
+        private final int[] days = new int[BLOCK_ROWS];
+        private final int[] srcs = new int[BLOCK_ROWS];
+        private final int[] dsts = new int[BLOCK_ROWS];
+        private final long[] flowDurations = new long[BLOCK_ROWS];
+        private final long[] fwdPkts = new long[BLOCK_ROWS];
+        private final int[] summaries;
+        private int previousDay;
+
+        private String minSrc;
+        private String minDst;
+        private String maxSrc;
+        private String maxDst;
+
+        Encoder(boolean withSummary) {
+            this.withSummary = withSummary;
+            this.summaries = withSummary ? new int[BLOCK_ROWS] : null;
+
+            buffer.writeBytes(MAGIC);
+            buffer.write(VERSION);
+            buffer.write(withSummary ? FLAG_SUMMARY : 0);
+        }
+
+        /** Vrai si un bloc vient d'être encodé dans buffer. */
+        boolean add(int epochDay, String src, String dst, long totalFlowDuration, long totalFwdPkts,
+                String summary) {
+
+            if (finished) {
+                throw new IllegalStateException("Résumé binaire déjà terminé");
+            }
+
+            days[size] = epochDay;
+            srcs[size] = id(src);
+            dsts[size] = id(dst);
+            flowDurations[size] = totalFlowDuration;
+            fwdPkts[size] = totalFwdPkts;
+            if (withSummary) {
+                summaries[size] = id(summary);
+            }
+            size++;
+            rows++;
+
+            if (minSrc == null || comparePair(src, dst, minSrc, minDst) < 0) {
+                minSrc = src;
+                minDst = dst;
+            }
+            if (maxSrc == null || comparePair(src, dst, maxSrc, maxDst) > 0) {
+                maxSrc = src;
+                maxDst = dst;
+            }
+
+            if (size == BLOCK_ROWS) {
+                writeBlock();
+                return true;
+            }
+            return false;
+        }
+
+        private int id(String value) {
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = dictionary.size();
+                ids.put(value, id);
+                dictionary.add(value);
+            }
+            return id;
+        }
+
+        private void writeBlock() {
+            Output o = buffer;
+            o.varint(size);
+
+            for (int i = 0; i < size; i++) {
+                o.varint(zigzag(days[i] - (long) previousDay));
+                previousDay = days[i];
+            }
+            for (int i = 0; i < size; i++) {
+                o.varint(srcs[i]);
+            }
+            for (int i = 0; i < size; i++) {
+                o.varint(dsts[i]);
+            }
+            for (int i = 0; i < size; i++) {
+                o.varint(zigzag(flowDurations[i]));
+            }
+            for (int i = 0; i < size; i++) {
+                o.varint(zigzag(fwdPkts[i]));
+            }
+            if (withSummary) {
+                for (int i = 0; i < size; i++) {
+                    o.varint(summaries[i]);
+                }
+            }
+            size = 0;
+        }
+
+        void finish() {
+            if (finished) {
+                throw new IllegalStateException("Résumé binaire déjà terminé");
+            }
+            finished = true;
+
+            if (size > 0) {
+                writeBlock();
+            }
+            Output o = buffer;
+            o.varint(0);
+
+            long dictionaryPosition = drained + o.size();
+            o.varint(dictionary.size());
+            for (String s : dictionary) {
+                o.string(s);
+            }
+            o.fixed(dictionaryPosition, 8);
+
+            int footerStart = o.size();
+            o.string(minSrc == null ? "" : minSrc);
+            o.string(minDst == null ? "" : minDst);
+            o.string(maxSrc == null ? "" : maxSrc);
+            o.string(maxDst == null ? "" : maxDst);
+            o.fixed(rows, 8);
+            o.fixed(o.size() - footerStart, 4);
+            o.writeBytes(MAGIC);
+        }
+
+        void drainTo(OutputStream out) throws IOException {
+            buffer.writeTo(out);
+            drained += buffer.size();
+            buffer.reset();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Lecture
+    // ------------------------------------------------------------------------
+
+    /** Pied du fichier : nombre de lignes et bornes des couples présents. */
+    public static final class Footer {
+        public final long rowCount;
+        public final String minSrc;
+        public final String minDst;
+        public final String maxSrc;
+        public final String maxDst;
+
+        Footer(long rowCount, String minSrc, String minDst, String maxSrc, String maxDst) {
+            this.rowCount = rowCount;
+            this.minSrc = minSrc;
+            this.minDst = minDst;
+            this.maxSrc = maxSrc;
+            this.maxDst = maxDst;
+        }
+
+        /** Faux si le couple est hors des bornes : inutile de décoder les colonnes. */
+        public boolean mayContain(String src, String dst) {
+            return rowCount > 0
+                    && comparePair(src, dst, minSrc, minDst) >= 0
+                    && comparePair(src, dst, maxSrc, maxDst) <= 0;
+        }
+    }
+
+    /** Lit le pied depuis la fin des octets (objet entier ou simple fin d'objet). */
+    public static Footer readFooter(byte[] data) {
+        int end = data.length;
+        if (end < 8 || data[end - 4] != MAGIC[0] || data[end - 3] != MAGIC[1]
+                || data[end - 2] != MAGIC[2] || data[end - 1] != MAGIC[3]) {
+            throw new IllegalArgumentException("Pied de résumé binaire invalide");
+        }
+
+        // Longueur et chaînes vérifiées : un pied abîmé ne doit pas lire hors de l'objet
+        long footerLength = readFixed(data, end - 8, 4);
+        if (footerLength < 12 || footerLength > end - 8) {
+            throw new IllegalArgumentException("Pied de résumé binaire invalide (longueur " + footerLength + ")");
+        }
+        int footerEnd = end - 8;
+        Input in = new Input(data, (int) (footerEnd - footerLength), footerEnd - 8);
+        String minSrc = in.string();
+        String minDst = in.string();
+        String maxSrc = in.string();
+        String maxDst = in.string();
+        if (in.pos != footerEnd - 8) {
+            throw new IllegalArgumentException("Pied de résumé binaire invalide (bornes)");
+        }
+        long rowCount = readFixed(data, in.pos, 8);
+        if (rowCount < 0) {
+            throw new IllegalArgumentException("Pied de résumé binaire invalide (nombre de lignes)");
+        }
+
+        return new Footer(rowCount, minSrc, minDst, maxSrc, maxDst);
+    }
+
+    /** Colonnes décodées ; SrcIP, DstIP et Summary sont des index dans dictionary. */
+    public static final class Columns {
+        public final String[] dictionary;
+        public final int size;
+        public final int[] days;
+        public final int[] srcs;
+        public final int[] dsts;
+        public final long[] flowDurations;
+        public final long[] fwdPkts;
+        public final int[] summaries; // null sans colonne Summary
+
+        Columns(String[] dictionary, int size, boolean withSummary) {
+            this.dictionary = dictionary;
+            this.size = size;
+            this.days = new int[size];
+            this.srcs = new int[size];
+            this.dsts = new int[size];
+            this.flowDurations = new long[size];
+            this.fwdPkts = new long[size];
+            this.summaries = withSummary ? new int[size] : null;
+        }
+
+        // Colonnes des lignes from..from+n ; renvoie le dernier jour (deltas continus d'un bloc à l'autre)
+        private int readBlock(Input in, int from, int n, int day) {
+            int end = from + n;
+            for (int i = from; i < end; i++) {
+                day += (int) unzigzag(in.varint());
+                days[i] = day;
+            }
+            for (int i = from; i < end; i++) {
+                srcs[i] = index(in.varint());
+            }
+            for (int i = from; i < end; i++) {
+                dsts[i] = index(in.varint());
+            }
+            for (int i = from; i < end; i++) {
+                flowDurations[i] = unzigzag(in.varint());
+            }
+            for (int i = from; i < end; i++) {
+                fwdPkts[i] = unzigzag(in.varint());
+            }
+            if (summaries != null) {
+                for (int i = from; i < end; i++) {
+                    summaries[i] = index(in.varint());
+                }
+            }
+            return day;
+        }
+
+        private int index(long id) {
+            if (id < 0 || id >= dictionary.length) {
+                throw new IllegalArgumentException("Résumé binaire tronqué ou abîmé");
+            }
+            return (int) id;
+        }
+
+        /** Index d'une valeur du dictionnaire, -1 si absente (le couple n'est pas dans le fichier). */
+        public int indexOf(String value) {
+            for (int i = 0; i < dictionary.length; i++) {
+                if (dictionary[i].equals(value)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        public String date(int row) {
+            return LocalDate.ofEpochDay(days[row]).toString();
+        }
+    }
+
+    public static Columns decode(byte[] data) {
+        if (!isBinary(data)) {
+            throw new IllegalArgumentException("Résumé binaire invalide (en-tête absent)");
+        }
+        boolean withSummary = (data[5] & FLAG_SUMMARY) != 0;
+
+        if (data[4] == VERSION_DICTIONARY_FIRST) {
+            Input in = new Input(data, 6, data.length);
+            String[] dictionary = readDictionary(in);
+            Columns c = new Columns(dictionary, checkedSize(in.varint(), data.length), withSummary);
+            c.readBlock(in, 0, c.size, 0);
+            return c;
+        }
+        if (data[4] != VERSION) {
+            throw new IllegalArgumentException("Version de résumé binaire non supportée : " + data[4]);
+        }
+
+        // Le pied donne le nombre de lignes, et le dictionnaire le précède
+        Footer footer = readFooter(data);
+        int footerStart = data.length - 8 - (int) readFixed(data, data.length - 8, 4);
+        if (footerStart - 8 < 6) {
+            throw new IllegalArgumentException("Résumé binaire tronqué ou abîmé");
+        }
+        long dictionaryPosition = readFixed(data, footerStart - 8, 8);
+        if (dictionaryPosition < 6 || dictionaryPosition > footerStart - 8) {
+            throw new IllegalArgumentException("Résumé binaire tronqué ou abîmé");
+        }
+        String[] dictionary = readDictionary(new Input(data, (int) dictionaryPosition, footerStart - 8));
+
+        Columns c = new Columns(dictionary, checkedSize(footer.rowCount, data.length), withSummary);
+        Input in = new Input(data, 6, (int) dictionaryPosition);
+        int row = 0;
+        int day = 0;
+        for (int n; (n = (int) in.varint()) != 0; row += n) {
+            if (n < 0 || n > c.size - row) {
+                throw new IllegalArgumentException("Résumé binaire tronqué ou abîmé");
+            }
+            day = c.readBlock(in, row, n, day);
+        }
+        if (row != c.size) {
+            throw new IllegalArgumentException("Résumé binaire tronqué ou abîmé");
+        }
+        return c;
+    }
+
+    private static String[] readDictionary(Input in) {
+        String[] dictionary = new String[checkedSize(in.varint(), in.limit)];
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = in.string();
+        }
+        return dictionary;
+    }
+
+    // Chaque ligne ou valeur occupe au moins un octet : borne un compte abîmé avant d'allouer
+    private static int checkedSize(long n, int bytes) {
+        if (n < 0 || n > bytes) {
+            throw new IllegalArgumentException("Résumé binaire tronqué ou abîmé");
+        }
+        return (int) n;
+    }
+
+    // ------------------------------------------------------------------------
+    // Primitives d'encodage
+    // ------------------------------------------------------------------------
+
+    // Ordre des couples : SrcIP puis DstIP, ordre du texte
+    static int comparePair(String src1, String dst1, String src2, String dst2) {
+        int c = src1.compareTo(src2);
+        return c != 0 ? c : dst1.compareTo(dst2);
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static long readFixed(byte[] data, int pos, int bytes) {
+        long v = 0;
+        for (int i = 0; i < bytes; i++) {
+            v = (v << 8) | (data[pos + i] & 0xFF);
+        }
+        return v;
+    }
+
+    private static final class Output extends ByteArrayOutputStream {
+
+        Output() {
+            super(1 << 16);
+        }
+
+        void varint(long v) {
+            while ((v & ~0x7FL) != 0) {
+                write((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            write((int) v);
+        }
+
+        void fixed(long v, int bytes) {
+            for (int i = bytes - 1; i >= 0; i--) {
+                write((int) (v >>> (8 * i)));
+            }
+        }
+
+        void string(String s) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            varint(b.length);
+            write(b, 0, b.length);
+        }
+    }
+
+    private static final class Input {
+
+        private final byte[] data;
+        final int limit;
+        private int pos;
+
+        Input(byte[] data, int pos, int limit) {
+            this.data = data;
+            this.pos = pos;
+            this.limit = limit;
+        }
+
+        long varint() {
+            long v = 0;
+            int shift = 0;
+            while (true) {
+                if (pos >= limit || shift > 63) {
+                    throw new IllegalArgumentException("Résumé binaire tronqué ou abîmé");
+                }
+                byte b = data[pos++];
+                v |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return v;
+                }
+                shift += 7;
+            }
+        }
+
+        String string() {
+            long n = varint();
+            if (n < 0 || n > limit - pos) {
+                throw new IllegalArgumentException("Résumé binaire tronqué ou abîmé");
+            }
+            String s = new String(data, pos, (int) n, StandardCharsets.UTF_8);
+            pos += (int) n;
+            return s;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.aws.iot;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+
+/**
+ * Fichiers résumés journaliers (summaries/) : nom et contenu.
+ *
+ * Écrits par le Summarize Worker et, en pré-agrégation (UPLOAD_MODE=summary),
+ * par l'Upload Client : les deux passent par ici et produisent donc le même
+ * objet, octet pour octet, pour un même CSV et une même configuration
+ * (SUMMARY_FORMAT, SUMMARY_COMPRESSION).
+ */
+public final class SummaryFiles {
+
+    public static final String PREFIX = "summaries/";
+
+    // Format des résumés : binaire en colonnes (défaut, voir SummaryCodec) ou "csv"
+    public static final boolean CSV = "csv".equalsIgnoreCase(System.getenv("SUMMARY_FORMAT"));
+
+    // Compression des résumés écrits (SUMMARY_COMPRESSION : none, gzip ou zstd), visible
+    // dans leur nom (.gz, .zst)
+    public static final Compression COMPRESSION = Compression.fromEnv("SUMMARY_COMPRESSION");
+
+    private SummaryFiles() {
+    }
+
+    /**
+     * Nom du résumé d'un fichier brut : xxx.csv → xxx_summary.bin (ou _summary.csv),
+     * xxx.csv.gz → xxx_summary.bin, plus le suffixe de SUMMARY_COMPRESSION
+     */
+    public static String name(String originalKey) {
+        String name = Compression.baseKey(originalKey)
+                .replace(".csv", "_summary" + (CSV ? ".csv" : SummaryCodec.EXTENSION));
+        return COMPRESSION.key(name);
+    }
+
+    /** Message de la queue du Consolidator pour un résumé envoyé. */
+    public static String notification(String name) {
+        return "{ \"summary\": \"" + name + "\" }";
+    }
+
+    /** Écrit le résumé (trié par date, SrcIP, DstIP) dans un fichier temporaire. */
+    public static Path write(SpillingAggregation summary) throws IOException {
+
+        if (!CSV) {
+            Path summaryFile = Files.createTempFile("summary_", SummaryCodec.EXTENSION);
+
+            // Colonnes écrites par blocs au fil de la fusion : aucun groupe gardé en mémoire
+            try (OutputStream out = new BufferedOutputStream(
+                    COMPRESSION.compress(Files.newOutputStream(summaryFile)), 1 << 16)) {
+                SummaryCodec.Writer writer = new SummaryCodec.Writer(out, false);
+                summary.forEachSorted((day, src, dst, flowDuration, fwdPkts) ->
+                        writer.add(day, src, dst, flowDuration, fwdPkts, null));
+                writer.finish();
+            }
+            return summaryFile;
+        }
+
+        Path summaryFile = Files.createTempFile("summary_", ".csv");
+
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                COMPRESSION.compress(Files.newOutputStream(summaryFile)), StandardCharsets.UTF_8))) {
+            writer.write("Date,SrcIP,DstIP,TotalFlowDuration,TotalFwdPkts\n");
+
+            summary.forEachSorted(new SpillingAggregation.GroupConsumer() {
+                int lastDay = Integer.MIN_VALUE;
+                String date;
+
+                @Override
+                public void accept(int day, String src, String dst, long flowDuration, long fwdPkts)
+                        throws IOException {
+
+                    if (day != lastDay) {
+                        date = LocalDate.ofEpochDay(day).toString();
+                        lastDay = day;
+                    }
+
+                    writer.write(date + "," +
+                            src + "," +
+                            dst + "," +
+                            flowDuration + "," +
+                            fwdPkts + "\n");
+                }
+            });
+        }
+
+        return summaryFile;
+    }
+}
@@ -0,0 +1,66 @@
+package com.aws.iot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cumule les métriques de toutes les invocations (lancement local, voir
+ * pipeline-driver) et les restitue en tableau : pour chaque métrique, nombre
+ * de valeurs, somme, p50, p95 et max. Pour un compteur, une valeur par
+ * invocation.
+ */
+public final class SummaryMetricsSink implements MetricsSink {
+
+    private static final class Totals {
+        final Metrics.Unit unit;
+        final List<Double> values = new ArrayList<>();
+
+        Totals(Metrics.Unit unit) {
+            this.unit = unit;
+        }
+    }
+
+    // Clé : worker puis nom de la métrique
+    private final Map<String, Totals> totals = new LinkedHashMap<>();
+
+    @Override
+    public synchronized void emit(Metrics metrics) {
+        for (Map.Entry<String, Metrics.Metric> en : metrics.snapshot().entrySet()) {
+            Metrics.Metric m = en.getValue();
+            Totals t = totals.computeIfAbsent(metrics.function() + " " + en.getKey(), k -> new Totals(m.unit));
+            if (m.counter) {
+                t.values.add((double) m.value());
+            } else {
+                t.values.addAll(m.values());
+            }
+        }
+    }
+
+    public synchronized String table() {
+        StringBuilder sb = new StringBuilder(String.format("%-44s %-13s %8s %14s %12s %12s %12s%n",
+                "Métrique", "Unité", "n", "somme", "p50", "p95", "max"));
+
+        for (Map.Entry<String, Totals> en : totals.entrySet()) {
+            Totals t = en.getValue();
+            double[] sorted = t.values.stream().mapToDouble(Double::doubleValue).sorted().toArray();
+            double sum = Arrays.stream(sorted).sum();
+
+            sb.append(String.format("%-44s %-13s %8d %14.1f %12.1f %12.1f %12.1f%n",
+                    en.getKey(), t.unit.cloudWatchName, sorted.length, sum,
+                    percentile(sorted, 50), percentile(sorted, 95),
+                    sorted.length > 0 ? sorted[sorted.length - 1] : 0));
+        }
+        return sb.toString();
+    }
+
+    private static double percentile(double[] sorted, int p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, rank)];
+    }
+}
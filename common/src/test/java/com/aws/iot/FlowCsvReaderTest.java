@@ -0,0 +1,136 @@
+package com.aws.iot;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compare le lecteur projeté au chemin d'origine (découpage CSV complet et
+ * LocalDateTime.parse sur "dd/MM/yyyy hh:mm:ss a").
+ */
+class FlowCsvReaderTest {
+
+    private static final DateTimeFormatter BASELINE = DateTimeFormatter.ofPattern("dd/MM/yyyy hh:mm:ss a");
+
+    private static final String HEADER = "Flow ID,Src IP,Src Port,Dst IP,Timestamp,Flow Duration,Tot Fwd Pkts,Label";
+
+    private static FlowCsvReader reader(String csv) throws IOException {
+        return new FlowCsvReader(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static int baselineDay(String timestamp) {
+        return (int) LocalDateTime.parse(timestamp, BASELINE).toLocalDate().toEpochDay();
+    }
+
+    private static String row(String timestamp) {
+        return "f,10.0.0.1,80,10.0.0.2," + timestamp + ",5,1,BENIGN";
+    }
+
+    @Test
+    void projectsQuotedFieldsAndCrlfLines() throws IOException {
+        String csv = "\uFEFF" + HEADER + "\r\n"
+                + "\"a,b\",192.168.1.10,443,\"10.0.0.\"\"2\"\"\",02/03/2018 12:15:00 AM,120,7,\"x\r\ny\"\r\n"
+                + "\r\n"
+                + "c,172.16.0.1,53,\"8.8.8.8\",02/03/2018 12:15:00 PM,-3,0,BENIGN";
+
+        try (FlowCsvReader rows = reader(csv)) {
+            assertTrue(rows.next());
+            assertEquals("192.168.1.10", rows.src());
+            assertEquals("10.0.0.\"2\"", rows.dst());
+            assertEquals(-1, rows.dstIpv4());
+            assertEquals(120, rows.flowDuration());
+            assertEquals(7, rows.fwdPkts());
+            assertEquals(baselineDay("02/03/2018 12:15:00 AM"), rows.epochDay());
+
+            assertTrue(rows.next());
+            assertEquals("172.16.0.1", rows.src());
+            assertEquals("8.8.8.8", rows.dst());
+            assertEquals(PairDayTable.packIpv4("8.8.8.8".getBytes(StandardCharsets.US_ASCII), 0, 7), rows.dstIpv4());
+            assertEquals(-3, rows.flowDuration());
+            assertEquals(baselineDay("02/03/2018 12:15:00 PM"), rows.epochDay());
+
+            assertFalse(rows.next());
+        }
+    }
+
+    @Test
+    void epochDayMatchesBaselineAcrossCalendar() throws IOException {
+        // Tous les jours 01-31 (jours hors mois ramenés par le résolveur SMART), années bissextiles comprises
+        List<String> timestamps = new ArrayList<>();
+        for (int year : new int[] { 1999, 2000, 2016, 2018, 2100 }) {
+            for (int month = 1; month <= 12; month++) {
+                for (int day = 1; day <= 31; day++) {
+                    int hour = 1 + (day % 12);
+                    String ampm = (day + month) % 2 == 0 ? "AM" : "PM";
+                    timestamps.add(String.format("%02d/%02d/%04d %02d:%02d:%02d %s", day, month, year, hour,
+                            (day * 7) % 60, (month * 11) % 60, ampm));
+                }
+            }
+        }
+        timestamps.add("31/12/2018 12:00:00 AM");
+        timestamps.add("31/12/2018 12:59:59 PM");
+        timestamps.add("01/01/2019 12:00:00 AM");
+        timestamps.add("01/01/2019 00:30:00 AM");
+
+        StringBuilder csv = new StringBuilder(HEADER).append('\n');
+        for (String timestamp : timestamps) {
+            csv.append(row(timestamp)).append('\n');
+        }
+
+        try (FlowCsvReader rows = reader(csv.toString())) {
+            for (String timestamp : timestamps) {
+                assertTrue(rows.next());
+                assertEquals(baselineDay(timestamp), rows.epochDay(), timestamp);
+            }
+            assertFalse(rows.next());
+        }
+    }
+
+    @Test
+    void malformedTimestampsAreRejectedLikeBaseline() throws IOException {
+        String[] malformed = {
+            "02/03/2018 13:15:00 PM",
+            "02/03/2018 11:60:00 AM",
+            "02/03/2018 11:15:60 AM",
+            "02/03/2018 11:15:00 XM",
+            "02/03/2018 11:15:00 am",
+            "02/03/2018 11:15:00",
+            "02/03/2018 11-15-00 AM",
+            "02/03/2018 1:15:00 AM",
+            "02/13/2018 11:15:00 AM",
+            "32/03/2018 11:15:00 AM",
+        };
+
+        for (String timestamp : malformed) {
+            assertThrows(DateTimeParseException.class, () -> baselineDay(timestamp), timestamp);
+            try (FlowCsvReader rows = reader(HEADER + "\n" + row(timestamp) + "\n")) {
+                assertTrue(rows.next());
+                assertThrows(DateTimeParseException.class, rows::epochDay, timestamp);
+            }
+        }
+    }
+
+    @Test
+    void missingProjectedColumnIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> reader("Src IP,Dst IP,Flow Duration,Tot Fwd Pkts\n"));
+    }
+
+    @Test
+    void shortLineIsRejected() throws IOException {
+        try (FlowCsvReader rows = reader(HEADER + "\nf,10.0.0.1,80\n")) {
+            assertThrows(IllegalArgumentException.class, rows::next);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.aws.iot;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Table à adressage ouvert comparée à une HashMap de référence.
+ */
+class PairDayTableTest {
+
+    private static long pack(String ip) {
+        byte[] b = ip.getBytes(StandardCharsets.US_ASCII);
+        return PairDayTable.packIpv4(b, 0, b.length);
+    }
+
+    // Totaux par "jour src dst" lus dans la table
+    private static Map<String, List<Long>> contents(PairDayTable table) {
+        Map<String, List<Long>> groups = new HashMap<>();
+        for (int slot : table.sortedSlots()) {
+            String key = table.day(slot) + " " + table.ipText(table.src(slot)) + " " + table.ipText(table.dst(slot));
+            groups.put(key, List.of(table.flowDuration(slot), table.fwdPkts(slot)));
+        }
+        return groups;
+    }
+
+    @Test
+    void packsOnlyCanonicalIpv4() {
+        assertEquals(0xC0A8010AL, pack("192.168.1.10"));
+        assertEquals(0L, pack("0.0.0.0"));
+        assertEquals(0xFFFFFFFFL, pack("255.255.255.255"));
+        assertEquals("255.255.255.255", PairDayTable.ipv4Text(pack("255.255.255.255")));
+
+        for (String other : new String[] { "", "1.2.3", "1.2.3.4.5", "01.2.3.4", "1.2.3.256", "1.2.3.4 ",
+                "1..3.4", "::1", "host", "1234.1.1.1" }) {
+            assertEquals(-1, pack(other), other);
+        }
+    }
+
+    @Test
+    void growsAndAccumulatesLikeHashMap() {
+        // Espace de clés dense (beaucoup de collisions de sondage) et plusieurs agrandissements
+        PairDayTable table = new PairDayTable();
+        Map<String, long[]> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 200_000; i++) {
+            int day = 17_500 + random.nextInt(20);
+            long src = random.nextInt(64);
+            long dst = random.nextInt(64);
+            long duration = random.nextInt(1_000_000);
+            long pkts = random.nextInt(100);
+
+            table.add(day, src, dst, duration, pkts);
+            long[] totals = expected.computeIfAbsent(day + " " + PairDayTable.ipv4Text(src) + " "
+                    + PairDayTable.ipv4Text(dst), k -> new long[2]);
+            totals[0] += duration;
+            totals[1] += pkts;
+        }
+
+        assertEquals(expected.size(), table.size());
+        assertTrue(table.size() > 4096, "la table doit avoir été agrandie");
+
+        Map<String, List<Long>> actual = contents(table);
+        assertEquals(expected.keySet(), actual.keySet());
+        expected.forEach((key, totals) -> assertEquals(List.of(totals[0], totals[1]), actual.get(key), key));
+
+        Set<String> pairs = new HashSet<>();
+        expected.keySet().forEach(key -> pairs.add(key.substring(key.indexOf(' ') + 1)));
+        assertEquals(pairs.size(), table.distinctPairs());
+    }
+
+    @Test
+    void dictionaryKeysSurviveMergeAndSort() {
+        PairDayTable left = new PairDayTable();
+        PairDayTable right = new PairDayTable();
+
+        // Ordres d'insertion différents : les index de dictionnaire diffèrent entre les tables
+        long leftV6 = left.dictionaryKey("fe80::1");
+        long leftHost = left.dictionaryKey("host-a");
+        long rightHost = right.dictionaryKey("host-a");
+        long rightV6 = right.dictionaryKey("fe80::1");
+
+        long ip = pack("10.0.0.1");
+        left.add(1, ip, leftV6, 10, 1);
+        left.add(1, leftHost, ip, 20, 2);
+        left.countRows(2);
+        right.add(1, ip, rightV6, 5, 1);
+        right.add(0, rightHost, rightV6, 7, 3);
+        right.countRows(2);
+
+        left.merge(right);
+
+        assertEquals(4, left.rows());
+        assertEquals(3, left.size());
+        assertEquals(3, left.distinctPairs());
+
+        Map<String, List<Long>> actual = contents(left);
+        assertEquals(List.of(15L, 2L), actual.get("1 10.0.0.1 fe80::1"));
+        assertEquals(List.of(20L, 2L), actual.get("1 host-a 10.0.0.1"));
+        assertEquals(List.of(7L, 3L), actual.get("0 host-a fe80::1"));
+
+        // Tri (jour, src, dst) : IPv4 avant le texte
+        List<String> order = new ArrayList<>();
+        for (int slot : left.sortedSlots()) {
+            order.add(left.day(slot) + " " + left.ipText(left.src(slot)));
+        }
+        assertArrayEquals(new String[] { "0 host-a", "1 10.0.0.1", "1 host-a" }, order.toArray());
+    }
+}
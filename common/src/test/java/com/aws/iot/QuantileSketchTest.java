@@ -0,0 +1,125 @@
+package com.aws.iot;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Esquisse de quantiles comparée aux quantiles exacts (même rang), et fusion.
+ */
+class QuantileSketchTest {
+
+    private static final double[] QUANTILES = { 0, 0.01, 0.25, 0.5, 0.75, 0.95, 0.99, 1 };
+
+    // Valeur exacte du rang retenu par l'esquisse : floor(q * (n - 1)) des valeurs triées
+    private static double exact(double[] sorted, double q) {
+        return sorted[(int) Math.floor(q * (sorted.length - 1))];
+    }
+
+    private static void assertWithinAccuracy(double[] values, QuantileSketch sketch) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        for (double q : QUANTILES) {
+            double expected = exact(sorted, q);
+            double actual = sketch.quantile(q);
+            assertTrue(Math.abs(actual - expected) <= QuantileSketch.RELATIVE_ACCURACY * Math.abs(expected) + 1e-9,
+                    "q=" + q + " attendu " + expected + ", obtenu " + actual);
+        }
+    }
+
+    @Test
+    void quantilesStayWithinRelativeAccuracy() {
+        Random random = new Random(11);
+        double[] values = new double[50_000];
+        QuantileSketch sketch = new QuantileSketch();
+
+        // Totaux journaliers : étendue de 1 à ~10^12, négatifs et zéros compris
+        for (int i = 0; i < values.length; i++) {
+            double v = Math.floor(Math.exp(random.nextDouble() * 28));
+            if (i % 17 == 0) {
+                v = 0;
+            } else if (i % 5 == 0) {
+                v = -v;
+            }
+            values[i] = v;
+            sketch.add(v);
+        }
+
+        assertEquals(values.length, sketch.count());
+        assertWithinAccuracy(values, sketch);
+    }
+
+    @Test
+    void smallAndEdgeSketches() {
+        QuantileSketch empty = new QuantileSketch();
+        assertTrue(Double.isNaN(empty.quantile(0.5)));
+
+        QuantileSketch one = new QuantileSketch();
+        one.add(120);
+        for (double q : QUANTILES) {
+            assertEquals(120, one.quantile(q), 120 * QuantileSketch.RELATIVE_ACCURACY);
+        }
+
+        QuantileSketch zeros = new QuantileSketch();
+        zeros.add(0);
+        zeros.add(0);
+        assertEquals(0, zeros.quantile(0.99));
+
+        assertWithinAccuracy(new double[] { -5, -1, 0, 1, 1_000_000_000_000_000d }, sketchOf(-5, -1, 0, 1,
+                1_000_000_000_000_000d));
+    }
+
+    @Test
+    void mergeEqualsSketchOfUnion() {
+        Random random = new Random(3);
+        QuantileSketch union = new QuantileSketch();
+        QuantileSketch merged = new QuantileSketch();
+        double[] values = new double[7 * 1_000];
+
+        // Sept « jours » fusionnés en une semaine
+        for (int day = 0; day < 7; day++) {
+            QuantileSketch daily = new QuantileSketch();
+            for (int i = 0; i < 1_000; i++) {
+                double v = random.nextInt(2_000_000) - 100_000;
+                values[day * 1_000 + i] = v;
+                daily.add(v);
+                union.add(v);
+            }
+            merged.merge(daily);
+        }
+
+        assertEquals(union.count(), merged.count());
+        assertEquals(union.encode(), merged.encode());
+        assertWithinAccuracy(values, merged);
+    }
+
+    @Test
+    void encodedFormRoundTrips() {
+        QuantileSketch sketch = sketchOf(0, 0, 3, 3, 250, 1e9, -4, -4000);
+        String text = sketch.encode();
+
+        assertTrue(text.indexOf(',') < 0, text);
+        QuantileSketch decoded = QuantileSketch.decode(text);
+        assertEquals(sketch.count(), decoded.count());
+        assertEquals(text, decoded.encode());
+        for (double q : QUANTILES) {
+            assertEquals(sketch.quantile(q), decoded.quantile(q));
+        }
+
+        assertEquals(0, QuantileSketch.decode("0||").count());
+        assertThrows(IllegalArgumentException.class, () -> QuantileSketch.decode("0|1:2"));
+    }
+
+    private static QuantileSketch sketchOf(double... values) {
+        QuantileSketch sketch = new QuantileSketch();
+        for (double v : values) {
+            sketch.add(v);
+        }
+        return sketch;
+    }
+}
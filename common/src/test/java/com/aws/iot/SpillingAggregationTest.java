@@ -0,0 +1,123 @@
+package com.aws.iot;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Avec un seuil de déversement très bas, la sortie (groupes et résumé écrit)
+ * doit être identique à celle de l'agrégation en mémoire.
+ */
+class SpillingAggregationTest {
+
+    private static final String HEADER = "Flow ID,Src IP,Src Port,Dst IP,Timestamp,Flow Duration,Tot Fwd Pkts,Label";
+
+    // Lignes réparties sur quelques jours, IPv4 et autres valeurs (IPv6, noms) mêlées
+    private static byte[] csv(int rows, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(HEADER).append('\n');
+        for (int i = 0; i < rows; i++) {
+            String src = random.nextInt(8) == 0 ? "fe80::" + random.nextInt(20) : "10.0.0." + random.nextInt(60);
+            String dst = random.nextInt(10) == 0 ? "host-" + random.nextInt(5) : "192.168.1." + random.nextInt(40);
+            sb.append("f,").append(src).append(",80,").append(dst).append(',')
+                    .append(String.format("%02d/03/2018 %02d:15:00 %s", 1 + random.nextInt(5),
+                            1 + random.nextInt(12), random.nextBoolean() ? "AM" : "PM"))
+                    .append(',').append(random.nextInt(1_000_000) - 1000)
+                    .append(',').append(random.nextInt(50))
+                    .append(",BENIGN\n");
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> groups(SpillingAggregation aggregation) throws IOException {
+        List<String> out = new ArrayList<>();
+        aggregation.forEachSorted((day, src, dst, flowDuration, fwdPkts) ->
+                out.add(day + " " + src + " " + dst + " " + flowDuration + " " + fwdPkts));
+        return out;
+    }
+
+    private static byte[] summary(SpillingAggregation aggregation) throws IOException {
+        Path file = SummaryFiles.write(aggregation);
+        try {
+            return Files.readAllBytes(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void spilledOutputMatchesInMemory() throws IOException {
+        byte[] data = csv(60_000, 5);
+
+        try (SpillingAggregation memory = FlowSummarizer.summarize(new ByteArrayInputStream(data), 0);
+                SpillingAggregation spilled = FlowSummarizer.summarize(new ByteArrayInputStream(data), 97)) {
+
+            assertFalse(memory.spilled());
+            assertTrue(spilled.spilled());
+            assertTrue(spilled.runs() > 10, "runs : " + spilled.runs());
+            assertEquals(memory.rows(), spilled.rows());
+
+            List<String> expected = groups(memory);
+            assertTrue(expected.size() > SummaryCodec.BLOCK_ROWS, "plusieurs blocs de colonnes");
+            assertEquals(expected, groups(spilled));
+            assertEquals(memory.size(), spilled.size());
+
+            // Résumé écrit octet pour octet identique (colonnes en flux dans les deux cas)
+            assertArrayEquals(summary(memory), summary(spilled));
+        }
+    }
+
+    @Test
+    void mergedPartialsMatchInMemory() throws IOException {
+        byte[] first = csv(8_000, 1);
+        byte[] second = csv(8_000, 2);
+
+        try (SpillingAggregation memory = FlowSummarizer.summarize(new ByteArrayInputStream(first), 0);
+                SpillingAggregation other = FlowSummarizer.summarize(new ByteArrayInputStream(second), 0);
+                SpillingAggregation small = FlowSummarizer.summarize(new ByteArrayInputStream(first), 50);
+                SpillingAggregation smallOther = FlowSummarizer.summarize(new ByteArrayInputStream(second), 50)) {
+
+            // Fusion en mémoire d'un côté, par les runs de l'autre (seuil dépassé)
+            memory.merge(other, 0);
+            small.merge(smallOther, 50);
+            assertFalse(memory.spilled());
+            assertTrue(small.spilled());
+            assertFalse(smallOther.spilled(), "les runs passent à l'agrégation fusionnée");
+
+            assertEquals(memory.rows(), small.rows());
+            assertEquals(groups(memory), groups(small));
+            assertArrayEquals(summary(memory), summary(small));
+        }
+    }
+
+    @Test
+    void closeDeletesRuns() throws IOException {
+        long before = spillFiles();
+        SpillingAggregation spilled = FlowSummarizer.summarize(new ByteArrayInputStream(csv(2_000, 9)), 10);
+        assertTrue(spilled.spilled());
+        assertEquals(before + spilled.runs(), spillFiles());
+
+        spilled.close();
+        assertFalse(spilled.spilled());
+        assertEquals(before, spillFiles());
+    }
+
+    private static long spillFiles() throws IOException {
+        try (Stream<Path> files = Files.list(Path.of(System.getProperty("java.io.tmpdir")))) {
+            return files.filter(p -> p.getFileName().toString().startsWith("spill_")).count();
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.aws.iot;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Recherche d'un couple par lectures par plage bornées (lookup), comparée au
+ * snapshot entier en mémoire.
+ */
+class StatsSnapshotTest {
+
+    private static final String KEY = "consolidated/snapshots/part-000.bin";
+
+    @TempDir
+    Path dir;
+
+    /** Stockage local qui n'accepte que les lectures bornées et les compte. */
+    private static final class RangeOnlyStore implements ObjectStore {
+        final LocalObjectStore store;
+        final List<long[]> ranges = new ArrayList<>();
+        int rewrites; // lectures suivantes renvoyées chacune avec un nouvel ETag
+
+        RangeOnlyStore(Path dir) {
+            this.store = new LocalObjectStore(dir.resolve("bucket"), dir.resolve("tmp"));
+        }
+
+        @Override
+        public ObjectStream open(String key, long from, long length) throws IOException {
+            ranges.add(new long[] { from, length });
+            ObjectStream in = store.open(key, from, length);
+            if (rewrites > 0 && ranges.size() > 1) {
+                rewrites--;
+                return new ObjectStream(in, in.length(), null, "\"v" + ranges.size() + "\"");
+            }
+            return in;
+        }
+
+        @Override
+        public ObjectStream open(String key, long from) {
+            throw new AssertionError("lecture non bornée de " + key);
+        }
+
+        @Override
+        public byte[] get(String key) {
+            throw new AssertionError("lecture entière de " + key);
+        }
+
+        @Override
+        public Versioned getIfNoneMatch(String key, String etag) {
+            throw new AssertionError("lecture entière de " + key);
+        }
+
+        @Override
+        public void put(String key, Path file) throws IOException {
+            store.put(key, file);
+        }
+
+        @Override
+        public void put(String key, byte[] data) throws IOException {
+            store.put(key, data);
+        }
+
+        @Override
+        public boolean putIfMatch(String key, Path file, String etag) throws IOException {
+            return store.putIfMatch(key, file, etag);
+        }
+
+        @Override
+        public void delete(String key) throws IOException {
+            store.delete(key);
+        }
+
+        @Override
+        public boolean exists(String key) {
+            return store.exists(key);
+        }
+
+        @Override
+        public List<String> list(String prefix) throws IOException {
+            return store.list(prefix);
+        }
+
+        @Override
+        public Map<String, String> listEtags(String prefix) throws IOException {
+            return store.listEtags(prefix);
+        }
+    }
+
+    // Couples "10.0.x.y" → "10.1.0.z" dans l'ordre du texte ; padding allonge SrcIP (et l'index)
+    private static List<StatsSnapshot.Entry> entries(int n, String padding) {
+        List<StatsSnapshot.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            String src = padding + "10.0." + (100 + i / 10) + "." + (100 + i % 10);
+            entries.add(new StatsSnapshot.Entry(src, "10.1.0.1", i + 1, i * 1.5, i * 2.5, i * 0.5, i * 0.25));
+        }
+        return entries;
+    }
+
+    private static byte[] write(List<StatsSnapshot.Entry> entries) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StatsSnapshot.write(new ArrayList<>(entries), "#applied,0123456789abcdef", out);
+        return out.toByteArray();
+    }
+
+    private static void assertSame(StatsSnapshot.Entry expected, StatsSnapshot.Entry actual) {
+        assertNotNull(actual, expected.src);
+        assertEquals(expected.src, actual.src);
+        assertEquals(expected.dst, actual.dst);
+        assertEquals(expected.count, actual.count);
+        assertEquals(expected.meanFlowDuration, actual.meanFlowDuration);
+        assertEquals(expected.m2FlowDuration, actual.m2FlowDuration);
+        assertEquals(expected.meanFwdPkts, actual.meanFwdPkts);
+        assertEquals(expected.m2FwdPkts, actual.m2FwdPkts);
+    }
+
+    @Test
+    void findsPairsAtBlockBoundaries() throws IOException {
+        List<StatsSnapshot.Entry> entries = entries(3 * StatsSnapshot.BLOCK + 1, "");
+        byte[] data = write(entries);
+        RangeOnlyStore store = new RangeOnlyStore(dir);
+        store.put(KEY, data);
+        StatsSnapshot.View view = StatsSnapshot.View.wrap(data);
+
+        // Premier et dernier couple de chaque bloc, et leurs voisins
+        int[] rows = { 0, 1, StatsSnapshot.BLOCK - 1, StatsSnapshot.BLOCK, StatsSnapshot.BLOCK + 1,
+            2 * StatsSnapshot.BLOCK - 1, 2 * StatsSnapshot.BLOCK, 3 * StatsSnapshot.BLOCK - 1,
+            3 * StatsSnapshot.BLOCK, };
+        for (int row : rows) {
+            StatsSnapshot.Entry e = entries.get(row);
+            store.ranges.clear();
+
+            assertSame(e, StatsSnapshot.lookup(store, KEY, e.src, e.dst));
+            assertSame(e, view.find(e.src, e.dst));
+
+            // En-tête (une lecture suffit) puis le seul bloc du couple, pas le reste de l'objet
+            assertEquals(2, store.ranges.size());
+            assertEquals(0, store.ranges.get(0)[0]);
+            long blockLength = store.ranges.get(1)[1];
+            assertTrue(blockLength < data.length / 2, "bloc de " + blockLength + " octets");
+        }
+
+        // Tous les couples, comme View.find
+        for (StatsSnapshot.Entry e : entries) {
+            assertSame(e, StatsSnapshot.lookup(store, KEY, e.src, e.dst));
+        }
+    }
+
+    @Test
+    void missingPairsAreNull() throws IOException {
+        List<StatsSnapshot.Entry> entries = entries(2 * StatsSnapshot.BLOCK + 5, "");
+        RangeOnlyStore store = new RangeOnlyStore(dir);
+        store.put(KEY, write(entries));
+
+        // Avant le premier couple : aucun bloc, seul l'en-tête est lu
+        store.ranges.clear();
+        assertNull(StatsSnapshot.lookup(store, KEY, "09.0.0.1", "10.1.0.1"));
+        assertEquals(1, store.ranges.size());
+
+        // Même SrcIP, autre DstIP ; entre deux couples ; juste avant un bloc ; après le dernier
+        StatsSnapshot.Entry first = entries.get(StatsSnapshot.BLOCK);
+        assertNull(StatsSnapshot.lookup(store, KEY, first.src, "10.1.0.0"));
+        assertNull(StatsSnapshot.lookup(store, KEY, first.src, "10.1.0.2"));
+        assertNull(StatsSnapshot.lookup(store, KEY, entries.get(3).src + "0", "10.1.0.1"));
+        assertNull(StatsSnapshot.lookup(store, KEY, "99.0.0.1", "10.1.0.1"));
+
+        // Snapshot vide, snapshot absent
+        store.put(KEY, write(List.of()));
+        assertNull(StatsSnapshot.lookup(store, KEY, first.src, first.dst));
+        assertThrows(ObjectNotFoundException.class,
+                () -> StatsSnapshot.lookup(store, "consolidated/snapshots/part-001.bin", first.src, first.dst));
+    }
+
+    @Test
+    void readsLongHeaderInTwoRanges() throws IOException {
+        // SrcIP longs : l'index dépasse la première lecture de l'en-tête
+        String padding = "h".repeat(400) + "-";
+        List<StatsSnapshot.Entry> entries = entries(StatsSnapshot.BLOCK * 200, padding);
+        RangeOnlyStore store = new RangeOnlyStore(dir);
+        store.put(KEY, write(entries));
+
+        for (int row : new int[] { 0, StatsSnapshot.BLOCK * 150, entries.size() - 1 }) {
+            StatsSnapshot.Entry e = entries.get(row);
+            store.ranges.clear();
+            assertSame(e, StatsSnapshot.lookup(store, KEY, e.src, e.dst));
+
+            assertEquals(3, store.ranges.size());
+            assertEquals(StatsSnapshot.HEADER_READ, store.ranges.get(0)[1]);
+            assertEquals(StatsSnapshot.HEADER_READ, store.ranges.get(1)[0]);
+        }
+    }
+
+    @Test
+    void retriesWhenRewrittenBetweenReads() throws IOException {
+        List<StatsSnapshot.Entry> entries = entries(StatsSnapshot.BLOCK + 1, "");
+        RangeOnlyStore store = new RangeOnlyStore(dir);
+        store.put(KEY, write(entries));
+        StatsSnapshot.Entry e = entries.get(StatsSnapshot.BLOCK);
+
+        // Bloc lu sur une autre version : la recherche reprend depuis l'en-tête
+        store.rewrites = 1;
+        assertSame(e, StatsSnapshot.lookup(store, KEY, e.src, e.dst));
+        assertEquals(4, store.ranges.size());
+
+        // Réécrit à chaque fois : abandon après quelques essais
+        store.ranges.clear();
+        store.rewrites = Integer.MAX_VALUE;
+        assertThrows(IOException.class, () -> StatsSnapshot.lookup(store, KEY, e.src, e.dst));
+        assertEquals(6, store.ranges.size());
+    }
+
+    @Test
+    void truncatedHeaderIsRejected() throws IOException {
+        byte[] data = write(entries(StatsSnapshot.BLOCK * 2, ""));
+        RangeOnlyStore store = new RangeOnlyStore(dir);
+        store.put(KEY, Arrays.copyOf(data, 30));
+
+        assertThrows(IllegalArgumentException.class, () -> StatsSnapshot.lookup(store, KEY, "10.0.100.100", "10.1.0.1"));
+    }
+}
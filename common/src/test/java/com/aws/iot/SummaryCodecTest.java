@@ -0,0 +1,268 @@
+package com.aws.iot;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Aller-retour du format binaire en colonnes, et pieds abîmés.
+ */
+class SummaryCodecTest {
+
+    @Test
+    void roundTripsColumnsAndFooter() throws IOException {
+        SummaryCodec.Builder builder = new SummaryCodec.Builder(true);
+        Random random = new Random(7);
+
+        int rows = 5_000; // plusieurs agrandissements des colonnes
+        int[] days = new int[rows];
+        String[] srcs = new String[rows];
+        String[] dsts = new String[rows];
+        long[] durations = new long[rows];
+        long[] pkts = new long[rows];
+        String[] summaries = new String[rows];
+
+        for (int i = 0; i < rows; i++) {
+            days[i] = 17_000 + random.nextInt(400) - 200;
+            srcs[i] = "10.0." + random.nextInt(4) + "." + random.nextInt(256);
+            dsts[i] = random.nextInt(10) == 0 ? "fe80::" + random.nextInt(16) : "192.168.1." + random.nextInt(64);
+            durations[i] = i % 3 == 0 ? -random.nextInt(1000) : (long) random.nextInt() << 8;
+            pkts[i] = i == 0 ? Long.MIN_VALUE : i == 1 ? Long.MAX_VALUE : random.nextInt(100);
+            summaries[i] = "2018-02-0" + (1 + random.nextInt(9)) + "_summary.bin";
+            builder.add(days[i], srcs[i], dsts[i], durations[i], pkts[i], summaries[i]);
+        }
+        assertEquals(rows, builder.size());
+
+        byte[] data = builder.toByteArray();
+        assertTrue(SummaryCodec.isBinary(data));
+
+        SummaryCodec.Columns c = SummaryCodec.decode(data);
+        assertEquals(rows, c.size);
+        assertArrayEquals(days, Arrays.copyOf(c.days, rows));
+        assertArrayEquals(durations, Arrays.copyOf(c.flowDurations, rows));
+        assertArrayEquals(pkts, Arrays.copyOf(c.fwdPkts, rows));
+        for (int i = 0; i < rows; i++) {
+            assertEquals(srcs[i], c.dictionary[c.srcs[i]]);
+            assertEquals(dsts[i], c.dictionary[c.dsts[i]]);
+            assertEquals(summaries[i], c.dictionary[c.summaries[i]]);
+        }
+        assertEquals(-1, c.indexOf("172.16.0.1"));
+
+        // Bornes : plus petit et plus grand couple (SrcIP, DstIP) ajoutés
+        String minSrc = srcs[0], minDst = dsts[0], maxSrc = srcs[0], maxDst = dsts[0];
+        for (int i = 1; i < rows; i++) {
+            if (SummaryCodec.comparePair(srcs[i], dsts[i], minSrc, minDst) < 0) {
+                minSrc = srcs[i];
+                minDst = dsts[i];
+            }
+            if (SummaryCodec.comparePair(srcs[i], dsts[i], maxSrc, maxDst) > 0) {
+                maxSrc = srcs[i];
+                maxDst = dsts[i];
+            }
+        }
+
+        // Le pied se lit aussi sur la seule fin de l'objet
+        SummaryCodec.Footer footer = SummaryCodec.readFooter(Arrays.copyOfRange(data, data.length - 100, data.length));
+        assertEquals(rows, footer.rowCount);
+        assertEquals(minSrc, footer.minSrc);
+        assertEquals(minDst, footer.minDst);
+        assertEquals(maxSrc, footer.maxSrc);
+        assertEquals(maxDst, footer.maxDst);
+        assertTrue(footer.mayContain(srcs[42], dsts[42]));
+        assertFalse(footer.mayContain("9.9.9.9", "1.1.1.1"));
+        assertFalse(footer.mayContain("11.0.0.0", "1.1.1.1"));
+    }
+
+    @Test
+    void roundTripsWithoutSummaryColumnAndEmpty() throws IOException {
+        byte[] data = new SummaryCodec.Builder(false)
+                .add("2018-02-03", "10.0.0.1", "10.0.0.2", 120, 7, null)
+                .add("2018-02-01", "10.0.0.1", "10.0.0.3", 5, 1, null)
+                .toByteArray();
+
+        SummaryCodec.Columns c = SummaryCodec.decode(data);
+        assertEquals(2, c.size);
+        assertNull(c.summaries);
+        assertEquals("2018-02-03", c.date(0));
+        assertEquals("2018-02-01", c.date(1));
+        assertEquals("10.0.0.3", c.dictionary[c.dsts[1]]);
+
+        byte[] empty = new SummaryCodec.Builder(true).toByteArray();
+        assertEquals(0, SummaryCodec.decode(empty).size);
+        SummaryCodec.Footer footer = SummaryCodec.readFooter(empty);
+        assertEquals(0, footer.rowCount);
+        assertFalse(footer.mayContain("", ""));
+    }
+
+    @Test
+    void corruptedFooterIsRejected() throws IOException {
+        byte[] data = new SummaryCodec.Builder(false)
+                .add(17_500, "10.0.0.1", "10.0.0.2", 1, 1, null)
+                .toByteArray();
+        int end = data.length;
+
+        // Magie de fin abîmée, objet trop court
+        byte[] magic = data.clone();
+        magic[end - 1] = 'X';
+        assertThrows(IllegalArgumentException.class, () -> SummaryCodec.readFooter(magic));
+        assertThrows(IllegalArgumentException.class,
+                () -> SummaryCodec.readFooter("IOTS".getBytes(StandardCharsets.US_ASCII)));
+
+        // Longueur du pied plus grande que l'objet, ou trop petite pour ses champs
+        for (int length : new int[] { 0, 11, end - 7, 0x7FFFFFFF, -1 }) {
+            byte[] corrupted = data.clone();
+            for (int i = 0; i < 4; i++) {
+                corrupted[end - 8 + i] = (byte) (length >>> (8 * (3 - i)));
+            }
+            assertThrows(IllegalArgumentException.class, () -> SummaryCodec.readFooter(corrupted),
+                    "longueur " + length);
+        }
+
+        // Longueur d'une chaîne du pied qui déborde sur le nombre de lignes
+        SummaryCodec.Footer footer = SummaryCodec.readFooter(data);
+        int footerLength = 4 + footer.minSrc.length() + footer.minDst.length() + footer.maxSrc.length()
+                + footer.maxDst.length() + 8;
+        byte[] string = data.clone();
+        string[end - 8 - footerLength] = 100;
+        assertThrows(IllegalArgumentException.class, () -> SummaryCodec.readFooter(string));
+
+        // Tous les octets du pied abîmés un à un : jamais d'erreur hors de l'objet
+        for (int pos = end - 8 - footerLength; pos < end; pos++) {
+            byte[] corrupted = data.clone();
+            corrupted[pos] ^= (byte) 0xA5;
+            try {
+                SummaryCodec.readFooter(corrupted);
+            } catch (IllegalArgumentException expected) {
+                // Refus attendu pour la plupart des octets
+            }
+        }
+    }
+
+    @Test
+    void writerStreamsBlocksAndMatchesBuilder() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SummaryCodec.Writer writer = new SummaryCodec.Writer(out, true);
+        SummaryCodec.Builder builder = new SummaryCodec.Builder(true);
+
+        int rows = 3 * SummaryCodec.BLOCK_ROWS + 17;
+        for (int i = 0; i < rows; i++) {
+            String src = "10.0." + (i / 256 % 256) + "." + (i % 256);
+            writer.add(17_000 + i / 1000, src, "10.1.0.1", i, -i, "s" + (i % 3));
+            builder.add(17_000 + i / 1000, src, "10.1.0.1", i, -i, "s" + (i % 3));
+
+            // Chaque bloc plein part dans le flux avant la fin
+            if (i == SummaryCodec.BLOCK_ROWS - 2) {
+                assertEquals(0, out.size());
+            } else if (i == SummaryCodec.BLOCK_ROWS - 1) {
+                assertTrue(out.size() > SummaryCodec.BLOCK_ROWS);
+            }
+        }
+        writer.finish();
+        assertEquals(rows, writer.rows());
+
+        byte[] data = out.toByteArray();
+        assertArrayEquals(builder.toByteArray(), data);
+        assertArrayEquals(data, builder.toByteArray());
+        assertThrows(IllegalStateException.class, () -> builder.add(1, "a", "b", 0, 0, "s"));
+
+        SummaryCodec.Columns c = SummaryCodec.decode(data);
+        assertEquals(rows, c.size);
+        for (int i = 0; i < rows; i += 997) {
+            assertEquals(17_000 + i / 1000, c.days[i]);
+            assertEquals(i, c.flowDurations[i]);
+            assertEquals(-i, c.fwdPkts[i]);
+            assertEquals("s" + (i % 3), c.dictionary[c.summaries[i]]);
+        }
+    }
+
+    @Test
+    void readsDictionaryFirstVersion() {
+        // Version 1 : dictionnaire, nombre de lignes, colonnes entières, pied
+        ByteArrayOutputStream o = new ByteArrayOutputStream();
+        o.writeBytes(new byte[] { 'I', 'O', 'T', 'S', 1, 0 });
+        o.write(2);
+        writeString(o, "10.0.0.1");
+        writeString(o, "10.0.0.2");
+        o.write(2);                          // lignes
+        o.write(4);                          // jours : 2, puis 2 + (-1)
+        o.write(1);
+        o.write(0);                          // SrcIP
+        o.write(1);
+        o.write(1);                          // DstIP
+        o.write(0);
+        o.write(20);                         // totaux zigzag : 10, -1
+        o.write(1);
+        o.write(6);                          // 3, 0
+        o.write(0);
+        int footerStart = o.size();
+        writeString(o, "10.0.0.1");
+        writeString(o, "10.0.0.2");
+        writeString(o, "10.0.0.2");
+        writeString(o, "10.0.0.1");
+        o.writeBytes(new byte[] { 0, 0, 0, 0, 0, 0, 0, 2 });
+        int footerLength = o.size() - footerStart;
+        o.writeBytes(new byte[] { 0, 0, 0, (byte) footerLength, 'I', 'O', 'T', 'S' });
+        byte[] data = o.toByteArray();
+
+        SummaryCodec.Columns c = SummaryCodec.decode(data);
+        assertEquals(2, c.size);
+        assertEquals(2, c.days[0]);
+        assertEquals(1, c.days[1]);
+        assertEquals("10.0.0.2", c.dictionary[c.dsts[0]]);
+        assertEquals("10.0.0.1", c.dictionary[c.dsts[1]]);
+        assertEquals(10, c.flowDurations[0]);
+        assertEquals(-1, c.flowDurations[1]);
+        assertEquals(3, c.fwdPkts[0]);
+        assertNull(c.summaries);
+        assertEquals(2, SummaryCodec.readFooter(data).rowCount);
+    }
+
+    @Test
+    void corruptedColumnsAreRejected() throws IOException {
+        SummaryCodec.Builder builder = new SummaryCodec.Builder(false);
+        for (int i = 0; i < SummaryCodec.BLOCK_ROWS + 5; i++) {
+            builder.add(17_500, "10.0.0." + (i % 200), "10.0.1.1", i, 1, null);
+        }
+        byte[] data = builder.toByteArray();
+        SummaryCodec.Footer footer = SummaryCodec.readFooter(data);
+        int footerLength = 4 + footer.minSrc.length() + footer.minDst.length() + footer.maxSrc.length()
+                + footer.maxDst.length() + 8;
+        int position = data.length - 8 - footerLength - 8;
+
+        // Position du dictionnaire hors de l'objet, ou dans les colonnes
+        for (long bad : new long[] { 0, 5, data.length, Long.MAX_VALUE, 7 }) {
+            byte[] corrupted = data.clone();
+            for (int i = 0; i < 8; i++) {
+                corrupted[position + i] = (byte) (bad >>> (8 * (7 - i)));
+            }
+            assertThrows(IllegalArgumentException.class, () -> SummaryCodec.decode(corrupted), "position " + bad);
+        }
+
+        // Nombre de lignes du premier bloc abîmé
+        byte[] block = data.clone();
+        block[6] ^= 0x01;
+        assertThrows(IllegalArgumentException.class, () -> SummaryCodec.decode(block));
+
+        // Version inconnue
+        byte[] version = data.clone();
+        version[4] = 9;
+        assertThrows(IllegalArgumentException.class, () -> SummaryCodec.decode(version));
+    }
+
+    private static void writeString(ByteArrayOutputStream o, String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        o.write(b.length);
+        o.writeBytes(b);
+    }
+}
@@ -0,0 +1,117 @@
+package com.aws.iot;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Registre des résumés déjà intégrés dans un shard consolidé.
+ *
+ * Il est écrit dans le snapshot du shard lui-même (StatsSnapshot), sous la
+ * forme d'une ligne #applied,id,id,... ; les shards CSV écrits avant les
+ * snapshots la portent en ligne de commentaire finale. État et registre sont
+ * remplacés par la même écriture conditionnelle, un message rejoué par SQS ne
+ * peut donc pas être compté deux fois. Un identifiant est fait des 64 premiers
+ * bits du SHA-256 du nom et du contenu du résumé (16 caractères hexadécimaux).
+ *
+ * Seuls les CAPACITY derniers identifiants sont gardés : une redélivrance SQS
+ * arrive bien avant que CAPACITY résumés plus récents aient touché le même shard.
+ * Un registre d'agrégats reconstruit (ConsolidatorWorker.backfillRollups) porte
+ * tous les résumés relus, dont les messages peuvent être encore en attente : sa
+ * capacité est alors portée à sa taille (ensureCapacity).
+ */
+final class AppliedLedger {
+
+    static final String PREFIX = ConsolidatedShards.COMMENT_MARKER + "applied";
+
+    static final int CAPACITY = System.getenv("APPLIED_LEDGER_SIZE") != null
+            ? Integer.parseInt(System.getenv("APPLIED_LEDGER_SIZE"))
+            : 1000;
+
+    // Ordre d'intégration : le plus ancien en premier
+    private final Set<String> ids = new LinkedHashSet<>();
+    private int capacity = CAPACITY;
+
+    /** Identifiant d'un résumé pour le registre. */
+    static String id(String summaryName, byte[] data) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(summaryName.getBytes(StandardCharsets.UTF_8));
+            sha.update((byte) 0);
+            byte[] digest = sha.digest(data);
+
+            StringBuilder sb = new StringBuilder(16);
+            for (int i = 0; i < 8; i++) {
+                sb.append(Character.forDigit((digest[i] >> 4) & 0xF, 16))
+                        .append(Character.forDigit(digest[i] & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Relit le registre d'une ligne "#applied,..." ; les autres lignes sont ignorées. */
+    void parse(String line) {
+        if (!line.startsWith(PREFIX)) {
+            return;
+        }
+        for (String id : line.substring(PREFIX.length()).split(",")) {
+            if (!id.isBlank()) {
+                ids.add(id.trim());
+            }
+        }
+    }
+
+    boolean contains(String id) {
+        return ids.contains(id);
+    }
+
+    /** Ajoute id en évinçant les plus anciens au-delà de la capacité ; false s'il y était déjà. */
+    boolean add(String id) {
+        if (!ids.add(id)) {
+            return false;
+        }
+        Iterator<String> oldest = ids.iterator();
+        while (ids.size() > capacity) {
+            oldest.next();
+            oldest.remove();
+        }
+        return true;
+    }
+
+    int size() {
+        return ids.size();
+    }
+
+    /** Garde au moins n identifiants (CAPACITY par défaut) ; la capacité ne diminue jamais. */
+    void ensureCapacity(int n) {
+        capacity = Math.max(capacity, n);
+    }
+
+    void writeTo(Writer writer) throws IOException {
+        if (ids.isEmpty()) {
+            return;
+        }
+        writer.write(line());
+        writer.write('\n');
+    }
+
+    /** Ligne "#applied,..." sans saut de ligne ; vide si le registre est vide. */
+    String line() {
+        if (ids.isEmpty()) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(PREFIX.length() + ids.size() * 17);
+        sb.append(PREFIX);
+        for (String id : ids) {
+            sb.append(',').append(id);
+        }
+        return sb.toString();
+    }
+}
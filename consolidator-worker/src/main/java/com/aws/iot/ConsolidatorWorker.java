@@ -2,26 +2,38 @@ package com.aws.iot;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
 import com.amazonaws.services.lambda.runtime.events.SQSEvent;
 
 import org.apache.commons.csv.*;
 
-import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.*;
-
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+public class ConsolidatorWorker implements RequestHandler<SQSEvent, SQSBatchResponse> {
+
+    // Format des partitions par couple : binaire en colonnes (défaut) ou "csv".
+    // Les deux formats sont toujours lus (résumés et partitions).
+    private static final String PARTITION_EXTENSION =
+            "csv".equalsIgnoreCase(System.getenv("SUMMARY_FORMAT")) ? ".csv" : SummaryCodec.EXTENSION;
+
+    // Compression des shards, partitions et agrégats écrits (CONSOLIDATED_COMPRESSION :
+    // none, gzip ou zstd). Leurs clés ne changent pas : la lecture reconnaît le contenu.
+    private static final Compression STATE_COMPRESSION = Compression.fromEnv("CONSOLIDATED_COMPRESSION");
 
-public class ConsolidatorWorker implements RequestHandler<SQSEvent, Void> {
+    // Bucket PipelineConfig.BUCKET sur S3, ou en local (IOT_BACKEND=local, voir Backend)
+    private final Backend backend;
+    private final ObjectStore store;
 
-    // ------------------------------
-    // Configuration S3
-    // ------------------------------
-    private static final String BUCKET = "ilies411-iot-traffic-input";
-    private static final String CONSOLIDATED_KEY = "consolidated/traffic_stats.csv";
+    // Destination des métriques de chaque invocation (METRICS_SINK, voir MetricsSink)
+    private final MetricsSink metricsSink;
 
-    private final S3Client s3 = S3Client.builder().build();
+    // Migration de l'ancien traffic_stats.csv unique vérifiée une fois par conteneur
+    private boolean legacyChecked = false;
 
     // -------------------------------------------------------------
     // Structure interne : stats incrémentales (algorithme Welford)
@@ -34,44 +46,219 @@ public class ConsolidatorWorker implements RequestHandler<SQSEvent, Void> {
         double m2FP = 0;
     }
 
+    // Ligne d'un résumé journalier (et d'une partition par couple)
+    static class SummaryRow {
+        String date;
+        String src;
+        String dst;
+        long totalFlowDuration;
+        long totalFwdPkts;
+        String summary;   // résumé d'origine
+        String partition; // clé de la partition par couple
+    }
+
+    // Résumé d'un message du lot, lu avant toute modification de l'état
+    static class PendingSummary {
+        String messageId;
+        String summaryName;
+        String ledgerId; // voir AppliedLedger
+        List<SummaryRow> rows;
+        Set<Integer> shards = new TreeSet<>();
+        Set<String> partitions = new TreeSet<>();
+        Map<Integer, List<SummaryRow>> rowsByShard = new HashMap<>();
+        Map<String, List<SummaryRow>> rowsByPartition = new HashMap<>();
+
+        boolean touches(Set<Integer> failedShards, Set<String> failedPartitions) {
+            return !Collections.disjoint(shards, failedShards)
+                    || !Collections.disjoint(partitions, failedPartitions);
+        }
+    }
+
+    // Shard consolidé tel que lu : état, registre des résumés intégrés et ETag
+    // (null : shard absent, créé par l'écriture)
+    static class ConsolidatedShard {
+        Map<String, Stats> stats = new HashMap<>();
+        AppliedLedger applied = new AppliedLedger();
+        String etag;
+        boolean created; // aucun état antérieur : tout son historique passe par les partitions
+    }
+
+    // Partition par couple telle que lue, avec son ETag (null : absente)
+    static class Partition {
+        List<SummaryRow> rows = new ArrayList<>();
+        String etag;
+    }
+
+    // Essais d'une écriture conditionnelle avant d'abandonner (le message est alors rejoué)
+    private static final int MAX_WRITE_ATTEMPTS = 8;
+
+    // Constructeur utilisé par Lambda
+    public ConsolidatorWorker() {
+        this(Backend.fromEnv());
+        Priming.register("consolidator-worker", this::prime);
+    }
+
+    public ConsolidatorWorker(Backend backend) {
+        this(backend, MetricsSink.fromEnv());
+    }
+
+    public ConsolidatorWorker(Backend backend, MetricsSink metricsSink) {
+        this.backend = backend;
+        this.store = backend.bucket(PipelineConfig.BUCKET);
+        this.metricsSink = metricsSink;
+    }
+
+    // Préchauffage (voir Priming) : client S3 et chemin lecture → intégration → écriture,
+    // sur un résumé fictif, sans accès au bucket
+    private void prime() throws IOException {
+        backend.warmUp();
+
+        String summaryName = extractSummaryName("{ \"summary\": \"prime_summary.bin\" }");
+        byte[] binary = new SummaryCodec.Builder(false)
+                .add("2022-01-01", "192.168.0.1", "10.0.0.1", 1000, 10, null)
+                .add("2022-01-02", "192.168.0.1", "10.0.0.1", 2000, 20, null)
+                .toByteArray();
+        String csv = "Date,SrcIP,DstIP,TotalFlowDuration,TotalFwdPkts\n2022-01-03,192.168.0.1,10.0.0.1,3000,30\n";
+
+        List<SummaryRow> rows = new ArrayList<>(readRows(binary, summaryName, null));
+        rows.addAll(readRows(csv.getBytes(), summaryName, null));
+
+        Map<Integer, Map<String, Stats>> shards = new HashMap<>();
+        for (SummaryRow r : rows) {
+            shards.computeIfAbsent(ConsolidatedShards.shardOf(r.src, r.dst), k -> new TreeMap<>());
+        }
+        integrateSummary(rows, shards);
+
+        AppliedLedger applied = new AppliedLedger();
+        applied.add(AppliedLedger.id(summaryName, binary));
+        for (Map<String, Stats> map : shards.values()) {
+            List<StatsSnapshot.Entry> entries = snapshotEntries(map);
+            ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+            StatsSnapshot.write(entries, applied.line(), snapshot);
+            StatsSnapshot.View.wrap(snapshot.toByteArray()).forEach(e -> { });
+            writeConsolidated(entries, new StringWriter());
+        }
+
+        RollupShard rollups = new RollupShard();
+        rows.forEach(rollups::add);
+        StringWriter writer = new StringWriter();
+        rollups.writeTo(writer);
+        RollupShard.parse(writer.toString().getBytes(), null);
+    }
+
     // -----------------------------------------------------------------
     // LAMBDA HANDLER
     // -----------------------------------------------------------------
+    // Le lot entier partage un seul cycle chargement → intégration → écriture
+    // par shard consolidé et par partition de résumés (voir PairPartitions).
+    // Les écritures sont conditionnelles (ETag) : plusieurs consolidateurs
+    // peuvent tourner en parallèle sans perdre de mise à jour.
+    // Seuls les messages en échec sont renvoyés à SQS (ReportBatchItemFailures),
+    // les autres sont acquittés.
     @Override
-    public Void handleRequest(SQSEvent event, Context context) {
+    public SQSBatchResponse handleRequest(SQSEvent event, Context context) {
+
+        List<SQSBatchResponse.BatchItemFailure> failures = new ArrayList<>();
+        List<PendingSummary> pending = new ArrayList<>();
+        Metrics metrics = new Metrics("consolidator-worker");
 
+        // Étape 1 — Télécharger et lire chaque résumé du lot
         for (SQSEvent.SQSMessage msg : event.getRecords()) {
 
             context.getLogger().log(" Message reçu : " + msg.getBody());
-
-            // Message JSON : { "summary": "summary_xxxxx.csv" }
-            String summaryName = extractSummaryName(msg.getBody());
-            String summaryKey = "summaries/" + summaryName;
+            metrics.count("Messages", 1);
 
             try {
+                // Message JSON : { "summary": "summary_xxxxx.bin" } (ou .csv)
+                String summaryName = extractSummaryName(msg.getBody());
+                String summaryKey = "summaries/" + summaryName;
+
                 context.getLogger().log(" Téléchargement du résumé depuis S3 : " + summaryKey);
-                Path summaryFile = downloadSummaryFromS3(summaryKey, context);
-                context.getLogger().log(" Résumé téléchargé dans : " + summaryFile);
+                long start = System.nanoTime();
+                byte[] summaryData = downloadSummaryFromS3(summaryKey, context);
+                metrics.timeSince("SummaryDownloadTime", start);
+                metrics.countBytes("SummaryBytes", summaryData.length);
 
-                context.getLogger().log(" Chargement du fichier consolidé (si existe)");
-                Map<String, Stats> globalStats = loadExistingConsolidated();
+                start = System.nanoTime();
+                PendingSummary p = readSummary(summaryName, summaryData);
+                metrics.timeSince("SummaryParseTime", start);
+                p.messageId = msg.getMessageId();
+                pending.add(p);
 
-                context.getLogger().log(" Intégration des données : " + summaryName);
-                integrateSummary(summaryFile, globalStats);
+            } catch (Exception e) {
+                context.getLogger().log(" ERREUR ConsolidatorWorker : " + e.getMessage());
+                failures.add(new SQSBatchResponse.BatchItemFailure(msg.getMessageId()));
+            }
+        }
 
-                context.getLogger().log(" Écriture du fichier consolidé mis à jour");
-                writeConsolidated(globalStats);
+        // Étapes 2 à 4 — Mettre à jour une fois chaque shard et chaque partition
+        // touchés par le lot (lecture, intégration, écriture conditionnelle)
+        Map<Integer, List<PendingSummary>> byShard = new TreeMap<>();
+        Map<String, List<PendingSummary>> byPartition = new TreeMap<>();
+        for (PendingSummary p : pending) {
+            for (int shard : p.shards) {
+                byShard.computeIfAbsent(shard, k -> new ArrayList<>()).add(p);
+            }
+            for (String partition : p.partitions) {
+                byPartition.computeIfAbsent(partition, k -> new ArrayList<>()).add(p);
+            }
+        }
 
-                Files.deleteIfExists(summaryFile);
+        context.getLogger().log(" Mise à jour de " + byShard.size() + " shard(s) consolidé(s) sur "
+                + ConsolidatedShards.COUNT + " et " + byPartition.size() + " partition(s) pour "
+                + pending.size() + " résumé(s)");
 
-                context.getLogger().log(" Consolidation terminée pour : " + summaryName);
+        Set<Integer> failedShards = new TreeSet<>();
+        for (Map.Entry<Integer, List<PendingSummary>> en : byShard.entrySet()) {
+            try {
+                updateShard(en.getKey(), en.getValue(), metrics);
+                updateRollups(en.getKey(), en.getValue(), metrics);
+            } catch (Exception e) {
+                context.getLogger().log(" ERREUR mise à jour du shard " + en.getKey() + " : " + e.getMessage());
+                failedShards.add(en.getKey());
+            }
+        }
 
+        Set<String> failedPartitions = new TreeSet<>();
+        for (Map.Entry<String, List<PendingSummary>> en : byPartition.entrySet()) {
+            try {
+                updatePartition(en.getKey(), en.getValue(), metrics);
             } catch (Exception e) {
-                context.getLogger().log(" ERREUR ConsolidatorWorker : " + e.getMessage());
+                context.getLogger().log(" ERREUR mise à jour de " + en.getKey() + " : " + e.getMessage());
+                failedPartitions.add(en.getKey());
+            }
+        }
+
+        // Un résumé dont un shard ou une partition n'a pas été écrit sera rejoué par SQS :
+        // les shards déjà écrits l'ont inscrit dans leur registre et l'ignoreront
+        for (PendingSummary p : pending) {
+            if (!p.touches(failedShards, failedPartitions)) {
+                context.getLogger().log(" Consolidation terminée pour : " + p.summaryName);
+            } else {
+                failures.add(new SQSBatchResponse.BatchItemFailure(p.messageId));
             }
         }
 
-        return null;
+        metrics.count("FailedMessages", failures.size());
+        metricsSink.emit(metrics);
+
+        return new SQSBatchResponse(failures);
+    }
+
+    // Lignes d'un résumé, rangées par shard et par partition
+    static PendingSummary readSummary(String summaryName, byte[] summaryData) throws IOException {
+        PendingSummary p = new PendingSummary();
+        p.summaryName = summaryName;
+        p.rows = readRows(summaryData, summaryName, null);
+        p.ledgerId = AppliedLedger.id(summaryName, summaryData);
+        for (SummaryRow r : p.rows) {
+            int shard = ConsolidatedShards.shardOf(r.src, r.dst);
+            p.shards.add(shard);
+            p.partitions.add(r.partition);
+            p.rowsByShard.computeIfAbsent(shard, k -> new ArrayList<>()).add(r);
+            p.rowsByPartition.computeIfAbsent(r.partition, k -> new ArrayList<>()).add(r);
+        }
+        return p;
     }
 
     // ------------------------------------------------------------------------
@@ -85,101 +272,336 @@ public class ConsolidatorWorker implements RequestHandler<SQSEvent, Void> {
     // ------------------------------------------------------------------------
     // Téléchargement S3 CORRIGÉ (compatible Lambda !)
     // ------------------------------------------------------------------------
-    private Path downloadSummaryFromS3(String key, Context context) throws IOException {
+    private byte[] downloadSummaryFromS3(String key, Context context) throws IOException {
+
+        byte[] data = store.get(key);
+
+        context.getLogger().log("Résumé téléchargé depuis S3 (" + data.length + " octets)");
+        return Compression.decode(key, data);
+    }
+
+    // ------------------------------------------------------------------------
+    // Chargement d'un shard consolidé s'il existe
+    // ------------------------------------------------------------------------
+    private ConsolidatedShard loadExistingConsolidated(int shard) throws IOException {
 
-        Path tmp = Files.createTempFile("summary_", ".csv");
-        context.getLogger().log("Fichier Temp créé: " + tmp.toString());
+        try {
+            return downloadSnapshot(shard);
+        } catch (ObjectNotFoundException ex) {
+            // Pas encore de snapshot pour ce shard
+        }
+
+        try {
+            // Shard CSV écrit avant les snapshots (M2 reconstruit depuis l'écart type) :
+            // le premier snapshot est une création (etag null)
+            ConsolidatedShard state = downloadConsolidated(ConsolidatedShards.key(shard));
+            state.etag = null;
+            return state;
+
+        } catch (ObjectNotFoundException ex) {
+            // Shard absent : soit c'est le premier résumé du shard, soit l'état est
+            // encore dans l'ancien fichier unique
+            if (!legacyChecked) {
+                migrateLegacyConsolidated();
+                return loadExistingConsolidated(shard);
+            }
+            ConsolidatedShard state = new ConsolidatedShard();
+            state.created = true;
+            return state;
+        }
+    }
 
-        byte[] data = s3.getObjectAsBytes(
-                GetObjectRequest.builder()
-                        .bucket(BUCKET)
-                        .key(key)
-                        .build())
-                .asByteArray();
+    // État exact (count, moyennes, M2), registre et ETag du snapshot d'un shard
+    private ConsolidatedShard downloadSnapshot(int shard) throws IOException {
+
+        ObjectStore.Versioned object = store.getIfNoneMatch(ConsolidatedShards.snapshotKey(shard), null);
+        StatsSnapshot.View view = StatsSnapshot.View.wrap(object.data);
+
+        ConsolidatedShard state = new ConsolidatedShard();
+        state.etag = object.etag;
+        state.applied.parse(view.ledger());
+        state.stats = new HashMap<>((int) (view.size() / 0.75f) + 1);
+
+        Map<String, Stats> map = state.stats;
+        view.forEach(e -> {
+            Stats s = new Stats();
+            s.count = e.count;
+            s.meanFD = e.meanFlowDuration;
+            s.m2FD = e.m2FlowDuration;
+            s.meanFP = e.meanFwdPkts;
+            s.m2FP = e.m2FwdPkts;
+            map.put(e.src + "_" + e.dst, s);
+        });
+        return state;
+    }
+
+    private ConsolidatedShard downloadConsolidated(String key) throws IOException {
+
+        ObjectStore.Versioned object = store.getIfNoneMatch(key, null);
+        byte[] data = Compression.decode(key, object.data);
+
+        ConsolidatedShard state = new ConsolidatedShard();
+        state.etag = object.etag;
+        state.applied.parse(lastLine(data));
+        Map<String, Stats> map = state.stats;
+
+        Reader reader = new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8);
+
+        CSVParser parser = CSVParser.parse(
+                reader,
 
-        Files.write(tmp, data);
+                CSVFormat.DEFAULT.builder()
+                        .setHeader()
+                        .setSkipHeaderRecord(true)
+                        .setCommentMarker(ConsolidatedShards.COMMENT_MARKER)
+                        .build());
+
+        for (CSVRecord r : parser) {
+
+            String src = r.get("SrcIP");
+            String dst = r.get("DstIP");
+            String pair = src + "_" + dst;
+
+            Stats s = new Stats();
+            s.count = Long.parseLong(r.get("Count"));
+
+            s.meanFD = Double.parseDouble(r.get("AvgFlowDuration"));
+            s.m2FD = Math.pow(Double.parseDouble(r.get("StdFlowDuration")), 2) * Math.max(1, s.count - 1);
+
+            s.meanFP = Double.parseDouble(r.get("AvgFwdPkts"));
+            s.m2FP = Math.pow(Double.parseDouble(r.get("StdFwdPkts")), 2) * Math.max(1, s.count - 1);
+
+            map.put(pair, s);
+        }
 
-        context.getLogger().log("Résumé téléchargé depuis S3");
-        return tmp;
+        return state;
+    }
+
+    // Dernière ligne (sans le saut de ligne final) : le registre du shard, s'il existe
+    private static String lastLine(byte[] data) {
+        int end = data.length;
+        if (end > 0 && data[end - 1] == '\n') {
+            end--;
+        }
+        int start = end;
+        while (start > 0 && data[start - 1] != '\n') {
+            start--;
+        }
+        return new String(data, start, end - start, StandardCharsets.UTF_8);
     }
 
     // ------------------------------------------------------------------------
-    // Chargement du fichier consolidé s'il existe
+    // Migration de l'ancien fichier consolidé unique vers les shards
     // ------------------------------------------------------------------------
-    private Map<String, Stats> loadExistingConsolidated() {
-
-        Map<String, Stats> map = new HashMap<>();
+    private void migrateLegacyConsolidated() throws IOException {
 
+        Map<String, Stats> legacy;
         try {
-            Path tmp = Files.createTempFile("conso_", ".csv");
+            legacy = downloadConsolidated(ConsolidatedShards.LEGACY_KEY).stats;
+        } catch (ObjectNotFoundException ex) {
+            // NORMAL : pas d'ancien fichier, rien à migrer
+            legacyChecked = true;
+            return;
+        }
 
-            byte[] data = s3.getObjectAsBytes(
-                    GetObjectRequest.builder()
-                            .bucket(BUCKET)
-                            .key(CONSOLIDATED_KEY)
-                            .build())
-                    .asByteArray();
+        Map<Integer, Map<String, Stats>> shards = new TreeMap<>();
+        for (Map.Entry<String, Stats> e : legacy.entrySet()) {
+            String[] parts = e.getKey().split("_");
+            int shard = ConsolidatedShards.shardOf(parts[0], parts[1]);
+            shards.computeIfAbsent(shard, k -> new HashMap<>()).put(e.getKey(), e.getValue());
+        }
 
-            Files.write(tmp, data);
+        // Création seulement : un shard déjà présent (migration interrompue puis reprise,
+        // ou faite en même temps par un autre consolidateur) contient un état plus récent
+        for (Map.Entry<Integer, Map<String, Stats>> shard : shards.entrySet()) {
+            ConsolidatedShard state = new ConsolidatedShard();
+            state.stats = shard.getValue();
+            writeConsolidated(shard.getKey(), state);
+        }
 
-            Reader reader = Files.newBufferedReader(tmp);
+        store.delete(ConsolidatedShards.LEGACY_KEY);
 
-            CSVParser parser = CSVParser.parse(
-                    reader,
+        legacyChecked = true;
+    }
 
-                    CSVFormat.DEFAULT.builder()
-                            .setHeader()
-                            .setSkipHeaderRecord(true)
-                            .build());
+    // ------------------------------------------------------------------------
+    // Mise à jour d'un shard (concurrence optimiste)
+    // ------------------------------------------------------------------------
+    // Lecture de l'état, du registre et de l'ETag, intégration des résumés absents
+    // du registre dans l'ordre du lot, puis écriture conditionnelle. Si un autre
+    // consolidateur a écrit le shard entre-temps, il est relu et les résumés sont
+    // réintégrés sur le nouvel état : aucune mise à jour perdue, aucun verrou.
+    private void updateShard(int shard, List<PendingSummary> summaries, Metrics metrics) throws IOException {
+
+        retryOnConflict("Shard " + shard, metrics, () -> {
+
+            long start = System.nanoTime();
+            ConsolidatedShard state = loadExistingConsolidated(shard);
+            metrics.timeSince("ShardLoadTime", start);
+
+            start = System.nanoTime();
+            Map<Integer, Map<String, Stats>> target = Map.of(shard, state.stats);
+            long rows = 0;
+            int skipped = 0;
+            for (PendingSummary p : summaries) {
+                // Déjà intégré : message rejoué par SQS, ou en double dans le lot
+                if (!state.applied.add(p.ledgerId)) {
+                    skipped++;
+                    continue;
+                }
+                List<SummaryRow> shardRows = p.rowsByShard.get(shard);
+                integrateSummary(shardRows, target);
+                rows += shardRows.size();
+            }
+            metrics.timeSince("IntegrateTime", start);
 
-            for (CSVRecord r : parser) {
+            if (skipped == summaries.size()) {
+                metrics.count("AlreadyApplied", skipped);
+                return true;
+            }
 
-                String src = r.get("SrcIP");
-                String dst = r.get("DstIP");
-                String key = src + "_" + dst;
+            // Shard créé par ce lot : aucun résumé antérieur aux partitions n'y a de ligne, et
+            // ses agrégats naissent avec lui, vides (le lot y est intégré par updateRollups ;
+            // création seulement, des agrégats déjà présents sont gardés)
+            if (state.created) {
+                PairPartitions.markComplete(store, shard);
+                writeRollups(shard, new RollupShard());
+            }
+
+            start = System.nanoTime();
+            long bytes = writeConsolidated(shard, state);
+            if (bytes < 0) {
+                return false;
+            }
+            metrics.timeSince("ShardWriteTime", start);
+            metrics.countBytes("ConsolidatedBytes", bytes);
+            metrics.record("ConsolidatedPairs", state.stats.size(), Metrics.Unit.COUNT);
+            metrics.count("RowsIntegrated", rows);
+            metrics.count("AlreadyApplied", skipped);
+            metrics.count("ShardsWritten", 1);
+            return true;
+        });
+    }
+
+    // Une tentative de lecture-modification-écriture : false si l'écriture
+    // conditionnelle a échoué (objet modifié depuis sa lecture, rien d'écrit)
+    @FunctionalInterface
+    private interface ConditionalUpdate {
+        boolean attempt() throws IOException;
+    }
+
+    private static void retryOnConflict(String object, Metrics metrics, ConditionalUpdate update) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            if (update.attempt()) {
+                return;
+            }
+            metrics.count("WriteConflicts", 1);
+            if (attempt == MAX_WRITE_ATTEMPTS) {
+                throw new IOException(object + " modifié par d'autres consolidateurs à chacun des "
+                        + attempt + " essais");
+            }
+            backoff(attempt);
+        }
+    }
 
-                Stats s = new Stats();
-                s.count = Long.parseLong(r.get("Count"));
+    // Attente avant de relire un objet en conflit : exponentielle avec gigue, pour que
+    // les consolidateurs en concurrence ne se représentent pas au même moment
+    private static void backoff(int attempt) throws IOException {
+        long max = Math.min(1000, 25L << attempt);
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(max / 2, max + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Attente interrompue", e);
+        }
+    }
 
-                s.meanFD = Double.parseDouble(r.get("AvgFlowDuration"));
-                s.m2FD = Math.pow(Double.parseDouble(r.get("StdFlowDuration")), 2) * Math.max(1, s.count - 1);
+    // ------------------------------------------------------------------------
+    // Agrégats par semaine et par mois (voir PairRollups)
+    // ------------------------------------------------------------------------
+    // Même schéma que updateShard, avec leur propre registre : ils sont écrits
+    // dans un autre objet que le shard consolidé.
+    private void updateRollups(int shard, List<PendingSummary> summaries, Metrics metrics) throws IOException {
+
+        retryOnConflict("Agrégats du shard " + shard, metrics, () -> {
+
+            long start = System.nanoTime();
+            RollupShard rollups = loadRollups(shard);
+            metrics.timeSince("RollupLoadTime", start);
+            if (rollups == null) {
+                metrics.count("RollupsMissing", 1);
+                return true;
+            }
 
-                s.meanFP = Double.parseDouble(r.get("AvgFwdPkts"));
-                s.m2FP = Math.pow(Double.parseDouble(r.get("StdFwdPkts")), 2) * Math.max(1, s.count - 1);
+            boolean changed = false;
+            for (PendingSummary p : summaries) {
+                if (rollups.applied.add(p.ledgerId)) {
+                    p.rowsByShard.get(shard).forEach(rollups::add);
+                    changed = true;
+                }
+            }
+            if (!changed) {
+                return true;
+            }
 
-                map.put(key, s);
+            start = System.nanoTime();
+            long bytes = writeRollups(shard, rollups);
+            if (bytes < 0) {
+                return false;
             }
+            metrics.timeSince("RollupWriteTime", start);
+            metrics.countBytes("RollupBytes", bytes);
+            metrics.count("RollupsWritten", 1);
+            return true;
+        });
+    }
 
-        } catch (Exception ex) {
-            // NORMAL : c’est le premier fichier → aucun consolidé existant
+    // Agrégats d'un shard, ou null s'ils n'existent pas. Ceux d'un shard créé depuis
+    // les agrégats naissent avec lui (voir updateShard) ; un shard plus ancien n'a
+    // d'agrégats qu'après la reprise hors ligne (RollupBackfill, voir backfillRollups),
+    // jamais reconstruits ici : un lot ne relit pas tout summaries/.
+    private RollupShard loadRollups(int shard) throws IOException {
+
+        try {
+            String key = PairRollups.key(shard);
+            ObjectStore.Versioned object = store.getIfNoneMatch(key, null);
+            return RollupShard.parse(Compression.decode(key, object.data), object.etag);
+
+        } catch (ObjectNotFoundException ex) {
+            return null;
         }
+    }
 
-        return map;
+    // Écriture conditionnelle : taille écrite, ou -1 si les agrégats ont été modifiés
+    // depuis leur lecture (etag null : création seulement)
+    private long writeRollups(int shard, RollupShard rollups) throws IOException {
+
+        Path tmp = Files.createTempFile("rollups_", ".csv");
+        try {
+            try (BufferedWriter writer = stateWriter(tmp)) {
+                rollups.writeTo(writer);
+            }
+
+            long bytes = Files.size(tmp);
+            return store.putIfMatch(PairRollups.key(shard), tmp, rollups.etag) ? bytes : -1;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
     }
 
     // ------------------------------------------------------------------------
     // Mise à jour des statistiques (Welford)
     // ------------------------------------------------------------------------
-    private void integrateSummary(Path summaryFile, Map<String, Stats> map)
-            throws IOException {
+    static void integrateSummary(List<SummaryRow> rows, Map<Integer, Map<String, Stats>> shards) {
 
-        Reader reader = Files.newBufferedReader(summaryFile);
-        CSVParser parser = CSVParser.parse(
-                reader,
-                CSVFormat.DEFAULT.builder()
-                        .setHeader()
-                        .setSkipHeaderRecord(true)
-                        .build());
-
-        for (CSVRecord r : parser) {
+        for (SummaryRow r : rows) {
 
-            String src = r.get("SrcIP");
-            String dst = r.get("DstIP");
+            long FD = r.totalFlowDuration;
+            long FP = r.totalFwdPkts;
 
-            long FD = Long.parseLong(r.get("TotalFlowDuration"));
-            long FP = Long.parseLong(r.get("TotalFwdPkts"));
+            String key = r.src + "_" + r.dst;
 
-            String key = src + "_" + dst;
+            Map<String, Stats> map = shards.get(ConsolidatedShards.shardOf(r.src, r.dst));
 
             Stats s = map.getOrDefault(key, new Stats());
 
@@ -201,44 +623,352 @@ public class ConsolidatorWorker implements RequestHandler<SQSEvent, Void> {
     }
 
     // ------------------------------------------------------------------------
-    // Écriture du fichier consolidé final dans S3
+    // Lecture d'un résumé ou d'une partition (binaire ou CSV)
     // ------------------------------------------------------------------------
-    private void writeConsolidated(Map<String, Stats> map) throws IOException {
+    // summaryName : résumé d'origine si le fichier n'a pas de colonne Summary.
+    // partition : partition lue, ou null pour la calculer ligne par ligne.
+    static List<SummaryRow> readRows(byte[] data, String summaryName, String partition) throws IOException {
+
+        List<SummaryRow> rows = new ArrayList<>();
+
+        if (SummaryCodec.isBinary(data)) {
+            SummaryCodec.Columns c = SummaryCodec.decode(data);
+
+            int lastDay = Integer.MIN_VALUE;
+            String date = null;
+
+            for (int i = 0; i < c.size; i++) {
+                if (c.days[i] != lastDay) {
+                    lastDay = c.days[i];
+                    date = c.date(i);
+                }
+
+                SummaryRow row = new SummaryRow();
+                row.date = date;
+                row.src = c.dictionary[c.srcs[i]];
+                row.dst = c.dictionary[c.dsts[i]];
+                row.totalFlowDuration = c.flowDurations[i];
+                row.totalFwdPkts = c.fwdPkts[i];
+                row.summary = c.summaries != null ? c.dictionary[c.summaries[i]] : summaryName;
+                row.partition = partition != null
+                        ? partition
+                        : PairPartitions.key(row.src, row.dst, row.date, PARTITION_EXTENSION);
+                rows.add(row);
+            }
+            return rows;
+        }
 
-        Path tmp = Files.createTempFile("conso_write_", ".csv");
-        BufferedWriter writer = Files.newBufferedWriter(tmp);
+        try (Reader reader = new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8);
+                CSVParser parser = CSVParser.parse(
+                        reader,
+                        CSVFormat.DEFAULT.builder()
+                                .setHeader()
+                                .setSkipHeaderRecord(true)
+                                .build())) {
 
-        writer.write("SrcIP,DstIP,Count,AvgFlowDuration,StdFlowDuration,AvgFwdPkts,StdFwdPkts\n");
+            boolean hasSummary = parser.getHeaderMap().containsKey("Summary");
+
+            for (CSVRecord r : parser) {
+                SummaryRow row = new SummaryRow();
+                row.date = r.get("Date");
+                row.src = r.get("SrcIP");
+                row.dst = r.get("DstIP");
+                row.totalFlowDuration = Long.parseLong(r.get("TotalFlowDuration"));
+                row.totalFwdPkts = Long.parseLong(r.get("TotalFwdPkts"));
+                row.summary = hasSummary ? r.get("Summary") : summaryName;
+                row.partition = partition != null
+                        ? partition
+                        : PairPartitions.key(row.src, row.dst, row.date, PARTITION_EXTENSION);
+                rows.add(row);
+            }
+        }
+
+        return rows;
+    }
+
+    // ------------------------------------------------------------------------
+    // Partitions des résumés par couple (shard, mois)
+    // ------------------------------------------------------------------------
+    // Même schéma que updateShard ; les lignes d'un résumé déjà rangé (message
+    // rejoué) sont remplacées, pas dupliquées, le registre est donc inutile ici.
+    private void updatePartition(String key, List<PendingSummary> summaries, Metrics metrics) throws IOException {
+
+        Map<String, List<SummaryRow>> rowsBySummary = new LinkedHashMap<>();
+        for (PendingSummary p : summaries) {
+            rowsBySummary.putIfAbsent(p.summaryName, p.rowsByPartition.get(key));
+        }
+
+        retryOnConflict(key, metrics, () -> {
+
+            long start = System.nanoTime();
+            Partition partition = loadPartition(key);
+            metrics.timeSince("PartitionLoadTime", start);
+
+            partition.rows.removeIf(r -> rowsBySummary.containsKey(r.summary));
+            for (List<SummaryRow> rows : rowsBySummary.values()) {
+                partition.rows.addAll(rows);
+            }
+
+            start = System.nanoTime();
+            long bytes = writePartition(key, partition);
+            if (bytes < 0) {
+                return false;
+            }
+            metrics.timeSince("PartitionWriteTime", start);
+            metrics.countBytes("PartitionBytes", bytes);
+            metrics.count("PartitionsWritten", 1);
+            return true;
+        });
+    }
+
+    private Partition loadPartition(String key) throws IOException {
+
+        Partition partition = new Partition();
+        ObjectStore.Versioned object;
+        try {
+            object = store.getIfNoneMatch(key, null);
+        } catch (ObjectNotFoundException ex) {
+            // NORMAL : première ligne de ce shard pour ce mois
+            return partition;
+        }
+
+        partition.rows = readRows(Compression.decode(key, object.data), null, key);
+        partition.etag = object.etag;
+        return partition;
+    }
+
+    // Écriture conditionnelle : taille écrite, ou -1 si la partition a été modifiée
+    // depuis sa lecture
+    private long writePartition(String key, Partition partition) throws IOException {
+
+        List<SummaryRow> rows = partition.rows;
+
+        rows.sort(Comparator.comparing((SummaryRow r) -> r.date)
+                .thenComparing(r -> r.src)
+                .thenComparing(r -> r.dst));
+
+        Path tmp = Files.createTempFile("partition_", PARTITION_EXTENSION);
+
+        if (PARTITION_EXTENSION.equals(SummaryCodec.EXTENSION)) {
+            try (OutputStream out = stateOutput(tmp)) {
+                SummaryCodec.Writer writer = new SummaryCodec.Writer(out, true);
+                for (SummaryRow r : rows) {
+                    writer.add(r.date, r.src, r.dst, r.totalFlowDuration, r.totalFwdPkts, r.summary);
+                }
+                writer.finish();
+            }
 
-        for (String key : map.keySet()) {
+        } else {
+            try (BufferedWriter writer = stateWriter(tmp)) {
+                writer.write(PairPartitions.HEADER + "\n");
+                for (SummaryRow r : rows) {
+                    writer.write(r.date + "," + r.src + "," + r.dst + "," +
+                            r.totalFlowDuration + "," + r.totalFwdPkts + "," + r.summary + "\n");
+                }
+            }
+        }
 
-            String[] parts = key.split("_");
-            String src = parts[0];
-            String dst = parts[1];
+        try {
+            long bytes = Files.size(tmp);
+            return store.putIfMatch(key, tmp, partition.etag) ? bytes : -1;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
 
-            Stats s = map.get(key);
+    // ------------------------------------------------------------------------
+    // Reprise des partitions (résumés consolidés avant leur existence)
+    // ------------------------------------------------------------------------
+    /**
+     * Range les lignes de tous les résumés de summaries/ dans les partitions,
+     * par lots de batchSize résumés (chaque partition est écrite une fois par
+     * lot), puis marque tous les shards complets (voir PairPartitions). Les
+     * lignes d'un résumé déjà rangé sont remplacées : la reprise peut être
+     * relancée, et tourner pendant que le pipeline consolide. Un résumé déposé
+     * après la liste est rangé par le flux courant. Renvoie le nombre de
+     * résumés rangés.
+     */
+    public int backfillPartitions(int batchSize, Consumer<String> log) throws IOException {
+
+        List<String> keys = store.list(SummaryFiles.PREFIX);
+        Metrics metrics = new Metrics("partition-backfill");
+
+        for (int from = 0; from < keys.size(); from += batchSize) {
+            List<String> batch = keys.subList(from, Math.min(keys.size(), from + batchSize));
+
+            Map<String, List<PendingSummary>> byPartition = new TreeMap<>();
+            for (String key : batch) {
+                PendingSummary p = readSummary(key.substring(SummaryFiles.PREFIX.length()),
+                        Compression.decode(key, store.get(key)));
+                for (String partition : p.partitions) {
+                    byPartition.computeIfAbsent(partition, k -> new ArrayList<>()).add(p);
+                }
+            }
 
-            double stdFD = (s.count > 1)
-                    ? Math.sqrt(s.m2FD / (s.count - 1))
-                    : 0;
+            for (Map.Entry<String, List<PendingSummary>> en : byPartition.entrySet()) {
+                updatePartition(en.getKey(), en.getValue(), metrics);
+            }
+            log.accept(" " + (from + batch.size()) + "/" + keys.size() + " résumé(s) rangé(s) dans "
+                    + byPartition.size() + " partition(s)");
+        }
 
-            double stdFP = (s.count > 1)
-                    ? Math.sqrt(s.m2FP / (s.count - 1))
-                    : 0;
+        // Tous les résumés consolidés jusqu'ici sont rangés : les partitions suffisent désormais
+        for (int shard = 0; shard < ConsolidatedShards.COUNT; shard++) {
+            PairPartitions.markComplete(store, shard);
+        }
+        return keys.size();
+    }
 
-            writer.write(src + "," + dst + "," +
-                    s.count + "," +
-                    s.meanFD + "," + stdFD + "," +
-                    s.meanFP + "," + stdFP + "\n");
+    // ------------------------------------------------------------------------
+    // Reprise des agrégats (shards antérieurs à leur existence)
+    // ------------------------------------------------------------------------
+    /**
+     * Crée les agrégats des shards qui n'en ont pas. Chaque résumé de summaries/
+     * est lu une fois pour tous ces shards, et chaque fichier est créé
+     * (If-None-Match: *) avec un registre de tous les résumés relus : le message
+     * d'un résumé encore en attente est ensuite écarté, pas compté deux fois.
+     * Les résumés déposés pendant la reprise sont intégrés après la création,
+     * par le registre, comme dans le flux courant. Tout résumé de summaries/ est
+     * compté : ceux dont le message est en DLQ doivent être rejoués ou supprimés
+     * avant. Renvoie le nombre de shards repris.
+     */
+    public int backfillRollups(Consumer<String> log) throws IOException {
+
+        List<String> keys = store.list(SummaryFiles.PREFIX);
+        Map<Integer, RollupShard> missing = new TreeMap<>();
+        for (int shard = 0; shard < ConsolidatedShards.COUNT; shard++) {
+            if (!store.exists(PairRollups.key(shard))) {
+                RollupShard rollups = new RollupShard();
+                rollups.applied.ensureCapacity(keys.size());
+                missing.put(shard, rollups);
+            }
+        }
+        if (missing.isEmpty()) {
+            return 0;
+        }
+
+        int read = 0;
+        for (String key : keys) {
+            PendingSummary p = readListedSummary(key);
+            if (p != null) {
+                for (Map.Entry<Integer, List<SummaryRow>> en : p.rowsByShard.entrySet()) {
+                    RollupShard rollups = missing.get(en.getKey());
+                    if (rollups != null) {
+                        en.getValue().forEach(rollups::add);
+                        rollups.applied.add(p.ledgerId);
+                    }
+                }
+            }
+            if (++read % 1000 == 0 || read == keys.size()) {
+                log.accept(" " + read + "/" + keys.size() + " résumé(s) relu(s)");
+            }
+        }
+
+        // Création seulement : des agrégats créés entre-temps (shard créé par le flux
+        // courant) sont déjà tenus à jour
+        Set<Integer> created = new TreeSet<>();
+        for (Map.Entry<Integer, RollupShard> en : missing.entrySet()) {
+            if (writeRollups(en.getKey(), en.getValue()) >= 0) {
+                created.add(en.getKey());
+            }
         }
 
-        writer.close();
+        // Résumés absents de la liste : un message traité avant la création n'a pas pu
+        // les intégrer (agrégats absents), le registre écarte ceux déjà intégrés depuis
+        Set<String> listed = new HashSet<>(keys);
+        Map<Integer, List<PendingSummary>> late = new TreeMap<>();
+        for (String key : store.list(SummaryFiles.PREFIX)) {
+            PendingSummary p = listed.contains(key) ? null : readListedSummary(key);
+            if (p != null) {
+                for (int shard : p.shards) {
+                    if (created.contains(shard)) {
+                        late.computeIfAbsent(shard, k -> new ArrayList<>()).add(p);
+                    }
+                }
+            }
+        }
+        Metrics metrics = new Metrics("rollup-backfill");
+        for (Map.Entry<Integer, List<PendingSummary>> en : late.entrySet()) {
+            updateRollups(en.getKey(), en.getValue(), metrics);
+        }
+        log.accept(" Agrégats créés pour " + created.size() + " shard(s) sur " + missing.size()
+                + " sans agrégats, " + late.size() + " complété(s) par les résumés déposés pendant la reprise");
+        return created.size();
+    }
 
-        s3.putObject(
-                PutObjectRequest.builder()
-                        .bucket(BUCKET)
-                        .key(CONSOLIDATED_KEY)
-                        .build(),
-                tmp);
+    // Résumé d'une clé listée, ou null s'il a été supprimé depuis la liste
+    private PendingSummary readListedSummary(String key) throws IOException {
+        try {
+            return readSummary(key.substring(SummaryFiles.PREFIX.length()), Compression.decode(key, store.get(key)));
+        } catch (ObjectNotFoundException gone) {
+            return null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Écriture d'un shard consolidé dans S3
+    // ------------------------------------------------------------------------
+    // Écriture conditionnelle du snapshot (état puis registre) : taille écrite, ou
+    // -1 si le shard a été modifié depuis sa lecture (state.etag). La vue CSV est
+    // ensuite remplacée sans condition : avec plusieurs consolidateurs, elle peut
+    // refléter l'avant-dernière écriture du snapshot jusqu'à la suivante.
+    private long writeConsolidated(int shard, ConsolidatedShard state) throws IOException {
+
+        List<StatsSnapshot.Entry> entries = snapshotEntries(state.stats);
+
+        Path tmp = Files.createTempFile("conso_write_", ".bin");
+        try {
+            // Jamais compressé : les lecteurs lisent le snapshot par plages
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                StatsSnapshot.write(entries, state.applied.line(), out);
+            }
+
+            long bytes = Files.size(tmp);
+            if (!store.putIfMatch(ConsolidatedShards.snapshotKey(shard), tmp, state.etag)) {
+                return -1;
+            }
+
+            try (BufferedWriter writer = stateWriter(tmp)) {
+                writeConsolidated(entries, writer);
+            }
+            store.put(ConsolidatedShards.key(shard), tmp);
+            return bytes;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // Fichier temporaire d'un objet d'état, compressé selon CONSOLIDATED_COMPRESSION
+    private static OutputStream stateOutput(Path tmp) throws IOException {
+        return new BufferedOutputStream(STATE_COMPRESSION.compress(Files.newOutputStream(tmp)));
+    }
+
+    private static BufferedWriter stateWriter(Path tmp) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(stateOutput(tmp), StandardCharsets.UTF_8));
+    }
+
+    // Couples d'un shard pour le snapshot (l'ordre est fixé par StatsSnapshot.write)
+    static List<StatsSnapshot.Entry> snapshotEntries(Map<String, Stats> map) {
+        List<StatsSnapshot.Entry> entries = new ArrayList<>(map.size());
+
+        for (Map.Entry<String, Stats> e : map.entrySet()) {
+            String[] parts = e.getKey().split("_");
+            Stats s = e.getValue();
+            entries.add(new StatsSnapshot.Entry(parts[0], parts[1], s.count, s.meanFD, s.m2FD, s.meanFP, s.m2FP));
+        }
+        return entries;
+    }
+
+    // Vue CSV d'un shard (écart type de l'échantillon, 0 pour un seul jour)
+    static void writeConsolidated(List<StatsSnapshot.Entry> entries, Writer writer) throws IOException {
+
+        writer.write("SrcIP,DstIP,Count,AvgFlowDuration,StdFlowDuration,AvgFwdPkts,StdFwdPkts\n");
+
+        for (StatsSnapshot.Entry e : entries) {
+            writer.write(e.src + "," + e.dst + "," +
+                    e.count + "," +
+                    e.meanFlowDuration + "," + e.stdFlowDuration() + "," +
+                    e.meanFwdPkts + "," + e.stdFwdPkts() + "\n");
+        }
     }
 }
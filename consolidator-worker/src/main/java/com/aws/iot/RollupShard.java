@@ -0,0 +1,94 @@
+package com.aws.iot;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Agrégats d'un shard par couple et par période (voir PairRollups), tels que
+ * lus avec leur ETag, et registre des résumés intégrés (voir AppliedLedger).
+ *
+ * Chaque jour d'un résumé est ajouté à la semaine ISO et au mois qui le
+ * contiennent. Les semaines plus anciennes que ROLLUP_WEEKS semaines avant la
+ * plus récente du shard sont retirées à l'écriture.
+ */
+final class RollupShard {
+
+    static final int WEEKS_KEPT = System.getenv("ROLLUP_WEEKS") != null
+            ? Integer.parseInt(System.getenv("ROLLUP_WEEKS"))
+            : 53;
+
+    // Couple "src,dst" → période → agrégat, triés pour un fichier stable
+    final Map<String, Map<String, Rollup>> pairs = new TreeMap<>();
+    final AppliedLedger applied = new AppliedLedger();
+    String etag;
+
+    void add(ConsolidatorWorker.SummaryRow r) {
+        LocalDate day = LocalDate.parse(r.date);
+        Map<String, Rollup> periods = pairs.computeIfAbsent(r.src + "," + r.dst, k -> new TreeMap<>());
+        periods.computeIfAbsent(PairRollups.week(day), k -> new Rollup()).add(r.totalFlowDuration, r.totalFwdPkts);
+        periods.computeIfAbsent(PairRollups.month(day), k -> new Rollup()).add(r.totalFlowDuration, r.totalFwdPkts);
+    }
+
+    static RollupShard parse(byte[] data, String etag) throws IOException {
+        RollupShard shard = new RollupShard();
+        shard.etag = etag;
+
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                shard.applied.parse(line);
+                PairRollups.Entry e = PairRollups.parse(line);
+                if (e != null) {
+                    shard.pairs.computeIfAbsent(e.src + "," + e.dst, k -> new TreeMap<>()).put(e.period, e.rollup);
+                }
+            }
+        }
+        // Registre reconstruit plus long que CAPACITY : gardé entier (voir AppliedLedger)
+        shard.applied.ensureCapacity(shard.applied.size());
+        return shard;
+    }
+
+    void writeTo(Writer writer) throws IOException {
+        LocalDate oldestWeek = oldestWeekKept();
+
+        writer.write(PairRollups.HEADER + "\n");
+        for (Map.Entry<String, Map<String, Rollup>> pair : pairs.entrySet()) {
+            int comma = pair.getKey().indexOf(',');
+            String src = pair.getKey().substring(0, comma);
+            String dst = pair.getKey().substring(comma + 1);
+
+            for (Map.Entry<String, Rollup> period : pair.getValue().entrySet()) {
+                if (PairRollups.isWeek(period.getKey()) && PairRollups.start(period.getKey()).isBefore(oldestWeek)) {
+                    continue;
+                }
+                PairRollups.write(writer, src, dst, period.getKey(), period.getValue());
+            }
+        }
+        applied.writeTo(writer);
+    }
+
+    // Lundi de la plus ancienne semaine gardée, relative à la plus récente du shard
+    // (et non à la date du jour : un résumé rejoué donne le même fichier)
+    private LocalDate oldestWeekKept() {
+        LocalDate newest = LocalDate.MIN;
+        for (Map<String, Rollup> periods : pairs.values()) {
+            for (String period : periods.keySet()) {
+                if (PairRollups.isWeek(period)) {
+                    LocalDate start = PairRollups.start(period);
+                    if (start.isAfter(newest)) {
+                        newest = start;
+                    }
+                }
+            }
+        }
+        return newest.equals(LocalDate.MIN) ? newest : newest.minusWeeks(WEEKS_KEPT - 1);
+    }
+}
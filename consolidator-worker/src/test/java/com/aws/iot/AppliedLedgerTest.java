@@ -0,0 +1,107 @@
+package com.aws.iot;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Registre des résumés intégrés : doublons, éviction des plus anciens et
+ * relecture de la ligne #applied.
+ */
+class AppliedLedgerTest {
+
+    private static String id(int i) {
+        return AppliedLedger.id("2018-02-03_summary.bin", ("rows " + i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void idDependsOnNameAndContent() {
+        byte[] data = "a,b".getBytes(StandardCharsets.UTF_8);
+        String id = AppliedLedger.id("x_summary.bin", data);
+
+        assertEquals(16, id.length());
+        assertTrue(id.matches("[0-9a-f]{16}"), id);
+        assertEquals(id, AppliedLedger.id("x_summary.bin", data.clone()));
+        assertNotEquals(id, AppliedLedger.id("y_summary.bin", data));
+        assertNotEquals(id, AppliedLedger.id("x_summary.bin", "a,c".getBytes(StandardCharsets.UTF_8)));
+        // Le séparateur évite qu'un octet passe du nom au contenu
+        assertNotEquals(AppliedLedger.id("ab", "c".getBytes(StandardCharsets.UTF_8)),
+                AppliedLedger.id("a", "bc".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void duplicatesAreRejected() {
+        AppliedLedger ledger = new AppliedLedger();
+
+        assertTrue(ledger.add(id(1)));
+        assertTrue(ledger.add(id(2)));
+        assertFalse(ledger.add(id(1)));
+        assertTrue(ledger.contains(id(1)));
+        assertEquals(2, ledger.size());
+    }
+
+    @Test
+    void evictsOldestBeyondCapacity() {
+        AppliedLedger ledger = new AppliedLedger();
+        int extra = 10;
+
+        for (int i = 0; i < AppliedLedger.CAPACITY + extra; i++) {
+            assertTrue(ledger.add(id(i)));
+        }
+
+        assertEquals(AppliedLedger.CAPACITY, ledger.size());
+        for (int i = 0; i < extra; i++) {
+            assertFalse(ledger.contains(id(i)), "évincé : " + i);
+        }
+        for (int i = extra; i < AppliedLedger.CAPACITY + extra; i++) {
+            assertTrue(ledger.contains(id(i)), "gardé : " + i);
+        }
+
+        // Un doublon ne rafraîchit pas l'ordre : id(extra) reste le plus ancien
+        assertFalse(ledger.add(id(extra)));
+        assertTrue(ledger.add(id(-1)));
+        assertFalse(ledger.contains(id(extra)));
+        assertTrue(ledger.contains(id(extra + 1)));
+
+        // Un identifiant évincé est de nouveau accepté
+        assertTrue(ledger.add(id(0)));
+        assertEquals(AppliedLedger.CAPACITY, ledger.size());
+    }
+
+    @Test
+    void lineRoundTripsInOrder() throws IOException {
+        AppliedLedger ledger = new AppliedLedger();
+        StringWriter empty = new StringWriter();
+        ledger.writeTo(empty);
+        assertEquals("", empty.toString());
+        assertEquals("", ledger.line());
+
+        for (int i = 0; i < 5; i++) {
+            ledger.add(id(i));
+        }
+        StringWriter out = new StringWriter();
+        ledger.writeTo(out);
+        assertEquals(ledger.line() + "\n", out.toString());
+        assertTrue(ledger.line().startsWith(AppliedLedger.PREFIX + "," + id(0)));
+
+        AppliedLedger read = new AppliedLedger();
+        read.parse("SrcIP,DstIP");
+        read.parse(ledger.line() + ", ,");
+        assertEquals(5, read.size());
+        assertEquals(ledger.line(), read.line());
+
+        // L'ordre relu est l'ordre d'intégration : l'éviction retire toujours le plus ancien
+        for (int i = 5; i < AppliedLedger.CAPACITY + 1; i++) {
+            read.add(id(i));
+        }
+        assertFalse(read.contains(id(0)));
+        assertTrue(read.contains(id(1)));
+    }
+}
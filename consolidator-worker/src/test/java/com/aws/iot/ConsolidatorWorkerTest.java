@@ -0,0 +1,229 @@
+package com.aws.iot;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import com.amazonaws.services.lambda.runtime.CognitoIdentity;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Consolidation par lots sur un stockage local : le nombre de jours de chaque
+ * couple dans les agrégats mensuels doit rester celui du snapshot, au-delà de
+ * CAPACITY résumés, avec des messages rejoués et après la reprise hors ligne.
+ */
+class ConsolidatorWorkerTest {
+
+    private static final String[][] PAIRS = {
+        { "10.0.0.1", "192.168.1.1" }, { "10.0.0.2", "192.168.1.7" }, { "172.16.0.9", "10.1.2.3" },
+        { "fe80::1", "host-4" },
+    };
+
+    private static final int BATCH = 400;
+
+    @TempDir
+    Path dir;
+
+    /** Contexte Lambda minimal, logs ignorés. */
+    private static final class TestContext implements Context {
+        private final LambdaLogger logger = new LambdaLogger() {
+            @Override
+            public void log(String message) {
+            }
+
+            @Override
+            public void log(byte[] message) {
+            }
+        };
+
+        @Override
+        public String getAwsRequestId() {
+            return "test";
+        }
+
+        @Override
+        public String getLogGroupName() {
+            return "test";
+        }
+
+        @Override
+        public String getLogStreamName() {
+            return "test";
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "consolidator-worker";
+        }
+
+        @Override
+        public String getFunctionVersion() {
+            return "$LATEST";
+        }
+
+        @Override
+        public String getInvokedFunctionArn() {
+            return "test:consolidator-worker";
+        }
+
+        @Override
+        public CognitoIdentity getIdentity() {
+            return null;
+        }
+
+        @Override
+        public ClientContext getClientContext() {
+            return null;
+        }
+
+        @Override
+        public int getRemainingTimeInMillis() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public int getMemoryLimitInMB() {
+            return (int) (Runtime.getRuntime().maxMemory() >> 20);
+        }
+
+        @Override
+        public LambdaLogger getLogger() {
+            return logger;
+        }
+    }
+
+    private static String summaryName(int i) {
+        return String.format("day-%05d_summary.csv", i);
+    }
+
+    // Résumés CSV d'un jour chacun : tous les couples, le dernier un jour sur trois seulement
+    private static void putSummaries(ObjectStore store, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            StringBuilder sb = new StringBuilder("Date,SrcIP,DstIP,TotalFlowDuration,TotalFwdPkts\n");
+            String date = LocalDate.of(2021, 1, 1).plusDays(i).toString();
+            for (int p = 0; p < PAIRS.length; p++) {
+                if (p < PAIRS.length - 1 || i % 3 == 0) {
+                    sb.append(date).append(',').append(PAIRS[p][0]).append(',').append(PAIRS[p][1])
+                            .append(',').append(1000 + i * 7 + p).append(',').append(i % 50 + p).append('\n');
+                }
+            }
+            store.put(SummaryFiles.PREFIX + summaryName(i), sb.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    // Messages des résumés from..to par lots de BATCH ; aucun ne doit échouer
+    private static void consolidate(ConsolidatorWorker worker, int from, int to) {
+        for (int start = from; start < to; start += BATCH) {
+            List<SQSEvent.SQSMessage> records = new ArrayList<>();
+            for (int i = start; i < Math.min(to, start + BATCH); i++) {
+                SQSEvent.SQSMessage record = new SQSEvent.SQSMessage();
+                record.setMessageId(summaryName(i));
+                record.setBody(SummaryFiles.notification(summaryName(i)));
+                records.add(record);
+            }
+            SQSEvent event = new SQSEvent();
+            event.setRecords(records);
+
+            SQSBatchResponse response = worker.handleRequest(event, new TestContext());
+            assertTrue(response.getBatchItemFailures().isEmpty(), "lot " + start);
+        }
+    }
+
+    // Jours par couple : snapshot du shard, et somme des agrégats mensuels
+    private static Map<String, Long> snapshotCounts(ObjectStore store) throws IOException {
+        Map<String, Long> counts = new HashMap<>();
+        for (String[] pair : PAIRS) {
+            StatsSnapshot.View view = StatsSnapshot.View.wrap(
+                    store.get(ConsolidatedShards.snapshotKey(ConsolidatedShards.shardOf(pair[0], pair[1]))));
+            counts.put(pair[0] + "," + pair[1], view.find(pair[0], pair[1]).count);
+        }
+        return counts;
+    }
+
+    private static Map<String, Long> rollupCounts(ObjectStore store) throws IOException {
+        Map<String, Long> counts = new HashMap<>();
+        for (String[] pair : PAIRS) {
+            String key = PairRollups.key(ConsolidatedShards.shardOf(pair[0], pair[1]));
+            RollupShard rollups = RollupShard.parse(Compression.decode(key, store.get(key)), null);
+            long days = 0;
+            for (Map.Entry<String, Rollup> period : rollups.pairs.get(pair[0] + "," + pair[1]).entrySet()) {
+                if (!PairRollups.isWeek(period.getKey())) {
+                    days += period.getValue().count();
+                }
+            }
+            counts.put(pair[0] + "," + pair[1], days);
+        }
+        return counts;
+    }
+
+    @Test
+    void rollupsMatchSnapshotsBeyondLedgerCapacity() throws IOException {
+        LocalBackend backend = new LocalBackend(dir);
+        ObjectStore store = backend.bucket(PipelineConfig.BUCKET);
+        ConsolidatorWorker worker = new ConsolidatorWorker(backend, MetricsSink.NONE);
+        int n = AppliedLedger.CAPACITY + BATCH / 2;
+        putSummaries(store, 0, n);
+
+        // Résumés tous déposés avant leurs messages, comme une reprise par Backfill
+        consolidate(worker, 0, n);
+        Map<String, Long> expected = snapshotCounts(store);
+        assertEquals((long) n, expected.get(PAIRS[0][0] + "," + PAIRS[0][1]));
+        assertEquals(expected, rollupCounts(store));
+
+        // Dernier lot rejoué par SQS : ni le shard ni les agrégats ne changent
+        consolidate(worker, n - BATCH, n);
+        assertEquals(expected, snapshotCounts(store));
+        assertEquals(expected, rollupCounts(store));
+    }
+
+    @Test
+    void missingRollupsAreRebuiltOffline() throws IOException {
+        LocalBackend backend = new LocalBackend(dir);
+        ObjectStore store = backend.bucket(PipelineConfig.BUCKET);
+        ConsolidatorWorker worker = new ConsolidatorWorker(backend, MetricsSink.NONE);
+        int n = AppliedLedger.CAPACITY + BATCH;
+        putSummaries(store, 0, n);
+
+        // Shards antérieurs aux agrégats : le flux courant ne les reconstruit pas
+        consolidate(worker, 0, BATCH);
+        for (int shard = 0; shard < ConsolidatedShards.COUNT; shard++) {
+            store.delete(PairRollups.key(shard));
+        }
+        consolidate(worker, BATCH, 2 * BATCH);
+        for (String[] pair : PAIRS) {
+            assertFalse(store.exists(PairRollups.key(ConsolidatedShards.shardOf(pair[0], pair[1]))));
+        }
+
+        // Reprise avec des messages encore en attente (résumés déjà dans summaries/)
+        assertTrue(worker.backfillRollups(line -> { }) > 0);
+        assertEquals(0, worker.backfillRollups(line -> { }));
+        consolidate(worker, 2 * BATCH, n);
+
+        Map<String, Long> expected = snapshotCounts(store);
+        assertEquals((long) n, expected.get(PAIRS[0][0] + "," + PAIRS[0][1]));
+        assertEquals(expected, rollupCounts(store));
+
+        // Résumés déposés après la reprise : intégrés par le flux courant
+        putSummaries(store, n, n + 10);
+        consolidate(worker, n, n + 10);
+        Map<String, Long> after = snapshotCounts(store);
+        assertEquals((long) n + 10, after.get(PAIRS[0][0] + "," + PAIRS[0][1]));
+        assertEquals(after, rollupCounts(store));
+    }
+}
@@ -0,0 +1,293 @@
+package com.aws.iot;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Export de plusieurs couples (liste ou tous les couples consolidés) en une
+ * seule lecture des données.
+ *
+ * Chaque shard consolidé et chaque fichier résumé n'est lu qu'une fois ; ses
+ * lignes sont aiguillées vers les couples demandés par une table de hachage
+ * (SrcIP puis DstIP). Les shards sont traités l'un après l'autre : seules les
+ * lignes journalières du shard en cours sont en mémoire, et un seul fichier de
+ * sortie est ouvert à la fois (un fichier par couple, ou un fichier combiné).
+ *
+ * Les shards sans partition (ou tous avec --scan-summaries) sont servis par
+ * une lecture unique de summaries/ ; leurs lignes restent alors en mémoire
+ * jusqu'à l'écriture.
+ */
+final class BatchExport {
+
+    // Un couple exporté : statistiques consolidées et lignes journalières
+    private static final class PairExport {
+        final String src;
+        final String dst;
+        final ExportClient.ConsolidatedStats stats;
+        final ArrayList<ExportClient.DailyRecord> daily = new ArrayList<>();
+
+        PairExport(String src, String dst, ExportClient.ConsolidatedStats stats) {
+            this.src = src;
+            this.dst = dst;
+            this.stats = stats;
+        }
+    }
+
+    // Couples d'un ensemble de shards : SrcIP -> DstIP -> couple
+    private static final class Routing {
+        final Map<String, Map<String, PairExport>> pairs = new HashMap<>();
+
+        void add(PairExport p) {
+            pairs.computeIfAbsent(p.src, k -> new HashMap<>()).put(p.dst, p);
+        }
+
+        PairExport get(String src, String dst) {
+            Map<String, PairExport> bySrc = pairs.get(src);
+            return bySrc != null ? bySrc.get(dst) : null;
+        }
+
+        boolean isEmpty() {
+            return pairs.isEmpty();
+        }
+    }
+
+    private BatchExport() {
+    }
+
+    /**
+     * Couples d'un fichier : une ligne "SrcIP,DstIP" (ou séparés par des
+     * espaces) par couple ; lignes vides, commentaires (#) et en-tête ignorés.
+     */
+    static List<String[]> readPairs(Path file) throws IOException {
+        List<String[]> pairs = new ArrayList<>();
+
+        for (String line : Files.readAllLines(file)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] pair = line.split("[,;\\s]+");
+            if (pair.length != 2 || pair[0].equals("SrcIP")) {
+                continue;
+            }
+            pairs.add(pair);
+        }
+        return pairs;
+    }
+
+    /**
+     * Exporte les couples donnés (null : tous les couples consolidés) dans
+     * outputDir, un fichier par couple, ou dans le seul fichier combined s'il
+     * est donné. Renvoie le nombre de couples exportés.
+     */
+    static int run(ObjectStore store, List<String[]> requested, boolean scanSummaries,
+            Path outputDir, Path combined) throws IOException {
+
+        // Couples demandés par shard (null : tous les couples du shard)
+        List<Map<String, Set<String>>> wanted = new ArrayList<>();
+        for (int s = 0; s < ConsolidatedShards.COUNT; s++) {
+            wanted.add(requested == null ? null : new HashMap<>());
+        }
+        if (requested != null) {
+            for (String[] pair : requested) {
+                wanted.get(ConsolidatedShards.shardOf(pair[0], pair[1]))
+                        .computeIfAbsent(pair[0], k -> new HashSet<>()).add(pair[1]);
+            }
+        }
+
+        // Statistiques consolidées et partitions de chaque shard utile
+        List<Routing> shards = new ArrayList<>();
+        List<List<String>> partitions = new ArrayList<>();
+        Routing scanned = new Routing();
+        List<Integer> incomplete = new ArrayList<>();
+        int missing = 0;
+        boolean[] complete = scanSummaries
+                ? new boolean[ConsolidatedShards.COUNT]
+                : PairPartitions.completeShards(store);
+
+        for (int s = 0; s < ConsolidatedShards.COUNT; s++) {
+            Map<String, Set<String>> shardWanted = wanted.get(s);
+            if (shardWanted != null && shardWanted.isEmpty()) {
+                shards.add(new Routing());
+                partitions.add(List.of());
+                continue;
+            }
+
+            Routing routing = loadShard(store, s, shardWanted);
+            if (shardWanted != null) {
+                for (Map.Entry<String, Set<String>> en : shardWanted.entrySet()) {
+                    for (String dst : en.getValue()) {
+                        if (routing.get(en.getKey(), dst) == null) {
+                            missing++;
+                            System.out.println("Couple non trouvé : " + en.getKey() + " " + dst);
+                        }
+                    }
+                }
+            }
+            shards.add(routing);
+
+            List<String> keys = !complete[s] || routing.isEmpty()
+                    ? List.of()
+                    : store.list(PairPartitions.shardPrefix(s));
+            partitions.add(keys);
+
+            // Shard non marqué complet : lu dans summaries/ (lecture commune à tous ces shards)
+            if (!complete[s] && !routing.isEmpty()) {
+                for (Map<String, PairExport> bySrc : routing.pairs.values()) {
+                    for (PairExport p : bySrc.values()) {
+                        scanned.add(p);
+                    }
+                }
+                incomplete.add(s);
+            }
+        }
+
+        if (!scanSummaries && !incomplete.isEmpty()) {
+            System.out.println(ExportClient.INCOMPLETE_PARTITIONS + incomplete);
+        }
+        if (!scanned.isEmpty()) {
+            System.out.println("Lecture de tous les résumés de " + ExportClient.SUMMARIES_PREFIX);
+            Prefetcher.forEach(store, store.list(ExportClient.SUMMARIES_PREFIX),
+                    (key, data) -> route(data, scanned));
+        }
+
+        // Shard par shard : partitions, tri par date, écriture, libération
+        int exported = 0;
+        CSVPrinter combinedPrinter = combined != null
+                ? new CSVPrinter(Files.newBufferedWriter(combined), ExportClient.EXPORT_FORMAT)
+                : null;
+
+        try {
+            for (int s = 0; s < ConsolidatedShards.COUNT; s++) {
+                Routing routing = shards.get(s);
+                Prefetcher.forEach(store, partitions.get(s), (key, data) -> route(data, routing));
+
+                List<PairExport> pairs = new ArrayList<>();
+                for (Map<String, PairExport> bySrc : routing.pairs.values()) {
+                    pairs.addAll(bySrc.values());
+                }
+                pairs.sort(Comparator.comparing((PairExport p) -> p.src).thenComparing(p -> p.dst));
+
+                for (PairExport p : pairs) {
+                    if (p.daily.isEmpty()) {
+                        continue;
+                    }
+                    p.daily.sort(Comparator.comparing(d -> d.date));
+
+                    if (combinedPrinter != null) {
+                        ExportClient.printRecords(combinedPrinter, p.src, p.dst, p.daily, p.stats);
+                    } else {
+                        write(outputDir, p);
+                    }
+                    exported++;
+                    p.daily.clear();
+                    p.daily.trimToSize();
+                }
+            }
+        } finally {
+            if (combinedPrinter != null) {
+                combinedPrinter.close();
+            }
+        }
+
+        System.out.println("Export terminé : " + exported + " couple(s)"
+                + (missing > 0 ? ", " + missing + " non trouvé(s)" : "")
+                + (combined != null ? " dans " + combined : " dans " + outputDir));
+        return exported;
+    }
+
+    // Couples consolidés d'un shard, restreints à shardWanted (null : tous)
+    private static Routing loadShard(ObjectStore store, int shard, Map<String, Set<String>> shardWanted)
+            throws IOException {
+
+        Routing routing = new Routing();
+
+        ExportClient.forEachConsolidated(store, shard, (src, dst, stats) -> {
+            if (shardWanted != null) {
+                Set<String> dsts = shardWanted.get(src);
+                if (dsts == null || !dsts.contains(dst)) {
+                    return;
+                }
+            }
+            routing.add(new PairExport(src, dst, stats));
+        });
+        return routing;
+    }
+
+    // Lignes d'un fichier résumé ou d'une partition, aiguillées vers les couples de routing
+    private static void route(byte[] data, Routing routing) throws IOException {
+
+        if (SummaryCodec.isBinary(data)) {
+            SummaryCodec.Columns c = SummaryCodec.decode(data);
+
+            // Une recherche par valeur du dictionnaire plutôt que par ligne
+            List<Map<String, PairExport>> bySrc = new ArrayList<>(c.dictionary.length);
+            for (String value : c.dictionary) {
+                bySrc.add(routing.pairs.get(value));
+            }
+
+            for (int i = 0; i < c.size; i++) {
+                Map<String, PairExport> dsts = bySrc.get(c.srcs[i]);
+                if (dsts == null) {
+                    continue;
+                }
+                PairExport p = dsts.get(c.dictionary[c.dsts[i]]);
+                if (p != null) {
+                    ExportClient.DailyRecord d = new ExportClient.DailyRecord();
+                    d.date = c.date(i);
+                    d.totalFlowDuration = c.flowDurations[i];
+                    d.totalFwdPkts = c.fwdPkts[i];
+                    p.daily.add(d);
+                }
+            }
+            return;
+        }
+
+        try (Reader reader = new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8);
+                CSVParser parser = CSVParser.parse(
+                        reader,
+                        CSVFormat.DEFAULT.builder()
+                                .setHeader()
+                                .setSkipHeaderRecord(true)
+                                .build())) {
+
+            for (CSVRecord r : parser) {
+                PairExport p = routing.get(r.get("SrcIP"), r.get("DstIP"));
+                if (p != null) {
+                    ExportClient.DailyRecord d = new ExportClient.DailyRecord();
+                    d.date = r.get("Date");
+                    d.totalFlowDuration = Long.parseLong(r.get("TotalFlowDuration"));
+                    d.totalFwdPkts = Long.parseLong(r.get("TotalFwdPkts"));
+                    p.daily.add(d);
+                }
+            }
+        }
+    }
+
+    private static void write(Path outputDir, PairExport p) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(
+                outputDir.resolve(ExportClient.exportFileName(p.src, p.dst)));
+                CSVPrinter printer = new CSVPrinter(writer, ExportClient.EXPORT_FORMAT)) {
+
+            ExportClient.printRecords(printer, p.src, p.dst, p.daily, p.stats);
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.aws.iot;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Cache disque des objets lus par l'Export Client, indexé par clé et ETag.
+ *
+ * Un objet immuable (les fichiers de summaries/, jamais réécrits) est servi
+ * depuis le disque sans aucune requête ; listEtags retire du cache ceux dont
+ * l'ETag listé a changé malgré tout. Les autres (shards consolidés,
+ * partitions par couple) sont revalidés par un GET conditionnel
+ * (If-None-Match) : un objet inchangé ne coûte qu'une réponse 304 vide.
+ *
+ * Au-delà de maxBytes, les objets les moins récemment utilisés sont
+ * supprimés. L'index (clé, ETag, taille, du plus ancien au plus récent) est
+ * réécrit par save() ; un objet dont le fichier a disparu est simplement
+ * retéléchargé.
+ */
+final class CachingObjectStore implements ObjectStore {
+
+    private static final String INDEX = "index.tsv";
+    private static final String OBJECTS = "objects";
+
+    private static final class Entry {
+        String etag;
+        long size;
+    }
+
+    private final ObjectStore store;
+    private final Path dir;
+    private final long maxBytes;
+    private final Predicate<String> immutable;
+
+    // Ordre d'accès : le premier élément est le moins récemment utilisé
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    private int hits;
+    private int revalidated;
+    private int downloaded;
+    private long downloadedBytes;
+
+    private CachingObjectStore(ObjectStore store, Path dir, long maxBytes, Predicate<String> immutable) {
+        this.store = store;
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.immutable = immutable;
+    }
+
+    static CachingObjectStore open(ObjectStore store, Path dir, long maxBytes, Predicate<String> immutable)
+            throws IOException {
+
+        CachingObjectStore cache = new CachingObjectStore(store, dir, maxBytes, immutable);
+        Files.createDirectories(dir.resolve(OBJECTS));
+
+        Path index = dir.resolve(INDEX);
+        if (Files.exists(index)) {
+            for (String line : Files.readAllLines(index)) {
+                String[] parts = line.split("\t");
+                if (parts.length != 3) {
+                    continue;
+                }
+                Entry e = new Entry();
+                e.etag = parts[1];
+                e.size = Long.parseLong(parts[2]);
+                cache.entries.put(parts[0], e);
+                cache.totalBytes += e.size;
+            }
+        }
+
+        cache.removeOrphans();
+        cache.evict();
+        return cache;
+    }
+
+    // ------------------------------------------------------------------------
+    // Lectures servies par le cache
+    // ------------------------------------------------------------------------
+    @Override
+    public byte[] get(String key) throws IOException {
+        byte[] cached;
+        String etag;
+
+        synchronized (this) {
+            Entry e = entries.get(key);
+
+            if (e != null && immutable.test(key)) {
+                byte[] data = readCached(key);
+                if (data != null) {
+                    hits++;
+                    return data;
+                }
+            }
+
+            // Sans fichier en cache, pas d'ETag à présenter : l'objet est retéléchargé
+            cached = e != null ? readCached(key) : null;
+            etag = cached != null ? e.etag : null;
+        }
+
+        // Requête hors du verrou : les lectures parallèles (voir Prefetcher) ne s'attendent pas
+        Versioned v;
+        try {
+            v = store.getIfNoneMatch(key, etag);
+        } catch (ObjectNotFoundException notFound) {
+            synchronized (this) {
+                invalidate(key);
+            }
+            throw notFound;
+        }
+
+        synchronized (this) {
+            if (v.notModified()) {
+                revalidated++;
+                return cached;
+            }
+
+            downloaded++;
+            downloadedBytes += v.data.length;
+            cache(key, v);
+            return v.data;
+        }
+    }
+
+    // Objet entier : lu via le cache (shards consolidés) ; plage : lecture directe
+    @Override
+    public ObjectStream open(String key, long from) throws IOException {
+        if (from > 0) {
+            return store.open(key, from);
+        }
+        byte[] data = get(key);
+        return new ObjectStream(new ByteArrayInputStream(data), data.length);
+    }
+
+    // Plage bornée (en-tête puis bloc d'un snapshot) : toujours lue directement, pour
+    // que toutes les lectures d'une recherche portent sur l'objet du stockage
+    @Override
+    public ObjectStream open(String key, long from, long length) throws IOException {
+        return store.open(key, from, length);
+    }
+
+    @Override
+    public Versioned getIfNoneMatch(String key, String etag) throws IOException {
+        return store.getIfNoneMatch(key, etag);
+    }
+
+    private byte[] readCached(String key) throws IOException {
+        try {
+            return Files.readAllBytes(objectFile(key));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private void cache(String key, Versioned v) throws IOException {
+        invalidate(key);
+
+        // ETag inconnu ou objet plus gros que le cache : non conservé
+        if (v.etag == null || v.data.length > maxBytes) {
+            return;
+        }
+
+        Path file = objectFile(key);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tmp, v.data);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        Entry e = new Entry();
+        e.etag = v.etag;
+        e.size = v.data.length;
+        entries.put(key, e);
+        totalBytes += e.size;
+
+        evict();
+    }
+
+    private void invalidate(String key) throws IOException {
+        Entry e = entries.remove(key);
+        if (e != null) {
+            totalBytes -= e.size;
+            Files.deleteIfExists(objectFile(key));
+        }
+    }
+
+    // Suppression des moins récemment utilisés jusqu'à repasser sous maxBytes
+    private void evict() throws IOException {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            it.remove();
+            totalBytes -= eldest.getValue().size;
+            Files.deleteIfExists(objectFile(eldest.getKey()));
+        }
+    }
+
+    // Fichiers d'objets absents de l'index (exécution interrompue avant save())
+    private void removeOrphans() throws IOException {
+        Set<String> known = new HashSet<>();
+        for (String key : entries.keySet()) {
+            known.add(objectFile(key).getFileName().toString());
+        }
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir.resolve(OBJECTS))) {
+            for (Path f : files) {
+                if (!known.contains(f.getFileName().toString())) {
+                    Files.delete(f);
+                }
+            }
+        }
+    }
+
+    // Nom de fichier : SHA-256 de la clé (les clés contiennent des '/')
+    private Path objectFile(String key) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        String name = HexFormat.of().formatHex(digest.digest(key.getBytes(StandardCharsets.UTF_8)));
+        return dir.resolve(OBJECTS).resolve(name);
+    }
+
+    /** Réécrit l'index (fichier temporaire puis renommage). */
+    synchronized void save() throws IOException {
+        Path index = dir.resolve(INDEX);
+        Path tmp = dir.resolve(INDEX + ".tmp");
+
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp)) {
+            for (Map.Entry<String, Entry> en : entries.entrySet()) {
+                Entry e = en.getValue();
+                writer.write(en.getKey() + "\t" + e.etag + "\t" + e.size + "\n");
+            }
+        }
+
+        Files.move(tmp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    synchronized String stats() {
+        return String.format("Cache : %d lus localement, %d revalidés (304), %d téléchargés (%.1f Mo), %.1f Mo en cache",
+                hits, revalidated, downloaded, downloadedBytes / 1e6, totalBytes / 1e6);
+    }
+
+    // ------------------------------------------------------------------------
+    // Écritures et listes : transmises au stockage
+    // ------------------------------------------------------------------------
+    @Override
+    public synchronized void put(String key, Path file) throws IOException {
+        invalidate(key);
+        store.put(key, file);
+    }
+
+    @Override
+    public synchronized void put(String key, byte[] data) throws IOException {
+        invalidate(key);
+        store.put(key, data);
+    }
+
+    @Override
+    public synchronized boolean putIfMatch(String key, Path file, String etag) throws IOException {
+        invalidate(key);
+        return store.putIfMatch(key, file, etag);
+    }
+
+    @Override
+    public synchronized void delete(String key) throws IOException {
+        invalidate(key);
+        store.delete(key);
+    }
+
+    @Override
+    public boolean exists(String key) throws IOException {
+        return store.exists(key);
+    }
+
+    @Override
+    public List<String> list(String prefix) throws IOException {
+        return store.list(prefix);
+    }
+
+    // La liste donne l'ETag de chaque objet : un objet immuable en cache sous un autre
+    // ETag (réécrit malgré tout) ou absent de la liste est retiré, puis retéléchargé
+    @Override
+    public Map<String, String> listEtags(String prefix) throws IOException {
+        Map<String, String> etags = store.listEtags(prefix);
+
+        synchronized (this) {
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Entry> e = it.next();
+                String key = e.getKey();
+                if (key.startsWith(prefix) && immutable.test(key) && !e.getValue().etag.equals(etags.get(key))) {
+                    it.remove();
+                    totalBytes -= e.getValue().size;
+                    Files.deleteIfExists(objectFile(key));
+                }
+            }
+        }
+        return etags;
+    }
+}
@@ -1,58 +1,188 @@
 package com.aws.iot;
 
-import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.*;
 import software.amazon.awssdk.regions.Region;
 
 import org.apache.commons.csv.*;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.*;
 
 public class ExportClient {
 
     // ---------------- CONFIG ----------------
-    private static final String BUCKET = "ilies411-iot-traffic-input";
-    private static final String SUMMARIES_PREFIX = "summaries/";
-    private static final String CONSOLIDATED_KEY = "consolidated/traffic_stats.csv";
+    // Bucket : PipelineConfig.BUCKET (variable IOT_BUCKET)
+    static final String SUMMARIES_PREFIX = "summaries/";
+
+    // Shard sans marqueur de complétude (voir PairPartitions) : ses couples sont lus dans summaries/
+    static final String INCOMPLETE_PARTITIONS = " Partitions incomplètes (résumés consolidés avant leur création,"
+            + " voir PartitionBackfill) pour le(s) shard(s) ";
+
+    // Cache disque des objets lus (EXPORT_CACHE_DIR, EXPORT_CACHE_MB ; 0 = désactivé)
+    private static final Path CACHE_DIR = Paths.get(System.getenv().getOrDefault("EXPORT_CACHE_DIR",
+            System.getProperty("user.home") + "/.iot-export-cache"));
+    private static final long CACHE_MAX_BYTES =
+            Long.parseLong(System.getenv().getOrDefault("EXPORT_CACHE_MB", "2048")) << 20;
 
     // ----------------------------------------
     public static void main(String[] args) throws Exception {
 
-        if (args.length != 2) {
-            System.out.println("Usage: java -jar export-client.jar <SrcIP> <DstIP>");
+        List<String> params = new ArrayList<>(Arrays.asList(args));
+        boolean scanSummaries = params.remove("--scan-summaries");
+
+        // Mode lot : --pairs <fichier> ou --all-pairs, --combined <fichier> en option
+        boolean allPairs = params.remove("--all-pairs");
+        Path pairsFile = option(params, "--pairs");
+        Path combined = option(params, "--combined");
+        boolean batch = allPairs || pairsFile != null;
+
+        // Mode fenêtres : --window <fenêtres> [--as-of yyyy-MM-dd], voir WindowQuery
+        String windowSpecs = stringOption(params, "--window");
+        String asOf = stringOption(params, "--as-of");
+
+        // Mode classement : --top K --by <critère> [--from, --to yyyy-MM-dd], voir TopQuery
+        String top = stringOption(params, "--top");
+        String by = stringOption(params, "--by");
+        String from = stringOption(params, "--from");
+        String to = stringOption(params, "--to");
+
+        // Mode serveur : --serve [--port N], voir ExportServer
+        boolean serve = params.remove("--serve");
+        String port = stringOption(params, "--port");
+
+        boolean valid = serve
+                ? params.isEmpty() && !batch && combined == null && windowSpecs == null && top == null
+                        && !scanSummaries
+                : top != null
+                ? params.isEmpty() && !batch && windowSpecs == null && !scanSummaries
+                : batch
+                ? params.isEmpty() && !(allPairs && pairsFile != null)
+                : params.size() == 2 && (combined == null || windowSpecs != null);
+        valid &= windowSpecs != null || asOf == null;
+        valid &= top != null || (by == null && from == null && to == null);
+        valid &= serve || port == null;
+        if (!valid) {
+            System.out.println("Usage: java -jar export-client.jar <SrcIP> <DstIP> [--scan-summaries]");
+            System.out.println("       java -jar export-client.jar --pairs <file> | --all-pairs"
+                    + " [--combined <file>] [--scan-summaries]");
+            System.out.println("       java -jar export-client.jar <SrcIP> <DstIP> | --pairs <file> | --all-pairs"
+                    + " --window <2022-01,2022-W03,2022-01..2022-03,last-4w,last-3m,all>"
+                    + " [--as-of <yyyy-MM-dd>] [--combined <file>]");
+            System.out.println("       java -jar export-client.jar --top <K>"
+                    + " [--by flow-duration|fwd-pkts|avg-flow-duration|avg-fwd-pkts|count]"
+                    + " [--from <yyyy-MM-dd>] [--to <yyyy-MM-dd>] [--combined <file>]");
+            System.out.println("       java -jar export-client.jar --serve [--port <" + ExportServer.DEFAULT_PORT + ">]");
             return;
         }
 
-        String srcIP = args[0];
-        String dstIP = args[1];
+        List<WindowQuery.Window> windows = null;
+        if (windowSpecs != null) {
+            LocalDate day = asOf != null ? LocalDate.parse(asOf) : LocalDate.now(ZoneOffset.UTC);
+            windows = WindowQuery.parseWindows(windowSpecs, day);
+        }
+
+        int k = top != null ? Integer.parseInt(top) : 0;
+        TopQuery.Metric metric = by != null ? TopQuery.Metric.parse(by) : TopQuery.Metric.FLOW_DURATION;
+        LocalDate fromDay = from != null ? LocalDate.parse(from) : null;
+        LocalDate toDay = to != null ? LocalDate.parse(to) : null;
+        if (top != null && k <= 0) {
+            throw new IllegalArgumentException("--top doit être positif : " + top);
+        }
+
+        // S3, ou stockage local avec IOT_BACKEND=local (voir Backend)
+        try (Backend backend = Backend.fromEnv(Region.US_EAST_1)) {
+            ObjectStore store = backend.bucket(PipelineConfig.BUCKET);
+
+            // Les summaries ne sont jamais réécrits : servis sans revalidation
+            CachingObjectStore cache = CACHE_MAX_BYTES <= 0 ? null
+                    : CachingObjectStore.open(store, CACHE_DIR.resolve(PipelineConfig.BUCKET),
+                            CACHE_MAX_BYTES, key -> key.startsWith(SUMMARIES_PREFIX));
+            try {
+                ObjectStore source = cache != null ? cache : store;
+
+                if (serve) {
+                    // Le serveur tourne jusqu'à l'arrêt du programme : cache enregistré à ce moment
+                    if (cache != null) {
+                        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                            try {
+                                cache.save();
+                            } catch (IOException e) {
+                                System.out.println("ERREUR enregistrement du cache : " + e);
+                            }
+                        }));
+                    }
+                    ExportServer.run(source, port != null ? Integer.parseInt(port) : ExportServer.DEFAULT_PORT);
+                } else if (top != null) {
+                    TopQuery.run(source, k, metric, fromDay, toDay,
+                            combined != null ? combined : Paths.get("top.csv"));
+                } else if (windows != null) {
+                    List<String[]> pairs = allPairs ? null
+                            : batch ? BatchExport.readPairs(pairsFile)
+                            : List.<String[]>of(new String[] { params.get(0), params.get(1) });
+                    WindowQuery.run(source, pairs, windows, combined != null ? combined : Paths.get("windows.csv"));
+                } else if (batch) {
+                    List<String[]> pairs = allPairs ? null : BatchExport.readPairs(pairsFile);
+                    BatchExport.run(source, pairs, scanSummaries, Paths.get("."), combined);
+                } else {
+                    export(source, params.get(0), params.get(1), scanSummaries, Paths.get("."));
+                }
+            } finally {
+                if (cache != null) {
+                    cache.save();
+                    System.out.println(cache.stats());
+                }
+            }
+        }
+    }
+
+    // Valeur de l'option name, retirée de params avec elle ; laissée en place si elle manque
+    private static Path option(List<String> params, String name) {
+        int i = params.indexOf(name);
+        if (i < 0 || i + 1 == params.size()) {
+            return null;
+        }
+        Path value = Paths.get(params.get(i + 1));
+        params.subList(i, i + 2).clear();
+        return value;
+    }
 
-        S3Client s3 = S3Client.builder()
-                .region(Region.US_EAST_1)
-                .build();
+    private static String stringOption(List<String> params, String name) {
+        int i = params.indexOf(name);
+        if (i < 0 || i + 1 == params.size()) {
+            return null;
+        }
+        String value = params.get(i + 1);
+        params.subList(i, i + 2).clear();
+        return value;
+    }
+
+    // Export d'un couple dans outputDir ; renvoie le nombre de jours exportés
+    static int export(ObjectStore store, String srcIP, String dstIP, boolean scanSummaries, Path outputDir)
+            throws IOException {
 
         // Charger les statistiques consolidées
-        ConsolidatedStats stats = loadConsolidatedStats(s3, srcIP, dstIP);
+        ConsolidatedStats stats = loadConsolidatedStats(store, srcIP, dstIP);
         if (stats == null) {
-            System.out.println("Couple non trouvé dans traffic_stats.csv");
-            return;
+            System.out.println("Couple non trouvé dans " + ConsolidatedShards.keyFor(srcIP, dstIP));
+            return 0;
         }
 
-        // Lire tous les summaries et filtrer le couple
-        List<DailyRecord> dailyRecords = readDailySummaries(s3, srcIP, dstIP);
+        // Lire les partitions du couple (ou, à défaut, tous les summaries) et filtrer le couple
+        List<DailyRecord> dailyRecords = readDailySummaries(store, srcIP, dstIP, scanSummaries);
 
         if (dailyRecords.isEmpty()) {
             System.out.println(" Aucun résumé journalier trouvé pour ce couple");
-            return;
+            return 0;
         }
 
         // Écriture du CSV final local
-        writeFinalCSV(srcIP, dstIP, dailyRecords, stats);
+        writeFinalCSV(outputDir, srcIP, dstIP, dailyRecords, stats);
 
         System.out.println("Export terminé avec succès !");
-
-        s3.close();
+        return dailyRecords.size();
     }
 
     // --------------------------------------------------------
@@ -74,126 +204,244 @@ public class ExportClient {
     }
 
     // --------------------------------------------------------
-    // LECTURE DU FICHIER CONSOLIDÉ
+    // LECTURE DE L'ÉTAT CONSOLIDÉ (seul le shard du couple est lu)
     // --------------------------------------------------------
+    // Snapshot du shard lu par plages : son en-tête, puis le seul bloc qui
+    // peut contenir le couple (voir StatsSnapshot). À défaut (shard écrit
+    // avant les snapshots), parcours de la vue CSV entière.
     private static ConsolidatedStats loadConsolidatedStats(
-            S3Client s3, String srcIP, String dstIP) throws IOException {
-
-        GetObjectRequest req = GetObjectRequest.builder()
-                .bucket(BUCKET)
-                .key(CONSOLIDATED_KEY)
-                .build();
+            ObjectStore store, String srcIP, String dstIP) throws IOException {
+
+        int shard = ConsolidatedShards.shardOf(srcIP, dstIP);
+        try {
+            StatsSnapshot.Entry e = StatsSnapshot.lookup(store, ConsolidatedShards.snapshotKey(shard), srcIP, dstIP);
+            return e != null ? toStats(e) : null;
+        } catch (ObjectNotFoundException e) {
+            // Pas encore de snapshot pour ce shard
+        }
 
-        try (InputStream is = s3.getObject(req);
-                Reader reader = new BufferedReader(new InputStreamReader(is));
+        String key = ConsolidatedShards.key(shard);
+        try (InputStream is = Compression.decoding(key, store.open(key, 0));
+                Reader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
                 CSVParser parser = CSVParser.parse(
                         reader,
                         CSVFormat.DEFAULT.builder()
                                 .setHeader()
                                 .setSkipHeaderRecord(true)
+                                .setCommentMarker(ConsolidatedShards.COMMENT_MARKER)
                                 .build());) {
 
             for (CSVRecord r : parser) {
                 if (r.get("SrcIP").equals(srcIP) && r.get("DstIP").equals(dstIP)) {
-                    ConsolidatedStats s = new ConsolidatedStats();
-                    s.count = Long.parseLong(r.get("Count"));
-                    s.avgFD = Double.parseDouble(r.get("AvgFlowDuration"));
-                    s.stdFD = Double.parseDouble(r.get("StdFlowDuration"));
-                    s.avgFP = Double.parseDouble(r.get("AvgFwdPkts"));
-                    s.stdFP = Double.parseDouble(r.get("StdFwdPkts"));
-                    return s;
+                    return parseStats(r);
                 }
             }
+        } catch (ObjectNotFoundException e) {
+            // Aucun couple de ce shard n'a encore été consolidé
         }
         return null;
     }
 
+    /** Reçoit chaque couple consolidé d'un shard. */
+    interface PairStatsConsumer {
+        void accept(String srcIP, String dstIP, ConsolidatedStats stats) throws IOException;
+    }
+
+    // Tous les couples consolidés d'un shard : snapshot entier, ou vue CSV à défaut
+    static void forEachConsolidated(ObjectStore store, int shard, PairStatsConsumer consumer) throws IOException {
+
+        try {
+            forEachConsolidated(store.get(ConsolidatedShards.snapshotKey(shard)), consumer);
+            return;
+        } catch (ObjectNotFoundException e) {
+            // Pas encore de snapshot pour ce shard
+        }
+
+        String key = ConsolidatedShards.key(shard);
+        try {
+            forEachConsolidated(Compression.decode(key, store.get(key)), consumer);
+        } catch (ObjectNotFoundException e) {
+            // Aucun couple de ce shard n'a encore été consolidé
+        }
+    }
+
+    // Couples d'un snapshot, ou d'une vue CSV décompressée
+    static void forEachConsolidated(byte[] data, PairStatsConsumer consumer) throws IOException {
+
+        if (StatsSnapshot.isSnapshot(data)) {
+            StatsSnapshot.View.wrap(data).forEach(e -> consumer.accept(e.src, e.dst, toStats(e)));
+            return;
+        }
+
+        try (Reader reader = new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8);
+                CSVParser parser = CSVParser.parse(
+                        reader,
+                        CSVFormat.DEFAULT.builder()
+                                .setHeader()
+                                .setSkipHeaderRecord(true)
+                                .setCommentMarker(ConsolidatedShards.COMMENT_MARKER)
+                                .build())) {
+
+            for (CSVRecord r : parser) {
+                consumer.accept(r.get("SrcIP"), r.get("DstIP"), parseStats(r));
+            }
+        }
+    }
+
+    static ConsolidatedStats toStats(StatsSnapshot.Entry e) {
+        ConsolidatedStats s = new ConsolidatedStats();
+        s.count = e.count;
+        s.avgFD = e.meanFlowDuration;
+        s.stdFD = e.stdFlowDuration();
+        s.avgFP = e.meanFwdPkts;
+        s.stdFP = e.stdFwdPkts();
+        return s;
+    }
+
+    static ConsolidatedStats parseStats(CSVRecord r) {
+        ConsolidatedStats s = new ConsolidatedStats();
+        s.count = Long.parseLong(r.get("Count"));
+        s.avgFD = Double.parseDouble(r.get("AvgFlowDuration"));
+        s.stdFD = Double.parseDouble(r.get("StdFlowDuration"));
+        s.avgFP = Double.parseDouble(r.get("AvgFwdPkts"));
+        s.stdFP = Double.parseDouble(r.get("StdFwdPkts"));
+        return s;
+    }
+
     // --------------------------------------------------------
     // LECTURE DES FICHIERS SUMMARY
     // --------------------------------------------------------
+    // Les lignes sont rangées par le Consolidator Worker dans
+    // summaries-by-pair/part-NNN/yyyy-MM.bin (ou .csv) : seul le shard du couple est lu.
+    // Les résumés consolidés avant l'existence de ces partitions ne sont
+    // visibles qu'en relisant tous les summaries : --scan-summaries, ou
+    // automatiquement tant que le shard n'est pas marqué complet.
     private static List<DailyRecord> readDailySummaries(
-            S3Client s3, String srcIP, String dstIP) throws IOException {
+            ObjectStore store, String srcIP, String dstIP, boolean scanSummaries) throws IOException {
+
+        int shard = ConsolidatedShards.shardOf(srcIP, dstIP);
+        boolean partitioned = !scanSummaries && store.exists(PairPartitions.completeKey(shard));
+
+        List<String> keys;
+        if (partitioned) {
+            keys = store.list(PairPartitions.shardPrefix(shard));
+        } else {
+            if (!scanSummaries) {
+                System.out.println(INCOMPLETE_PARTITIONS + shard);
+            }
+            System.out.println("Lecture de tous les résumés de " + SUMMARIES_PREFIX);
+            keys = store.list(SUMMARIES_PREFIX);
+        }
 
+        // Plusieurs GET en vol pendant le filtrage du fichier précédent (voir Prefetcher)
         List<DailyRecord> results = new ArrayList<>();
+        Prefetcher.forEach(store, keys, (key, data) -> collectPair(data, srcIP, dstIP, results));
 
-        ListObjectsV2Request listReq = ListObjectsV2Request.builder()
-                .bucket(BUCKET)
-                .prefix(SUMMARIES_PREFIX)
-                .build();
-
-        ListObjectsV2Response listRes = s3.listObjectsV2(listReq);
-
-        for (S3Object obj : listRes.contents()) {
-
-            GetObjectRequest getReq = GetObjectRequest.builder()
-                    .bucket(BUCKET)
-                    .key(obj.key())
-                    .build();
-
-            try (InputStream is = s3.getObject(getReq);
-                    Reader reader = new BufferedReader(new InputStreamReader(is));
-                    CSVParser parser = CSVParser.parse(
-                            reader,
-                            CSVFormat.DEFAULT.builder()
-                                    .setHeader()
-                                    .setSkipHeaderRecord(true)
-                                    .build())) {
-
-                for (CSVRecord r : parser) {
-                    if (r.get("SrcIP").equals(srcIP) && r.get("DstIP").equals(dstIP)) {
-
-                        DailyRecord d = new DailyRecord();
-                        d.date = r.get("Date");
-                        d.totalFlowDuration = Long.parseLong(r.get("TotalFlowDuration"));
-                        d.totalFwdPkts = Long.parseLong(r.get("TotalFwdPkts"));
-                        results.add(d);
-                    }
+        // Tri stable par date (les partitions sont déjà triées, les summaries non)
+        results.sort(Comparator.comparing(d -> d.date));
+        return results;
+    }
+
+    // Lignes du couple dans un fichier résumé ou une partition (binaire ou CSV)
+    static void collectPair(byte[] data, String srcIP, String dstIP, List<DailyRecord> results)
+            throws IOException {
+
+        // Format binaire en colonnes : bornes du pied puis comparaison d'index
+        if (SummaryCodec.isBinary(data)) {
+            if (!SummaryCodec.readFooter(data).mayContain(srcIP, dstIP)) {
+                return;
+            }
+
+            SummaryCodec.Columns c = SummaryCodec.decode(data);
+            int src = c.indexOf(srcIP);
+            int dst = c.indexOf(dstIP);
+            if (src < 0 || dst < 0) {
+                return;
+            }
+
+            for (int i = 0; i < c.size; i++) {
+                if (c.srcs[i] == src && c.dsts[i] == dst) {
+
+                    DailyRecord d = new DailyRecord();
+                    d.date = c.date(i);
+                    d.totalFlowDuration = c.flowDurations[i];
+                    d.totalFwdPkts = c.fwdPkts[i];
+                    results.add(d);
                 }
             }
+            return;
+        }
 
+        try (Reader reader = new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8);
+                CSVParser parser = CSVParser.parse(
+                        reader,
+                        CSVFormat.DEFAULT.builder()
+                                .setHeader()
+                                .setSkipHeaderRecord(true)
+                                .build())) {
+
+            for (CSVRecord r : parser) {
+                if (r.get("SrcIP").equals(srcIP) && r.get("DstIP").equals(dstIP)) {
+
+                    DailyRecord d = new DailyRecord();
+                    d.date = r.get("Date");
+                    d.totalFlowDuration = Long.parseLong(r.get("TotalFlowDuration"));
+                    d.totalFwdPkts = Long.parseLong(r.get("TotalFwdPkts"));
+                    results.add(d);
+                }
+            }
         }
-        return results;
     }
 
     // --------------------------------------------------------
     // ÉCRITURE DU CSV FINAL (LOCAL)
     // --------------------------------------------------------
     private static void writeFinalCSV(
-            String srcIP, String dstIP,
+            Path outputDir, String srcIP, String dstIP,
             List<DailyRecord> daily,
             ConsolidatedStats stats) throws IOException {
 
-        String fileName = "export_" + srcIP + "_" + dstIP + ".csv";
-        Path output = Paths.get(fileName);
-
-        CSVFormat format = CSVFormat.DEFAULT.builder()
-                .setHeader("Date", "SrcIP", "DstIP",
-                        "TotalFlowDuration", "TotalFwdPkts",
-                        "Count",
-                        "AvgFlowDuration", "StdFlowDuration",
-                        "AvgFwdPkts", "StdFwdPkts")
-                .build();
+        String fileName = exportFileName(srcIP, dstIP);
+        Path output = outputDir.resolve(fileName);
 
         try (BufferedWriter writer = Files.newBufferedWriter(output);
 
-                CSVPrinter printer = new CSVPrinter(writer, format)) {
-
-            for (DailyRecord d : daily) {
-                printer.printRecord(
-                        d.date,
-                        srcIP,
-                        dstIP,
-                        d.totalFlowDuration,
-                        d.totalFwdPkts,
-                        stats.count,
-                        stats.avgFD,
-                        stats.stdFD,
-                        stats.avgFP,
-                        stats.stdFP);
-            }
+                CSVPrinter printer = new CSVPrinter(writer, EXPORT_FORMAT)) {
+
+            printRecords(printer, srcIP, dstIP, daily, stats);
         }
 
         System.out.println("Fichier exporté localement : " + fileName);
 
     }
+
+    static final CSVFormat EXPORT_FORMAT = CSVFormat.DEFAULT.builder()
+            .setHeader("Date", "SrcIP", "DstIP",
+                    "TotalFlowDuration", "TotalFwdPkts",
+                    "Count",
+                    "AvgFlowDuration", "StdFlowDuration",
+                    "AvgFwdPkts", "StdFwdPkts")
+            .build();
+
+    static String exportFileName(String srcIP, String dstIP) {
+        return "export_" + srcIP + "_" + dstIP + ".csv";
+    }
+
+    static void printRecords(CSVPrinter printer, String srcIP, String dstIP,
+            List<DailyRecord> daily, ConsolidatedStats stats) throws IOException {
+
+        for (DailyRecord d : daily) {
+            printer.printRecord(
+                    d.date,
+                    srcIP,
+                    dstIP,
+                    d.totalFlowDuration,
+                    d.totalFwdPkts,
+                    stats.count,
+                    stats.avgFD,
+                    stats.stdFD,
+                    stats.avgFP,
+                    stats.stdFP);
+        }
+    }
 }
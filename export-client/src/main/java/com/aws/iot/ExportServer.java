@@ -0,0 +1,571 @@
+package com.aws.iot;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Mode serveur de l'Export Client (--serve) : index en mémoire et requêtes HTTP.
+ *
+ * Au démarrage, les statistiques consolidées des 32 shards et toutes les
+ * lignes journalières de summaries/ sont chargées une fois, rangées par
+ * couple (SrcIP puis DstIP). Toutes les EXPORT_REFRESH_SECONDS secondes
+ * (défaut 30), l'index est mis à jour : seuls les résumés nouveaux ou dont
+ * l'ETag listé a changé sont lus, et leurs lignes remplacent celles de la
+ * version précédente ; les lignes d'un résumé supprimé sont retirées. Un shard
+ * n'est relu que si son ETag a changé (GET conditionnel). Une requête ne lit
+ * donc plus rien dans S3, et ne voit que des séries triées : chaque ligne est
+ * insérée à sa place sous le verrou exclusif.
+ *
+ * Requêtes (GET, sur 127.0.0.1) :
+ * <pre>
+ *   /export?src=&amp;dst=[&amp;from=&amp;to=]  lignes journalières et statistiques du couple,
+ *                                 au format de writeFinalCSV (dates entre from et to)
+ *   /stats?src=&amp;dst=               statistiques consolidées du couple
+ *   /range?from=&amp;to=[&amp;src=]        totaux de chaque couple entre deux dates
+ *   /status                        taille de l'index et dernier rafraîchissement
+ * </pre>
+ * Les dates sont au format yyyy-MM-dd, bornes incluses. Un couple inconnu
+ * renvoie 404, une requête mal formée 400.
+ */
+final class ExportServer {
+
+    static final int DEFAULT_PORT = 8080;
+
+    private static final long REFRESH_SECONDS = Long.parseLong(
+            System.getenv().getOrDefault("EXPORT_REFRESH_SECONDS", "30"));
+
+    private static final String CSV = "text/csv; charset=utf-8";
+    private static final String TEXT = "text/plain; charset=utf-8";
+
+    private static final CSVFormat STATS_FORMAT = CSVFormat.DEFAULT.builder()
+            .setHeader("SrcIP", "DstIP", "Count",
+                    "AvgFlowDuration", "StdFlowDuration",
+                    "AvgFwdPkts", "StdFwdPkts")
+            .build();
+
+    private static final CSVFormat RANGE_FORMAT = CSVFormat.DEFAULT.builder()
+            .setHeader("SrcIP", "DstIP", "Count",
+                    "TotalFlowDuration", "TotalFwdPkts",
+                    "AvgFlowDuration", "AvgFwdPkts")
+            .build();
+
+    // Lignes journalières d'un couple, triées par jour (ordre d'arrivée pour un même jour),
+    // et numéro du résumé d'origine de chaque ligne
+    private static final class DailySeries {
+        final String src;
+        final String dst;
+        int size;
+        int[] days = new int[4];
+        long[] flowDurations = new long[4];
+        long[] fwdPkts = new long[4];
+        int[] summaries = new int[4];
+
+        DailySeries(String src, String dst) {
+            this.src = src;
+            this.dst = dst;
+        }
+
+        // Insérée après les lignes du même jour : les résumés arrivent presque dans
+        // l'ordre des dates, le décalage est rare et court
+        void add(int summary, int day, long flowDuration, long fwdPkt) {
+            if (size == days.length) {
+                days = Arrays.copyOf(days, size * 2);
+                flowDurations = Arrays.copyOf(flowDurations, size * 2);
+                fwdPkts = Arrays.copyOf(fwdPkts, size * 2);
+                summaries = Arrays.copyOf(summaries, size * 2);
+            }
+            int at = size;
+            while (at > 0 && days[at - 1] > day) {
+                at--;
+            }
+            int tail = size - at;
+            System.arraycopy(days, at, days, at + 1, tail);
+            System.arraycopy(flowDurations, at, flowDurations, at + 1, tail);
+            System.arraycopy(fwdPkts, at, fwdPkts, at + 1, tail);
+            System.arraycopy(summaries, at, summaries, at + 1, tail);
+            days[at] = day;
+            flowDurations[at] = flowDuration;
+            fwdPkts[at] = fwdPkt;
+            summaries[at] = summary;
+            size++;
+        }
+
+        // Retire les lignes d'un résumé, sans changer l'ordre des autres ; renvoie leur nombre
+        int remove(int summary) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (summaries[i] != summary) {
+                    days[kept] = days[i];
+                    flowDurations[kept] = flowDurations[i];
+                    fwdPkts[kept] = fwdPkts[i];
+                    summaries[kept] = summaries[i];
+                    kept++;
+                }
+            }
+            int removed = size - kept;
+            size = kept;
+            return removed;
+        }
+
+        // Première ligne du jour from ou après
+        int lowerBound(int from) {
+            int lo = 0;
+            int hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (days[mid] < from) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+
+    // Lignes d'un résumé, décodées hors verrou avant d'entrer dans l'index
+    private static final class SummaryRows {
+        final List<String> srcs = new ArrayList<>();
+        final List<String> dsts = new ArrayList<>();
+        final List<long[]> values = new ArrayList<>(); // jour, FlowDuration, FwdPkts
+
+        void add(String src, String dst, int day, long flowDuration, long fwdPkts) {
+            srcs.add(src);
+            dsts.add(dst);
+            values.add(new long[] { day, flowDuration, fwdPkts });
+        }
+    }
+
+    // Résumé rangé dans l'index : ETag listé, numéro porté par ses lignes et séries touchées
+    private static final class LoadedSummary {
+        final String etag;
+        final int id;
+        final List<DailySeries> series;
+
+        LoadedSummary(String etag, int id, List<DailySeries> series) {
+            this.etag = etag;
+            this.id = id;
+            this.series = series;
+        }
+    }
+
+    private final ObjectStore store;
+
+    // Les requêtes lisent l'index sous le verrou partagé, le rafraîchissement l'écrit
+    // sous le verrou exclusif, le temps d'y ranger ce qu'il a déjà lu et décodé
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Statistiques consolidées : SrcIP -> DstIP -> statistiques, et ETag lu de chaque shard
+    private final List<Map<String, Map<String, ExportClient.ConsolidatedStats>>> stats = new ArrayList<>();
+    private final String[] shardEtags = new String[ConsolidatedShards.COUNT];
+
+    // Lignes journalières : SrcIP -> DstIP -> lignes, et résumés déjà rangés (clé -> résumé)
+    private final Map<String, Map<String, DailySeries>> daily = new HashMap<>();
+    private final Map<String, LoadedSummary> loadedSummaries = new HashMap<>();
+    private int nextSummaryId;
+    private long dailyRows;
+    private volatile long lastRefresh;
+
+    private ExportServer(ObjectStore store) {
+        this.store = store;
+        for (int s = 0; s < ConsolidatedShards.COUNT; s++) {
+            stats.add(new HashMap<>());
+        }
+    }
+
+    /** Charge l'index, puis répond sur 127.0.0.1:port jusqu'à l'arrêt du programme. */
+    static void run(ObjectStore store, int port) throws IOException, InterruptedException {
+        ExportServer server = new ExportServer(store);
+
+        long start = System.nanoTime();
+        server.refresh();
+        System.out.println(String.format("Index chargé en %.1f s : %s",
+                (System.nanoTime() - start) / 1e9, server.status()));
+
+        ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "export-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+        refresher.scheduleWithFixedDelay(() -> {
+            try {
+                server.refresh();
+            } catch (IOException | RuntimeException e) {
+                // L'index précédent reste servi ; nouvel essai au prochain tour
+                System.out.println("ERREUR rafraîchissement : " + e);
+            }
+        }, REFRESH_SECONDS, REFRESH_SECONDS, TimeUnit.SECONDS);
+
+        HttpServer http = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        http.createContext("/export", exchange -> server.handle(exchange, CSV, server::export));
+        http.createContext("/stats", exchange -> server.handle(exchange, CSV, server::stats));
+        http.createContext("/range", exchange -> server.handle(exchange, CSV, server::range));
+        http.createContext("/status", exchange -> server.handle(exchange, TEXT, params -> server.status() + "\n"));
+        http.setExecutor(Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()));
+        http.start();
+        System.out.println("Serveur d'export sur http://127.0.0.1:" + port
+                + " (/export, /stats, /range, /status)");
+
+        new CountDownLatch(1).await();
+    }
+
+    // ------------------------------------------------------------------------
+    // Rafraîchissement de l'index
+    // ------------------------------------------------------------------------
+
+    private void refresh() throws IOException {
+        refreshStats();
+        refreshDaily();
+        lastRefresh = System.currentTimeMillis();
+    }
+
+    // Shards dont l'ETag a changé : snapshot, ou vue CSV pour un shard sans snapshot
+    private void refreshStats() throws IOException {
+        for (int s = 0; s < ConsolidatedShards.COUNT; s++) {
+            ObjectStore.Versioned object;
+            try {
+                object = getShard(s);
+            } catch (ObjectNotFoundException e) {
+                continue; // Shard encore vide
+            }
+            if (object.notModified()) {
+                continue;
+            }
+
+            Map<String, Map<String, ExportClient.ConsolidatedStats>> shard = new HashMap<>();
+            ExportClient.forEachConsolidated(object.data, (src, dst, pairStats) ->
+                    shard.computeIfAbsent(src, k -> new HashMap<>()).put(dst, pairStats));
+
+            lock.writeLock().lock();
+            try {
+                stats.set(s, shard);
+                shardEtags[s] = object.etag;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private ObjectStore.Versioned getShard(int shard) throws IOException {
+        try {
+            return store.getIfNoneMatch(ConsolidatedShards.snapshotKey(shard), shardEtags[shard]);
+        } catch (ObjectNotFoundException e) {
+            // Pas encore de snapshot pour ce shard
+        }
+        String key = ConsolidatedShards.key(shard);
+        ObjectStore.Versioned object = store.getIfNoneMatch(key, shardEtags[shard]);
+        return object.notModified() ? object : new ObjectStore.Versioned(Compression.decode(key, object.data),
+                object.etag);
+    }
+
+    // Résumés nouveaux ou réécrits depuis le dernier tour (ETag de la liste), rangés un par
+    // un (plusieurs GET en vol) ; les lignes des résumés supprimés sont retirées
+    private void refreshDaily() throws IOException {
+        Map<String, String> listed = store.listEtags(ExportClient.SUMMARIES_PREFIX);
+        List<String> keys = new ArrayList<>();
+        for (Map.Entry<String, String> e : listed.entrySet()) {
+            LoadedSummary loaded = loadedSummaries.get(e.getKey());
+            if (loaded == null || !Objects.equals(loaded.etag, e.getValue())) {
+                keys.add(e.getKey());
+            }
+        }
+        List<String> deleted = new ArrayList<>();
+        for (String key : loadedSummaries.keySet()) {
+            if (!listed.containsKey(key)) {
+                deleted.add(key);
+            }
+        }
+
+        // Ancienne version retirée et nouvelle rangée sous le même verrou : une requête
+        // voit l'une ou l'autre, jamais les deux ni aucune
+        Prefetcher.forEach(store, keys, (key, data) -> {
+            SummaryRows rows = decode(data);
+
+            lock.writeLock().lock();
+            try {
+                unload(key);
+                int id = nextSummaryId++;
+                List<DailySeries> touched = new ArrayList<>();
+                for (int i = 0; i < rows.srcs.size(); i++) {
+                    String src = rows.srcs.get(i);
+                    String dst = rows.dsts.get(i);
+                    long[] v = rows.values.get(i);
+                    DailySeries series = daily.computeIfAbsent(src, k -> new HashMap<>())
+                            .computeIfAbsent(dst, k -> new DailySeries(src, dst));
+                    series.add(id, (int) v[0], v[1], v[2]);
+                    if (touched.isEmpty() || touched.get(touched.size() - 1) != series) {
+                        touched.add(series);
+                    }
+                }
+                dailyRows += rows.srcs.size();
+                loadedSummaries.put(key, new LoadedSummary(listed.get(key), id, touched));
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+
+        if (!deleted.isEmpty()) {
+            lock.writeLock().lock();
+            try {
+                deleted.forEach(this::unload);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    // Retire les lignes d'un résumé rangé, et les séries devenues vides (sous le verrou exclusif)
+    private void unload(String key) {
+        LoadedSummary loaded = loadedSummaries.remove(key);
+        if (loaded == null) {
+            return;
+        }
+        for (DailySeries series : loaded.series) {
+            dailyRows -= series.remove(loaded.id);
+            Map<String, DailySeries> bySrc = daily.get(series.src);
+            if (series.size == 0 && bySrc != null && bySrc.remove(series.dst, series) && bySrc.isEmpty()) {
+                daily.remove(series.src);
+            }
+        }
+    }
+
+    // Lignes d'un résumé (binaire ou CSV)
+    private static SummaryRows decode(byte[] data) throws IOException {
+        SummaryRows rows = new SummaryRows();
+
+        if (SummaryCodec.isBinary(data)) {
+            SummaryCodec.Columns c = SummaryCodec.decode(data);
+            for (int i = 0; i < c.size; i++) {
+                rows.add(c.dictionary[c.srcs[i]], c.dictionary[c.dsts[i]], c.days[i],
+                        c.flowDurations[i], c.fwdPkts[i]);
+            }
+            return rows;
+        }
+
+        try (Reader reader = new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8);
+                CSVParser parser = CSVParser.parse(
+                        reader,
+                        CSVFormat.DEFAULT.builder()
+                                .setHeader()
+                                .setSkipHeaderRecord(true)
+                                .build())) {
+
+            for (CSVRecord r : parser) {
+                rows.add(r.get("SrcIP"), r.get("DstIP"), (int) LocalDate.parse(r.get("Date")).toEpochDay(),
+                        Long.parseLong(r.get("TotalFlowDuration")), Long.parseLong(r.get("TotalFwdPkts")));
+            }
+        }
+        return rows;
+    }
+
+    // ------------------------------------------------------------------------
+    // Requêtes
+    // ------------------------------------------------------------------------
+
+    // Réponse d'une requête : corps CSV ou texte
+    @FunctionalInterface
+    private interface Query {
+        String answer(Map<String, String> params) throws IOException;
+    }
+
+    // Paramètre absent ou invalide (400) ; couple inconnu (404)
+    private static final class QueryException extends RuntimeException {
+        final int status;
+
+        QueryException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private void handle(HttpExchange exchange, String contentType, Query query) throws IOException {
+        int status = 200;
+        String body;
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                throw new QueryException(405, "GET uniquement");
+            }
+            lock.readLock().lock();
+            try {
+                body = query.answer(params(exchange.getRequestURI().getRawQuery()));
+            } finally {
+                lock.readLock().unlock();
+            }
+        } catch (QueryException e) {
+            status = e.status;
+            body = e.getMessage() + "\n";
+        } catch (RuntimeException e) {
+            status = 400;
+            body = e.getMessage() + "\n";
+        }
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", status == 200 ? contentType : TEXT);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static Map<String, String> params(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null) {
+            return params;
+        }
+        for (String part : query.split("&")) {
+            int eq = part.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(part.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(part.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    private static String required(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new QueryException(400, "Paramètre manquant : " + name);
+        }
+        return value;
+    }
+
+    // Jour d'un paramètre yyyy-MM-dd, ou absent (valeur par défaut)
+    private static int day(Map<String, String> params, String name, int absent) {
+        String value = params.get(name);
+        return value == null || value.isEmpty() ? absent : (int) LocalDate.parse(value).toEpochDay();
+    }
+
+    private ExportClient.ConsolidatedStats pairStats(String src, String dst) {
+        Map<String, ExportClient.ConsolidatedStats> bySrc = stats.get(ConsolidatedShards.shardOf(src, dst)).get(src);
+        ExportClient.ConsolidatedStats s = bySrc != null ? bySrc.get(dst) : null;
+        if (s == null) {
+            throw new QueryException(404, "Couple non trouvé : " + src + " " + dst);
+        }
+        return s;
+    }
+
+    // Comme ExportClient.export : lignes journalières triées par date et statistiques du couple
+    private String export(Map<String, String> params) throws IOException {
+        String src = required(params, "src");
+        String dst = required(params, "dst");
+        int from = day(params, "from", Integer.MIN_VALUE);
+        int to = day(params, "to", Integer.MAX_VALUE);
+
+        ExportClient.ConsolidatedStats s = pairStats(src, dst);
+        Map<String, DailySeries> bySrc = daily.get(src);
+        DailySeries series = bySrc != null ? bySrc.get(dst) : null;
+
+        List<ExportClient.DailyRecord> records = new ArrayList<>();
+        if (series != null) {
+            for (int i = series.lowerBound(from); i < series.size && series.days[i] <= to; i++) {
+                ExportClient.DailyRecord d = new ExportClient.DailyRecord();
+                d.date = LocalDate.ofEpochDay(series.days[i]).toString();
+                d.totalFlowDuration = series.flowDurations[i];
+                d.totalFwdPkts = series.fwdPkts[i];
+                records.add(d);
+            }
+        }
+        if (records.isEmpty()) {
+            throw new QueryException(404, "Aucun résumé journalier trouvé pour ce couple");
+        }
+
+        StringWriter out = new StringWriter();
+        try (CSVPrinter printer = new CSVPrinter(out, ExportClient.EXPORT_FORMAT)) {
+            ExportClient.printRecords(printer, src, dst, records, s);
+        }
+        return out.toString();
+    }
+
+    private String stats(Map<String, String> params) throws IOException {
+        String src = required(params, "src");
+        String dst = required(params, "dst");
+        ExportClient.ConsolidatedStats s = pairStats(src, dst);
+
+        StringWriter out = new StringWriter();
+        try (CSVPrinter printer = new CSVPrinter(out, STATS_FORMAT)) {
+            printer.printRecord(src, dst, s.count, s.avgFD, s.stdFD, s.avgFP, s.stdFP);
+        }
+        return out.toString();
+    }
+
+    // Totaux de chaque couple (ou des couples de src) sur les jours entre from et to, triés par couple
+    private String range(Map<String, String> params) throws IOException {
+        int from = day(params, "from", Integer.MIN_VALUE);
+        int to = day(params, "to", Integer.MAX_VALUE);
+        String onlySrc = params.get("src");
+
+        Map<String, Map<String, DailySeries>> sources = new TreeMap<>();
+        if (onlySrc != null) {
+            Map<String, DailySeries> bySrc = daily.get(onlySrc);
+            if (bySrc != null) {
+                sources.put(onlySrc, bySrc);
+            }
+        } else {
+            sources.putAll(daily);
+        }
+
+        StringWriter out = new StringWriter();
+        try (CSVPrinter printer = new CSVPrinter(out, RANGE_FORMAT)) {
+            for (Map.Entry<String, Map<String, DailySeries>> bySrc : sources.entrySet()) {
+                for (Map.Entry<String, DailySeries> pair : new TreeMap<>(bySrc.getValue()).entrySet()) {
+                    DailySeries series = pair.getValue();
+                    long count = 0;
+                    long flowDuration = 0;
+                    long fwdPkts = 0;
+                    for (int i = series.lowerBound(from); i < series.size && series.days[i] <= to; i++) {
+                        count++;
+                        flowDuration += series.flowDurations[i];
+                        fwdPkts += series.fwdPkts[i];
+                    }
+                    if (count > 0) {
+                        printer.printRecord(bySrc.getKey(), pair.getKey(), count, flowDuration, fwdPkts,
+                                (double) flowDuration / count, (double) fwdPkts / count);
+                    }
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private String status() {
+        int pairs = 0;
+        for (Map<String, Map<String, ExportClient.ConsolidatedStats>> shard : stats) {
+            for (Map<String, ExportClient.ConsolidatedStats> bySrc : shard.values()) {
+                pairs += bySrc.size();
+            }
+        }
+        return pairs + " couple(s) consolidé(s), " + dailyRows + " ligne(s) journalière(s), "
+                + loadedSummaries.size() + " résumé(s), rafraîchi il y a "
+                + (System.currentTimeMillis() - lastRefresh) / 1000 + " s";
+    }
+}
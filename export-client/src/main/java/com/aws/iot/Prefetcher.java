@@ -0,0 +1,93 @@
+package com.aws.iot;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Lecture d'une liste d'objets avec plusieurs GET en vol.
+ *
+ * Jusqu'à EXPORT_READ_CONCURRENCY objets (défaut 16) sont téléchargés et
+ * décompressés d'avance pendant que l'appelant traite le précédent : la
+ * latence réseau ne s'additionne plus objet par objet. Les objets sont
+ * toujours remis dans l'ordre de la liste, un à la fois, sur le thread
+ * appelant : le traitement n'a pas à être thread-safe et le résultat ne
+ * dépend pas de l'ordre d'arrivée des réponses. Au plus CONCURRENCY objets
+ * sont en mémoire en plus de celui en cours.
+ */
+final class Prefetcher {
+
+    static final int CONCURRENCY = System.getenv("EXPORT_READ_CONCURRENCY") != null
+            ? Math.max(1, Integer.parseInt(System.getenv("EXPORT_READ_CONCURRENCY")))
+            : 16;
+
+    /** Reçoit le contenu décompressé de chaque objet, dans l'ordre des clés. */
+    interface ObjectConsumer {
+        void accept(String key, byte[] data) throws IOException;
+    }
+
+    private Prefetcher() {
+    }
+
+    static void forEach(ObjectStore store, List<String> keys, ObjectConsumer consumer) throws IOException {
+        forEach(store, keys, CONCURRENCY, consumer);
+    }
+
+    static void forEach(ObjectStore store, List<String> keys, int concurrency, ObjectConsumer consumer)
+            throws IOException {
+
+        if (concurrency <= 1 || keys.size() <= 1) {
+            for (String key : keys) {
+                consumer.accept(key, Compression.decode(key, store.get(key)));
+            }
+            return;
+        }
+
+        // Threads démons : une exception de l'appelant ne bloque pas la fin du programme
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(concurrency, keys.size()), r -> {
+            Thread t = new Thread(r, "prefetch");
+            t.setDaemon(true);
+            return t;
+        });
+
+        try {
+            ArrayDeque<Future<byte[]>> inFlight = new ArrayDeque<>();
+            int next = 0;
+            for (String key : keys) {
+                while (next < keys.size() && inFlight.size() < concurrency) {
+                    String k = keys.get(next++);
+                    inFlight.add(pool.submit(() -> Compression.decode(k, store.get(k))));
+                }
+                consumer.accept(key, await(inFlight.poll()));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static byte[] await(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Lecture interrompue", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
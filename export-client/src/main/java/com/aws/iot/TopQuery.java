@@ -0,0 +1,281 @@
+package com.aws.iot;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Les K couples les plus chargés (--top K --by métrique), sur toute la
+ * période ou entre deux dates (--from, --to).
+ *
+ * Sans dates, seuls les shards consolidés sont lus, ligne par ligne : totaux
+ * = moyenne × nombre de jours. Avec des dates, ce sont les partitions par
+ * couple des mois concernés, un shard à la fois : les mois hors période sont
+ * écartés par leur clé, sans être ouverts, et les lignes hors période des mois
+ * lus sont filtrées au décodage. Les shards non marqués complets (voir
+ * PairPartitions) sont servis par une lecture de tout summaries/ : chaque
+ * résumé y est téléchargé et décodé entièrement, ses lignes filtrées une à une
+ * (le pied d'un résumé ne porte que ses couples extrêmes, pas ses dates).
+ * Dans tous les cas les couples passent par un tas de K éléments : la mémoire
+ * ne dépend pas du nombre total de couples.
+ */
+final class TopQuery {
+
+    /** Critère de classement (--by). */
+    enum Metric {
+        FLOW_DURATION("flow-duration"),
+        FWD_PKTS("fwd-pkts"),
+        AVG_FLOW_DURATION("avg-flow-duration"),
+        AVG_FWD_PKTS("avg-fwd-pkts"),
+        COUNT("count");
+
+        final String option;
+
+        Metric(String option) {
+            this.option = option;
+        }
+
+        static Metric parse(String option) {
+            for (Metric m : values()) {
+                if (m.option.equals(option)) {
+                    return m;
+                }
+            }
+            throw new IllegalArgumentException("Critère inconnu : " + option + " (flow-duration, fwd-pkts,"
+                    + " avg-flow-duration, avg-fwd-pkts, count)");
+        }
+    }
+
+    static final CSVFormat FORMAT = CSVFormat.DEFAULT.builder()
+            .setHeader("Rank", "SrcIP", "DstIP", "Count",
+                    "TotalFlowDuration", "TotalFwdPkts",
+                    "AvgFlowDuration", "AvgFwdPkts")
+            .build();
+
+    // Totaux d'un couple sur la période : jours, Flow Duration et Forward Packets
+    static final class PairTotals {
+        final String src;
+        final String dst;
+        long count;
+        long flowDuration;
+        long fwdPkts;
+
+        PairTotals(String src, String dst) {
+            this.src = src;
+            this.dst = dst;
+        }
+
+        double value(Metric metric) {
+            switch (metric) {
+                case FLOW_DURATION:
+                    return flowDuration;
+                case FWD_PKTS:
+                    return fwdPkts;
+                case AVG_FLOW_DURATION:
+                    return count > 0 ? (double) flowDuration / count : 0;
+                case AVG_FWD_PKTS:
+                    return count > 0 ? (double) fwdPkts / count : 0;
+                default:
+                    return count;
+            }
+        }
+    }
+
+    // Les k meilleurs couples : tas dont la tête est le moins bon des retenus
+    private static final class TopK {
+        final int k;
+        final Comparator<PairTotals> ranking;
+        final PriorityQueue<PairTotals> heap;
+
+        TopK(int k, Metric metric) {
+            this.k = k;
+            // Valeur décroissante, puis couple (ordre stable d'une exécution à l'autre)
+            this.ranking = Comparator.comparingDouble((PairTotals p) -> -p.value(metric))
+                    .thenComparing(p -> p.src)
+                    .thenComparing(p -> p.dst);
+            this.heap = new PriorityQueue<>(k + 1, ranking.reversed());
+        }
+
+        void offer(PairTotals p) {
+            if (heap.size() < k) {
+                heap.add(p);
+            } else if (ranking.compare(p, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(p);
+            }
+        }
+
+        List<PairTotals> sorted() {
+            List<PairTotals> top = new ArrayList<>(heap);
+            top.sort(ranking);
+            return top;
+        }
+    }
+
+    private TopQuery() {
+    }
+
+    /**
+     * Écrit dans output les k couples les plus grands selon metric, sur
+     * [from, to] (bornes incluses, null : sans limite). Renvoie le classement.
+     */
+    static List<PairTotals> run(ObjectStore store, int k, Metric metric, LocalDate from, LocalDate to,
+            Path output) throws IOException {
+
+        TopK top = new TopK(k, metric);
+        if (from == null && to == null) {
+            scanConsolidated(store, top);
+        } else {
+            scanRange(store, top, from != null ? (int) from.toEpochDay() : Integer.MIN_VALUE,
+                    to != null ? (int) to.toEpochDay() : Integer.MAX_VALUE);
+        }
+
+        List<PairTotals> ranking = top.sorted();
+        try (CSVPrinter printer = new CSVPrinter(Files.newBufferedWriter(output), FORMAT)) {
+            int rank = 0;
+            for (PairTotals p : ranking) {
+                rank++;
+                printer.printRecord(rank, p.src, p.dst, p.count, p.flowDuration, p.fwdPkts,
+                        p.value(Metric.AVG_FLOW_DURATION), p.value(Metric.AVG_FWD_PKTS));
+                System.out.printf("%3d  %-18s %-18s %s%n", rank, p.src, p.dst, format(p.value(metric)));
+            }
+        }
+
+        System.out.println(ranking.size() + " couple(s) écrit(s) dans " + output);
+        return ranking;
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) ? String.valueOf((long) value) : String.format("%.2f", value);
+    }
+
+    // ------------------------------------------------------------------------
+    // Toute la période : statistiques consolidées
+    // ------------------------------------------------------------------------
+
+    private static void scanConsolidated(ObjectStore store, TopK top) throws IOException {
+
+        for (int s = 0; s < ConsolidatedShards.COUNT; s++) {
+            ExportClient.forEachConsolidated(store, s, (src, dst, stats) -> {
+                PairTotals p = new PairTotals(src, dst);
+                p.count = stats.count;
+                p.flowDuration = Math.round(stats.avgFD * stats.count);
+                p.fwdPkts = Math.round(stats.avgFP * stats.count);
+                top.offer(p);
+            });
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Entre deux dates : partitions des mois concernés
+    // ------------------------------------------------------------------------
+
+    private static void scanRange(ObjectStore store, TopK top, int fromDay, int toDay) throws IOException {
+
+        String fromMonth = fromDay == Integer.MIN_VALUE ? "" : PairRollups.month(LocalDate.ofEpochDay(fromDay));
+        String toMonth = toDay == Integer.MAX_VALUE ? "~" : PairRollups.month(LocalDate.ofEpochDay(toDay));
+
+        boolean[] complete = PairPartitions.completeShards(store);
+        boolean[] unpartitioned = new boolean[ConsolidatedShards.COUNT];
+        List<Integer> incomplete = new ArrayList<>();
+
+        for (int s = 0; s < ConsolidatedShards.COUNT; s++) {
+            if (!complete[s]) {
+                unpartitioned[s] = true;
+                incomplete.add(s);
+                continue;
+            }
+            List<String> keys = store.list(PairPartitions.shardPrefix(s));
+
+            List<String> inRange = new ArrayList<>();
+            for (String key : keys) {
+                String month = PairPartitions.month(key);
+                if (month.compareTo(fromMonth) >= 0 && month.compareTo(toMonth) <= 0) {
+                    inRange.add(key);
+                }
+            }
+
+            // Couples d'un seul shard en mémoire à la fois
+            Map<String, PairTotals> pairs = new HashMap<>();
+            Prefetcher.forEach(store, inRange, (key, data) -> accumulate(data, fromDay, toDay, null, pairs));
+            pairs.values().forEach(top::offer);
+        }
+
+        // Shards non marqués complets (résumés consolidés avant l'existence des partitions)
+        if (!incomplete.isEmpty()) {
+            System.out.println(ExportClient.INCOMPLETE_PARTITIONS + incomplete);
+            System.out.println("Lecture de tous les résumés de " + ExportClient.SUMMARIES_PREFIX);
+            Map<String, PairTotals> pairs = new HashMap<>();
+            Prefetcher.forEach(store, store.list(ExportClient.SUMMARIES_PREFIX),
+                    (key, data) -> accumulate(data, fromDay, toDay, unpartitioned, pairs));
+            pairs.values().forEach(top::offer);
+        }
+    }
+
+    // Ajoute à pairs les lignes datées de [fromDay, toDay] d'un résumé ou d'une partition,
+    // restreintes aux shards marqués dans shards (null : toutes)
+    private static void accumulate(byte[] data, int fromDay, int toDay, boolean[] shards,
+            Map<String, PairTotals> pairs) throws IOException {
+
+        if (SummaryCodec.isBinary(data)) {
+            SummaryCodec.Columns c = SummaryCodec.decode(data);
+
+            for (int i = 0; i < c.size; i++) {
+                int day = c.days[i];
+                if (day < fromDay || day > toDay) {
+                    continue;
+                }
+                String src = c.dictionary[c.srcs[i]];
+                String dst = c.dictionary[c.dsts[i]];
+                add(pairs, shards, src, dst, c.flowDurations[i], c.fwdPkts[i]);
+            }
+            return;
+        }
+
+        try (Reader reader = new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8);
+                CSVParser parser = CSVParser.parse(
+                        reader,
+                        CSVFormat.DEFAULT.builder()
+                                .setHeader()
+                                .setSkipHeaderRecord(true)
+                                .build())) {
+
+            for (CSVRecord r : parser) {
+                int day = (int) LocalDate.parse(r.get("Date")).toEpochDay();
+                if (day < fromDay || day > toDay) {
+                    continue;
+                }
+                add(pairs, shards, r.get("SrcIP"), r.get("DstIP"),
+                        Long.parseLong(r.get("TotalFlowDuration")), Long.parseLong(r.get("TotalFwdPkts")));
+            }
+        }
+    }
+
+    private static void add(Map<String, PairTotals> pairs, boolean[] shards, String src, String dst,
+            long flowDuration, long fwdPkts) {
+
+        if (shards != null && !shards[ConsolidatedShards.shardOf(src, dst)]) {
+            return;
+        }
+        PairTotals p = pairs.computeIfAbsent(src + "," + dst, k -> new PairTotals(src, dst));
+        p.count++;
+        p.flowDuration += flowDuration;
+        p.fwdPkts += fwdPkts;
+    }
+}
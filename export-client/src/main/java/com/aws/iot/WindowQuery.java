@@ -0,0 +1,235 @@
+package com.aws.iot;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * Statistiques par fenêtre de temps (--window), calculées à partir des
+ * agrégats par semaine et par mois tenus par le Consolidator Worker (voir
+ * PairRollups) : ni partition ni résumé n'est relu.
+ *
+ * Fenêtres acceptées (plusieurs séparées par des virgules) :
+ *   2022-01            un mois
+ *   2022-W03           une semaine ISO
+ *   2022-01..2022-03   des mois ou des semaines consécutifs, bornes incluses
+ *   last-4w, last-3m   les N dernières semaines ou N derniers mois, en
+ *                      comptant celui qui contient la date --as-of
+ *   all                tous les mois
+ *
+ * Les semaines ne sont gardées que sur une durée glissante (ROLLUP_WEEKS côté
+ * worker) : une fenêtre de semaines plus anciennes est incomplète, une fenêtre
+ * de mois ne l'est jamais.
+ */
+final class WindowQuery {
+
+    static final CSVFormat FORMAT = CSVFormat.DEFAULT.builder()
+            .setHeader("SrcIP", "DstIP", "Window", "Count",
+                    "AvgFlowDuration", "StdFlowDuration",
+                    "P50FlowDuration", "P95FlowDuration", "P99FlowDuration",
+                    "AvgFwdPkts", "StdFwdPkts",
+                    "P50FwdPkts", "P95FwdPkts", "P99FwdPkts")
+            .build();
+
+    // Une fenêtre : libellé donné par l'utilisateur et périodes qu'elle couvre
+    static final class Window {
+        final String label;
+        final Predicate<String> periods;
+
+        Window(String label, Predicate<String> periods) {
+            this.label = label;
+            this.periods = periods;
+        }
+    }
+
+    private WindowQuery() {
+    }
+
+    // ------------------------------------------------------------------------
+    // Fenêtres
+    // ------------------------------------------------------------------------
+
+    static List<Window> parseWindows(String specs, LocalDate asOf) {
+        List<Window> windows = new ArrayList<>();
+        for (String spec : specs.split(",")) {
+            spec = spec.trim();
+            if (!spec.isEmpty()) {
+                windows.add(parseWindow(spec, asOf));
+            }
+        }
+        if (windows.isEmpty()) {
+            throw new IllegalArgumentException("Aucune fenêtre dans --window " + specs);
+        }
+        return windows;
+    }
+
+    static Window parseWindow(String spec, LocalDate asOf) {
+
+        if (spec.equals("all")) {
+            return new Window(spec, period -> !PairRollups.isWeek(period));
+        }
+
+        if (spec.startsWith("last-") && spec.length() > 6) {
+            int n = Integer.parseInt(spec.substring(5, spec.length() - 1));
+            char unit = spec.charAt(spec.length() - 1);
+            if (n <= 0 || (unit != 'w' && unit != 'm')) {
+                throw new IllegalArgumentException("Fenêtre invalide : " + spec);
+            }
+            String last = unit == 'w' ? PairRollups.week(asOf) : PairRollups.month(asOf);
+            String first = unit == 'w'
+                    ? PairRollups.week(asOf.minusWeeks(n - 1))
+                    : PairRollups.month(asOf.minusMonths(n - 1));
+            return new Window(spec, Set.copyOf(periods(first, last))::contains);
+        }
+
+        int range = spec.indexOf("..");
+        String first = range < 0 ? spec : spec.substring(0, range);
+        String last = range < 0 ? spec : spec.substring(range + 2);
+        return new Window(spec, Set.copyOf(periods(first, last))::contains);
+    }
+
+    // Périodes de first à last incluses, toutes deux des mois ou des semaines
+    private static List<String> periods(String first, String last) {
+        if (PairRollups.isWeek(first) != PairRollups.isWeek(last)) {
+            throw new IllegalArgumentException("Bornes de nature différente : " + first + ".." + last);
+        }
+
+        LocalDate day;
+        LocalDate end;
+        try {
+            day = PairRollups.start(first);
+            end = PairRollups.start(last);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Période invalide : " + first + ".." + last, e);
+        }
+        if (day.isAfter(end)) {
+            throw new IllegalArgumentException("Fenêtre vide : " + first + ".." + last);
+        }
+
+        List<String> periods = new ArrayList<>();
+        boolean weeks = PairRollups.isWeek(first);
+        for (; !day.isAfter(end); day = weeks ? day.plusWeeks(1) : day.plusMonths(1)) {
+            periods.add(weeks ? PairRollups.week(day) : PairRollups.month(day));
+        }
+        return periods;
+    }
+
+    // ------------------------------------------------------------------------
+    // Requête
+    // ------------------------------------------------------------------------
+
+    /**
+     * Écrit dans output une ligne par couple et par fenêtre non vide, pour les
+     * couples donnés (null : tous les couples). Un seul fichier d'agrégats (un
+     * shard) est lu et en mémoire à la fois. Renvoie le nombre de lignes écrites.
+     */
+    static int run(ObjectStore store, List<String[]> requested, List<Window> windows, Path output)
+            throws IOException {
+
+        // Couples demandés par shard, "src,dst" (null : tous les couples du shard)
+        List<Set<String>> wanted = new ArrayList<>();
+        for (int s = 0; s < ConsolidatedShards.COUNT; s++) {
+            wanted.add(requested == null ? null : new HashSet<>());
+        }
+        if (requested != null) {
+            for (String[] pair : requested) {
+                wanted.get(ConsolidatedShards.shardOf(pair[0], pair[1])).add(pair[0] + "," + pair[1]);
+            }
+        }
+
+        int written = 0;
+        try (CSVPrinter printer = new CSVPrinter(Files.newBufferedWriter(output), FORMAT)) {
+
+            for (int s = 0; s < ConsolidatedShards.COUNT; s++) {
+                Set<String> shardWanted = wanted.get(s);
+                if (shardWanted != null && shardWanted.isEmpty()) {
+                    continue;
+                }
+
+                byte[] data;
+                try {
+                    String key = PairRollups.key(s);
+                    data = Compression.decode(key, store.get(key));
+                } catch (ObjectNotFoundException e) {
+                    data = new byte[0];
+                }
+
+                // Couple "src,dst" -> fenêtre -> agrégat fusionné, triés pour la sortie
+                Map<String, Map<Window, Rollup>> merged = new TreeMap<>();
+                try (BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        PairRollups.Entry e = PairRollups.parse(line);
+                        if (e == null) {
+                            continue;
+                        }
+                        String pair = e.src + "," + e.dst;
+                        if (shardWanted != null && !shardWanted.contains(pair)) {
+                            continue;
+                        }
+                        for (Window w : windows) {
+                            if (w.periods.test(e.period)) {
+                                merged.computeIfAbsent(pair, k -> new LinkedHashMap<>())
+                                        .computeIfAbsent(w, k -> new Rollup()).merge(e.rollup);
+                            }
+                        }
+                    }
+                }
+
+                for (Map.Entry<String, Map<Window, Rollup>> pair : merged.entrySet()) {
+                    int comma = pair.getKey().indexOf(',');
+                    for (Window w : windows) {
+                        Rollup r = pair.getValue().get(w);
+                        if (r != null) {
+                            print(printer, pair.getKey().substring(0, comma), pair.getKey().substring(comma + 1),
+                                    w.label, r);
+                            written++;
+                        }
+                    }
+                    if (shardWanted != null) {
+                        shardWanted.remove(pair.getKey());
+                    }
+                }
+
+                if (shardWanted != null) {
+                    for (String pair : shardWanted) {
+                        System.out.println("Couple sans données dans ces fenêtres : " + pair.replace(',', ' '));
+                    }
+                }
+            }
+        }
+
+        System.out.println(written + " lignes écrites dans " + output);
+        return written;
+    }
+
+    private static void print(CSVPrinter printer, String src, String dst, String window, Rollup r)
+            throws IOException {
+        printer.printRecord(src, dst, window, r.count(),
+                r.avgFlowDuration(), r.stdFlowDuration(),
+                r.flowDurationSketch().quantile(0.50),
+                r.flowDurationSketch().quantile(0.95),
+                r.flowDurationSketch().quantile(0.99),
+                r.avgFwdPkts(), r.stdFwdPkts(),
+                r.fwdPktsSketch().quantile(0.50),
+                r.fwdPktsSketch().quantile(0.95),
+                r.fwdPktsSketch().quantile(0.99));
+    }
+}
@@ -13,14 +13,17 @@ resource "aws_s3_bucket" "tf_iot_input" {
 ############################
 # SQS Queues
 ############################
+# Six fois le timeout du summarize worker, comme la queue du consolidator
 resource "aws_sqs_queue" "tf_iot_queue_1" {
   name                      = "iot-queue-1"
-  visibility_timeout_seconds = 30
+  visibility_timeout_seconds = 1800
 }
 
+# Au moins six fois le timeout du consolidator (recommandation AWS) : un lot
+# encore en cours n'est pas redélivré à une autre invocation
 resource "aws_sqs_queue" "tf_iot_queue_2" {
   name                      = "iot-queue-2"
-  visibility_timeout_seconds = 30
+  visibility_timeout_seconds = 1800
 }
 
 ############################
@@ -51,31 +54,89 @@ resource "aws_iam_role_policy_attachment" "tf_lambda_basic_execution" {
 ############################
 # Lambda Functions
 ############################
+# Démarrage à froid : SnapStart restaure un snapshot pris après l'init et le
+# préchauffage (voir Priming) ; il ne s'applique qu'aux versions publiées,
+# d'où publish et les event source mappings sur qualified_arn.
+# TieredStopAtLevel=1 : compilation C1 seule, plus rapide pour des
+# invocations courtes.
+locals {
+  lambda_java_options = "-XX:+TieredCompilation -XX:TieredStopAtLevel=1"
+}
+
+# Les fichiers d'un lot sont résumés en même temps, à ~192 Mo de tas chacun : à
+# 128 Mo, le nombre par défaut retombe à 1. SUMMARIZE_CONCURRENCY suit batch_size
 resource "aws_lambda_function" "tf_summarize_worker" {
   function_name = "summarize-worker"
   role          = aws_iam_role.tf_lambda_role.arn
   handler       = "com.aws.iot.SummarizeWorker::handleRequest" 
   runtime       = "java17"                        
-  filename      = "/home/ilies240/Documents/TP_CLOUD_VF/AWS_Cloud_REPO/summarize-worker/target/summarize-worker-1.0-SNAPSHOT-jar-with-dependencies.jar"
+  filename      = "/home/ilies240/Documents/TP_CLOUD_VF/AWS_Cloud_REPO/summarize-worker/target/summarize-worker-1.0-SNAPSHOT-lambda.jar"
+  publish       = true
+  timeout       = 300
+  memory_size   = 3008
+
+  snap_start {
+    apply_on = "PublishedVersions"
+  }
+
+  environment {
+    variables = {
+      JAVA_TOOL_OPTIONS     = local.lambda_java_options
+      SUMMARIZE_CONCURRENCY = "10"
+    }
+  }
 }
 
+# Un lot de 100 résumés lit et réécrit jusqu'à 32 shards, leurs agrégats et les
+# partitions touchées, avec reprises sur conflit : les 3 s et 128 Mo par défaut
+# n'y suffisent pas (la mémoire fixe aussi la part de vCPU)
 resource "aws_lambda_function" "tf_consolidator_worker" {
   function_name = "consolidator-worker"
   role          = aws_iam_role.tf_lambda_role.arn
   handler       = "com.aws.iot.ConsolidatorWorker::handleRequest"
   runtime       = "java17"
-  filename      = "/home/ilies240/Documents/TP_CLOUD_VF/AWS_Cloud_REPO/consolidator-worker/target/consolidator-worker-1.0-SNAPSHOT-jar-with-dependencies.jar"
+  filename      = "/home/ilies240/Documents/TP_CLOUD_VF/AWS_Cloud_REPO/consolidator-worker/target/consolidator-worker-1.0-SNAPSHOT-lambda.jar"
+  publish       = true
+  timeout       = 300
+  memory_size   = 2048
+
+  snap_start {
+    apply_on = "PublishedVersions"
+  }
+
+  environment {
+    variables = {
+      JAVA_TOOL_OPTIONS = local.lambda_java_options
+    }
+  }
 }
 
 ############################
 # Event source mapping (SQS -> Lambda)
 ############################
+# Les workers renvoient un SQSBatchResponse : seuls les messages en échec
+# reviennent dans la queue. batch_size = 10 est la valeur par défaut de SQS,
+# écrite ici parce que SUMMARIZE_CONCURRENCY du summarize worker doit la suivre :
+# les 10 fichiers d'un lot sont alors résumés en même temps
 resource "aws_lambda_event_source_mapping" "tf_summarize_queue_1" {
-  event_source_arn = aws_sqs_queue.tf_iot_queue_1.arn
-  function_name    = aws_lambda_function.tf_summarize_worker.arn
+  event_source_arn        = aws_sqs_queue.tf_iot_queue_1.arn
+  function_name           = aws_lambda_function.tf_summarize_worker.qualified_arn
+  batch_size              = 10
+  function_response_types = ["ReportBatchItemFailures"]
 }
 
+# Le consolidator lit et écrit chaque shard une seule fois par lot : de gros
+# lots réduisent d'autant les allers-retours S3. Ses écritures sont
+# conditionnelles (ETag) : plusieurs invocations peuvent tourner en parallèle,
+# maximum_concurrency borne seulement les conflits sur les mêmes shards
 resource "aws_lambda_event_source_mapping" "tf_consolidator_queue_2" {
-  event_source_arn = aws_sqs_queue.tf_iot_queue_2.arn
-  function_name    = aws_lambda_function.tf_consolidator_worker.arn
+  event_source_arn                   = aws_sqs_queue.tf_iot_queue_2.arn
+  function_name                      = aws_lambda_function.tf_consolidator_worker.qualified_arn
+  batch_size                         = 100
+  maximum_batching_window_in_seconds = 10
+  function_response_types            = ["ReportBatchItemFailures"]
+
+  scaling_config {
+    maximum_concurrency = 10
+  }
 }
\ No newline at end of file
@@ -0,0 +1,313 @@
+package com.aws.iot;
+
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reprise d'un historique de CSV en local, sans passer par SQS ni Lambda.
+ *
+ * 1. Tous les CSV du dossier sont résumés en parallèle sur tous les cœurs
+ *    (un fichier par thread ; plages parallèles si les fichiers sont moins
+ *    nombreux que les threads), lus par projection mémoire (mmap) plutôt que
+ *    par appels read(). Les résumés sont écrits dans summaries/ comme par le
+ *    Summarize Worker (voir SummaryFiles).
+ * 2. Les résumés sont passés au Consolidator Worker par lots de
+ *    --consolidate-batch : chaque shard, partition et agrégat n'est lu et
+ *    écrit qu'une fois par lot, au lieu d'une fois par message.
+ *
+ * Destination : Backend.fromEnv(), soit le bucket S3, soit un répertoire
+ * avec IOT_BACKEND=local et IOT_LOCAL_DIR. Les résumés et l'état consolidé
+ * ont le format du pipeline, qui peut ensuite reprendre le flux courant.
+ *
+ * Usage : Backfill <dossier de CSV> [--threads N] [--consolidate-batch N] [--verbose]
+ */
+public class Backfill {
+
+    // Projections d'au plus 1 Go (un MappedByteBuffer est indexé par un int)
+    private static final long SEGMENT_BYTES = 1L << 30;
+
+    // ---------------- OPTIONS ----------------
+    private Path input;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int consolidateBatch = AppliedLedger.CAPACITY;
+    private boolean verbose;
+
+    // Métriques du résumé de chaque fichier et de chaque lot consolidé
+    private final SummaryMetricsSink metrics = new SummaryMetricsSink();
+
+    public static void main(String[] args) throws Exception {
+        Backfill backfill = new Backfill();
+        if (!backfill.parse(args)) {
+            System.out.println("Usage: Backfill <csv-dir> [--threads N] [--consolidate-batch N] [--verbose]");
+            return;
+        }
+
+        // S3, ou stockage local avec IOT_BACKEND=local (voir Backend)
+        try (Backend backend = Backend.fromEnv()) {
+            if (!backfill.run(backend)) {
+                System.exit(1);
+            }
+        }
+    }
+
+    private boolean parse(String[] args) {
+        if (args.length == 0 || args[0].startsWith("--")) {
+            return false;
+        }
+        input = Paths.get(args[0]);
+
+        for (int i = 1; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--verbose")) {
+                verbose = true;
+                continue;
+            }
+            if (i + 1 == args.length) {
+                return false;
+            }
+            String value = args[++i];
+            switch (option) {
+                case "--threads" -> threads = Math.max(1, Integer.parseInt(value));
+                case "--consolidate-batch" -> consolidateBatch = Math.max(1, Integer.parseInt(value));
+                default -> {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    // Exécution
+    // ------------------------------------------------------------------------
+
+    // Vrai si tous les fichiers ont été résumés et consolidés
+    private boolean run(Backend backend) throws IOException, InterruptedException {
+
+        File[] csvFiles = input.toFile().listFiles(f -> f.isFile() && App.isFlowCsv(f.getName()));
+        if (csvFiles == null || csvFiles.length == 0) {
+            System.out.println("Aucun fichier CSV dans " + input);
+            return true;
+        }
+        Arrays.sort(csvFiles, Comparator.comparing(File::getName));
+
+        long inputBytes = 0;
+        for (File f : csvFiles) {
+            inputBytes += f.length();
+        }
+        System.out.println("Reprise : " + csvFiles.length + " fichier(s), "
+                + String.format("%.1f", inputBytes / 1e6) + " Mo, " + threads + " thread(s)");
+
+        ObjectStore store = backend.bucket(PipelineConfig.BUCKET);
+
+        // Étape 1 — Résumés, tous les fichiers en parallèle
+        long t0 = System.nanoTime();
+        List<String> summaries = summarizeAll(store, csvFiles);
+        long summarizeNanos = System.nanoTime() - t0;
+
+        // Étape 2 — Consolidation par gros lots
+        long t1 = System.nanoTime();
+        int failed = consolidateAll(backend, summaries);
+        long consolidateNanos = System.nanoTime() - t1;
+
+        report(csvFiles.length, summaries.size(), failed, inputBytes, summarizeNanos, consolidateNanos);
+        return summaries.size() == csvFiles.length && failed == 0;
+    }
+
+    // Résumé de chaque fichier, envoyé dans summaries/ ; renvoie les noms des résumés écrits,
+    // dans l'ordre des fichiers
+    private List<String> summarizeAll(ObjectStore store, File[] csvFiles) throws InterruptedException {
+
+        // Moins de fichiers que de threads : les threads restants découpent les fichiers en plages
+        int parallelism = Math.max(1, threads / csvFiles.length);
+
+        // Mémoire d'agrégation partagée entre les fichiers résumés en même temps
+        int maxGroups = SpillingAggregation.MAX_GROUPS > 0
+                ? Math.max(1, SpillingAggregation.MAX_GROUPS / Math.min(threads, csvFiles.length))
+                : 0;
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, csvFiles.length));
+        List<Future<String>> results = new ArrayList<>();
+        for (File file : csvFiles) {
+            results.add(pool.submit(() -> summarize(store, file.toPath(), parallelism, maxGroups)));
+        }
+        pool.shutdown();
+
+        List<String> summaries = new ArrayList<>();
+        for (int i = 0; i < csvFiles.length; i++) {
+            try {
+                summaries.add(results.get(i).get());
+            } catch (ExecutionException e) {
+                System.out.println("ERREUR résumé de " + csvFiles[i].getName() + " : " + e.getCause());
+            }
+        }
+        return summaries;
+    }
+
+    private String summarize(ObjectStore store, Path file, int parallelism, int maxGroups) throws IOException {
+        Metrics m = new Metrics("backfill");
+        String name = SummaryFiles.name(file.getFileName().toString());
+
+        long start = System.nanoTime();
+        Path summaryFile;
+        try (SpillingAggregation summary = summarizeMapped(file, parallelism, maxGroups)) {
+            m.timeSince("SummarizeTime", start);
+            m.count("Rows", summary.rows());
+
+            start = System.nanoTime();
+            summaryFile = SummaryFiles.write(summary);
+            m.timeSince("WriteTime", start);
+            m.record("PairDays", summary.size(), Metrics.Unit.COUNT);
+        }
+
+        try {
+            m.countBytes("BytesRead", Files.size(file));
+            m.countBytes("SummaryBytes", Files.size(summaryFile));
+
+            start = System.nanoTime();
+            store.put(SummaryFiles.PREFIX + name, summaryFile);
+            m.timeSince("UploadTime", start);
+        } finally {
+            Files.deleteIfExists(summaryFile);
+        }
+
+        metrics.emit(m);
+        return name;
+    }
+
+    // Agrégation d'un CSV projeté en mémoire ; un fichier déjà compressé est lu en un seul flux
+    static SpillingAggregation summarizeMapped(Path file, int parallelism, int maxGroups) throws IOException {
+
+        Compression compression = Compression.ofKey(file.getFileName().toString());
+        if (compression != Compression.NONE) {
+            try (InputStream in = compression.decompress(Files.newInputStream(file))) {
+                return FlowSummarizer.summarize(in, maxGroups);
+            }
+        }
+
+        // Les projections restent valides après la fermeture du canal
+        MappedFile mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            mapped = new MappedFile(channel);
+        }
+        return FlowSummarizer.summarize(mapped.open(0), mapped.size, mapped::open, parallelism, maxGroups);
+    }
+
+    // Résumés passés au Consolidator Worker par lots ; renvoie le nombre de résumés en échec
+    private int consolidateAll(Backend backend, List<String> summaries) {
+        ConsolidatorWorker worker = new ConsolidatorWorker(backend, metrics);
+        LocalContext context = new LocalContext("consolidator-worker", verbose);
+
+        int failed = 0;
+        for (int from = 0; from < summaries.size(); from += consolidateBatch) {
+            List<String> batch = summaries.subList(from, Math.min(summaries.size(), from + consolidateBatch));
+
+            List<SQSEvent.SQSMessage> records = new ArrayList<>();
+            for (String name : batch) {
+                SQSEvent.SQSMessage record = new SQSEvent.SQSMessage();
+                record.setMessageId(name);
+                record.setBody(SummaryFiles.notification(name));
+                records.add(record);
+            }
+            SQSEvent event = new SQSEvent();
+            event.setRecords(records);
+
+            // Un lot en échec est rejoué une fois : le registre des shards écarte ce qui est déjà intégré
+            SQSBatchResponse response = worker.handleRequest(event, context);
+            if (!response.getBatchItemFailures().isEmpty()) {
+                response = worker.handleRequest(event, context);
+            }
+            for (SQSBatchResponse.BatchItemFailure f : response.getBatchItemFailures()) {
+                System.out.println("ERREUR consolidation de " + f.getItemIdentifier());
+                failed++;
+            }
+        }
+        return failed;
+    }
+
+    // ------------------------------------------------------------------------
+    // Rapport
+    // ------------------------------------------------------------------------
+    private void report(int fileCount, int summarized, int failed, long inputBytes,
+            long summarizeNanos, long consolidateNanos) {
+
+        double summarizeSeconds = summarizeNanos / 1e9;
+        double seconds = (summarizeNanos + consolidateNanos) / 1e9;
+
+        System.out.println();
+        System.out.println("==================== REPRISE ====================");
+        System.out.println("Fichiers        : " + fileCount + " (" + (summarized - failed) + " consolidés, "
+                + (fileCount - summarized) + " en échec au résumé, " + failed + " en échec à la consolidation)");
+        System.out.println(String.format("Résumé          : %.2f s (%.1f Mo/s)",
+                summarizeSeconds, inputBytes / 1e6 / summarizeSeconds));
+        System.out.println(String.format("Consolidation   : %.2f s", consolidateNanos / 1e9));
+        System.out.println(String.format("Durée totale    : %.2f s (%.1f Mo/s)", seconds, inputBytes / 1e6 / seconds));
+        System.out.println();
+        System.out.print(metrics.table());
+    }
+
+    // ------------------------------------------------------------------------
+    // Fichier projeté en mémoire, lu par flux à partir de n'importe quelle position
+    // ------------------------------------------------------------------------
+    private static final class MappedFile {
+        final long size;
+        final ByteBuffer[] segments;
+
+        MappedFile(FileChannel channel) throws IOException {
+            size = channel.size();
+            segments = new ByteBuffer[(int) ((size + SEGMENT_BYTES - 1) / SEGMENT_BYTES)];
+            for (int i = 0; i < segments.length; i++) {
+                long from = i * SEGMENT_BYTES;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(SEGMENT_BYTES, size - from));
+            }
+        }
+
+        // Flux à partir de from ; chaque flux a ses propres positions (plages lues en parallèle)
+        InputStream open(long from) {
+            return new InputStream() {
+                int segment = (int) (from / SEGMENT_BYTES);
+                ByteBuffer current = segment < segments.length
+                        ? segments[segment].duplicate().position((int) (from % SEGMENT_BYTES))
+                        : null;
+
+                @Override
+                public int read() {
+                    byte[] one = new byte[1];
+                    return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    while (current != null && !current.hasRemaining()) {
+                        segment++;
+                        current = segment < segments.length ? segments[segment].duplicate() : null;
+                    }
+                    if (current == null) {
+                        return -1;
+                    }
+                    int n = Math.min(len, current.remaining());
+                    current.get(b, off, n);
+                    return n;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.aws.iot;
+
+import java.util.Arrays;
+
+/** Latences d'une étape du pipeline (en nanosecondes) et leurs percentiles. */
+final class Latencies {
+
+    private final String stage;
+    private long[] values = new long[256];
+    private int size;
+
+    Latencies(String stage) {
+        this.stage = stage;
+    }
+
+    synchronized void add(long nanos) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = nanos;
+    }
+
+    synchronized int count() {
+        return size;
+    }
+
+    /** Ligne du rapport : nombre de mesures puis p50, p95, p99 et max en millisecondes. */
+    synchronized String report() {
+        if (size == 0) {
+            return String.format("%-22s %8d", stage, 0);
+        }
+
+        long[] sorted = Arrays.copyOf(values, size);
+        Arrays.sort(sorted);
+
+        return String.format("%-22s %8d %10.1f %10.1f %10.1f %10.1f",
+                stage, size,
+                millis(percentile(sorted, 50)), millis(percentile(sorted, 95)),
+                millis(percentile(sorted, 99)), millis(sorted[size - 1]));
+    }
+
+    private static long percentile(long[] sorted, int p) {
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, rank)];
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    static String header() {
+        return String.format("%-22s %8s %10s %10s %10s %10s", "Étape", "n", "p50 (ms)", "p95 (ms)",
+                "p99 (ms)", "max (ms)");
+    }
+}
@@ -0,0 +1,88 @@
+package com.aws.iot;
+
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import com.amazonaws.services.lambda.runtime.CognitoIdentity;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+
+import java.nio.charset.StandardCharsets;
+
+/** Contexte Lambda minimal pour appeler les handlers hors de Lambda. */
+final class LocalContext implements Context {
+
+    private final String functionName;
+    private final LambdaLogger logger;
+
+    /** verbose : les logs des workers vont sur la sortie d'erreur, sinon ils sont ignorés. */
+    LocalContext(String functionName, boolean verbose) {
+        this.functionName = functionName;
+        this.logger = new LambdaLogger() {
+            @Override
+            public void log(String message) {
+                if (verbose) {
+                    System.err.println("[" + functionName + "] " + message);
+                }
+            }
+
+            @Override
+            public void log(byte[] message) {
+                log(new String(message, StandardCharsets.UTF_8));
+            }
+        };
+    }
+
+    @Override
+    public String getAwsRequestId() {
+        return "local";
+    }
+
+    @Override
+    public String getLogGroupName() {
+        return "local";
+    }
+
+    @Override
+    public String getLogStreamName() {
+        return "local";
+    }
+
+    @Override
+    public String getFunctionName() {
+        return functionName;
+    }
+
+    @Override
+    public String getFunctionVersion() {
+        return "$LATEST";
+    }
+
+    @Override
+    public String getInvokedFunctionArn() {
+        return "local:" + functionName;
+    }
+
+    @Override
+    public CognitoIdentity getIdentity() {
+        return null;
+    }
+
+    @Override
+    public ClientContext getClientContext() {
+        return null;
+    }
+
+    @Override
+    public int getRemainingTimeInMillis() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int getMemoryLimitInMB() {
+        return (int) (Runtime.getRuntime().maxMemory() >> 20);
+    }
+
+    @Override
+    public LambdaLogger getLogger() {
+        return logger;
+    }
+}
@@ -0,0 +1,39 @@
+package com.aws.iot;
+
+/**
+ * Reprise des partitions par couple d'un bucket antérieur à leur existence.
+ *
+ * Les résumés consolidés avant les partitions (summaries-by-pair/) n'y
+ * figurent pas : tant qu'un shard n'est pas marqué complet, l'Export Client
+ * relit tous les résumés de summaries/ pour ses couples. Cette commande range
+ * les lignes de tous les résumés existants dans les partitions, puis marque
+ * tous les shards complets (voir PairPartitions et
+ * ConsolidatorWorker.backfillPartitions). Elle peut être relancée, et tourner
+ * pendant que le pipeline consolide.
+ *
+ * Destination : Backend.fromEnv(), soit le bucket S3, soit un répertoire
+ * avec IOT_BACKEND=local et IOT_LOCAL_DIR.
+ *
+ * Usage : PartitionBackfill [--batch N]
+ */
+public class PartitionBackfill {
+
+    public static void main(String[] args) throws Exception {
+        int batch = AppliedLedger.CAPACITY;
+        if (args.length == 2 && args[0].equals("--batch")) {
+            batch = Math.max(1, Integer.parseInt(args[1]));
+        } else if (args.length != 0) {
+            System.out.println("Usage: PartitionBackfill [--batch N]");
+            return;
+        }
+
+        // S3, ou stockage local avec IOT_BACKEND=local (voir Backend)
+        try (Backend backend = Backend.fromEnv()) {
+            long start = System.nanoTime();
+            int summaries = new ConsolidatorWorker(backend).backfillPartitions(batch, System.out::println);
+            System.out.println(String.format("Partitions reprises : %d résumé(s) en %.2f s,"
+                    + " %d shards marqués complets", summaries, (System.nanoTime() - start) / 1e9,
+                    ConsolidatedShards.COUNT));
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package com.aws.iot;
+
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Fait tourner tout le pipeline sur une machine, sans AWS : Upload Client,
+ * Summarize Worker, Consolidator Worker puis Export Client, reliés par un
+ * LocalBackend (répertoire local + queues en mémoire).
+ *
+ * Les handlers Lambda sont appelés comme par les event source mappings :
+ * lots de messages, messages en échec remis dans la queue jusqu'à
+ * --max-receives réceptions. Le rapport donne le débit de bout en bout, les
+ * percentiles de latence de chaque étape pour chaque fichier et le tableau
+ * des métriques émises par les workers (voir SummaryMetricsSink).
+ *
+ * Usage : PipelineDriver <dossier de CSV> [options] (voir usage()).
+ */
+public class PipelineDriver {
+
+    // Dates d'un fichier dans le pipeline (System.nanoTime())
+    private static class FileTimes {
+        long uploaded;          // notification envoyée au Summarize Worker
+        long summarizeStart;    // lot reçu par le Summarize Worker
+        long summarized;        // notification envoyée au Consolidator
+        long consolidateStart;  // lot reçu par le Consolidator
+        long consolidated;      // lot consolidé
+    }
+
+    // ---------------- OPTIONS ----------------
+    private Path input;
+    private Path workDir = Paths.get("pipeline-run");
+    private int uploadConcurrency = 8;
+    private int summarizeWorkers = 4;
+    private int summarizeBatch = 10;
+    private int consolidatorWorkers = 1;
+    private int consolidatorBatch = 100;
+    private long batchWindowMillis = 1000;
+    private int maxReceives = 3;
+    private int exportPairs = 10;
+    private boolean verbose;
+    private boolean edgeSummarize;      // résumés faits par l'Upload Client (UPLOAD_MODE=summary)
+
+    // ---------------- ÉTAT ----------------
+    private final Map<String, FileTimes> files = new ConcurrentHashMap<>();
+    private final Set<String> done = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger deadLetters = new AtomicInteger();
+    private final AtomicInteger consolidatorBatches = new AtomicInteger();
+    private volatile boolean stopping;
+
+    private final Latencies upload = new Latencies("upload");
+    private final Latencies summarizeWait = new Latencies("queue → summarize");
+    private final Latencies summarize = new Latencies("summarize");
+    private final Latencies consolidateWait = new Latencies("queue → consolidate");
+    private final Latencies consolidate = new Latencies("consolidate");
+    private final Latencies endToEnd = new Latencies("bout en bout");
+    private final Latencies export = new Latencies("export");
+
+    // Métriques des invocations des deux workers
+    private final SummaryMetricsSink metrics = new SummaryMetricsSink();
+
+    public static void main(String[] args) throws Exception {
+        PipelineDriver driver = new PipelineDriver();
+        if (!driver.parse(args)) {
+            usage();
+            return;
+        }
+        driver.run();
+    }
+
+    private static void usage() {
+        System.out.println("Usage: PipelineDriver <csv-dir> [--work-dir DIR] [--upload-concurrency N]"
+                + " [--summarize-workers N] [--summarize-batch N] [--consolidator-workers N]"
+                + " [--consolidator-batch N] [--batch-window-ms N] [--max-receives N]"
+                + " [--export-pairs N] [--edge-summarize] [--verbose]");
+    }
+
+    private boolean parse(String[] args) {
+        if (args.length == 0 || args[0].startsWith("--")) {
+            return false;
+        }
+        input = Paths.get(args[0]);
+
+        for (int i = 1; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--verbose")) {
+                verbose = true;
+                continue;
+            }
+            if (option.equals("--edge-summarize")) {
+                edgeSummarize = true;
+                continue;
+            }
+            if (i + 1 == args.length) {
+                return false;
+            }
+            String value = args[++i];
+            switch (option) {
+                case "--work-dir" -> workDir = Paths.get(value);
+                case "--upload-concurrency" -> uploadConcurrency = Integer.parseInt(value);
+                case "--summarize-workers" -> summarizeWorkers = Integer.parseInt(value);
+                case "--summarize-batch" -> summarizeBatch = Integer.parseInt(value);
+                case "--consolidator-workers" -> consolidatorWorkers = Integer.parseInt(value);
+                case "--consolidator-batch" -> consolidatorBatch = Integer.parseInt(value);
+                case "--batch-window-ms" -> batchWindowMillis = Long.parseLong(value);
+                case "--max-receives" -> maxReceives = Integer.parseInt(value);
+                case "--export-pairs" -> exportPairs = Integer.parseInt(value);
+                default -> {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    // Exécution
+    // ------------------------------------------------------------------------
+    private void run() throws Exception {
+
+        File[] csvFiles = input.toFile().listFiles(f -> f.isFile() && App.isFlowCsv(f.getName()));
+        if (csvFiles == null || csvFiles.length == 0) {
+            System.out.println("Aucun fichier CSV dans " + input);
+            return;
+        }
+        long inputBytes = 0;
+        for (File f : csvFiles) {
+            inputBytes += f.length();
+        }
+
+        // Stockage repartant de zéro à chaque lancement (état consolidé compris)
+        Path storeDir = workDir.resolve("store");
+        deleteRecursively(storeDir);
+        Files.createDirectories(workDir);
+
+        LocalBackend backend = new LocalBackend(storeDir);
+        LocalQueue summarizeQueue = backend.queue(PipelineConfig.SUMMARIZE_QUEUE_URL);
+        LocalQueue consolidatorQueue = backend.queue(PipelineConfig.CONSOLIDATOR_QUEUE_URL);
+
+        SummarizeWorker summarizeWorker = new SummarizeWorker(backend, metrics);
+        ConsolidatorWorker consolidatorWorker = new ConsolidatorWorker(backend, metrics);
+
+        System.out.println("Pipeline local : " + csvFiles.length + " fichier(s), "
+                + String.format("%.1f", inputBytes / 1e6) + " Mo, stockage " + storeDir);
+
+        long t0 = System.nanoTime();
+
+        // Upload Client
+        AtomicInteger uploadFailures = new AtomicInteger();
+        Thread uploader = new Thread(() -> {
+            try {
+                uploadFailures.set(App.upload(input.toFile(), workDir.resolve("upload-manifest"),
+                        PipelineConfig.BUCKET, backend.bucket(PipelineConfig.BUCKET),
+                        edgeSummarize ? consolidatorQueue : summarizeQueue, uploadConcurrency, edgeSummarize));
+            } catch (Exception e) {
+                System.out.println("ERREUR Upload Client : " + e);
+                uploadFailures.set(csvFiles.length);
+            }
+        }, "upload-client");
+        uploader.start();
+
+        // Summarize Worker : summarizeWorkers exécutions en parallèle, comme Lambda
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < summarizeWorkers; i++) {
+            LocalContext context = new LocalContext("summarize-worker", verbose);
+            workers.add(consumer("summarize-" + i, summarizeQueue, summarizeBatch, 0,
+                    event -> summarizeWorker.handleRequest(event, context),
+                    this::summarized));
+        }
+
+        // Consolidator Worker : un seul écrivain par défaut
+        for (int i = 0; i < consolidatorWorkers; i++) {
+            LocalContext context = new LocalContext("consolidator-worker", verbose);
+            workers.add(consumer("consolidator-" + i, consolidatorQueue, consolidatorBatch, batchWindowMillis,
+                    event -> {
+                        consolidatorBatches.incrementAndGet();
+                        return consolidatorWorker.handleRequest(event, context);
+                    },
+                    this::consolidated));
+        }
+
+        // Fin : tous les fichiers notifiés sont consolidés ou abandonnés
+        uploader.join();
+        LocalQueue firstQueue = edgeSummarize ? consolidatorQueue : summarizeQueue;
+        while (done.size() + deadLetters.get() < firstQueue.sent()) {
+            Thread.sleep(50);
+        }
+        long elapsed = System.nanoTime() - t0;
+
+        stopping = true;
+        for (Thread t : workers) {
+            t.join();
+        }
+
+        // Les dates sont notées par plusieurs threads : latences calculées une fois tout terminé
+        for (FileTimes f : files.values()) {
+            if (f.consolidated == 0) {
+                continue;
+            }
+            upload.add(f.uploaded - t0);
+            summarizeWait.add(f.summarizeStart - f.uploaded);
+            summarize.add(f.summarized - f.summarizeStart);
+            consolidateWait.add(f.consolidateStart - f.summarized);
+            consolidate.add(f.consolidated - f.consolidateStart);
+            endToEnd.add(f.consolidated - t0);
+        }
+
+        // Export Client sur quelques couples consolidés
+        runExports(backend.bucket(PipelineConfig.BUCKET));
+
+        report(csvFiles.length, inputBytes, elapsed, uploadFailures.get());
+    }
+
+    // Boucle d'une exécution Lambda : réception d'un lot, handler, remise des échecs
+    private Thread consumer(String name, LocalQueue queue, int batchSize, long windowMillis,
+            Function<SQSEvent, SQSBatchResponse> handler, Consumer<LocalQueue.Message> onSuccess) {
+
+        Thread thread = new Thread(() -> {
+            try {
+                while (!stopping) {
+                    List<LocalQueue.Message> batch = queue.receive(batchSize, 100, windowMillis);
+                    if (batch.isEmpty()) {
+                        continue;
+                    }
+
+                    List<SQSEvent.SQSMessage> records = new ArrayList<>();
+                    for (LocalQueue.Message m : batch) {
+                        SQSEvent.SQSMessage record = new SQSEvent.SQSMessage();
+                        record.setMessageId(m.id());
+                        record.setBody(m.body());
+                        records.add(record);
+                    }
+                    SQSEvent event = new SQSEvent();
+                    event.setRecords(records);
+
+                    // Une exception du handler fait échouer tout le lot, comme dans Lambda
+                    Set<String> failed = new HashSet<>();
+                    try {
+                        for (SQSBatchResponse.BatchItemFailure f : handler.apply(event).getBatchItemFailures()) {
+                            failed.add(f.getItemIdentifier());
+                        }
+                    } catch (RuntimeException e) {
+                        System.out.println("ERREUR " + name + " : " + e);
+                        for (LocalQueue.Message m : batch) {
+                            failed.add(m.id());
+                        }
+                    }
+
+                    for (LocalQueue.Message m : batch) {
+                        if (!failed.contains(m.id())) {
+                            onSuccess.accept(m);
+                        } else if (m.receiveCount() < maxReceives) {
+                            queue.release(m);
+                        } else {
+                            System.out.println("Message abandonné après " + m.receiveCount() + " essais : " + m.body());
+                            deadLetters.incrementAndGet();
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, name);
+
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    // Message {"bucket": "...", "key": "xxx.csv"} traité par le Summarize Worker
+    private void summarized(LocalQueue.Message m) {
+        FileTimes f = times(fileOf(m.body(), "\"key\""));
+        f.uploaded = m.sentNanos();
+        f.summarizeStart = m.receivedNanos();
+    }
+
+    // Message {"summary": "xxx_summary.bin"} traité par le Consolidator Worker
+    private void consolidated(LocalQueue.Message m) {
+        String file = fileOf(m.body(), "\"summary\"");
+        FileTimes f = times(file);
+        if (edgeSummarize) {
+            // Résumé envoyé par l'Upload Client : étape summarize de durée nulle
+            f.uploaded = m.sentNanos();
+            f.summarizeStart = m.sentNanos();
+        }
+        f.summarized = m.sentNanos();
+        f.consolidateStart = m.receivedNanos();
+        f.consolidated = System.nanoTime();
+
+        done.add(file);
+    }
+
+    private FileTimes times(String file) {
+        return files.computeIfAbsent(file, k -> new FileTimes());
+    }
+
+    // Nom du fichier brut sans extension, depuis le message de l'une ou l'autre queue
+    private static String fileOf(String json, String field) {
+        String value = json.substring(json.indexOf(field) + field.length());
+        value = value.substring(value.indexOf('"') + 1);
+        value = Compression.baseKey(value.substring(0, value.indexOf('"')));
+
+        int summary = value.lastIndexOf("_summary");
+        if (summary >= 0) {
+            return value.substring(0, summary);
+        }
+        return value.endsWith(".csv") ? value.substring(0, value.length() - 4) : value;
+    }
+
+    // Premier couple de chaque shard consolidé, jusqu'à exportPairs couples
+    private void runExports(ObjectStore store) throws IOException {
+        Path exportDir = workDir.resolve("exports");
+        Files.createDirectories(exportDir);
+
+        for (String key : store.list(ConsolidatedShards.PREFIX)) {
+            if (export.count() >= exportPairs) {
+                break;
+            }
+
+            String[] lines = new String(Compression.decode(key, store.get(key))).split("\n", 3);
+            if (lines.length < 2 || lines[1].isEmpty() || lines[1].charAt(0) == ConsolidatedShards.COMMENT_MARKER) {
+                continue;
+            }
+            String[] pair = lines[1].split(",");
+
+            long start = System.nanoTime();
+            ExportClient.export(store, pair[0], pair[1], false, exportDir);
+            export.add(System.nanoTime() - start);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Rapport
+    // ------------------------------------------------------------------------
+    private void report(int fileCount, long inputBytes, long elapsedNanos, int uploadFailures) {
+        double seconds = elapsedNanos / 1e9;
+
+        System.out.println();
+        System.out.println("================ PIPELINE LOCAL ================");
+        System.out.println("Fichiers        : " + fileCount + " (" + done.size() + " consolidés, "
+                + uploadFailures + " en échec à l'upload, " + deadLetters.get() + " abandonnés)");
+        System.out.println(String.format("Durée           : %.2f s", seconds));
+        System.out.println(String.format("Débit           : %.2f fichiers/s, %.1f Mo/s",
+                done.size() / seconds, inputBytes / 1e6 / seconds));
+        System.out.println("Lots consolidés : " + consolidatorBatches.get());
+        System.out.println();
+        System.out.println(Latencies.header());
+        for (Latencies l : List.of(upload, summarizeWait, summarize, consolidateWait, consolidate, endToEnd, export)) {
+            System.out.println(l.report());
+        }
+        System.out.println();
+        System.out.print(metrics.table());
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path p : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(p);
+            }
+        }
+    }
+}
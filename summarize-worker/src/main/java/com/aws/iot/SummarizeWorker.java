@@ -2,44 +2,153 @@ package com.aws.iot;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
 import com.amazonaws.services.lambda.runtime.events.SQSEvent;
 
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVParser;
-import org.apache.commons.csv.CSVRecord;
-
-import software.amazon.awssdk.core.ResponseInputStream;
-import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.GetObjectRequest;
-import software.amazon.awssdk.services.s3.model.PutObjectRequest;
-import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
-
-import software.amazon.awssdk.services.sqs.SqsClient;
-import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
-
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
-import java.time.format.DateTimeFormatter;
-import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class SummarizeWorker implements RequestHandler<SQSEvent, SQSBatchResponse> {
+
+    // S3/SQS, ou stockage local (IOT_BACKEND=local, voir Backend)
+    private final Backend backend;
+
+    // Queue du Consolidator (PipelineConfig.CONSOLIDATOR_QUEUE_URL)
+    private final MessageQueue consolidatorQueue;
+
+    // Destination des métriques de chaque invocation (METRICS_SINK, voir MetricsSink)
+    private final MetricsSink metricsSink;
+
+    // Mode d'ingestion : "stream" (défaut, lecture directe du flux S3) ou "file" (copie dans /tmp)
+    private static final boolean STREAMING = !"file".equalsIgnoreCase(System.getenv("INGESTION_MODE"));
+
+    // Nombre de plages résumées en parallèle pour un gros fichier (par défaut : nombre de vCPU)
+    private static final int PARALLELISM = System.getenv("SUMMARIZE_PARALLELISM") != null
+            ? Integer.parseInt(System.getenv("SUMMARIZE_PARALLELISM"))
+            : Runtime.getRuntime().availableProcessors();
+
+    // Mémoire de tas réservée à chaque fichier traité en même temps (tampons des plages,
+    // parseur, table d'agrégation et encodeur du résumé)
+    private static final long FILE_HEAP_BYTES = 192L << 20;
+
+    // Fichiers d'un lot traités en même temps (SUMMARIZE_CONCURRENCY) ; par défaut autant
+    // que le tas en permet à FILE_HEAP_BYTES chacun, entre 1 et 16
+    static final int CONCURRENCY = System.getenv("SUMMARIZE_CONCURRENCY") != null
+            ? Math.max(1, Integer.parseInt(System.getenv("SUMMARIZE_CONCURRENCY")))
+            : (int) Math.max(1, Math.min(16, Runtime.getRuntime().maxMemory() / FILE_HEAP_BYTES));
+
+    // Threads des messages d'un lot, gardés d'une invocation à l'autre ; ils partagent les
+    // clients S3/SQS du backend. Démons : ils ne retiennent pas la fin du programme.
+    private final ExecutorService pool = Executors.newFixedThreadPool(CONCURRENCY, r -> {
+        Thread t = new Thread(r, "summarize-file");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Format et compression des résumés (SUMMARY_FORMAT, SUMMARY_COMPRESSION) : voir
+    // SummaryFiles, partagé avec l'Upload Client. Celle des fichiers bruts se lit dans leur clé.
+
+    // Constructeur utilisé par Lambda
+    public SummarizeWorker() {
+        this(Backend.fromEnv());
+        Priming.register("summarize-worker", this::prime);
+    }
 
-public class SummarizeWorker implements RequestHandler<SQSEvent, Void> {
+    public SummarizeWorker(Backend backend) {
+        this(backend, MetricsSink.fromEnv());
+    }
+
+    public SummarizeWorker(Backend backend, MetricsSink metricsSink) {
+        this.backend = backend;
+        this.consolidatorQueue = backend.queue(PipelineConfig.CONSOLIDATOR_QUEUE_URL);
+        this.metricsSink = metricsSink;
+    }
 
-    private final S3Client s3 = S3Client.builder().build();
-    private final SqsClient sqs = SqsClient.builder().build();
+    // Préchauffage (voir Priming) : clients S3/SQS et chemin CSV → résumé → fichier,
+    // sur quelques lignes fictives, sans accès au bucket ni message envoyé
+    private void prime() throws IOException {
+        backend.warmUp();
 
-    // URL DE LA QUEUE DU CONSOLIDATOR
-    private static final String CONSOLIDATOR_QUEUE_URL = "https://sqs.us-east-1.amazonaws.com/196036494548/iot-queue-2";
+        String key = parseJson("{\"bucket\": \"prime\", \"key\": \"prime.csv\"}").get("key");
+        String csv = "Flow ID,Src IP,Src Port,Dst IP,Dst Port,Protocol,Timestamp,Flow Duration,Tot Fwd Pkts\n"
+                + "f1,192.168.0.1,50000,10.0.0.1,80,6,01/01/2022 10:00:00 AM,1000,10\n"
+                + "f2,192.168.0.1,50001,10.0.0.1,80,6,02/01/2022 03:30:00 PM,2000,20\n";
 
+        try (SpillingAggregation summary = FlowSummarizer.summarize(new ByteArrayInputStream(csv.getBytes()), 0)) {
+            Files.deleteIfExists(SummaryFiles.write(summary));
+        }
+    }
+
+    // Les messages du lot sont traités en même temps, jusqu'à CONCURRENCY à la fois :
+    // les latences S3 de fichiers différents se recouvrent. Chaque fichier réussit ou
+    // échoue seul ; seuls les messages en échec sont renvoyés à SQS (ReportBatchItemFailures).
     @Override
-    public Void handleRequest(SQSEvent event, Context context) {
+    public SQSBatchResponse handleRequest(SQSEvent event, Context context) {
+
+        List<SQSBatchResponse.BatchItemFailure> failures = new ArrayList<>();
+        Metrics metrics = new Metrics("summarize-worker");
+        List<SQSEvent.SQSMessage> records = event.getRecords();
+
+        // Cœurs et mémoire d'agrégation partagés entre les fichiers traités en même temps
+        int files = Math.max(1, Math.min(CONCURRENCY, records.size()));
+        int parallelism = Math.max(1, PARALLELISM / files);
+        int maxGroups = SpillingAggregation.MAX_GROUPS > 0
+                ? Math.max(1, SpillingAggregation.MAX_GROUPS / files)
+                : 0;
+        metrics.record("Concurrency", files, Metrics.Unit.COUNT);
+
+        if (files == 1) {
+            for (SQSEvent.SQSMessage msg : records) {
+                if (!process(msg, context, metrics, parallelism, maxGroups)) {
+                    failures.add(new SQSBatchResponse.BatchItemFailure(msg.getMessageId()));
+                }
+            }
+        } else {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (SQSEvent.SQSMessage msg : records) {
+                results.add(pool.submit(() -> process(msg, context, metrics, parallelism, maxGroups)));
+            }
+            for (int i = 0; i < records.size(); i++) {
+                if (!succeeded(results.get(i), context)) {
+                    failures.add(new SQSBatchResponse.BatchItemFailure(records.get(i).getMessageId()));
+                }
+            }
+        }
 
-        for (SQSEvent.SQSMessage msg : event.getRecords()) {
+        metrics.count("FailedFiles", failures.size());
+        metricsSink.emit(metrics);
 
-            context.getLogger().log(" Message reçu: " + msg.getBody());
+        return new SQSBatchResponse(failures);
+    }
 
+    private static boolean succeeded(Future<Boolean> result, Context context) {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            context.getLogger().log(" ERREUR : " + e.getCause());
+            return false;
+        }
+    }
+
+    // Un message : téléchargement → résumé → upload → suppression → notification ;
+    // false si le fichier est en échec
+    private boolean process(SQSEvent.SQSMessage msg, Context context, Metrics metrics, int parallelism,
+            int maxGroups) {
+
+        context.getLogger().log(" Message reçu: " + msg.getBody());
+        metrics.count("Files", 1);
+
+        try {
             // Le message SQS contient un JSON simple : {"bucket": "...", "key": "..."}
             Map<String, String> info = parseJson(msg.getBody());
             String bucket = info.get("bucket");
@@ -47,37 +156,91 @@ public class SummarizeWorker implements RequestHandler<SQSEvent, Void> {
 
             context.getLogger().log("️ Traitement du fichier: " + key + " du bucket: " + bucket);
 
-            try {
+            ObjectStore store = backend.bucket(bucket);
+            SpillingAggregation summary;
+
+            // Temps d'attente des octets (S3 ou /tmp) séparé du temps d'analyse
+            StreamMeter meter = new StreamMeter();
+            long start;
+
+            if (STREAMING) {
+                // Étapes 1 et 2 — Résumer le CSV directement depuis le flux S3
+                start = System.nanoTime();
+                summary = summarizeFromS3(store, key, meter, parallelism, maxGroups);
+
+                context.getLogger().log("Fichier lu en streaming");
+
+            } else {
                 // Étape 1 — Télécharger le CSV depuis S3
-                Path tempFile = downloadFromS3(bucket, key, context);
+                start = System.nanoTime();
+                Path tempFile = downloadFromS3(store, key, context);
+                metrics.timeSince("DownloadTime", start);
 
                 context.getLogger().log("Fichier téléchargé");
 
                 // Étape 2 — Résumer le CSV
-                Map<String, Summary> summary = summarizeCsv(tempFile);
+                start = System.nanoTime();
+                try {
+                    summary = summarizeCsv(tempFile, parallelism, meter, maxGroups);
+                } finally {
+                    Files.deleteIfExists(tempFile);
+                }
+            }
 
-                // Étape 3 — Générer un fichier résumé
-                Path summaryFile = generateSummaryFile(key, summary);
+            // Étape 3 — Générer un fichier résumé (fusion des runs si la table a été déversée)
+            Path summaryFile;
+            try (summary) {
+                recordSummarize(metrics, summary, meter, System.nanoTime() - start);
 
-                // Étape 4 — Upload du résumé dans S3
-                uploadSummaryToS3(bucket, summaryFile, key);
+                start = System.nanoTime();
+                summaryFile = SummaryFiles.write(summary);
+                metrics.timeSince("WriteTime", start);
+                metrics.countBytes("SummaryBytes", Files.size(summaryFile));
+                metrics.record("PairDays", summary.size(), Metrics.Unit.COUNT);
+            }
 
-                // Étape 5 — Supprimer l'ancien fichier
-                deleteOriginal(bucket, key);
+            // Étape 4 — Upload du résumé dans S3
+            start = System.nanoTime();
+            uploadSummaryToS3(store, summaryFile, key);
+            metrics.timeSince("UploadTime", start);
 
-                // Étape 6 — Notifier le Consolidator Worker
-                sendToConsolidator(key);
+            // Étape 5 — Supprimer l'ancien fichier
+            start = System.nanoTime();
+            store.delete(key);
+            metrics.timeSince("DeleteTime", start);
 
-                // Supprimer les fichiers locaux temporaires
-                Files.deleteIfExists(tempFile);
-                Files.deleteIfExists(summaryFile);
+            // Étape 6 — Notifier le Consolidator Worker
+            start = System.nanoTime();
+            sendToConsolidator(key);
+            metrics.timeSince("NotifyTime", start);
 
-            } catch (Exception e) {
-                context.getLogger().log(" ERREUR : " + e.getMessage());
-            }
+            // Supprimer le fichier local temporaire
+            Files.deleteIfExists(summaryFile);
+            return true;
+
+        } catch (Exception e) {
+            context.getLogger().log(" ERREUR : " + e.getMessage());
+            return false;
         }
+    }
 
-        return null;
+    // Métriques de l'étape de résumé : volume, lignes, débit et déversements éventuels
+    // (couples distincts : seulement sans déversement, ils demanderaient sinon un ensemble non borné)
+    private static void recordSummarize(Metrics metrics, SpillingAggregation summary, StreamMeter meter,
+            long nanos) {
+        metrics.recordNanos("SummarizeTime", nanos);
+        metrics.recordNanos("ReadTime", meter.readNanos());
+        metrics.recordNanos("ParseTime", meter.processNanos());
+        metrics.countBytes("BytesRead", meter.bytes());
+        metrics.count("Rows", summary.rows());
+        metrics.record("RowsPerSecond", nanos > 0 ? summary.rows() * 1e9 / nanos : 0,
+                Metrics.Unit.COUNT_PER_SECOND);
+        if (summary.spilled()) {
+            metrics.count("SpilledRuns", summary.runs());
+            metrics.count("SpilledGroups", summary.spilledGroups());
+        } else {
+            metrics.record("DistinctPairs", summary.table().distinctPairs(), Metrics.Unit.COUNT);
+        }
     }
 
     // Convertir JSON simple {"bucket": "...", "key": "..."} → Map
@@ -91,122 +254,60 @@ public class SummarizeWorker implements RequestHandler<SQSEvent, Void> {
         return map;
     }
 
-    // Télécharger depuis S3
-    private Path downloadFromS3(String bucket, String key, Context context) throws IOException {
+    // Télécharger depuis S3 (décompressé au passage)
+    private Path downloadFromS3(ObjectStore store, String key, Context context) throws IOException {
         Path tempFile = Files.createTempFile("iot_", ".csv");
         context.getLogger().log("Fichier Temp créé: " + tempFile.toString());
 
-        ResponseInputStream<?> s3Object = s3.getObject(GetObjectRequest.builder()
-                .bucket(bucket)
-                .key(key)
-                .build());
-
-        Files.copy(s3Object, tempFile, StandardCopyOption.REPLACE_EXISTING);
-        s3Object.close();
+        try (InputStream in = Compression.decoding(key, store.open(key, 0))) {
+            Files.copy(in, tempFile, StandardCopyOption.REPLACE_EXISTING);
+        }
 
         context.getLogger().log("Fichier téléchargé depuis S3");
         return tempFile;
     }
 
-    // Structure des totaux calculés
-    static class Summary {
-        long totalFlowDuration = 0;
-        long totalFwdPkts = 0;
+    // Résumer le CSV (SrcIP, DstIP, Date) depuis un fichier local, par plages si le fichier est gros
+    // (package-private et statique : mesuré par le module benchmarks)
+    static PairDayTable summarizeCsv(Path csvFile, int parallelism) throws IOException {
+        return summarizeCsv(csvFile, parallelism, new StreamMeter(), 0).table();
     }
 
-    // Résumer le CSV (SrcIP, DstIP, Date)
-    private Map<String, Summary> summarizeCsv(Path csvFile) throws IOException {
-
-        Map<String, Summary> map = new HashMap<>();
-
-        Reader reader = Files.newBufferedReader(csvFile);
-
-        CSVParser parser = CSVParser.parse(
-                reader,
-                CSVFormat.DEFAULT.builder()
-                        .setHeader()
-                        .setSkipHeaderRecord(true)
-                        .build());
-
-        for (CSVRecord record : parser) {
-
-            String src = record.get("Src IP");
-            String dst = record.get("Dst IP");
-
-            long flowDuration = Long.parseLong(record.get("Flow Duration"));
-            long totFwdPkts = Long.parseLong(record.get("Tot Fwd Pkts"));
-
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd/MM/yyyy hh:mm:ss a");
-
-            String timestampStr = record.get("Timestamp");
-            LocalDateTime dateTime = LocalDateTime.parse(timestampStr, formatter);
-            String date = dateTime.toLocalDate().toString();
-
-            String key = date + "_" + src + "_" + dst;
-
-            Summary s = map.getOrDefault(key, new Summary());
-            s.totalFlowDuration += flowDuration;
-            s.totalFwdPkts += totFwdPkts;
-            map.put(key, s);
-        }
-
-        return map;
+    // Au plus maxGroups groupes en mémoire (0 : sans limite), voir SpillingAggregation
+    static SpillingAggregation summarizeCsv(Path csvFile, int parallelism, StreamMeter meter, int maxGroups)
+            throws IOException {
+        return FlowSummarizer.summarize(csvFile, parallelism, meter, maxGroups);
     }
 
-    // Générer le fichier CSV résumé
-    private Path generateSummaryFile(String originalKey, Map<String, Summary> summary) throws IOException {
-
-        // String summaryName = originalKey.replace(".csv", "") + "_summary.csv";
-        Path summaryFile = Files.createTempFile("summary_", ".csv");
-
-        BufferedWriter writer = Files.newBufferedWriter(summaryFile);
-        writer.write("Date,SrcIP,DstIP,TotalFlowDuration,TotalFwdPkts\n");
-
-        for (String k : summary.keySet()) {
-            Summary s = summary.get(k);
-            String[] parts = k.split("_");
-            String date = parts[0];
-            String src = parts[1];
-            String dst = parts[2];
-
-            writer.write(date + "," + src + "," + dst + "," +
-                    s.totalFlowDuration + "," + s.totalFwdPkts + "\n");
+    // Résumer le CSV directement depuis S3 ; un gros objet est lu par GET "Range" parallèles.
+    // Un objet compressé ne se découpe pas en plages : il est décompressé en un seul flux.
+    private SpillingAggregation summarizeFromS3(ObjectStore store, String key, StreamMeter meter, int parallelism,
+            int maxGroups) throws IOException {
+        ObjectStream first = store.open(key, 0);
+        Compression compression = Compression.ofKey(key);
+        if (compression == Compression.NONE) {
+            compression = Compression.ofEncoding(first.contentEncoding());
         }
-
-        writer.close();
-        return summaryFile;
+        if (compression != Compression.NONE) {
+            try (InputStream in = compression.decompress(meter.wrap(first))) {
+                return FlowSummarizer.summarize(in, maxGroups);
+            }
+        }
+        return FlowSummarizer.summarize(
+                meter.wrap(first),
+                first.length(),
+                from -> meter.wrap(store.open(key, from)),
+                parallelism,
+                maxGroups);
     }
 
     // Upload du résumé
-    private void uploadSummaryToS3(String bucket, Path summaryFile, String originalKey) {
-
-        String key = "summaries/" + originalKey.replace(".csv", "_summary.csv");
-
-        s3.putObject(
-                PutObjectRequest.builder()
-                        .bucket(bucket)
-                        .key(key)
-                        .build(),
-                summaryFile);
-    }
-
-    // Supprimer le fichier CSV original
-    private void deleteOriginal(String bucket, String key) {
-        s3.deleteObject(DeleteObjectRequest.builder()
-                .bucket(bucket)
-                .key(key)
-                .build());
+    private void uploadSummaryToS3(ObjectStore store, Path summaryFile, String originalKey) throws IOException {
+        store.put(SummaryFiles.PREFIX + SummaryFiles.name(originalKey), summaryFile);
     }
 
     // Envoi d'un message à consolidator-queue
     private void sendToConsolidator(String originalKey) {
-
-        String json = "{ \"summary\": \"" +
-                originalKey.replace(".csv", "_summary.csv") + "\" }";
-
-        sqs.sendMessage(SendMessageRequest.builder()
-                .queueUrl(CONSOLIDATOR_QUEUE_URL)
-                .messageBody(json)
-                .build());
+        consolidatorQueue.send(SummaryFiles.notification(SummaryFiles.name(originalKey)));
     }
 }
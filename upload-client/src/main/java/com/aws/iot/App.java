@@ -1,22 +1,57 @@
 package com.aws.iot;
 
-import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
-import software.amazon.awssdk.services.s3.model.PutObjectRequest;
-
-import software.amazon.awssdk.services.sqs.SqsClient;
-import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
-
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
 
 public class App {
-    public static void main(String[] args) {
-        // Nom du bucket S3
-        String bucket = "ilies411-iot-traffic-input";
-        String folderPath = "iot-data";
 
-        // URL de la queue
-        String queueUrl = "https://sqs.us-east-1.amazonaws.com/196036494548/iot-queue-1";
+    // Nombre maximal de fichiers envoyés en même temps (1 = un fichier à la fois)
+    private static final int CONCURRENCY = System.getenv("UPLOAD_CONCURRENCY") != null
+            ? Math.max(1, Integer.parseInt(System.getenv("UPLOAD_CONCURRENCY")))
+            : 8;
+
+    // Compression des CSV avant l'envoi (UPLOAD_COMPRESSION : none, gzip ou zstd) : la clé
+    // reçoit le suffixe .gz ou .zst, d'après lequel le Summarize Worker décompresse.
+    // Les fichiers déjà compressés (xxx.csv.gz, xxx.csv.zst) sont envoyés tels quels.
+    private static final Compression COMPRESSION = Compression.fromEnv("UPLOAD_COMPRESSION");
+
+    // Pré-agrégation (UPLOAD_MODE=summary) : chaque CSV est résumé ici, comme par le Summarize
+    // Worker (voir SummaryFiles), et seul le résumé est envoyé, notifié au Consolidator Worker
+    private static final boolean SUMMARIZE = "summary".equalsIgnoreCase(System.getenv("UPLOAD_MODE"));
+
+    // Plages d'un fichier résumées en parallèle (par défaut : tous les cœurs)
+    private static final int PARALLELISM = System.getenv("UPLOAD_SUMMARIZE_PARALLELISM") != null
+            ? Math.max(1, Integer.parseInt(System.getenv("UPLOAD_SUMMARIZE_PARALLELISM")))
+            : Runtime.getRuntime().availableProcessors();
+
+    // Un fichier envoyé (ou en échec) en attente de notification
+    private static class Upload {
+        File file;
+        String key;
+        String message;
+        String checksum;
+        Throwable error;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        // Bucket S3 et URL de la queue : PipelineConfig (variables IOT_BUCKET, SUMMARIZE_QUEUE_URL)
+        String bucket = PipelineConfig.BUCKET;
+        String folderPath = "iot-data";
 
         File folder = new File(folderPath);
 
@@ -25,54 +60,185 @@ public class App {
             return;
         }
 
-        S3Client s3 = S3Client.builder().build();
-        SqsClient sqs = SqsClient.builder().build();
-
-        for (File file : folder.listFiles()) {
-            if (file.isFile() && file.getName().endsWith(".csv")) {
+        // Un manifeste par bucket : changer de bucket renvoie tous les fichiers
+        Path manifest = folder.toPath().resolve(".upload-manifest-" + bucket);
 
-                String key = file.getName();
+        // Résumés pré-agrégés : notifiés directement au Consolidator Worker
+        String queueUrl = SUMMARIZE ? PipelineConfig.CONSOLIDATOR_QUEUE_URL : PipelineConfig.SUMMARIZE_QUEUE_URL;
 
-                try {
-                    s3.headObject(HeadObjectRequest.builder()
-                            .bucket(bucket)
-                            .key(key)
-                            .build());
+        // S3 et SQS, ou stockage local avec IOT_BACKEND=local (voir Backend)
+        try (Backend backend = Backend.fromEnv()) {
+            upload(folder, manifest, bucket, backend.bucket(bucket), backend.queue(queueUrl), CONCURRENCY, SUMMARIZE);
+        }
+    }
 
-                    System.out.println("Fichier déjà présent dans S3 → " + key + " (ignoré)");
-                    continue;
+    /**
+     * Envoie les CSV nouveaux ou modifiés du dossier et notifie le Summarize
+     * Worker ; renvoie le nombre de fichiers en échec (renvoyés au prochain appel).
+     * Avec summarize, envoie leurs résumés dans summaries/ et notifie le
+     * Consolidator Worker (queue doit alors être la sienne).
+     */
+    static int upload(File folder, Path manifestPath, String bucket, ObjectStore store, MessageQueue queue,
+            int concurrency, boolean summarize) throws IOException, InterruptedException {
+
+        File[] files = folder.listFiles(f -> f.isFile() && isFlowCsv(f.getName()));
+        Arrays.sort(files, Comparator.comparing(File::getName));
+
+        UploadManifest manifest = UploadManifest.load(manifestPath);
+
+        // Fichiers envoyés dont la notification n'est pas encore partie
+        Map<String, Upload> uploaded = new HashMap<>();
+        NotificationBatcher notifications = new NotificationBatcher(queue, key -> {
+            Upload u = uploaded.remove(key);
+            manifest.record(u.file, u.checksum);
+        });
+
+        Semaphore slots = new Semaphore(concurrency);
+        BlockingQueue<Upload> done = new LinkedBlockingQueue<>();
+        int submitted = 0;
+        int handled = 0;
+        int uploadFailures = 0;
+
+        // Un fichier résumé à la fois, sur tous les cœurs, pendant l'envoi des résumés précédents
+        ExecutorService summarizer = summarize ? Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "summarize");
+            t.setDaemon(true);
+            return t;
+        }) : null;
+
+        for (File file : files) {
+
+            Compression compression = Compression.ofKey(file.getName()) == Compression.NONE
+                    ? COMPRESSION
+                    : Compression.NONE;
+            String summaryName = SummaryFiles.name(file.getName());
+            String key = summarize ? SummaryFiles.PREFIX + summaryName : compression.key(file.getName());
+
+            String checksum = manifest.changedChecksum(file);
+            if (checksum == null) {
+                System.out.println("Fichier déjà envoyé → " + key + " (ignoré)");
+                continue;
+            }
+            System.out.println("Nouveau fichier détecté : " + key);
+
+            // Au plus concurrency uploads en cours
+            slots.acquire();
+
+            Upload u = new Upload();
+            u.file = file;
+            u.key = key;
+            u.checksum = checksum;
+
+            // Message SQS pour le Summarize Worker, ou pour le Consolidator Worker si déjà résumé
+            u.message = summarize
+                    ? SummaryFiles.notification(summaryName)
+                    : "{ \"bucket\": \"" + bucket + "\", \"key\": \"" + key + "\" }";
+
+            // Résumé ou compression hors du thread principal, dans un fichier temporaire supprimé
+            // après l'envoi
+            CompletableFuture<Path> body = summarize
+                    ? CompletableFuture.supplyAsync(() -> summarize(file.toPath()), summarizer)
+                    : compression == Compression.NONE
+                    ? CompletableFuture.completedFuture(file.toPath())
+                    : CompletableFuture.supplyAsync(() -> compress(file.toPath(), compression));
+
+            body.thenCompose(path -> store.putAsync(key, path)
+                            .whenComplete((response, error) -> {
+                                if (!path.equals(file.toPath())) {
+                                    path.toFile().delete();
+                                }
+                            }))
+                    .whenComplete((response, error) -> {
+                        u.error = error;
+                        done.add(u);
+                        slots.release();
+                    });
+            submitted++;
+
+            // Notifications traitées sur ce thread, au fil des uploads terminés
+            for (Upload d = done.poll(); d != null; d = done.poll()) {
+                uploadFailures += handle(d, uploaded, notifications);
+                handled++;
+            }
+        }
 
-                } catch (Exception ignored) {
-                    System.out.println("Nouveau fichier détecté : " + key);
-                }
+        while (handled < submitted) {
+            uploadFailures += handle(done.take(), uploaded, notifications);
+            handled++;
+        }
+        notifications.flush();
+        if (summarizer != null) {
+            summarizer.shutdown();
+        }
 
-                // Upload du fichier
-                s3.putObject(
-                        PutObjectRequest.builder()
-                                .bucket(bucket)
-                                .key(key)
-                                .build(),
-                        file.toPath());
+        manifest.save();
 
-                System.out.println("Upload terminé : " + key);
+        if (uploadFailures + notifications.failed() > 0) {
+            System.out.println("\n" + uploadFailures + " upload(s) et " + notifications.failed()
+                    + " notification(s) en échec : ces fichiers seront renvoyés au prochain lancement");
+        } else {
+            System.out.println("\nTous les nouveaux fichiers ont été uploadés et envoyés à SQS");
+        }
 
-                // Envoyer un message SQS au Summarize Worker
-                String jsonMessage = "{ \"bucket\": \"" + bucket + "\", \"key\": \"" + key + "\" }";
+        return uploadFailures + notifications.failed();
+    }
 
-                SendMessageRequest sqsRequest = SendMessageRequest.builder()
-                        .queueUrl(queueUrl)
-                        .messageBody(jsonMessage)
-                        .build();
+    /** Fichier de flux à envoyer : xxx.csv, ou déjà compressé (xxx.csv.gz, xxx.csv.zst). */
+    static boolean isFlowCsv(String name) {
+        return Compression.baseKey(name).endsWith(".csv");
+    }
 
-                sqs.sendMessage(sqsRequest);
+    // Résumé d'un CSV de flux (déjà compressé : décompressé en un seul flux), voir SummaryFiles
+    private static Path summarize(Path file) {
+        Compression compression = Compression.ofKey(file.getFileName().toString());
+        try {
+            SpillingAggregation summary;
+            if (compression == Compression.NONE) {
+                summary = FlowSummarizer.summarize(file, PARALLELISM, new StreamMeter(),
+                        SpillingAggregation.MAX_GROUPS);
+            } else {
+                try (InputStream in = compression.decompress(Files.newInputStream(file))) {
+                    summary = FlowSummarizer.summarize(in, SpillingAggregation.MAX_GROUPS);
+                }
+            }
+            try (summary) {
+                return SummaryFiles.write(summary);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
-                System.out.println("Message SQS envoyé pour : " + key);
+    private static Path compress(Path file, Compression compression) {
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile("upload_", compression.suffix);
+            try (InputStream in = Files.newInputStream(file);
+                    OutputStream out = compression.compress(Files.newOutputStream(tmp))) {
+                in.transferTo(out);
             }
+            return tmp;
+        } catch (IOException e) {
+            if (tmp != null) {
+                tmp.toFile().delete();
+            }
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Upload terminé : mise en file de la notification SQS (1 en cas d'échec de l'upload)
+    private static int handle(Upload u, Map<String, Upload> uploaded, NotificationBatcher notifications) {
+
+        if (u.error != null) {
+            System.out.println("Échec de l'upload de " + u.key + " : " + u.error.getMessage());
+            return 1;
         }
 
-        System.out.println("\nTous les nouveaux fichiers ont été uploadés et envoyés à SQS");
+        System.out.println("Upload terminé : " + u.key);
 
-        s3.close();
-        sqs.close();
+        // Messages SQS envoyés par lots
+        uploaded.put(u.key, u);
+        notifications.add(u.key, u.message);
+        return 0;
     }
 }
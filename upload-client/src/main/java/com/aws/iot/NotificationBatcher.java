@@ -0,0 +1,96 @@
+package com.aws.iot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Regroupe les notifications SQS par lots de 10 (SendMessageBatch).
+ *
+ * Les entrées refusées par SQS sont renvoyées une fois ; celles qui échouent
+ * encore ne sont pas signalées à onSent et le fichier correspondant sera
+ * renvoyé au prochain lancement.
+ */
+final class NotificationBatcher {
+
+    private final MessageQueue queue;
+    private final Consumer<String> onSent;
+
+    private final List<String> keys = new ArrayList<>();
+    private final List<String> bodies = new ArrayList<>();
+
+    private int failed;
+
+    /** onSent reçoit la clé S3 de chaque fichier dont la notification est partie. */
+    NotificationBatcher(MessageQueue queue, Consumer<String> onSent) {
+        this.queue = queue;
+        this.onSent = onSent;
+    }
+
+    void add(String key, String body) {
+        keys.add(key);
+        bodies.add(body);
+        if (keys.size() == MessageQueue.MAX_BATCH) {
+            flush();
+        }
+    }
+
+    void flush() {
+        if (keys.isEmpty()) {
+            return;
+        }
+
+        List<Integer> retry = send(indices(keys.size()));
+        if (!retry.isEmpty()) {
+            for (int i : send(retry)) {
+                failed++;
+                System.out.println("Échec de l'envoi du message SQS pour : " + keys.get(i));
+            }
+        }
+
+        keys.clear();
+        bodies.clear();
+    }
+
+    /** Nombre de notifications définitivement en échec. */
+    int failed() {
+        return failed;
+    }
+
+    // Envoie les entrées données, renvoie celles refusées
+    private List<Integer> send(List<Integer> indices) {
+
+        List<String> batch = new ArrayList<>();
+        for (int i : indices) {
+            batch.add(bodies.get(i));
+        }
+
+        List<Integer> refused = new ArrayList<>();
+        try {
+            for (int r : queue.sendBatch(batch)) {
+                refused.add(indices.get(r));
+                System.out.println("Message SQS refusé pour : " + keys.get(indices.get(r)));
+            }
+
+        } catch (RuntimeException e) {
+            System.out.println("Erreur SendMessageBatch : " + e.getMessage());
+            return indices;
+        }
+
+        for (int i : indices) {
+            if (!refused.contains(i)) {
+                onSent.accept(keys.get(i));
+                System.out.println("Message SQS envoyé pour : " + keys.get(i));
+            }
+        }
+        return refused;
+    }
+
+    private static List<Integer> indices(int n) {
+        List<Integer> all = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            all.add(i);
+        }
+        return all;
+    }
+}
@@ -0,0 +1,121 @@
+package com.aws.iot;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Manifeste local des fichiers déjà envoyés (nom, taille, date de modification, SHA-256).
+ *
+ * Remplace l'appel HEAD par fichier : un fichier est ignoré si sa taille et sa
+ * date n'ont pas changé, ou si seule la date a changé mais que le contenu est
+ * identique. Le manifeste reste valable après la suppression des CSV bruts
+ * par le Summarize Worker, contrairement au HEAD.
+ *
+ * Une ligne par fichier : nom, taille, date de modification (ms), SHA-256 en
+ * hexadécimal, séparés par des tabulations.
+ */
+final class UploadManifest {
+
+    private static final class Entry {
+        long size;
+        long lastModified;
+        String checksum;
+    }
+
+    private final Path path;
+    private final Map<String, Entry> entries = new TreeMap<>();
+
+    private UploadManifest(Path path) {
+        this.path = path;
+    }
+
+    static UploadManifest load(Path path) throws IOException {
+        UploadManifest manifest = new UploadManifest(path);
+
+        if (Files.exists(path)) {
+            for (String line : Files.readAllLines(path)) {
+                String[] parts = line.split("\t");
+                if (parts.length != 4) {
+                    continue;
+                }
+                Entry e = new Entry();
+                e.size = Long.parseLong(parts[1]);
+                e.lastModified = Long.parseLong(parts[2]);
+                e.checksum = parts[3];
+                manifest.entries.put(parts[0], e);
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * null si le fichier a déjà été envoyé avec ce contenu, sinon le SHA-256 du
+     * contenu actuel (à passer à record() une fois le fichier envoyé et notifié).
+     */
+    synchronized String changedChecksum(File file) throws IOException {
+        Entry e = entries.get(file.getName());
+
+        if (e != null && e.size == file.length() && e.lastModified == file.lastModified()) {
+            return null;
+        }
+
+        String checksum = sha256(file);
+
+        // Fichier touché mais contenu identique : on garde juste la nouvelle date
+        if (e != null && e.size == file.length() && e.checksum.equals(checksum)) {
+            e.lastModified = file.lastModified();
+            return null;
+        }
+        return checksum;
+    }
+
+    synchronized void record(File file, String checksum) {
+        Entry e = new Entry();
+        e.size = file.length();
+        e.lastModified = file.lastModified();
+        e.checksum = checksum;
+        entries.put(file.getName(), e);
+    }
+
+    /** Réécrit le manifeste (fichier temporaire puis renommage : jamais à moitié écrit). */
+    synchronized void save() throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp)) {
+            for (Map.Entry<String, Entry> en : entries.entrySet()) {
+                Entry e = en.getValue();
+                writer.write(en.getKey() + "\t" + e.size + "\t" + e.lastModified + "\t" + e.checksum + "\n");
+            }
+        }
+
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String sha256(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}